@@ -56,6 +56,16 @@ public class AirConditioner extends Device implements EnergyReporting {
     public void setTargetTemp(double targetTemp) {
         this.targetTemp = targetTemp;
         System.out.println(getName() + " 目标温度设置为: " + targetTemp + "°C");
+        fireStateChanged();
+    }
+
+    /**
+     * 加载数据时设置目标温度，不输出提示信息
+     * @param targetTemp 目标温度值
+     */
+    void restoreTargetTemp(double targetTemp) {
+        this.targetTemp = targetTemp;
+        fireStateChanged();
     }
 
     /**
@@ -64,6 +74,7 @@ public class AirConditioner extends Device implements EnergyReporting {
      */
     public void setCurrTemp(double currTemp) {
         this.currTemp = currTemp;
+        fireStateChanged();
     }
 
     /**
@@ -104,6 +115,40 @@ public class AirConditioner extends Device implements EnergyReporting {
         return true;
     }
 
+    /**
+     * 获取额定功率（构造时传入的值）
+     * @return 额定功率
+     */
+    double getRatedPower() {
+        return power;
+    }
+
+    @Override
+    void writeState(java.io.DataOutput out) throws java.io.IOException {
+        super.writeState(out);
+        out.writeDouble(currTemp);
+        out.writeDouble(targetTemp);
+        out.writeBoolean(powerOn);
+        out.writeLong(lastPowerOnTime);
+    }
+
+    @Override
+    void readState(java.io.DataInput in) throws java.io.IOException {
+        super.readState(in);
+        this.currTemp = in.readDouble();
+        this.targetTemp = in.readDouble();
+        this.powerOn = in.readBoolean();
+        this.lastPowerOnTime = in.readLong();
+    }
+
+    @Override
+    void applySettings(Device source) {
+        AirConditioner other = (AirConditioner) source;
+        this.currTemp = other.currTemp;
+        this.targetTemp = other.targetTemp;
+        fireStateChanged();
+    }
+
     /**
      * 获取指定时间范围内的能耗报告
      * @param startTime 开始时间
@@ -164,9 +209,10 @@ public class AirConditioner extends Device implements EnergyReporting {
 
         // 序列化运行日志
         com.alibaba.fastjson2.JSONArray logsArray = new com.alibaba.fastjson2.JSONArray();
-        for (RunningLog log : getRunningLogs()) {
+        RunningLogCursor log = openLogCursor();
+        while (log.next()) {
             com.alibaba.fastjson2.JSONObject logJson = new com.alibaba.fastjson2.JSONObject();
-            logJson.put("dateTime", log.getDateTime().toString());
+            logJson.put("dateTime", new java.util.Date(log.getTime()).toString());
             logJson.put("event", log.getEvent());
             logJson.put("type", log.getType().name());
             logJson.put("note", log.getNote());
@@ -185,6 +231,7 @@ public class AirConditioner extends Device implements EnergyReporting {
         this.powerOn = json.getBooleanValue("powerStatus");
         this.currTemp = json.getDoubleValue("currTemp");
         this.targetTemp = json.getDoubleValue("targetTemp");
+        fireStateChanged();
 
         // 解析运行日志
         com.alibaba.fastjson2.JSONArray logsArray = json.getJSONArray("runningLog");
@@ -27,6 +27,8 @@ public class AutomationScene {
     
     /**
      * 添加设备动作
+     * 场景注册到系统后的修改（增删动作、改名、改描述）不通知 StateChangeListener，
+     * 变更日志不会单独记录（见 ChangeJournal）
      * @param action 设备动作对象
      */
     public void addAction(DeviceAction action) {
@@ -34,7 +36,7 @@ public class AutomationScene {
     }
     
     /**
-     * 移除设备动作
+     * 移除设备动作，变更日志不会单独记录（见 addAction）
      * @param action 设备动作对象
      * @return 是否移除成功
      */
@@ -85,7 +87,7 @@ public class AutomationScene {
     }
     
     /**
-     * 设置场景名称
+     * 设置场景名称，变更日志不会单独记录（见 addAction）
      * @param name 场景名称
      */
     public void setName(String name) {
@@ -93,7 +95,7 @@ public class AutomationScene {
     }
     
     /**
-     * 设置场景描述
+     * 设置场景描述，变更日志不会单独记录（见 addAction）
      * @param description 场景描述
      */
     public void setDescription(String description) {
@@ -32,7 +32,7 @@ public class BathroomScale extends Device {
         if (bodyMass > 0) {
             this.bodyMass = bodyMass;
             decreaseBatteryLevel(2); // 每次测量消耗2%电量
-            addRunningLog("体重测量", 0, "体重测量值: " + bodyMass + "kg");
+            addRunningLog("体重测量", 0, LogNoteTemplate.BODY_MASS, bodyMass);
         }
     }
     
@@ -43,7 +43,7 @@ public class BathroomScale extends Device {
     private void decreaseBatteryLevel(int amount) {
         batteryLevel = Math.max(0, batteryLevel - amount);
         if (batteryLevel <= 20) {
-            addRunningLog("电池电量低", 1, "电池电量剩余" + batteryLevel + "%");
+            addRunningLog("电池电量低", 1, LogNoteTemplate.BATTERY_LEVEL, batteryLevel);
         }
     }
     
@@ -69,6 +69,7 @@ public class BathroomScale extends Device {
      */
     public void setBatteryLevel(int batteryLevel) {
         this.batteryLevel = Math.max(0, Math.min(100, batteryLevel));
+        fireStateChanged();
     }
 
     /**
@@ -77,6 +78,21 @@ public class BathroomScale extends Device {
      */
     public void setBodyMass(double bodyMass) {
         this.bodyMass = bodyMass;
+        fireStateChanged();
+    }
+
+    @Override
+    void writeState(java.io.DataOutput out) throws java.io.IOException {
+        super.writeState(out);
+        out.writeDouble(bodyMass);
+        out.writeInt(batteryLevel);
+    }
+
+    @Override
+    void readState(java.io.DataInput in) throws java.io.IOException {
+        super.readState(in);
+        this.bodyMass = in.readDouble();
+        this.batteryLevel = in.readInt();
     }
 
     /**
@@ -116,5 +132,6 @@ public class BathroomScale extends Device {
         setOnline(json.getBooleanValue("online"));
         this.bodyMass = json.getDoubleValue("bodyMass");
         this.batteryLevel = json.getIntValue("batteryLevel");
+        fireStateChanged();
     }
 }
\ No newline at end of file
@@ -0,0 +1,306 @@
+package cn.edu.nwpu.homesphere;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * 字节级记录分词器，直接在 UTF-8 编码的 ByteBuffer（通常是内存映射的文件）上解析记录
+ * 语法与 RecordTokenizer 相同；结构字符都是 ASCII，多字节 UTF-8 序列中不会出现这些字节，
+ * 因此可以不解码直接扫描。整数与浮点直接从字节解析，只有读取字符串字段时才解码
+ * 同一个实例可以反复 reset 复用，非线程安全
+ */
+public class ByteRecordTokenizer implements HouseholdRecord {
+    private static final int INITIAL_FIELDS = 16;
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+            1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private ByteBuffer buf;
+    private byte[] scratch = new byte[128];
+    private int typeStart;
+    private int typeEnd;
+    private int fieldCount;
+    private int[] keyStart = new int[INITIAL_FIELDS];
+    private int[] keyEnd = new int[INITIAL_FIELDS];
+    private int[] valueStart = new int[INITIAL_FIELDS];
+    private int[] valueEnd = new int[INITIAL_FIELDS];
+
+    /**
+     * 解析缓冲区中的一条记录，使用绝对下标访问，不改变缓冲区的 position
+     * @param buffer 字节缓冲区
+     * @param start 起始位置（包含）
+     * @param end 结束位置（不包含）
+     * @return 格式正确返回true，否则返回false
+     */
+    public boolean reset(ByteBuffer buffer, int start, int end) {
+        this.buf = buffer;
+        fieldCount = 0;
+        typeStart = typeEnd = start;
+
+        while (start < end && isWhitespace(buf.get(start))) start++;
+        while (end > start && isWhitespace(buf.get(end - 1))) end--;
+
+        int pos = start;
+        while (pos < end && isKeyByte(buf.get(pos))) pos++;
+        if (pos == start || pos >= end || buf.get(pos) != '{' || buf.get(end - 1) != '}') {
+            return false;
+        }
+        typeStart = start;
+        typeEnd = pos;
+
+        int bodyEnd = end - 1;
+        pos++;
+        while (pos < bodyEnd) {
+            byte b = buf.get(pos);
+            if (b == ',' || isWhitespace(b)) {
+                pos++;
+                continue;
+            }
+
+            int ks = pos;
+            while (pos < bodyEnd && isKeyByte(buf.get(pos))) pos++;
+            if (pos == ks || pos >= bodyEnd || buf.get(pos) != '=') {
+                return false;
+            }
+            int ke = pos;
+            pos++;
+
+            int vs;
+            int ve;
+            if (pos < bodyEnd && buf.get(pos) == '\'') {
+                vs = pos + 1;
+                ve = indexOf((byte) '\'', vs, bodyEnd);
+                if (ve < 0) return false;
+                pos = ve + 1;
+            } else {
+                vs = pos;
+                pos = skipPlainValue(pos, bodyEnd);
+                if (pos < 0) return false;
+                ve = pos;
+                while (ve > vs && isWhitespace(buf.get(ve - 1))) ve--;
+            }
+            addField(ks, ke, vs, ve);
+        }
+        return true;
+    }
+
+    private int skipPlainValue(int pos, int end) {
+        int depth = 0;
+        while (pos < end) {
+            byte b = buf.get(pos);
+            if (b == '\'') {
+                int close = indexOf((byte) '\'', pos + 1, end);
+                if (close < 0) return -1;
+                pos = close + 1;
+                continue;
+            }
+            if (b == '[' || b == '{') {
+                depth++;
+            } else if (b == ']' || b == '}') {
+                if (--depth < 0) return -1;
+            } else if (b == ',' && depth == 0) {
+                break;
+            }
+            pos++;
+        }
+        return depth == 0 ? pos : -1;
+    }
+
+    private int indexOf(byte target, int from, int end) {
+        for (int i = from; i < end; i++) {
+            if (buf.get(i) == target) return i;
+        }
+        return -1;
+    }
+
+    private void addField(int ks, int ke, int vs, int ve) {
+        if (fieldCount == keyStart.length) {
+            int newSize = fieldCount * 2;
+            keyStart = Arrays.copyOf(keyStart, newSize);
+            keyEnd = Arrays.copyOf(keyEnd, newSize);
+            valueStart = Arrays.copyOf(valueStart, newSize);
+            valueEnd = Arrays.copyOf(valueEnd, newSize);
+        }
+        keyStart[fieldCount] = ks;
+        keyEnd[fieldCount] = ke;
+        valueStart[fieldCount] = vs;
+        valueEnd[fieldCount] = ve;
+        fieldCount++;
+    }
+
+    private static boolean isKeyByte(byte b) {
+        return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || (b >= '0' && b <= '9') || b == '_';
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\n' || b == '\f';
+    }
+
+    @Override
+    public boolean typeIs(String typeName) {
+        return regionEquals(typeStart, typeEnd, typeName);
+    }
+
+    @Override
+    public String getType() {
+        return decode(typeStart, typeEnd);
+    }
+
+    @Override
+    public int getFieldCount() {
+        return fieldCount;
+    }
+
+    /**
+     * 查找字段的下标
+     * @param key 字段名（ASCII）
+     * @return 字段下标，不存在返回-1
+     */
+    public int indexOfField(String key) {
+        for (int i = 0; i < fieldCount; i++) {
+            if (regionEquals(keyStart[i], keyEnd[i], key)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public boolean hasField(String key) {
+        return indexOfField(key) >= 0;
+    }
+
+    @Override
+    public int getInt(String key) {
+        int i = requireField(key);
+        int pos = valueStart[i];
+        int end = valueEnd[i];
+        boolean negative = false;
+        if (pos < end && (buf.get(pos) == '-' || buf.get(pos) == '+')) {
+            negative = buf.get(pos) == '-';
+            pos++;
+        }
+        if (pos == end) {
+            throw invalidNumber(key, i);
+        }
+        long value = 0;
+        while (pos < end) {
+            byte b = buf.get(pos++);
+            if (b < '0' || b > '9') {
+                throw invalidNumber(key, i);
+            }
+            value = value * 10 + (b - '0');
+            if (value > (long) Integer.MAX_VALUE + 1) {
+                throw invalidNumber(key, i);
+            }
+        }
+        value = negative ? -value : value;
+        if (value > Integer.MAX_VALUE) {
+            throw invalidNumber(key, i);
+        }
+        return (int) value;
+    }
+
+    @Override
+    public double getDouble(String key) {
+        int i = requireField(key);
+        int pos = valueStart[i];
+        int end = valueEnd[i];
+        boolean negative = false;
+        if (pos < end && (buf.get(pos) == '-' || buf.get(pos) == '+')) {
+            negative = buf.get(pos) == '-';
+            pos++;
+        }
+
+        long mantissa = 0;
+        int digits = 0;
+        int fractionDigits = 0;
+        boolean seenDot = false;
+        boolean fast = pos < end;
+        for (int p = pos; p < end && fast; p++) {
+            byte b = buf.get(p);
+            if (b >= '0' && b <= '9') {
+                mantissa = mantissa * 10 + (b - '0');
+                if (mantissa != 0) digits++;
+                if (seenDot) fractionDigits++;
+            } else if (b == '.' && !seenDot) {
+                seenDot = true;
+            } else {
+                fast = false;
+            }
+        }
+
+        // 与 RecordTokenizer 相同：短小数一次除法即可得到正确舍入的结果
+        if (fast && digits <= 15 && fractionDigits < POWERS_OF_TEN.length && end - pos > (seenDot ? 1 : 0)) {
+            double value = mantissa / POWERS_OF_TEN[fractionDigits];
+            return negative ? -value : value;
+        }
+        try {
+            return Double.parseDouble(decode(valueStart[i], valueEnd[i]));
+        } catch (NumberFormatException e) {
+            throw invalidNumber(key, i);
+        }
+    }
+
+    @Override
+    public boolean getBoolean(String key) {
+        int i = indexOfField(key);
+        if (i < 0 || valueEnd[i] - valueStart[i] != 4) {
+            return false;
+        }
+        int p = valueStart[i];
+        return (buf.get(p) | 0x20) == 't'
+                && (buf.get(p + 1) | 0x20) == 'r'
+                && (buf.get(p + 2) | 0x20) == 'u'
+                && (buf.get(p + 3) | 0x20) == 'e';
+    }
+
+    @Override
+    public String getString(String key) {
+        int i = indexOfField(key);
+        if (i < 0) {
+            return "";
+        }
+        return decode(valueStart[i], valueEnd[i]);
+    }
+
+    /**
+     * 把缓冲区中的一段 UTF-8 字节解码为字符串
+     * @param start 起始位置（包含）
+     * @param end 结束位置（不包含）
+     * @return 解码后的字符串
+     */
+    String decode(int start, int end) {
+        int length = end - start;
+        if (scratch.length < length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+        }
+        for (int i = 0; i < length; i++) {
+            scratch[i] = buf.get(start + i);
+        }
+        return new String(scratch, 0, length, StandardCharsets.UTF_8);
+    }
+
+    private int requireField(String key) {
+        int i = indexOfField(key);
+        if (i < 0) {
+            throw new IllegalArgumentException("缺少字段: " + key);
+        }
+        return i;
+    }
+
+    private NumberFormatException invalidNumber(String key, int index) {
+        return new NumberFormatException("字段 " + key + " 的值不是有效数字: " + decode(valueStart[index], valueEnd[index]));
+    }
+
+    private boolean regionEquals(int start, int end, String s) {
+        int length = end - start;
+        if (length != s.length()) return false;
+        for (int i = 0; i < length; i++) {
+            if (buf.get(start + i) != s.charAt(i)) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,942 @@
+package cn.edu.nwpu.homesphere;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * 系统状态变更日志（预写日志）
+ *
+ * 每次状态变更都编码为一条带 CRC 校验的二进制记录追加到当前日志段；后台刷盘线程把两次 fsync
+ * 之间积累的记录成批写入（组提交），因此高频修改时一次 fsync 可以覆盖很多条记录。
+ * 恢复时加载最新快照并按顺序重放其后的日志段；压缩时切换到新的日志段并把当前状态写成新快照，
+ * 快照落盘后删除旧的快照与日志段，使重放时间保持有界。
+ *
+ * 目录布局：snapshot-N.hss 为第 N 代快照，journal-N.log 为该快照之后的变更。
+ * 只记录通过 StateChangeListener 通知的变更：User.setAdmin 与已注册场景的改名、改描述、增删动作
+ * 没有对应的通知，不会单独写入日志，要到下一次压缩写入快照后才持久化（HouseholdFileWatcher 热重载
+ * 做这些修改后会记录整个系统的镜像）。
+ *
+ * 运行日志可以由其他线程并发追加，设备先把日志写入存储再通知日志，二者之间可能发生压缩或记录镜像，
+ * 同一条日志因此既在快照（或镜像、设备记录）中，又有之后的单独记录。为此每条运行日志记录都带有日志
+ * 在设备存储中的绝对位置，快照与设备记录保存截取到的位置（截止位置），恢复后的存储沿用原来的位置编号；
+ * 重放时跳过位置在截止位置之前的运行日志记录，保证每条日志只恢复一次；多个线程的记录顺序可能与位置不同，
+ * 重放时按位置排序后再写入存储。
+ * 与系统其它部分一样，系统对象的修改应在同一线程中进行；刷盘与快照落盘在后台线程完成
+ */
+public class ChangeJournal implements StateChangeListener, Closeable {
+    private static final Logger LOGGER = Logger.getLogger(ChangeJournal.class.getName());
+    private static final Pattern SEGMENT_NAME = Pattern.compile("(snapshot|journal)-(\\d+)\\.(hss|log)");
+
+    /** 默认日志段超过 64MB 时自动压缩 */
+    public static final long DEFAULT_COMPACT_THRESHOLD = 64L << 20;
+
+    static final byte REC_DEVICE_STATE = 1;
+    static final byte REC_RUNNING_LOG = 2;
+    static final byte REC_SYSTEM_IMAGE = 3;
+    static final byte REC_ROOM_ADDED = 4;
+    static final byte REC_ROOM_REMOVED = 5;
+    static final byte REC_ROOM_DEVICE_ADDED = 6;
+    static final byte REC_ROOM_DEVICE_REMOVED = 7;
+    static final byte REC_USER_ADDED = 8;
+    static final byte REC_USER_REMOVED = 9;
+    static final byte REC_SCENE_ADDED = 10;
+    static final byte REC_SCENE_REMOVED = 11;
+    static final byte REC_SYSTEM_USER_ADDED = 12;
+    static final byte REC_SYSTEM_DEVICE_ADDED = 13;
+    static final byte REC_SYSTEM_SCENE_ADDED = 14;
+    static final byte REC_DEVICE_RENAMED = 15;
+
+    private final Path directory;
+    private final long compactThreshold;
+    private HomeSphereSystem system;
+    private long generation;
+    private FileChannel channel;
+    private long segmentBytes;
+
+    private final Object lock = new Object();
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream(1 << 16);
+    private final DataOutputStream pendingOut = new DataOutputStream(pending);
+    private final ByteArrayOutputStream recordBuffer = new ByteArrayOutputStream(256);
+    private final DataOutputStream recordOut = new DataOutputStream(recordBuffer);
+    private final CRC32 crc = new CRC32();
+    private long appendedSequence;
+    private long durableSequence;
+    private long batchCount;
+    private IOException flushError;
+    private boolean closed;
+    private boolean compacting;
+    private Thread flusher;
+    private final ExecutorService compactor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "journal-compactor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private ChangeJournal(Path directory, long compactThreshold) {
+        this.directory = directory;
+        this.compactThreshold = compactThreshold;
+    }
+
+    /**
+     * 打开（或新建）日志目录，使用默认压缩阈值
+     * @param directory 日志目录
+     * @return 已完成恢复的变更日志
+     */
+    public static ChangeJournal open(Path directory) throws IOException {
+        return open(directory, DEFAULT_COMPACT_THRESHOLD);
+    }
+
+    /**
+     * 打开（或新建）日志目录：加载最新快照，重放其后的日志段，然后开始记录新的变更
+     * @param directory 日志目录
+     * @param compactThreshold 当前日志段超过该字节数时自动压缩
+     * @return 已完成恢复的变更日志
+     */
+    public static ChangeJournal open(Path directory, long compactThreshold) throws IOException {
+        ChangeJournal journal = new ChangeJournal(directory, compactThreshold);
+        journal.recover();
+        journal.flusher = new Thread(journal::flushLoop, "journal-flusher");
+        journal.flusher.setDaemon(true);
+        journal.flusher.start();
+        journal.system.setStateChangeListener(journal);
+        return journal;
+    }
+
+    /**
+     * 获取恢复出的系统对象，之后对它的修改都会被记录
+     * @return 系统对象
+     */
+    public HomeSphereSystem getSystem() {
+        return system;
+    }
+
+    /**
+     * 获取当前日志段的代号
+     * @return 代号
+     */
+    public long getGeneration() {
+        synchronized (lock) {
+            return generation;
+        }
+    }
+
+    /**
+     * 获取已追加的记录数
+     * @return 记录序号
+     */
+    public long getAppendedSequence() {
+        synchronized (lock) {
+            return appendedSequence;
+        }
+    }
+
+    /**
+     * 获取已刷盘的批次数，用于观察组提交效果
+     * @return 批次数
+     */
+    public long getBatchCount() {
+        synchronized (lock) {
+            return batchCount;
+        }
+    }
+
+    /**
+     * 等待指定序号之前的记录全部落盘
+     * @param sequence 记录序号
+     */
+    public void awaitDurable(long sequence) throws IOException {
+        synchronized (lock) {
+            while (durableSequence < sequence && flushError == null) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("等待日志落盘时被中断");
+                }
+            }
+            if (flushError != null) {
+                throw new IOException("变更日志写入失败", flushError);
+            }
+        }
+    }
+
+    /**
+     * 等待目前为止追加的所有记录落盘
+     */
+    public void sync() throws IOException {
+        awaitDurable(getAppendedSequence());
+    }
+
+    /**
+     * 压缩：切换到新的日志段并截取当前状态，快照在后台写入，完成后删除旧的快照与日志段
+     * 锁内只切换日志段并为各设备打开日志游标，截取此刻已写入存储的日志；已写入存储但记录落在
+     * 新日志段中的日志按截止位置在重放时跳过。设备状态与对象关系在锁外写入，运行日志由压缩线程通过游标读取
+     * 需要在修改系统的线程中调用；上一次压缩尚未完成时直接返回
+     */
+    public void compact() throws IOException {
+        long newGeneration;
+        HomeSphereSnapshot.Writer image = new HomeSphereSnapshot.Writer(system, true);
+        synchronized (lock) {
+            if (closed || compacting) {
+                return;
+            }
+            waitDrained();
+            channel.close();
+            newGeneration = generation + 1;
+            channel = openSegment(newGeneration);
+            generation = newGeneration;
+            segmentBytes = 0;
+            image.capture();
+            compacting = true;
+        }
+        try {
+            image.writeState();
+        } catch (IOException | RuntimeException e) {
+            synchronized (lock) {
+                compacting = false;
+            }
+            throw e;
+        }
+        compactor.execute(() -> writeSnapshot(newGeneration, image));
+    }
+
+    /**
+     * 刷盘并关闭日志，等待正在进行的压缩完成
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            waitDrained();
+            closed = true;
+            lock.notifyAll();
+        }
+        system.setStateChangeListener(null);
+        try {
+            flusher.join();
+            compactor.shutdown();
+            compactor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (lock) {
+            channel.close();
+            if (flushError != null) {
+                throw new IOException("变更日志写入失败", flushError);
+            }
+        }
+    }
+
+    // ---------------- 恢复 ----------------
+
+    private void recover() throws IOException {
+        Files.createDirectories(directory);
+        TreeSet<Long> snapshots = new TreeSet<>();
+        TreeSet<Long> segments = new TreeSet<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path path : stream) {
+                Matcher m = SEGMENT_NAME.matcher(path.getFileName().toString());
+                if (m.matches()) {
+                    (m.group(1).equals("snapshot") ? snapshots : segments).add(Long.parseLong(m.group(2)));
+                }
+            }
+        }
+
+        long base = snapshots.isEmpty() ? 0 : snapshots.last();
+        system = snapshots.isEmpty() ? new HomeSphereSystem() : HomeSphereSnapshot.load(snapshotPath(base));
+
+        // 压缩在切换日志段之后、快照落盘之前中断时，会留下多个需要重放的日志段
+        Replayer replayer = new Replayer(system);
+        NavigableSet<Long> tail = segments.tailSet(base, true);
+        long last = tail.isEmpty() ? base : tail.last();
+        long validLength = 0;
+        for (long gen : tail) {
+            validLength = replay(replayer, segmentPath(gen), gen == last);
+        }
+        replayer.flushLogs();
+        system = replayer.system;
+
+        generation = last;
+        channel = openSegment(last);
+        channel.truncate(validLength);
+        channel.position(validLength);
+        segmentBytes = validLength;
+    }
+
+    /**
+     * 重放一个日志段
+     * @return 有效记录的结束位置；最后一个日志段末尾的残缺记录会被丢弃
+     */
+    private long replay(Replayer replayer, Path segment, boolean lastSegment) throws IOException {
+        byte[] data = Files.readAllBytes(segment);
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        int pos = 0;
+        int count = 0;
+        while (pos + 8 <= data.length) {
+            int length = buffer.getInt(pos);
+            int checksum = buffer.getInt(pos + 4);
+            if (length <= 0 || pos + 8 + length > data.length) {
+                break;
+            }
+            crc.reset();
+            crc.update(data, pos + 8, length);
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            replayer.apply(new DataInputStream(new ByteArrayInputStream(data, pos + 8, length)));
+            pos += 8 + length;
+            count++;
+        }
+        if (pos < data.length) {
+            if (!lastSegment) {
+                throw new IOException("日志段损坏: " + segment.getFileName() + " 偏移 " + pos);
+            }
+            LOGGER.warning("丢弃日志段末尾的残缺记录: " + segment.getFileName() + " 偏移 " + pos);
+        }
+        LOGGER.info("重放日志段 " + segment.getFileName() + ": " + count + " 条记录");
+        return pos;
+    }
+
+    // ---------------- 追加与刷盘 ----------------
+
+    /**
+     * 记录内容写入回调
+     */
+    private interface RecordBody {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private void append(byte kind, RecordBody body) {
+        boolean compactNow;
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            try {
+                recordBuffer.reset();
+                recordOut.writeByte(kind);
+                body.write(recordOut);
+                recordOut.flush();
+                byte[] bytes = recordBuffer.toByteArray();
+                crc.reset();
+                crc.update(bytes, 0, bytes.length);
+                pendingOut.writeInt(bytes.length);
+                pendingOut.writeInt((int) crc.getValue());
+                pendingOut.write(bytes);
+                segmentBytes += 8 + bytes.length;
+            } catch (IOException e) {
+                // 写入内存缓冲区不会失败
+                throw new UncheckedIOException(e);
+            }
+            appendedSequence++;
+            lock.notifyAll();
+            compactNow = segmentBytes >= compactThreshold && !compacting;
+        }
+        if (compactNow) {
+            try {
+                compact();
+            } catch (IOException e) {
+                LOGGER.warning("变更日志压缩失败: " + e.getMessage());
+            }
+        }
+    }
+
+    private void flushLoop() {
+        while (true) {
+            byte[] batch;
+            long sequence;
+            FileChannel target;
+            synchronized (lock) {
+                while (pending.size() == 0 && !closed) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (pending.size() == 0) {
+                    return;
+                }
+                batch = pending.toByteArray();
+                pending.reset();
+                sequence = appendedSequence;
+                target = channel;
+            }
+            try {
+                ByteBuffer buffer = ByteBuffer.wrap(batch);
+                while (buffer.hasRemaining()) {
+                    target.write(buffer);
+                }
+                target.force(false);
+            } catch (IOException e) {
+                LOGGER.severe("变更日志写入失败: " + e.getMessage());
+                synchronized (lock) {
+                    flushError = e;
+                    lock.notifyAll();
+                }
+                return;
+            }
+            synchronized (lock) {
+                durableSequence = sequence;
+                batchCount++;
+                lock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * 等待缓冲区中的记录全部落盘，调用时必须持有 lock
+     */
+    private void waitDrained() throws IOException {
+        while (durableSequence < appendedSequence && flushError == null) {
+            try {
+                lock.wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("等待日志落盘时被中断");
+            }
+        }
+        if (flushError != null) {
+            throw new IOException("变更日志写入失败", flushError);
+        }
+    }
+
+    private void writeSnapshot(long snapshotGeneration, HomeSphereSnapshot.Writer writer) {
+        try {
+            byte[] image = writer.finish();
+            Path target = snapshotPath(snapshotGeneration);
+            Path temp = directory.resolve(target.getFileName() + ".tmp");
+            try (FileOutputStream out = new FileOutputStream(temp.toFile())) {
+                out.write(image);
+                out.getFD().sync();
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+                for (Path path : stream) {
+                    Matcher m = SEGMENT_NAME.matcher(path.getFileName().toString());
+                    if (m.matches() && Long.parseLong(m.group(2)) < snapshotGeneration) {
+                        Files.deleteIfExists(path);
+                    }
+                }
+            }
+            LOGGER.info("变更日志压缩完成: 第 " + snapshotGeneration + " 代快照 " + image.length + " 字节");
+        } catch (IOException e) {
+            LOGGER.warning("写入快照失败: " + e.getMessage());
+        } finally {
+            synchronized (lock) {
+                compacting = false;
+            }
+        }
+    }
+
+    private FileChannel openSegment(long gen) throws IOException {
+        FileChannel ch = FileChannel.open(segmentPath(gen), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        ch.position(ch.size());
+        return ch;
+    }
+
+    private Path segmentPath(long gen) {
+        return directory.resolve("journal-" + gen + ".log");
+    }
+
+    private Path snapshotPath(long gen) {
+        return directory.resolve("snapshot-" + gen + ".hss");
+    }
+
+    // ---------------- 监听回调 ----------------
+
+    @Override
+    public void deviceStateChanged(Device device) {
+        append(REC_DEVICE_STATE, out -> {
+            out.writeInt(device.getDeviceId());
+            device.writeState(out);
+        });
+    }
+
+    @Override
+    public void deviceRenamed(Device device) {
+        append(REC_DEVICE_RENAMED, out -> {
+            out.writeInt(device.getDeviceId());
+            writeString(out, device.getName());
+        });
+    }
+
+    @Override
+    public void runningLogAdded(Device device, long position, RunningLog log) {
+        append(REC_RUNNING_LOG, out -> {
+            out.writeInt(device.getDeviceId());
+            device.writeState(out);
+            out.writeLong(position);
+            out.writeLong(log.getDateTime().getTime());
+            out.writeByte(log.getType().getCode());
+            writeString(out, log.getEvent());
+            // 备注按模板编码保存，不是模板编码时再写出文本
+            int noteCode = log.getNoteCode();
+            out.writeInt(noteCode);
+            if (!LogNoteTemplate.isEncoded(noteCode)) {
+                writeString(out, log.getNote());
+            }
+        });
+    }
+
+    @Override
+    public void householdChanged(Household household) {
+        // 家庭整体替换较少发生，直接记录整个系统的镜像
+        // 镜像在锁外构建，锁内只补上构建期间其他线程追加的运行日志；其中记录写在镜像之后的日志按截止位置在重放时跳过
+        HomeSphereSnapshot.Writer image = new HomeSphereSnapshot.Writer(system, true);
+        try {
+            image.capture();
+            image.writeState();
+            image.writeLogs();
+        } catch (IOException e) {
+            // 写入内存缓冲区不会失败
+            throw new UncheckedIOException(e);
+        }
+        append(REC_SYSTEM_IMAGE, out -> {
+            image.extendLogs();
+            byte[] bytes = image.finish();
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        });
+    }
+
+    @Override
+    public void roomAdded(Room room) {
+        append(REC_ROOM_ADDED, out -> writeRoom(out, room));
+    }
+
+    @Override
+    public void roomRemoved(int roomId) {
+        append(REC_ROOM_REMOVED, out -> out.writeInt(roomId));
+    }
+
+    @Override
+    public void roomDeviceAdded(Room room, Device device) {
+        append(REC_ROOM_DEVICE_ADDED, out -> {
+            out.writeInt(room.getRoomId());
+            writeDevice(out, device);
+        });
+    }
+
+    @Override
+    public void roomDeviceRemoved(Room room, int deviceId) {
+        append(REC_ROOM_DEVICE_REMOVED, out -> {
+            out.writeInt(room.getRoomId());
+            out.writeInt(deviceId);
+        });
+    }
+
+    @Override
+    public void userAdded(User user) {
+        append(REC_USER_ADDED, out -> writeUser(out, user));
+    }
+
+    @Override
+    public void userRemoved(int userId) {
+        append(REC_USER_REMOVED, out -> out.writeInt(userId));
+    }
+
+    @Override
+    public void sceneAdded(AutomationScene scene) {
+        append(REC_SCENE_ADDED, out -> writeScene(out, scene));
+    }
+
+    @Override
+    public void sceneRemoved(int sceneId) {
+        append(REC_SCENE_REMOVED, out -> out.writeInt(sceneId));
+    }
+
+    @Override
+    public void systemUserAdded(User user) {
+        append(REC_SYSTEM_USER_ADDED, out -> writeUser(out, user));
+    }
+
+    @Override
+    public void systemDeviceAdded(Device device) {
+        append(REC_SYSTEM_DEVICE_ADDED, out -> writeDevice(out, device));
+    }
+
+    @Override
+    public void systemSceneAdded(AutomationScene scene) {
+        append(REC_SYSTEM_SCENE_ADDED, out -> writeScene(out, scene));
+    }
+
+    // ---------------- 记录编码 ----------------
+
+    private static void writeString(DataOutput out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeUser(DataOutput out, User user) throws IOException {
+        out.writeInt(user.getUserId());
+        writeString(out, user.getLoginName());
+        writeString(out, user.getLoginPassword());
+        writeString(out, user.getUserName());
+        writeString(out, user.getEmail());
+        out.writeBoolean(user.isAdmin());
+    }
+
+    private static void writeDevice(DataOutput out, Device device) throws IOException {
+        byte type = HomeSphereSnapshot.deviceTypeCode(device);
+        out.writeByte(type);
+        out.writeInt(device.getDeviceId());
+        writeString(out, device.getName());
+        Manufacturer manufacturer = device.getManufacturer();
+        out.writeBoolean(manufacturer != null);
+        if (manufacturer != null) {
+            out.writeInt(manufacturer.getManufacturerId());
+            writeString(out, manufacturer.getName());
+            writeString(out, manufacturer.getProtocols());
+        }
+        if (HomeSphereSnapshot.hasRatedPower(type)) {
+            out.writeDouble(HomeSphereSnapshot.ratedPower(device));
+        }
+        device.writeState(out);
+        // 通过游标读取打开时的日志，遍历期间被淘汰的日志跳过，条数按实际写出的计算；
+        // 截止位置之前的日志之后如果还有单独的记录，重放时跳过
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream logs = new DataOutputStream(buffer);
+        int count = 0;
+        RunningLogCursor log = device.openLogCursor();
+        while (log.next()) {
+            logs.writeLong(log.getTime());
+            logs.writeByte(log.getType().getCode());
+            writeString(logs, log.getEvent());
+            int noteCode = log.getNoteCode();
+            logs.writeInt(noteCode);
+            if (!LogNoteTemplate.isEncoded(noteCode)) {
+                writeString(logs, log.getNote());
+            }
+            count++;
+        }
+        logs.flush();
+        out.writeInt(count);
+        out.writeLong(log.endPosition());
+        out.write(buffer.toByteArray());
+    }
+
+    private static void writeRoom(DataOutput out, Room room) throws IOException {
+        out.writeInt(room.getRoomId());
+        writeString(out, room.getName());
+        out.writeDouble(room.getArea());
+        List<Device> devices = room.getDevices();
+        out.writeInt(devices.size());
+        for (Device device : devices) {
+            writeDevice(out, device);
+        }
+    }
+
+    private static void writeScene(DataOutput out, AutomationScene scene) throws IOException {
+        out.writeInt(scene.getSceneld());
+        writeString(out, scene.getName());
+        writeString(out, scene.getDescription());
+        List<DeviceAction> actions = scene.getActions();
+        out.writeInt(actions.size());
+        for (DeviceAction action : actions) {
+            out.writeInt(action.getDevice() == null ? -1 : action.getDevice().getDeviceId());
+            writeString(out, action.getCommand());
+            writeString(out, action.getParameters());
+        }
+    }
+
+    /**
+     * 重放器：维护设备、制造商按ID的索引，把记录应用到系统对象上
+     * 重放时系统尚未注册监听器，因此不会再次写入日志
+     */
+    private static class Replayer {
+        private HomeSphereSystem system;
+        private final Map<Integer, Device> devices = new HashMap<>();
+        private final Map<Integer, Manufacturer> manufacturers = new HashMap<>();
+        // 各设备的截止位置：第一次重放该设备的运行日志记录时存储的结束位置，即快照或设备记录截取到的位置
+        private final Map<Device, Long> logCuts = new IdentityHashMap<>();
+        // 各设备位置在前面的日志尚未重放、暂存待按位置顺序写入的运行日志
+        private final Map<Device, TreeMap<Long, RunningLog>> pendingLogs = new IdentityHashMap<>();
+
+        Replayer(HomeSphereSystem system) {
+            reset(system);
+        }
+
+        private void reset(HomeSphereSystem newSystem) {
+            system = newSystem;
+            devices.clear();
+            manufacturers.clear();
+            logCuts.clear();
+            // 镜像已包含记录在它之前的全部日志
+            pendingLogs.clear();
+            List<Device> all = new ArrayList<>(system.getAllDevices());
+            if (system.getHousehold() != null) {
+                all.addAll(system.getHousehold().listAllDevices());
+            }
+            for (Device device : all) {
+                devices.putIfAbsent(device.getDeviceId(), device);
+                Manufacturer m = device.getManufacturer();
+                if (m != null) {
+                    manufacturers.putIfAbsent(m.getManufacturerId(), m);
+                }
+            }
+        }
+
+        void apply(DataInputStream in) throws IOException {
+            byte kind = in.readByte();
+            Household household = system.getHousehold();
+            switch (kind) {
+                case REC_DEVICE_STATE: {
+                    Device device = devices.get(in.readInt());
+                    if (device != null) {
+                        device.readState(in);
+                    }
+                    break;
+                }
+                case REC_DEVICE_RENAMED: {
+                    Device device = devices.get(in.readInt());
+                    String name = readString(in);
+                    if (device != null) {
+                        device.setName(name);
+                    }
+                    break;
+                }
+                case REC_RUNNING_LOG: {
+                    Device device = devices.get(in.readInt());
+                    if (device != null) {
+                        device.readState(in);
+                        long position = in.readLong();
+                        restoreLog(device, position, readLog(in));
+                    }
+                    break;
+                }
+                case REC_SYSTEM_IMAGE: {
+                    byte[] image = new byte[in.readInt()];
+                    in.readFully(image);
+                    reset(HomeSphereSnapshot.fromBytes(image));
+                    break;
+                }
+                case REC_ROOM_ADDED:
+                    Room room = readRoom(in);
+                    if (household != null) {
+                        household.addRoom(room);
+                    }
+                    break;
+                case REC_ROOM_REMOVED:
+                    if (household != null) {
+                        household.removeRoom(in.readInt());
+                    }
+                    break;
+                case REC_ROOM_DEVICE_ADDED: {
+                    Room target = findRoom(household, in.readInt());
+                    Device device = readDevice(in);
+                    if (target != null) {
+                        target.addDevice(device);
+                    }
+                    break;
+                }
+                case REC_ROOM_DEVICE_REMOVED: {
+                    Room target = findRoom(household, in.readInt());
+                    int deviceId = in.readInt();
+                    if (target != null) {
+                        target.removeDevice(deviceId);
+                    }
+                    break;
+                }
+                case REC_USER_ADDED: {
+                    User user = readUser(in);
+                    if (household != null) {
+                        household.addUser(user);
+                    }
+                    break;
+                }
+                case REC_USER_REMOVED:
+                    if (household != null) {
+                        household.removeUser(in.readInt());
+                    }
+                    break;
+                case REC_SCENE_ADDED: {
+                    AutomationScene scene = readScene(in);
+                    if (household != null) {
+                        household.addAutoScene(scene);
+                    }
+                    break;
+                }
+                case REC_SCENE_REMOVED:
+                    if (household != null) {
+                        household.removeAutoScene(in.readInt());
+                    }
+                    break;
+                case REC_SYSTEM_USER_ADDED:
+                    system.addUserToSystem(readUser(in));
+                    break;
+                case REC_SYSTEM_DEVICE_ADDED:
+                    system.addDeviceUnchecked(readDevice(in));
+                    break;
+                case REC_SYSTEM_SCENE_ADDED:
+                    system.addAutoScene(readScene(in));
+                    break;
+                default:
+                    throw new IOException("未知的日志记录类型: " + kind);
+            }
+        }
+
+        private static Room findRoom(Household household, int roomId) {
+            if (household == null) {
+                return null;
+            }
+            for (Room room : household.getRooms()) {
+                if (room.getRoomId() == roomId) {
+                    return room;
+                }
+            }
+            return null;
+        }
+
+        private static RunningLog readLog(DataInput in) throws IOException {
+            long time = in.readLong();
+            RunningLog.Type type = RunningLog.Type.fromCode(in.readByte());
+            String event = readString(in);
+            int noteCode = in.readInt();
+            String note = LogNoteTemplate.isEncoded(noteCode) ? null : readString(in);
+            return new RunningLog(new Date(time), event, type, note, noteCode);
+        }
+
+        /**
+         * 读取用户，系统或家庭中已有同ID的用户时复用已有对象
+         */
+        private User readUser(DataInput in) throws IOException {
+            User user = new User(in.readInt(), readString(in), readString(in), readString(in), readString(in), in.readBoolean());
+            for (User existing : system.getUsers()) {
+                if (existing.getUserId() == user.getUserId()) return existing;
+            }
+            if (system.getHousehold() != null) {
+                for (User existing : system.getHousehold().getUsers()) {
+                    if (existing.getUserId() == user.getUserId()) return existing;
+                }
+            }
+            return user;
+        }
+
+        /**
+         * 读取设备，已存在同ID的设备时复用已有对象（同一设备可能同时位于系统列表和房间中）
+         */
+        /**
+         * 按位置恢复一条运行日志：截止位置之前的已包含在快照或设备记录中，直接跳过；
+         * 其余的暂存起来，与存储的结束位置衔接后按位置顺序写入
+         */
+        private void restoreLog(Device device, long position, RunningLog log) {
+            long cut = logCuts.computeIfAbsent(device, d -> d.getLogStore().endPosition());
+            if (position < cut) {
+                return;
+            }
+            TreeMap<Long, RunningLog> pending = pendingLogs.computeIfAbsent(device, d -> new TreeMap<>());
+            if (pending.containsKey(position)) {
+                // 有记录在崩溃时丢失，之后的进程重新使用了这些位置，先写入暂存的日志
+                flushLogs(device, pending);
+            }
+            pending.put(position, log);
+            RunningLogStore store = device.getLogStore();
+            while (!pending.isEmpty() && pending.firstKey() <= store.endPosition()) {
+                device.restoreRunningLog(pending.pollFirstEntry().getValue());
+            }
+        }
+
+        /**
+         * 写入所有暂存的运行日志，前面缺失的记录不会再出现
+         */
+        void flushLogs() {
+            for (Map.Entry<Device, TreeMap<Long, RunningLog>> entry : pendingLogs.entrySet()) {
+                flushLogs(entry.getKey(), entry.getValue());
+            }
+        }
+
+        private static void flushLogs(Device device, TreeMap<Long, RunningLog> pending) {
+            while (!pending.isEmpty()) {
+                device.restoreRunningLog(pending.pollFirstEntry().getValue());
+            }
+        }
+
+        private Device readDevice(DataInput in) throws IOException {
+            byte type = in.readByte();
+            int deviceId = in.readInt();
+            String name = readString(in);
+            Manufacturer manufacturer = null;
+            if (in.readBoolean()) {
+                int manufacturerId = in.readInt();
+                String manufacturerName = readString(in);
+                String protocols = readString(in);
+                manufacturer = manufacturers.computeIfAbsent(manufacturerId,
+                        id -> new Manufacturer(id, manufacturerName, protocols));
+            }
+            double power = HomeSphereSnapshot.hasRatedPower(type) ? in.readDouble() : 0;
+            Device device = HomeSphereSnapshot.newDevice(type, deviceId, name, manufacturer, power);
+            device.readState(in);
+            int logCount = in.readInt();
+            long cut = in.readLong();
+            // 沿用原存储的位置编号，之后的运行日志记录按位置判断是否已包含
+            device.getLogStore().startAt(cut - logCount);
+            for (int i = 0; i < logCount; i++) {
+                device.restoreRunningLog(readLog(in));
+            }
+
+            Device existing = devices.putIfAbsent(deviceId, device);
+            return existing != null ? existing : device;
+        }
+
+        private Room readRoom(DataInput in) throws IOException {
+            Room room = new Room(in.readInt(), readString(in), in.readDouble());
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                room.addDevice(readDevice(in));
+            }
+            return room;
+        }
+
+        /**
+         * 读取场景，系统或家庭中已有同ID的场景时复用已有对象
+         */
+        private AutomationScene readScene(DataInput in) throws IOException {
+            AutomationScene scene = new AutomationScene(in.readInt(), readString(in), readString(in));
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                int deviceId = in.readInt();
+                scene.addAction(new DeviceAction(devices.get(deviceId), readString(in), readString(in)));
+            }
+            List<AutomationScene> existing = new ArrayList<>(system.getAutoScenes());
+            if (system.getHousehold() != null) {
+                existing.addAll(system.getHousehold().getAutoScenes());
+            }
+            for (AutomationScene candidate : existing) {
+                if (candidate.getSceneld() == scene.getSceneld()) {
+                    return candidate;
+                }
+            }
+            return scene;
+        }
+    }
+}
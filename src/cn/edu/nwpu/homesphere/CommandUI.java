@@ -911,7 +911,8 @@ public class CommandUI {
             System.out.println("1. 查看设备运行日志");
             System.out.println("2. 查看能耗报告");
             System.out.println("3. 导出运行日志");
-            System.out.println("4. 返回上级菜单");
+            System.out.println("4. 查看日志统计");
+            System.out.println("5. 返回上级菜单");
             System.out.println("===================================");
 
             try {
@@ -927,6 +928,9 @@ public class CommandUI {
                         exportRunningLogs();
                         break;
                     case 4:
+                        viewLogRollups();
+                        break;
+                    case 5:
                         backToFamily = true;
                         break;
                     default:
@@ -961,12 +965,16 @@ public class CommandUI {
             }
 
             RunningLogFormatter formatter = formatters[choice];
-            String formattedLogs = getSystem().exportLogsWithFormatter(formatter);
+            // 预览只格式化到前500字符为止，保存时才完整格式化一次并直接写入文件
+            PreviewBuffer preview = new PreviewBuffer(500);
+            try {
+                getSystem().exportLogsWithFormatter(formatter, preview);
+            } catch (PreviewBuffer.FullException e) {
+                // 预览已写满，格式化提前停止
+            }
 
             // 显示部分内容预览
             System.out.println("\n=== 预览 (前500字符) ===");
-            String preview = formattedLogs.length() > 500 ?
-                    formattedLogs.substring(0, 500) + "..." : formattedLogs;
             System.out.println(preview);
 
             // 询问是否保存到文件
@@ -981,14 +989,13 @@ public class CommandUI {
                         case "JSON格式": filename += ".json"; break;
                         case "HTML格式": filename += ".html"; break;
                         case "XML格式": filename += ".xml"; break;
+                        case "JSON Lines格式": filename += ".jsonl"; break;
                     }
                 }
 
-                try {
-                    java.nio.file.Files.write(
-                            java.nio.file.Paths.get(filename),
-                            formattedLogs.getBytes()
-                    );
+                try (java.io.Writer out = java.nio.file.Files.newBufferedWriter(
+                        java.nio.file.Paths.get(filename), java.nio.charset.StandardCharsets.UTF_8)) {
+                    getSystem().exportLogsWithFormatter(formatter, out);
                     System.out.println("文件保存成功: " + filename);
 
                     // 如果是HTML文件，提示可以在浏览器中打开
@@ -1012,30 +1019,33 @@ public class CommandUI {
         System.out.println("\n=== 设备运行日志 ===");
 
         boolean hasLogs = false;
-        SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        LogTimestampRenderer timestamps = LogTimestampRenderer.getDefault();
 
         // 按设备分组显示日志
         for (Room room : getSystem().getHousehold().getRooms()) {
             for (Device device : room.getDevices()) {
-                List<RunningLog> logs = device.getRunningLogs();
-                if (!logs.isEmpty()) {
+                if (device.getRunningLogCount() > 0) {
                     hasLogs = true;
                     System.out.println("\n设备: " + device.getName() + " (房间: " + room.getName() + ")");
                     System.out.println("+---------------------+------------------+----------+----------------------+");
                     System.out.println("|        时间         |      事件        |   类型   |         备注         |");
                     System.out.println("+---------------------+------------------+----------+----------------------+");
 
-                    for (RunningLog log : logs) {
+                    RunningLogCursor log = device.openLogCursor();
+                    while (log.next()) {
                         String event = log.getEvent().length() > 16 ? log.getEvent().substring(0, 13) + "..." : log.getEvent();
                         String note = log.getNote().length() > 20 ? log.getNote().substring(0, 17) + "..." : log.getNote();
 
                         System.out.printf("| %-19s | %-16s | %-8s | %-20s |\n",
-                                sdf.format(log.getDateTime()),
+                                timestamps.render(log.getTime()),
                                 event,
                                 log.getType().name(),
                                 note);
                     }
                     System.out.println("+---------------------+------------------+----------+----------------------+");
+                    if (device.getEvictedLogCount() > 0) {
+                        System.out.println("（按保留策略已淘汰 " + device.getEvictedLogCount() + " 条较早的日志）");
+                    }
                 }
             }
         }
@@ -1045,6 +1055,43 @@ public class CommandUI {
         }
     }
 
+    /**
+     * 查看日志统计：今天与最近24小时的 WARN/ERROR 条数，只读取滚动统计，不遍历日志
+     */
+    private void viewLogRollups() {
+        Household household = getSystem().getHousehold();
+        long now = System.currentTimeMillis();
+        System.out.println("\n=== 运行日志统计 ===");
+        System.out.printf("今天: INFO %d 条, WARN %d 条, ERROR %d 条%n",
+                household.countLogsInDay(RunningLog.Type.INFO, now),
+                household.countLogsInDay(RunningLog.Type.WARN, now),
+                household.countLogsInDay(RunningLog.Type.ERROR, now));
+
+        System.out.println("\n最近24小时（每小时 WARN / ERROR）:");
+        SimpleDateFormat hourFormat = new SimpleDateFormat("MM-dd HH:00");
+        Date date = new Date();
+        for (int i = 23; i >= 0; i--) {
+            long hour = now - i * LogRollup.HOUR_MILLIS;
+            int warn = household.countLogsInHour(RunningLog.Type.WARN, hour);
+            int error = household.countLogsInHour(RunningLog.Type.ERROR, hour);
+            if (warn > 0 || error > 0) {
+                date.setTime(hour);
+                System.out.printf("  %s  WARN %d, ERROR %d%n", hourFormat.format(date), warn, error);
+            }
+        }
+
+        System.out.println("\n按设备（今天）:");
+        for (Room room : household.getRooms()) {
+            for (Device device : room.getDevices()) {
+                LogRollup rollup = device.getLogRollup();
+                System.out.printf("  %s (房间: %s): INFO %d, WARN %d, ERROR %d%n", device.getName(), room.getName(),
+                        rollup.countInDay(RunningLog.Type.INFO, now),
+                        rollup.countInDay(RunningLog.Type.WARN, now),
+                        rollup.countInDay(RunningLog.Type.ERROR, now));
+            }
+        }
+    }
+
     /**
      * 查看能耗报告
      */
@@ -1122,6 +1169,65 @@ public class CommandUI {
         }
     }
 
+    /**
+     * 导出预览：只保留写入内容的前 limit 个字符，写满后再写入时抛出 FullException，
+     * 让格式化器提前停止，不为预览格式化全部日志
+     */
+    private static class PreviewBuffer implements Appendable {
+        /**
+         * 预览已写满，由 Appendable 的 IOException 传出格式化器
+         */
+        static class FullException extends java.io.IOException {
+            private static final long serialVersionUID = 1L;
+
+            FullException() {
+                super("预览已写满");
+            }
+        }
+
+        private final StringBuilder text = new StringBuilder();
+        private final int limit;
+        private boolean truncated;
+
+        PreviewBuffer(int limit) {
+            this.limit = limit;
+        }
+
+        @Override
+        public Appendable append(CharSequence csq) throws FullException {
+            CharSequence value = csq == null ? "null" : csq;
+            return append(value, 0, value.length());
+        }
+
+        @Override
+        public Appendable append(CharSequence csq, int start, int end) throws FullException {
+            CharSequence value = csq == null ? "null" : csq;
+            int room = limit - text.length();
+            if (end - start > room) {
+                text.append(value, start, start + room);
+                truncated = true;
+                throw new FullException();
+            }
+            text.append(value, start, end);
+            return this;
+        }
+
+        @Override
+        public Appendable append(char c) throws FullException {
+            if (text.length() == limit) {
+                truncated = true;
+                throw new FullException();
+            }
+            text.append(c);
+            return this;
+        }
+
+        @Override
+        public String toString() {
+            return truncated ? text + "..." : text.toString();
+        }
+    }
+
     /**
      * 主方法
      */
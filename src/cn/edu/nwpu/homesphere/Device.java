@@ -1,6 +1,11 @@
 package cn.edu.nwpu.homesphere;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
 
 /**
@@ -12,7 +17,10 @@ public abstract class Device {
     private boolean isOnline;
     private boolean powerStatus;
     private Manufacturer manufacturer;
-    private List<RunningLog> runningLogs;
+    private final RunningLogStore runningLogs = new RunningLogStore();
+    private StateChangeListener listener;
+    // 运行日志的异步持久化管道，可由其他线程设置
+    private volatile RunningLogPersister persister;
 
     // 设备类型常量 - 与Manufacturer中保持一致
     public static final String TYPE_AIR_CONDITIONER = "AIR_CONDITIONER";
@@ -38,7 +46,6 @@ public abstract class Device {
         this.isOnline = false;
         this.powerStatus = false;
         this.manufacturer = manufacturer;
-        this.runningLogs = new ArrayList<>();
     }
 
     /**
@@ -67,14 +74,62 @@ public abstract class Device {
     }
 
     /**
-     * 添加运行日志
+     * 添加运行日志，场景执行、GUI 与命令行可以从不同线程同时调用
      * @param event 事件描述
      * @param type 事件类型
      * @param note 备注信息
      */
     protected void addRunningLog(String event, int type, String note) {
-        RunningLog log = new RunningLog(new java.util.Date(), event, type, note);
-        runningLogs.add(log);
+        appendRunningLog(event, type, note, LogNoteTemplate.NOT_ENCODED);
+    }
+
+    /**
+     * 添加备注按模板保存的运行日志，不拼接备注字符串，读取备注时才生成文本
+     * @param event 事件描述
+     * @param type 事件类型
+     * @param template 备注模板
+     * @param value 备注中的数值
+     */
+    protected void addRunningLog(String event, int type, LogNoteTemplate template, double value) {
+        int code = template.encode(value);
+        if (LogNoteTemplate.isEncoded(code)) {
+            appendRunningLog(event, type, null, code);
+        } else {
+            appendRunningLog(event, type, template.format(value), LogNoteTemplate.NOT_ENCODED);
+        }
+    }
+
+    private void appendRunningLog(String event, int type, String note, int noteCode) {
+        RunningLog.Type logType = RunningLog.Type.fromCode(type);
+        // 存储把早于上一条的时间按上一条保存，持久化与监听器使用同一个实际保存的时间
+        RunningLogStore.PendingLog stored = runningLogs.appendCoded(System.currentTimeMillis(), logType, event, note, noteCode);
+        long time = stored.getTime();
+        RunningLogPersister sink = persister;
+        if (sink != null) {
+            sink.submit(deviceId, time, logType, event, note, noteCode);
+        }
+        if (listener != null) {
+            // 按字节限制时新日志本身也可能被淘汰，因此不从存储中读回
+            listener.runningLogAdded(this, stored.getPosition(),
+                    new RunningLog(new Date(time), event, logType, note, noteCode));
+        }
+    }
+
+    /**
+     * 通知监听器设备状态已变化，用于不产生运行日志的修改
+     */
+    protected void fireStateChanged() {
+        if (listener != null) {
+            listener.deviceStateChanged(this);
+        }
+    }
+
+    /**
+     * 设置状态变更监听器
+     * @param listener 监听器，null表示移除
+     */
+    void attachListener(StateChangeListener listener) {
+        this.listener = listener;
     }
 
     /**
@@ -112,6 +167,9 @@ public abstract class Device {
      */
     public void setName(String name) {
         this.name = name;
+        if (listener != null) {
+            listener.deviceRenamed(this);
+        }
     }
 
     /**
@@ -139,11 +197,202 @@ public abstract class Device {
     }
 
     /**
-     * 获取运行日志
+     * 获取运行日志，每次调用都会为每条日志创建新的 RunningLog 对象
      * @return 运行日志列表
      */
     public List<RunningLog> getRunningLogs() {
-        return new ArrayList<>(runningLogs);
+        return runningLogs.toList();
+    }
+
+    /**
+     * 打开按追加顺序遍历运行日志的游标，不复制日志
+     * @return 游标
+     */
+    public RunningLogCursor openLogCursor() {
+        return runningLogs.cursor();
+    }
+
+    /**
+     * 打开从最新一条向前遍历运行日志的游标
+     * @return 游标
+     */
+    public RunningLogCursor openReverseLogCursor() {
+        return runningLogs.reverseCursor();
+    }
+
+    /**
+     * 打开只遍历时间范围内运行日志的游标，起止位置按时间二分查找，查询为 O(log n + k)
+     * @param fromTime 起始时间（毫秒，含）
+     * @param toTime 结束时间（毫秒，不含）
+     * @return 游标
+     */
+    public RunningLogCursor openLogCursor(long fromTime, long toTime) {
+        return runningLogs.cursor(fromTime, toTime);
+    }
+
+    /**
+     * 打开从时间范围内最新一条向前遍历运行日志的游标
+     * @param fromTime 起始时间（毫秒，含）
+     * @param toTime 结束时间（毫秒，不含）
+     * @return 游标
+     */
+    public RunningLogCursor openReverseLogCursor(long fromTime, long toTime) {
+        return runningLogs.reverseCursor(fromTime, toTime);
+    }
+
+    /**
+     * 获取时间范围内的运行日志
+     * @param fromTime 起始时间（毫秒，含）
+     * @param toTime 结束时间（毫秒，不含）
+     * @return 运行日志列表，按时间顺序
+     */
+    public List<RunningLog> getRunningLogs(long fromTime, long toTime) {
+        RunningLogCursor cursor = runningLogs.cursor(fromTime, toTime);
+        List<RunningLog> logs = new ArrayList<>(cursor.remaining());
+        while (cursor.next()) {
+            logs.add(cursor.toRunningLog());
+        }
+        return logs;
+    }
+
+    /**
+     * 统计时间范围内的运行日志条数，O(log n)
+     * @param fromTime 起始时间（毫秒，含）
+     * @param toTime 结束时间（毫秒，不含）
+     * @return 日志条数
+     */
+    public int countRunningLogs(long fromTime, long toTime) {
+        return runningLogs.count(fromTime, toTime);
+    }
+
+    /**
+     * 获取运行日志条数
+     * @return 日志条数
+     */
+    public int getRunningLogCount() {
+        return runningLogs.size();
+    }
+
+    /**
+     * 获取运行日志按类型、小时与天的计数，查询耗时与日志条数无关
+     * @return 滚动统计
+     */
+    public LogRollup getLogRollup() {
+        return runningLogs.getRollup();
+    }
+
+    /**
+     * 获取因保留策略被淘汰的运行日志条数
+     * @return 淘汰条数
+     */
+    public long getEvictedLogCount() {
+        return runningLogs.getEvictedCount();
+    }
+
+    /**
+     * 把 days 天之前的运行日志写入压缩归档，并从设备中移除
+     * @param days 天数
+     * @param archive 归档写入器，可依次写入同一设备多次归档的日志
+     * @return 归档的条数
+     */
+    public int archiveLogsOlderThan(int days, RunningLogArchive.Writer archive) throws IOException {
+        if (days < 0) {
+            throw new IllegalArgumentException("天数不能为负: " + days);
+        }
+        return runningLogs.archiveBefore(System.currentTimeMillis() - days * 86_400_000L, archive);
+    }
+
+    /**
+     * 设置运行日志保留策略，超出限制的较早日志立即淘汰
+     * 通常由所属家庭按设备类型统一设置
+     * @param policy 保留策略，null表示不限制
+     */
+    public void setLogRetention(LogRetentionPolicy policy) {
+        runningLogs.setRetention(policy);
+    }
+
+    public LogRetentionPolicy getLogRetention() {
+        return runningLogs.getRetention();
+    }
+
+    /**
+     * 设置运行日志溢出：堆中日志估算占用超过预算时，较早的日志移入目录下的内存映射日志段文件，
+     * 读取时透明地跨越堆与日志段。通常由所属家庭统一设置
+     * @param directory 日志段目录，null表示停止溢出
+     * @param heapBudgetBytes 堆内日志占用的上限（字节）
+     */
+    public void setLogSpill(Path directory, long heapBudgetBytes) {
+        runningLogs.setSpill(directory, "device-" + deviceId + "-", heapBudgetBytes);
+    }
+
+    /**
+     * 关闭运行日志溢出：删除日志段文件，已溢出的日志随之丢弃，堆中的日志保留
+     */
+    public void closeLogSpill() {
+        runningLogs.closeSpill();
+    }
+
+    /**
+     * 设置运行日志的异步持久化管道，之后追加的日志放入它的队列后由后台线程写入磁盘
+     * 通常由所属家庭统一设置
+     * @param persister 持久化管道，null表示不持久化
+     */
+    public void setLogPersister(RunningLogPersister persister) {
+        this.persister = persister;
+    }
+
+    public RunningLogPersister getLogPersister() {
+        return persister;
+    }
+
+    /**
+     * 获取已溢出到磁盘日志段的运行日志条数
+     * @return 条数
+     */
+    public int getSpilledLogCount() {
+        return runningLogs.getSpilledCount();
+    }
+
+    /**
+     * 获取运行日志的列式存储，供快照与变更日志直接按列读写，不创建日志对象
+     * @return 日志存储
+     */
+    RunningLogStore getLogStore() {
+        return runningLogs;
+    }
+
+    /**
+     * 从快照恢复一条运行日志，保留原始时间
+     * @param log 运行日志
+     */
+    void restoreRunningLog(RunningLog log) {
+        runningLogs.append(log);
+    }
+
+    /**
+     * 把设备状态写入快照，子类覆盖时先调用父类再追加自身字段
+     * @param out 输出流
+     */
+    void writeState(DataOutput out) throws IOException {
+        out.writeBoolean(isOnline);
+        out.writeBoolean(powerStatus);
+    }
+
+    /**
+     * 从快照读取设备状态，字段顺序与 writeState 一致，不产生运行日志
+     * @param in 输入流
+     */
+    void readState(DataInput in) throws IOException {
+        this.isOnline = in.readBoolean();
+        this.powerStatus = in.readBoolean();
+    }
+
+    /**
+     * 热重载时从新解析的同类设备复制数据文件中的设置（温度、亮度、锁状态等），
+     * 不改变电源、在线状态与运行日志，子类覆盖
+     * @param source 新解析的设备
+     */
+    void applySettings(Device source) {
     }
 
     /**
@@ -17,7 +17,7 @@ public class HomeSphereGUI extends JFrame {
     private JButton loadFileButton;
     private JComboBox<String> sceneComboBox;
     private JButton triggerSceneButton;
-    private JButton jsonButton, htmlButton, xmlButton;
+    private JButton jsonButton, htmlButton, xmlButton, jsonLinesButton;
     private JTextArea outputTextArea;
     private JLabel statusLabel;
 
@@ -84,24 +84,29 @@ public class HomeSphereGUI extends JFrame {
         jsonButton = new JButton("JSON格式");
         htmlButton = new JButton("HTML格式");
         xmlButton = new JButton("XML格式");
+        jsonLinesButton = new JButton("JSON Lines格式");
 
         // 设置按钮大小
         Dimension buttonSize = new Dimension(120, 40);
         jsonButton.setPreferredSize(buttonSize);
         htmlButton.setPreferredSize(buttonSize);
         xmlButton.setPreferredSize(buttonSize);
+        jsonLinesButton.setPreferredSize(buttonSize);
 
         // 设置按钮颜色
         jsonButton.setBackground(new Color(70, 130, 180));
         htmlButton.setBackground(new Color(60, 179, 113));
         xmlButton.setBackground(new Color(205, 92, 92));
+        jsonLinesButton.setBackground(new Color(218, 165, 32));
         jsonButton.setForeground(Color.BLACK);
         htmlButton.setForeground(Color.BLACK);
         xmlButton.setForeground(Color.BLACK);
+        jsonLinesButton.setForeground(Color.BLACK);
 
         formatPanel.add(jsonButton);
         formatPanel.add(htmlButton);
         formatPanel.add(xmlButton);
+        formatPanel.add(jsonLinesButton);
 
         return formatPanel;
     }
@@ -136,6 +141,7 @@ public class HomeSphereGUI extends JFrame {
         jsonButton.addActionListener(e -> showLogsInFormat(new JsonRunningLogFormatter()));
         htmlButton.addActionListener(e -> showLogsInFormat(new HtmlRunningLogFormatter()));
         xmlButton.addActionListener(e -> showLogsInFormat(new XmlRunningLogFormatter()));
+        jsonLinesButton.addActionListener(e -> showLogsInFormat(new JsonLinesRunningLogFormatter()));
     }
 
     private void loadHouseholdData() {
@@ -152,12 +158,14 @@ public class HomeSphereGUI extends JFrame {
                 // 清空之前的数据
                 system = HomeSphereSystem.getInstance();
                 dataLoader = new HouseholdDataLoader(system);
+                dataLoader.setQuiet(true);
 
-                // 加载数据
-                dataLoader.loadFromFile(selectedFile.getAbsolutePath());
+                // 加载数据，结果以报告形式显示在界面上
+                LoadReport report = dataLoader.loadFromFile(selectedFile.getAbsolutePath());
 
                 // 检查家庭是否创建成功
-                if (system.getHousehold() == null) {
+                if (!report.isHouseholdLoaded()) {
+                    outputTextArea.setText(report.toString());
                     showError("家庭数据加载失败，请检查数据文件格式");
                     return;
                 }
@@ -173,10 +181,7 @@ public class HomeSphereGUI extends JFrame {
 
                 statusLabel.setText("数据加载成功: " + selectedFile.getName());
                 outputTextArea.setText("数据加载成功！\n");
-                outputTextArea.append("家庭: " + system.getHousehold().getAddress() + "\n");
-                outputTextArea.append("房间数量: " + system.getHousehold().getRooms().size() + "\n");
-                outputTextArea.append("设备数量: " + system.getAllDevices().size() + "\n");
-                outputTextArea.append("场景数量: " + system.getHousehold().getAutoScenes().size() + "\n");
+                outputTextArea.append(report.toString());
 
                 // 显示当前登录用户
                 if (system.getCurrentUser() != null) {
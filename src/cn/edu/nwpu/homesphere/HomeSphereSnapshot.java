@@ -0,0 +1,671 @@
+package cn.edu.nwpu.homesphere;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * HomeSphere系统的二进制快照，用于快速冷启动
+ *
+ * 文件格式（大端序）：
+ * <pre>
+ *   int    魔数 'HSNP'
+ *   int    格式版本
+ *   int    标志位（bit0: 包含运行日志）
+ *   重复:  byte 段标签, int 段长度, 段内容
+ *   byte   0 结束标签
+ * </pre>
+ * 所有字符串统一存放在字符串表段中，其余段以 int 下标引用（-1 表示 null）；
+ * 制造商、设备、用户、场景在快照内按出现顺序编号，段之间通过编号互相引用。
+ * 运行日志的备注按模板保存时直接写出模板编码（小于 -1），否则为字符串下标。
+ * 自版本 2 起设备的运行日志条数之后记录截止位置（截取到的日志存储位置），恢复时沿用原位置编号。
+ * 读取时会跳过未知的段，便于后续版本追加新段
+ */
+public final class HomeSphereSnapshot {
+    static final int MAGIC = 0x48534E50;
+    static final int VERSION = 2;
+    static final int FLAG_RUNNING_LOGS = 1;
+
+    static final byte SECTION_END = 0;
+    static final byte SECTION_STRINGS = 1;
+    static final byte SECTION_MANUFACTURERS = 2;
+    static final byte SECTION_DEVICES = 3;
+    static final byte SECTION_MANUFACTURER_DEVICES = 4;
+    static final byte SECTION_USERS = 5;
+    static final byte SECTION_SCENES = 6;
+    static final byte SECTION_HOUSEHOLD = 7;
+    static final byte SECTION_SYSTEM = 8;
+
+    static final byte DEVICE_AIR_CONDITIONER = 1;
+    static final byte DEVICE_LIGHT_BULB = 2;
+    static final byte DEVICE_SMART_LOCK = 3;
+    static final byte DEVICE_BATHROOM_SCALE = 4;
+
+    private HomeSphereSnapshot() {
+    }
+
+    /**
+     * 保存系统快照（包含运行日志）
+     * @param system 系统对象
+     * @param file 快照文件
+     */
+    public static void save(HomeSphereSystem system, Path file) throws IOException {
+        save(system, file, true);
+    }
+
+    /**
+     * 保存系统快照，先写入临时文件再原子替换，避免留下半个快照
+     * @param system 系统对象
+     * @param file 快照文件
+     * @param includeLogs 是否包含设备运行日志
+     */
+    public static void save(HomeSphereSystem system, Path file, boolean includeLogs) throws IOException {
+        byte[] data = toBytes(system, includeLogs);
+        Path dir = file.toAbsolutePath().getParent();
+        Path temp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+        try {
+            try (FileOutputStream out = new FileOutputStream(temp.toFile())) {
+                out.write(data);
+                out.getFD().sync();
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * 从快照文件恢复系统
+     * @param file 快照文件
+     * @return 恢复出的新系统对象
+     */
+    public static HomeSphereSystem load(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            return read(in);
+        }
+    }
+
+    /**
+     * 把系统序列化为快照字节
+     */
+    static byte[] toBytes(HomeSphereSystem system, boolean includeLogs) throws IOException {
+        return new Writer(system, includeLogs).write();
+    }
+
+    /**
+     * 从快照字节恢复系统
+     */
+    static HomeSphereSystem fromBytes(byte[] data) throws IOException {
+        return read(new DataInputStream(new ByteArrayInputStream(data)));
+    }
+
+    private static HomeSphereSystem read(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("不是HomeSphere快照文件");
+        }
+        int version = in.readInt();
+        if (version > VERSION) {
+            throw new IOException("不支持的快照版本: " + version);
+        }
+        int flags = in.readInt();
+        return new Reader(version, flags).read(in);
+    }
+
+    /**
+     * 获取设备的类型编码
+     */
+    static byte deviceTypeCode(Device device) {
+        if (device instanceof AirConditioner) return DEVICE_AIR_CONDITIONER;
+        if (device instanceof LightBulb) return DEVICE_LIGHT_BULB;
+        if (device instanceof SmartLock) return DEVICE_SMART_LOCK;
+        if (device instanceof BathroomScale) return DEVICE_BATHROOM_SCALE;
+        throw new IllegalArgumentException("不支持的设备类型: " + device.getClass().getName());
+    }
+
+    /**
+     * 该类型的设备是否带有额定功率（构造参数之一）
+     */
+    static boolean hasRatedPower(byte type) {
+        return type == DEVICE_AIR_CONDITIONER || type == DEVICE_LIGHT_BULB;
+    }
+
+    /**
+     * 获取设备的额定功率，没有额定功率的设备返回0
+     */
+    static double ratedPower(Device device) {
+        if (device instanceof AirConditioner) return ((AirConditioner) device).getRatedPower();
+        if (device instanceof LightBulb) return ((LightBulb) device).getRatedPower();
+        return 0;
+    }
+
+    /**
+     * 按类型编码创建设备，状态使用构造函数的默认值，随后由 readState 覆盖
+     */
+    static Device newDevice(byte type, int deviceId, String name, Manufacturer manufacturer, double ratedPower) throws IOException {
+        switch (type) {
+            case DEVICE_AIR_CONDITIONER:
+                return new AirConditioner(deviceId, name, manufacturer, ratedPower);
+            case DEVICE_LIGHT_BULB:
+                return new LightBulb(deviceId, name, manufacturer, ratedPower);
+            case DEVICE_SMART_LOCK:
+                return new SmartLock(deviceId, name, manufacturer);
+            case DEVICE_BATHROOM_SCALE:
+                return new BathroomScale(deviceId, name, manufacturer);
+            default:
+                throw new IOException("未知的设备类型编码: " + type);
+        }
+    }
+
+    /**
+     * 快照写入器：先把各段写入内存并收集字符串，最后连同字符串表一起输出
+     *
+     * 除了一次完成的 write()，也可以分阶段写入，使截取状态的开销不落在持锁或修改系统的线程上：
+     * capture() 为可达对象编号并为每台设备打开日志游标，截取此刻的日志范围；
+     * writeState() 写入除运行日志以外的全部内容，二者都需要在修改系统的线程中调用。
+     * writeLogs() 与 finish() 只通过游标读取日志（日志存储支持并发追加），可以交给其他线程，
+     * 但同一时刻只能有一个线程使用写入器
+     */
+    static class Writer {
+        private final HomeSphereSystem system;
+        private final boolean includeLogs;
+        private final Map<String, Integer> strings = new HashMap<>();
+        private final List<String> stringList = new ArrayList<>();
+        private final Map<Object, Integer> refs = new IdentityHashMap<>();
+        private final List<Manufacturer> manufacturers = new ArrayList<>();
+        private final List<Device> devices = new ArrayList<>();
+        private final List<User> users = new ArrayList<>();
+        private final List<AutomationScene> scenes = new ArrayList<>();
+
+        // 以下与 devices 一一对应：设备头部与状态、尚未写出的日志游标、已写出的日志及条数
+        private final List<byte[]> deviceHeads = new ArrayList<>();
+        private final List<RunningLogCursor> logCursors = new ArrayList<>();
+        private final List<ByteArrayOutputStream> logData = new ArrayList<>();
+        private int[] logCounts = new int[0];
+        // 设备段之前与之后的各段
+        private final ByteArrayOutputStream leadingSections = new ByteArrayOutputStream();
+        private final ByteArrayOutputStream trailingSections = new ByteArrayOutputStream();
+
+        Writer(HomeSphereSystem system, boolean includeLogs) {
+            this.system = system;
+            this.includeLogs = includeLogs;
+        }
+
+        byte[] write() throws IOException {
+            capture();
+            writeState();
+            return finish();
+        }
+
+        /**
+         * 阶段一：为所有可达对象编号，并为每台设备打开日志游标，快照只包含此刻已有的日志
+         * 只遍历对象图，不读取日志内容
+         */
+        void capture() {
+            collect();
+            if (includeLogs) {
+                for (Device device : devices) {
+                    logCursors.add(device.openLogCursor());
+                    logData.add(new ByteArrayOutputStream());
+                }
+                logCounts = new int[devices.size()];
+            }
+        }
+
+        /**
+         * 阶段二：写入除运行日志以外的全部内容
+         */
+        void writeState() throws IOException {
+            for (Device device : devices) {
+                ByteArrayOutputStream head = new ByteArrayOutputStream(64);
+                DataOutputStream out = new DataOutputStream(head);
+                writeDeviceHead(out, device);
+                out.flush();
+                deviceHeads.add(head.toByteArray());
+            }
+
+            DataOutputStream leading = new DataOutputStream(leadingSections);
+            writeSection(leading, SECTION_MANUFACTURERS, this::writeManufacturers);
+            leading.flush();
+
+            DataOutputStream trailing = new DataOutputStream(trailingSections);
+            writeSection(trailing, SECTION_MANUFACTURER_DEVICES, this::writeManufacturerDevices);
+            writeSection(trailing, SECTION_USERS, this::writeUsers);
+            writeSection(trailing, SECTION_SCENES, this::writeScenes);
+            writeSection(trailing, SECTION_HOUSEHOLD, this::writeHousehold);
+            writeSection(trailing, SECTION_SYSTEM, this::writeSystem);
+            trailing.writeByte(SECTION_END);
+            trailing.flush();
+        }
+
+        /**
+         * 读完各设备已打开的日志游标；遍历期间被淘汰的日志跳过，条数按实际写出的计算
+         */
+        void writeLogs() throws IOException {
+            for (int i = 0; i < logCursors.size(); i++) {
+                RunningLogCursor log = logCursors.get(i);
+                DataOutputStream out = new DataOutputStream(logData.get(i));
+                while (log.next()) {
+                    out.writeLong(log.getTime());
+                    out.writeByte(log.getType().getCode());
+                    out.writeInt(string(log.getEvent()));
+                    int noteCode = log.getNoteCode();
+                    out.writeInt(LogNoteTemplate.isEncoded(noteCode) ? noteCode : string(log.getNote()));
+                    logCounts[i]++;
+                }
+                out.flush();
+            }
+        }
+
+        /**
+         * 把截取范围延伸到当前：为每台设备续接游标，包含上次截取之后追加的日志
+         */
+        void extendLogs() {
+            for (int i = 0; i < logCursors.size(); i++) {
+                logCursors.set(i, devices.get(i).getLogStore().cursorAfter(logCursors.get(i)));
+            }
+        }
+
+        /**
+         * 阶段三：写出剩余的日志，并与前两个阶段的结果、字符串表一起组装成快照
+         */
+        byte[] finish() throws IOException {
+            writeLogs();
+
+            ByteArrayOutputStream deviceSection = new ByteArrayOutputStream();
+            DataOutputStream devicesOut = new DataOutputStream(deviceSection);
+            writeSection(devicesOut, SECTION_DEVICES, this::writeDevices);
+            devicesOut.flush();
+
+            int size = leadingSections.size() + deviceSection.size() + trailingSections.size();
+            ByteArrayOutputStream result = new ByteArrayOutputStream(size + 1024);
+            DataOutputStream header = new DataOutputStream(result);
+            header.writeInt(MAGIC);
+            header.writeInt(VERSION);
+            header.writeInt(includeLogs ? FLAG_RUNNING_LOGS : 0);
+            writeSection(header, SECTION_STRINGS, this::writeStrings);
+            header.flush();
+            leadingSections.writeTo(result);
+            deviceSection.writeTo(result);
+            trailingSections.writeTo(result);
+            return result.toByteArray();
+        }
+
+        /**
+         * 按出现顺序为所有可达对象编号
+         */
+        private void collect() {
+            Household household = system.getHousehold();
+            for (User user : system.getUsers()) addUser(user);
+            if (household != null) {
+                addUser(household.getAdmin());
+                for (User user : household.getUsers()) addUser(user);
+                for (Room room : household.getRooms()) {
+                    for (Device device : room.getDevices()) addDevice(device);
+                }
+                for (AutomationScene scene : household.getAutoScenes()) addScene(scene);
+            }
+            for (Device device : system.getAllDevices()) addDevice(device);
+            for (AutomationScene scene : system.getAutoScenes()) addScene(scene);
+
+            // 制造商的生产记录可能引用新的设备，直到闭包为止
+            for (int i = 0; i < manufacturers.size(); i++) {
+                for (Device device : manufacturers.get(i).getDevices()) addDevice(device);
+            }
+        }
+
+        private void addUser(User user) {
+            if (user != null && !refs.containsKey(user)) {
+                refs.put(user, users.size());
+                users.add(user);
+            }
+        }
+
+        private void addDevice(Device device) {
+            if (device != null && !refs.containsKey(device)) {
+                refs.put(device, devices.size());
+                devices.add(device);
+                Manufacturer manufacturer = device.getManufacturer();
+                if (manufacturer != null && !refs.containsKey(manufacturer)) {
+                    refs.put(manufacturer, manufacturers.size());
+                    manufacturers.add(manufacturer);
+                }
+            }
+        }
+
+        private void addScene(AutomationScene scene) {
+            if (scene != null && !refs.containsKey(scene)) {
+                refs.put(scene, scenes.size());
+                scenes.add(scene);
+                for (DeviceAction action : scene.getActions()) addDevice(action.getDevice());
+            }
+        }
+
+        private int ref(Object obj) {
+            return obj == null ? -1 : refs.get(obj);
+        }
+
+        int string(String s) {
+            if (s == null) return -1;
+            Integer index = strings.get(s);
+            if (index == null) {
+                index = stringList.size();
+                strings.put(s, index);
+                stringList.add(s);
+            }
+            return index;
+        }
+
+        private void writeStrings(DataOutputStream out) throws IOException {
+            out.writeInt(stringList.size());
+            for (String s : stringList) {
+                byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+        }
+
+        private void writeManufacturers(DataOutputStream out) throws IOException {
+            out.writeInt(manufacturers.size());
+            for (Manufacturer m : manufacturers) {
+                out.writeInt(m.getManufacturerId());
+                out.writeInt(string(m.getName()));
+                out.writeInt(string(m.getProtocols()));
+            }
+        }
+
+        private void writeDevices(DataOutputStream out) throws IOException {
+            out.writeInt(devices.size());
+            for (int i = 0; i < devices.size(); i++) {
+                out.write(deviceHeads.get(i));
+                if (includeLogs) {
+                    out.writeInt(logCounts[i]);
+                    out.writeLong(logCursors.get(i).endPosition());
+                    logData.get(i).writeTo(out);
+                }
+            }
+        }
+
+        /**
+         * 写入设备的通用头部与设备自身状态，运行日志由 writeLogs 单独写出
+         */
+        private void writeDeviceHead(DataOutputStream out, Device device) throws IOException {
+            byte type = deviceTypeCode(device);
+            out.writeByte(type);
+            out.writeInt(device.getDeviceId());
+            out.writeInt(string(device.getName()));
+            out.writeInt(ref(device.getManufacturer()));
+            if (hasRatedPower(type)) {
+                out.writeDouble(ratedPower(device));
+            }
+            device.writeState(out);
+        }
+
+        private void writeManufacturerDevices(DataOutputStream out) throws IOException {
+            out.writeInt(manufacturers.size());
+            for (Manufacturer m : manufacturers) {
+                List<Device> produced = m.getDevices();
+                out.writeInt(produced.size());
+                for (Device device : produced) out.writeInt(ref(device));
+            }
+        }
+
+        private void writeUsers(DataOutputStream out) throws IOException {
+            out.writeInt(users.size());
+            for (User user : users) {
+                out.writeInt(user.getUserId());
+                out.writeInt(string(user.getLoginName()));
+                out.writeInt(string(user.getLoginPassword()));
+                out.writeInt(string(user.getUserName()));
+                out.writeInt(string(user.getEmail()));
+                out.writeBoolean(user.isAdmin());
+            }
+        }
+
+        private void writeScenes(DataOutputStream out) throws IOException {
+            out.writeInt(scenes.size());
+            for (AutomationScene scene : scenes) {
+                out.writeInt(scene.getSceneld());
+                out.writeInt(string(scene.getName()));
+                out.writeInt(string(scene.getDescription()));
+                List<DeviceAction> actions = scene.getActions();
+                out.writeInt(actions.size());
+                for (DeviceAction action : actions) {
+                    out.writeInt(ref(action.getDevice()));
+                    out.writeInt(string(action.getCommand()));
+                    out.writeInt(string(action.getParameters()));
+                }
+            }
+        }
+
+        private void writeHousehold(DataOutputStream out) throws IOException {
+            Household household = system.getHousehold();
+            out.writeBoolean(household != null);
+            if (household == null) return;
+
+            out.writeInt(household.getHouseholdId());
+            out.writeInt(string(household.getAddress()));
+            out.writeInt(ref(household.getAdmin()));
+            writeRefs(out, household.getUsers());
+
+            List<Room> rooms = household.getRooms();
+            out.writeInt(rooms.size());
+            for (Room room : rooms) {
+                out.writeInt(room.getRoomId());
+                out.writeInt(string(room.getName()));
+                out.writeDouble(room.getArea());
+                writeRefs(out, room.getDevices());
+            }
+            writeRefs(out, household.getAutoScenes());
+        }
+
+        private void writeSystem(DataOutputStream out) throws IOException {
+            writeRefs(out, system.getUsers());
+            writeRefs(out, system.getAllDevices());
+            writeRefs(out, system.getAutoScenes());
+        }
+
+        private void writeRefs(DataOutputStream out, List<?> objects) throws IOException {
+            out.writeInt(objects.size());
+            for (Object obj : objects) out.writeInt(ref(obj));
+        }
+    }
+
+    /**
+     * 快照读取器，按段顺序重建对象图
+     */
+    static class Reader {
+        private final int version;
+        private final boolean hasLogs;
+        private String[] strings = new String[0];
+        private Manufacturer[] manufacturers = new Manufacturer[0];
+        private Device[] devices = new Device[0];
+        private User[] users = new User[0];
+        private AutomationScene[] scenes = new AutomationScene[0];
+        private Household household;
+        private final HomeSphereSystem system = new HomeSphereSystem();
+        private boolean systemRestored;
+
+        Reader(int version, int flags) {
+            this.version = version;
+            this.hasLogs = (flags & FLAG_RUNNING_LOGS) != 0;
+        }
+
+        HomeSphereSystem read(DataInputStream in) throws IOException {
+            while (true) {
+                byte tag = in.readByte();
+                if (tag == SECTION_END) break;
+                int length = in.readInt();
+                switch (tag) {
+                    case SECTION_STRINGS: readStrings(in); break;
+                    case SECTION_MANUFACTURERS: readManufacturers(in); break;
+                    case SECTION_DEVICES: readDevices(in); break;
+                    case SECTION_MANUFACTURER_DEVICES: readManufacturerDevices(in); break;
+                    case SECTION_USERS: readUsers(in); break;
+                    case SECTION_SCENES: readScenes(in); break;
+                    case SECTION_HOUSEHOLD: readHousehold(in); break;
+                    case SECTION_SYSTEM: readSystem(in); break;
+                    default: in.skipNBytes(length);
+                }
+            }
+            if (!systemRestored) {
+                system.restoreState(Collections.emptyList(), Collections.emptyList(), Collections.emptyList(), household);
+            }
+            return system;
+        }
+
+        String string(int index) {
+            return index < 0 ? null : strings[index];
+        }
+
+        private void readStrings(DataInputStream in) throws IOException {
+            strings = new String[in.readInt()];
+            byte[] buffer = new byte[256];
+            for (int i = 0; i < strings.length; i++) {
+                int length = in.readInt();
+                if (buffer.length < length) buffer = new byte[Math.max(length, buffer.length * 2)];
+                in.readFully(buffer, 0, length);
+                strings[i] = new String(buffer, 0, length, StandardCharsets.UTF_8);
+            }
+        }
+
+        private void readManufacturers(DataInputStream in) throws IOException {
+            manufacturers = new Manufacturer[in.readInt()];
+            for (int i = 0; i < manufacturers.length; i++) {
+                manufacturers[i] = new Manufacturer(in.readInt(), string(in.readInt()), string(in.readInt()));
+            }
+        }
+
+        private void readDevices(DataInputStream in) throws IOException {
+            devices = new Device[in.readInt()];
+            for (int i = 0; i < devices.length; i++) {
+                devices[i] = readDevice(in);
+            }
+        }
+
+        Device readDevice(DataInputStream in) throws IOException {
+            byte type = in.readByte();
+            int deviceId = in.readInt();
+            String name = string(in.readInt());
+            int manufacturerRef = in.readInt();
+            Manufacturer manufacturer = manufacturerRef < 0 ? null : manufacturers[manufacturerRef];
+
+            double power = hasRatedPower(type) ? in.readDouble() : 0;
+            Device device = newDevice(type, deviceId, name, manufacturer, power);
+            device.readState(in);
+
+            if (hasLogs) {
+                int count = in.readInt();
+                RunningLogStore logs = device.getLogStore();
+                if (version >= 2) {
+                    long cut = in.readLong();
+                    logs.startAt(cut - count);
+                }
+                for (int i = 0; i < count; i++) {
+                    long time = in.readLong();
+                    RunningLog.Type logType = RunningLog.Type.fromCode(in.readByte());
+                    String event = string(in.readInt());
+                    int note = in.readInt();
+                    if (LogNoteTemplate.isEncoded(note)) {
+                        logs.appendCoded(time, logType, event, null, note);
+                    } else {
+                        logs.append(time, logType, event, string(note));
+                    }
+                }
+            }
+            return device;
+        }
+
+        private void readManufacturerDevices(DataInputStream in) throws IOException {
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                int produced = in.readInt();
+                for (int j = 0; j < produced; j++) {
+                    manufacturers[i].addDevice(devices[in.readInt()]);
+                }
+            }
+        }
+
+        private void readUsers(DataInputStream in) throws IOException {
+            users = new User[in.readInt()];
+            for (int i = 0; i < users.length; i++) {
+                int userId = in.readInt();
+                String loginName = string(in.readInt());
+                String password = string(in.readInt());
+                String username = string(in.readInt());
+                String email = string(in.readInt());
+                boolean isAdmin = in.readBoolean();
+                users[i] = new User(userId, loginName, password, username, email, isAdmin);
+            }
+        }
+
+        private void readScenes(DataInputStream in) throws IOException {
+            scenes = new AutomationScene[in.readInt()];
+            for (int i = 0; i < scenes.length; i++) {
+                AutomationScene scene = new AutomationScene(in.readInt(), string(in.readInt()), string(in.readInt()));
+                int actionCount = in.readInt();
+                for (int j = 0; j < actionCount; j++) {
+                    int deviceRef = in.readInt();
+                    Device device = deviceRef < 0 ? null : devices[deviceRef];
+                    scene.addAction(new DeviceAction(device, string(in.readInt()), string(in.readInt())));
+                }
+                scenes[i] = scene;
+            }
+        }
+
+        private void readHousehold(DataInputStream in) throws IOException {
+            if (!in.readBoolean()) return;
+
+            household = new Household(in.readInt(), string(in.readInt()));
+            int adminRef = in.readInt();
+            List<User> members = new ArrayList<>();
+            int userCount = in.readInt();
+            for (int i = 0; i < userCount; i++) members.add(users[in.readInt()]);
+            household.restoreMembers(adminRef < 0 ? null : users[adminRef], members);
+
+            int roomCount = in.readInt();
+            for (int i = 0; i < roomCount; i++) {
+                Room room = new Room(in.readInt(), string(in.readInt()), in.readDouble());
+                int deviceCount = in.readInt();
+                for (int j = 0; j < deviceCount; j++) room.addDevice(devices[in.readInt()]);
+                household.addRoom(room);
+            }
+            int sceneCount = in.readInt();
+            for (int i = 0; i < sceneCount; i++) household.addAutoScene(scenes[in.readInt()]);
+        }
+
+        private void readSystem(DataInputStream in) throws IOException {
+            List<User> systemUsers = new ArrayList<>();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) systemUsers.add(users[in.readInt()]);
+            List<Device> systemDevices = new ArrayList<>();
+            count = in.readInt();
+            for (int i = 0; i < count; i++) systemDevices.add(devices[in.readInt()]);
+            List<AutomationScene> systemScenes = new ArrayList<>();
+            count = in.readInt();
+            for (int i = 0; i < count; i++) systemScenes.add(scenes[in.readInt()]);
+
+            system.restoreState(systemUsers, systemDevices, systemScenes, household);
+            systemRestored = true;
+        }
+    }
+
+    /**
+     * 段内容写入回调
+     */
+    private interface SectionBody {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private static void writeSection(DataOutputStream out, byte tag, SectionBody body) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream section = new DataOutputStream(buffer);
+        body.write(section);
+        section.flush();
+        out.writeByte(tag);
+        out.writeInt(buffer.size());
+        buffer.writeTo(out);
+    }
+}
@@ -1,5 +1,7 @@
 package cn.edu.nwpu.homesphere;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
@@ -15,6 +17,7 @@ public class HomeSphereSystem {
     private List<AutomationScene> autoScenes;
     private Household household;
     private User currentUser;
+    private StateChangeListener listener;
     private static volatile HomeSphereSystem instance;
 
     
@@ -93,11 +96,15 @@ public class HomeSphereSystem {
     private void createDefaultAdminUser() {
         User admin = new User(1, "admin", "admin", "系统管理员", "admin@homesphere.com", true);
         users.add(admin);
+        if (listener != null) {
+            listener.systemUserAdded(admin);
+        }
 
         // 如果还没有家庭，创建默认家庭
         if (household == null) {
             household = new Household(1, "默认家庭地址", admin);
             household.setSystem(this);
+            householdAttached();
         } else {
             // 确保家庭中有admin用户
             household.addUser(admin);
@@ -164,8 +171,12 @@ public class HomeSphereSystem {
             if (household == null) {
                 household = new Household(1, "默认家庭地址", newUser);
                 household.setSystem(this);
+                householdAttached();
             }
         }
+        if (listener != null) {
+            listener.systemUserAdded(newUser);
+        }
 
         // 确保用户被添加到家庭
         if (household != null) {
@@ -198,6 +209,7 @@ public class HomeSphereSystem {
         }
         
         System.out.println("所有设备列表:");
+        materializeHousehold();
         for (Device device : devices) {
             System.out.println(device);
         }
@@ -246,6 +258,7 @@ public class HomeSphereSystem {
         
         System.out.println("能源消耗报告 (" + startTime + " 至 " + endTime + "):");
         double totalEnergy = 0;
+        materializeHousehold();
         
         for (Device device : devices) {
             if (device instanceof EnergyReporting) {
@@ -288,16 +301,50 @@ public class HomeSphereSystem {
      */
     public void addDevice(Device device) {
         if (!checkAdmin()) return;
-        devices.add(device);
+        addDeviceUnchecked(device);
         LOGGER.info("添加设备成功: " + device.getName());
     }
+
+    /**
+     * 添加设备，不做权限检查，供快照恢复与日志重放等内部流程使用
+     * @param device 设备对象
+     */
+    void addDeviceUnchecked(Device device) {
+        devices.add(device);
+        if (listener != null) {
+            device.attachListener(listener);
+            listener.systemDeviceAdded(device);
+        }
+    }
     
+    /**
+     * 从系统设备列表中移除设备，供热重载使用
+     * 状态变更监听器没有对应的事件，调用方需要另行通知（见 Household.fireHouseholdChanged）
+     * @param deviceId 设备ID
+     * @return 是否移除成功
+     */
+    boolean removeDeviceUnchecked(int deviceId) {
+        return devices.removeIf(device -> device.getDeviceId() == deviceId);
+    }
+
+    /**
+     * 从系统场景列表中移除场景，供热重载使用，同样没有对应的监听事件
+     * @param sceneId 场景ID
+     * @return 是否移除成功
+     */
+    boolean removeAutoSceneUnchecked(int sceneId) {
+        return autoScenes.removeIf(scene -> scene.getSceneld() == sceneId);
+    }
+
     /**
      * 添加自动化场景
      * @param scene 场景对象
      */
     public void addAutoScene(AutomationScene scene) {
         autoScenes.add(scene);
+        if (listener != null) {
+            listener.systemSceneAdded(scene);
+        }
         LOGGER.info("添加自动化场景成功: " + scene.getName());
     }
     
@@ -348,16 +395,79 @@ public class HomeSphereSystem {
                     users.add(user);
                 }
             }
+            householdAttached();
+        }
+    }
+
+    /**
+     * 设置状态变更监听器，并传递给家庭、房间与所有设备
+     * @param listener 监听器，null表示移除
+     */
+    void setStateChangeListener(StateChangeListener listener) {
+        // 先物化延迟加载的设备，物化本身不是需要记录的变更
+        materializeHousehold();
+        this.listener = listener;
+        for (Device device : devices) {
+            device.attachListener(listener);
+        }
+        if (household != null) {
+            household.attachListener(listener);
+        }
+    }
+
+    /**
+     * 新家庭关联到系统后，传递监听器并通知家庭已替换
+     */
+    private void householdAttached() {
+        if (listener != null) {
+            household.attachListener(listener);
+            listener.householdChanged(household);
         }
     }
     
+    /**
+     * 从快照恢复系统状态，直接替换内部列表，不做权限检查与用户同步
+     * @param users 用户列表
+     * @param devices 设备列表
+     * @param autoScenes 场景列表
+     * @param household 家庭对象
+     */
+    void restoreState(List<User> users, List<Device> devices, List<AutomationScene> autoScenes, Household household) {
+        this.users = new ArrayList<>(users);
+        this.devices = new ArrayList<>(devices);
+        this.autoScenes = new ArrayList<>(autoScenes);
+        this.household = household;
+        this.currentUser = null;
+        if (household != null) {
+            household.restoreSystem(this);
+        }
+    }
+
     /**
      * 获取所有设备
      * @return 设备列表
      */
     public List<Device> getAllDevices() {
+        materializeHousehold();
         return new ArrayList<>(devices);
     }
+
+    /**
+     * 延迟加载的家庭在物化时才把设备加入系统，访问系统设备列表之前先物化
+     */
+    private void materializeHousehold() {
+        if (household != null) {
+            household.materializeAll();
+        }
+    }
+
+    /**
+     * 获取所有自动化场景
+     * @return 场景列表
+     */
+    public List<AutomationScene> getAutoScenes() {
+        return new ArrayList<>(autoScenes);
+    }
     
 
     /**
@@ -372,6 +482,34 @@ public class HomeSphereSystem {
         return formatter.format(household);
     }
 
+    /**
+     * 使用指定格式把运行日志逐条写入 out，导出到文件时不在内存中生成完整的结果
+     * @param formatter 日志格式化器
+     * @param out 输出目标
+     * @throws IOException 写入 out 失败时抛出
+     */
+    public void exportLogsWithFormatter(RunningLogFormatter formatter, Appendable out) throws IOException {
+        if (household == null) {
+            out.append("错误：系统中没有设置家庭信息");
+            return;
+        }
+        formatter.format(household, out);
+    }
+
+    /**
+     * 把上次增量导出之后的新运行日志追加到文件，并保存各设备的导出水位
+     * @param exporter 增量导出器
+     * @param file 导出文件
+     * @return 导出的日志条数，系统中没有家庭时返回0
+     * @throws IOException 写入导出文件或水位文件失败时抛出
+     */
+    public int exportNewLogs(IncrementalLogExporter exporter, Path file) throws IOException {
+        if (household == null) {
+            return 0;
+        }
+        return exporter.exportTo(household, file);
+    }
+
     /**
      * 获取所有可用的日志格式化器
      * @return 格式化器数组
@@ -380,7 +518,8 @@ public class HomeSphereSystem {
         return new RunningLogFormatter[] {
                 new JsonRunningLogFormatter(),
                 new HtmlRunningLogFormatter(),
-                new XmlRunningLogFormatter()
+                new XmlRunningLogFormatter(),
+                new JsonLinesRunningLogFormatter()
         };
     }
 
@@ -403,6 +542,9 @@ public class HomeSphereSystem {
             }
             if (!userExists) {
                 users.add(user);
+                if (listener != null) {
+                    listener.systemUserAdded(user);
+                }
             }
 
         }
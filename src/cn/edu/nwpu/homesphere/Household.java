@@ -1,7 +1,11 @@
 package cn.edu.nwpu.homesphere;
 
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * 家庭类，代表HomeSphere系统中的一个家庭
@@ -14,6 +18,25 @@ public class Household {
     private List<Room> rooms;
     private List<AutomationScene> autoScenes;
     private HomeSphereSystem system;
+    private StateChangeListener listener;
+    // 延迟加载模式下尚未物化的房间，物化后为null
+    private LazyHouseholdIndex lazyRooms;
+    // 延迟加载的房间中是否可能还有未物化的设备
+    private boolean lazyDevices;
+    // 运行日志保留策略：家庭默认值与按设备类型的覆盖
+    private LogRetentionPolicy logRetention = LogRetentionPolicy.UNLIMITED;
+    private final Map<String, LogRetentionPolicy> typeLogRetention = new HashMap<>();
+    // 运行日志溢出目录与每台设备的堆内预算，目录为null表示不溢出
+    private Path logSpillDirectory;
+    private long logHeapBudget;
+    private RunningLogPersister logPersister;
+    /** 默认的并行导出阈值（日志总条数） */
+    public static final long DEFAULT_LOG_EXPORT_THRESHOLD = 20_000;
+    // 导出运行日志时并行格式化设备日志的线程数，日志总条数低于阈值时按顺序格式化
+    private int logExportParallelism = Runtime.getRuntime().availableProcessors();
+    private long logExportThreshold = DEFAULT_LOG_EXPORT_THRESHOLD;
+    // 并行导出使用的线程池，第一次并行导出时创建，各次导出共用；并行度与公共线程池相同时使用公共线程池
+    private ForkJoinPool logExportPool;
     /**
      * 构造函数
      * @param householdId 家庭ID
@@ -53,12 +76,26 @@ public class Household {
         syncSystemUsers(); // 设置后立即同步用户
     }
 
+    /**
+     * 从快照恢复与系统的关联，不触发用户同步
+     * @param system 系统对象
+     */
+    void restoreSystem(HomeSphereSystem system) {
+        this.system = system;
+    }
+
     /**
      * 添加房间
      * @param room 房间对象
      */
     public void addRoom(Room room) {
+        materializeRooms();
         rooms.add(room);
+        room.attachHousehold(this);
+        if (listener != null) {
+            room.attachListener(listener);
+            listener.roomAdded(room);
+        }
     }
 
     /**
@@ -66,6 +103,7 @@ public class Household {
      * @return 房间列表
      */
     public List<Room> getRooms() {
+        materializeRooms();
         return new ArrayList<>(rooms);
     }
 
@@ -74,7 +112,10 @@ public class Household {
      * @param roomId 房间ID
      */
     public void removeRoom(int roomId) {
-        rooms.removeIf(room -> room.getRoomId() == roomId);
+        materializeRooms();
+        if (rooms.removeIf(room -> room.getRoomId() == roomId) && listener != null) {
+            listener.roomRemoved(roomId);
+        }
     }
 
     /**
@@ -93,6 +134,9 @@ public class Household {
             }
             if (!userExists) {
                 users.add(user);
+                if (listener != null) {
+                    listener.userAdded(user);
+                }
                 // 如果system存在，也将用户添加到system
                 if (system != null) {
                     system.addUserToSystem(user);
@@ -116,6 +160,9 @@ public class Household {
             }
             if (!userExists) {
                 users.add(user);
+                if (listener != null) {
+                    listener.userAdded(user);
+                }
             }
         }
     }
@@ -127,7 +174,9 @@ public class Household {
      * @param userId 用户ID
      */
     public void removeUser(int userId) {
-        users.removeIf(user -> user.getUserId() == userId);
+        if (users.removeIf(user -> user.getUserId() == userId) && listener != null) {
+            listener.userRemoved(userId);
+        }
     }
 
     /**
@@ -144,6 +193,9 @@ public class Household {
      */
     public void addAutoScene(AutomationScene autoScene) {
         autoScenes.add(autoScene);
+        if (listener != null) {
+            listener.sceneAdded(autoScene);
+        }
     }
 
     /**
@@ -158,7 +210,9 @@ public class Household {
      * @param sceneId 场景ID
      */
     public void removeAutoScene(int sceneId) {
-        autoScenes.removeIf(scene -> scene.getSceneld() == sceneId);
+        if (autoScenes.removeIf(scene -> scene.getSceneld() == sceneId) && listener != null) {
+            listener.sceneRemoved(sceneId);
+        }
     }
 
     /**
@@ -174,6 +228,7 @@ public class Household {
      * @return 设备列表
      */
     public List<Device> listAllDevices() {
+        materializeAll();
         List<Device> allDevices = new ArrayList<>();
         for (Room room : rooms) {
             allDevices.addAll(room.getDevices());
@@ -181,6 +236,44 @@ public class Household {
         return allDevices;
     }
 
+    /**
+     * 打开家庭中所有设备在时间范围内的运行日志时间线，按时间顺序归并
+     * @param fromTime 起始时间（毫秒，含）
+     * @param toTime 结束时间（毫秒，不含）
+     * @return 时间线
+     */
+    public HouseholdLogTimeline openLogTimeline(long fromTime, long toTime) {
+        return new HouseholdLogTimeline(listAllDevices(), fromTime, toTime);
+    }
+
+    /**
+     * 获取家庭中所有设备在 time 所在小时内某类日志的条数，由各房间的统计相加
+     * @param type 日志类型
+     * @param time 该小时内的任意时间（毫秒）
+     * @return 条数
+     */
+    public int countLogsInHour(RunningLog.Type type, long time) {
+        int count = 0;
+        for (Room room : rooms) {
+            count += room.countLogsInHour(type, time);
+        }
+        return count;
+    }
+
+    /**
+     * 获取家庭中所有设备在 time 所在当天某类日志的条数
+     * @param type 日志类型
+     * @param time 当天的任意时间（毫秒）
+     * @return 条数
+     */
+    public int countLogsInDay(RunningLog.Type type, long time) {
+        int count = 0;
+        for (Room room : rooms) {
+            count += room.countLogsInDay(type, time);
+        }
+        return count;
+    }
+
     /**
      * 获取家庭ID
      * @return 家庭ID
@@ -218,6 +311,230 @@ public class Household {
                 users.add(admin);
             }
         }
+        if (listener != null) {
+            listener.householdChanged(this);
+        }
+    }
+
+    /**
+     * 设置家庭内所有设备默认的运行日志保留策略，没有单独按类型设置的设备立即按新策略淘汰
+     * @param policy 保留策略，null表示不限制
+     */
+    public void setLogRetention(LogRetentionPolicy policy) {
+        this.logRetention = policy == null ? LogRetentionPolicy.UNLIMITED : policy;
+        applyLogSettings();
+    }
+
+    /**
+     * 为某一类设备设置运行日志保留策略，覆盖家庭默认值
+     * @param deviceType 设备类型，如 Device.TYPE_LIGHT_BULB
+     * @param policy 保留策略，null表示恢复使用家庭默认值
+     */
+    public void setLogRetention(String deviceType, LogRetentionPolicy policy) {
+        if (policy == null) {
+            typeLogRetention.remove(deviceType);
+        } else {
+            typeLogRetention.put(deviceType, policy);
+        }
+        applyLogSettings();
+    }
+
+    /**
+     * 获取某一类设备生效的运行日志保留策略
+     * @param deviceType 设备类型
+     * @return 按类型设置的策略，没有时返回家庭默认值
+     */
+    public LogRetentionPolicy getLogRetention(String deviceType) {
+        LogRetentionPolicy policy = typeLogRetention.get(deviceType);
+        return policy != null ? policy : logRetention;
+    }
+
+    /**
+     * 设置运行日志溢出：每台设备堆中的日志估算占用超过预算时，较早的日志移入目录下的内存映射日志段文件
+     * 格式化输出与 getRunningLogs 透明地读取堆中与日志段中的日志
+     * @param directory 日志段目录，null表示停止溢出
+     * @param heapBudgetBytes 每台设备堆内日志占用的上限（字节）
+     */
+    public void setLogSpill(Path directory, long heapBudgetBytes) {
+        if (directory != null && heapBudgetBytes <= 0) {
+            throw new IllegalArgumentException("堆内预算必须大于0: " + heapBudgetBytes);
+        }
+        this.logSpillDirectory = directory;
+        this.logHeapBudget = heapBudgetBytes;
+        applyLogSettings();
+    }
+
+    /**
+     * 关闭运行日志溢出：停止溢出并删除所有设备的日志段文件，已溢出的日志随之丢弃。
+     * 日志段只是内存的溢出缓存，家庭不再使用时调用以清理文件
+     */
+    public void closeLogSpill() {
+        this.logSpillDirectory = null;
+        this.logHeapBudget = 0;
+        for (Room room : rooms) {
+            room.closeLogSpill();
+        }
+    }
+
+    public Path getLogSpillDirectory() {
+        return logSpillDirectory;
+    }
+
+    /**
+     * 设置运行日志的异步持久化管道，家庭中所有设备之后追加的日志都写入它
+     * @param persister 持久化管道，null表示停止持久化（不关闭原来的管道）
+     */
+    public void setLogPersister(RunningLogPersister persister) {
+        this.logPersister = persister;
+        applyLogSettings();
+    }
+
+    public RunningLogPersister getLogPersister() {
+        return logPersister;
+    }
+
+    /**
+     * 设置导出运行日志的并行度：日志总条数不低于阈值时，各设备的日志片段在 parallelism 个线程上格式化，
+     * 再按房间与设备的原有顺序写出，结果与顺序格式化完全相同
+     * @param parallelism 线程数，1表示始终按顺序格式化
+     * @param threshold 启用并行的日志总条数下限
+     */
+    public synchronized void setLogExportParallelism(int parallelism, long threshold) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("并行度必须大于0: " + parallelism);
+        }
+        if (logExportPool != null && parallelism != logExportParallelism) {
+            // 正在进行的导出仍可完成已提交的片段，之后的导出使用新的线程池
+            logExportPool.shutdown();
+            logExportPool = null;
+        }
+        this.logExportParallelism = parallelism;
+        this.logExportThreshold = threshold;
+    }
+
+    /**
+     * 获取并行导出使用的线程池，按当前并行度在第一次使用时创建
+     * @return 线程池，不能由调用方关闭
+     */
+    synchronized ForkJoinPool getLogExportPool() {
+        if (logExportParallelism == ForkJoinPool.getCommonPoolParallelism()) {
+            return ForkJoinPool.commonPool();
+        }
+        if (logExportPool == null) {
+            logExportPool = new ForkJoinPool(logExportParallelism);
+        }
+        return logExportPool;
+    }
+
+    public int getLogExportParallelism() {
+        return logExportParallelism;
+    }
+
+    public long getLogExportThreshold() {
+        return logExportThreshold;
+    }
+
+    /**
+     * 按家庭的设置配置一台设备的运行日志保留策略、溢出与持久化
+     * @param device 设备
+     */
+    void configureDeviceLog(Device device) {
+        device.setLogRetention(getLogRetention(device.getDeviceType()));
+        device.setLogSpill(logSpillDirectory, logHeapBudget);
+        device.setLogPersister(logPersister);
+    }
+
+    /**
+     * 对已创建的房间与设备应用运行日志设置，延迟加载的设备在物化时应用
+     */
+    private void applyLogSettings() {
+        for (Room room : rooms) {
+            room.applyLogSettings();
+        }
+    }
+
+    /**
+     * 通知监听器家庭发生了无法用单独事件描述的变化（例如热重载修改了房间属性）
+     */
+    void fireHouseholdChanged() {
+        if (listener != null) {
+            listener.householdChanged(this);
+        }
+    }
+
+    /**
+     * 设置状态变更监听器，并传递给所有房间
+     * @param listener 监听器，null表示移除
+     */
+    void attachListener(StateChangeListener listener) {
+        materializeAll();
+        this.listener = listener;
+        for (Room room : rooms) {
+            room.attachListener(listener);
+        }
+    }
+
+    /**
+     * 关联延迟加载的房间索引，房间在第一次访问时才创建
+     * 已注册监听器时立即物化，保证变更日志中不缺少房间
+     * @param index 房间索引
+     */
+    void attachLazyRooms(LazyHouseholdIndex index) {
+        this.lazyRooms = index;
+        this.lazyDevices = true;
+        if (listener != null) {
+            materializeAll();
+        }
+    }
+
+    /**
+     * 房间与设备是否已全部创建
+     * @return 非延迟加载或已物化时返回true
+     */
+    boolean isMaterialized() {
+        return !lazyDevices;
+    }
+
+    /**
+     * 物化延迟加载的全部房间与设备，使系统的设备列表完整
+     */
+    void materializeAll() {
+        if (!lazyDevices) return;
+        materializeRooms();
+        for (Room room : rooms) {
+            room.materializeDevices();
+        }
+        lazyDevices = false;
+    }
+
+    /**
+     * 物化延迟加载的房间，放在已有房间之前以保持文件中的顺序
+     * 读取失败时保留索引，之后的访问会重新读取并再次抛出异常，而不是把家庭当作没有房间
+     */
+    private void materializeRooms() {
+        if (lazyRooms == null) return;
+        List<Room> loaded = lazyRooms.materializeRooms();
+        lazyRooms = null;
+        rooms.addAll(0, loaded);
+        for (Room room : loaded) {
+            room.attachHousehold(this);
+        }
+        if (listener != null) {
+            for (Room room : loaded) {
+                room.attachListener(listener);
+                listener.roomAdded(room);
+            }
+        }
+    }
+
+    /**
+     * 从快照恢复管理员与成员列表，保持原有顺序，不做去重与系统同步
+     * @param admin 管理员用户
+     * @param members 成员列表
+     */
+    void restoreMembers(User admin, List<User> members) {
+        this.admin = admin;
+        this.users = new ArrayList<>(members);
     }
 
     /**
@@ -227,6 +544,7 @@ public class Household {
     @Override
     public String toString() {
         int adminId = (admin != null) ? admin.getUserId() : -1;
-        return "Household{householdId=" + householdId + ", address='" + address + "', adminId=" + adminId + ", userCount=" + users.size() + ", roomCount=" + rooms.size() + "}";
+        int roomCount = rooms.size() + (lazyRooms == null ? 0 : lazyRooms.getRoomCount());
+        return "Household{householdId=" + householdId + ", address='" + address + "', adminId=" + adminId + ", userCount=" + users.size() + ", roomCount=" + roomCount + "}";
     }
 }
\ No newline at end of file
@@ -1,24 +1,94 @@
 package cn.edu.nwpu.homesphere;
 
 import java.io.*;
-import java.util.*;
-import java.util.regex.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * 家庭数据加载器
+ * 加载分为两个阶段：解析阶段把每行记录转换为 ParsedRecord（不修改系统状态，可并行执行），
+ * 链接阶段按文件顺序把记录应用到系统，通过以ID为键的索引把设备挂到房间；
+ * 场景依赖设备，在所有记录应用完之后再通过设备索引解析动作并加入系统。
+ * 每次加载的结果汇总在 LoadReport 中，静默模式下不向控制台输出任何内容
+ * 延迟加载模式只为房间和设备记录建立偏移索引，对象在第一次访问时才创建（见 LazyHouseholdIndex）
  */
 public class HouseholdDataLoader {
+    /** 并行解析时每个任务处理的最少行数 */
+    private static final int PARALLEL_CHUNK_LINES = 4096;
+    /** 内存映射模式下每次映射的窗口大小，单条记录不能超过该大小 */
+    private static final int MAP_WINDOW_BYTES = 1 << 28;
+
     private HomeSphereSystem system;
+    private final RecordTokenizer tokenizer = new RecordTokenizer();
+    private boolean quiet;
+    private LoadReport report;
+
+    // 链接阶段使用的索引，随当前家庭一起重建
+    private Household indexedHousehold;
+    private Map<Integer, Room> roomIndex = new HashMap<>();
+    private final Map<Integer, Device> deviceIndex = new HashMap<>();
+    private final List<ParsedRecord> pendingScenes = new ArrayList<>();
+
+    // 延迟加载模式下的数据文件与当前家庭的房间、设备索引，其他模式下为null
+    private Path lazyFile;
+    private LazyHouseholdIndex lazyIndex;
+
+    // 数据文件中的命令名 -> DeviceAction.execute 使用的命令名
+    private static final Map<String, String> COMMAND_ALIASES = new HashMap<>();
+
+    static {
+        COMMAND_ALIASES.put("powerOn", "power_on");
+        COMMAND_ALIASES.put("powerOff", "power_off");
+        COMMAND_ALIASES.put("setBrightness", "set_brightness");
+        COMMAND_ALIASES.put("setColorTemp", "set_colortemp");
+        COMMAND_ALIASES.put("setTemperature", "set_temperature");
+        COMMAND_ALIASES.put("setTargetTemp", "set_temperature");
+        COMMAND_ALIASES.put("measureWeight", "measure_weight");
+    }
 
     public HouseholdDataLoader(HomeSphereSystem system) {
         this.system = system;
     }
 
+    /**
+     * 设置静默模式，静默时不向标准输出和标准错误写任何内容，结果只通过 LoadReport 返回
+     * @param quiet 是否静默
+     */
+    public void setQuiet(boolean quiet) {
+        this.quiet = quiet;
+    }
+
+    public boolean isQuiet() {
+        return quiet;
+    }
+
+    /**
+     * 获取最近一次加载的报告
+     * @return 加载报告，尚未加载时返回null
+     */
+    public LoadReport getLastReport() {
+        return report;
+    }
+
     /**
      * 从文件加载数据，按照顺序解析
+     * @param filename 数据文件
+     * @return 加载报告
      */
-    public void loadFromFile(String filename) throws IOException {
-        System.out.println("开始加载文件: " + filename);
+    public LoadReport loadFromFile(String filename) throws IOException {
+        long startTime = System.nanoTime();
+        beginLoad(filename, "顺序");
+        info("开始加载文件: " + filename);
 
         try (BufferedReader reader = new BufferedReader(
                 new InputStreamReader(new FileInputStream(filename), "UTF-8"))) {
@@ -30,293 +100,746 @@ public class HouseholdDataLoader {
                 line = line.trim();
                 if (line.isEmpty()) continue;
 
-                try {
-                    parseLineInOrder(line, lineCount);
-                } catch (Exception e) {
-                    System.err.println("第 " + lineCount + " 行解析失败: " + line);
-                    System.err.println("错误详情: " + e.getMessage());
-                }
+                long parseStart = System.nanoTime();
+                ParsedRecord parsed = parseLine(tokenizer, line, lineCount);
+                long linkStart = System.nanoTime();
+                applyRecord(parsed);
+                report.addParseNanos(linkStart - parseStart);
+                report.addLinkNanos(System.nanoTime() - linkStart);
             }
 
-            // 验证加载结果
-            validateLoadedData();
+            // 链接场景并生成报告
+            return finishLoad(startTime);
+
+        } catch (FileNotFoundException e) {
+            error("文件未找到: " + filename);
+            throw e;
+        }
+    }
+
+    /**
+     * 使用公共 ForkJoin 线程池并行加载文件
+     */
+    public LoadReport loadFromFileParallel(String filename) throws IOException {
+        return loadFromFileParallel(filename, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * 两阶段并行加载：先把文件分块并行解析，再按原始顺序链接到系统
+     * 最终的家庭与系统状态与 loadFromFile 的结果一致
+     * @param filename 数据文件
+     * @param pool 解析阶段使用的线程池
+     * @return 加载报告
+     */
+    public LoadReport loadFromFileParallel(String filename, ForkJoinPool pool) throws IOException {
+        long startTime = System.nanoTime();
+        beginLoad(filename, "并行, 并行度 " + pool.getParallelism());
+        info("开始并行加载文件: " + filename + " (并行度: " + pool.getParallelism() + ")");
 
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(filename), "UTF-8"))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
         } catch (FileNotFoundException e) {
-            System.err.println("文件未找到: " + filename);
+            error("文件未找到: " + filename);
             throw e;
         }
+
+        // 阶段一：分块并行解析
+        long parseStart = System.nanoTime();
+        ParsedRecord[] records = new ParsedRecord[lines.size()];
+        pool.invoke(new ParseChunkTask(lines, records, 0, lines.size()));
+        report.addParseNanos(System.nanoTime() - parseStart);
+
+        // 阶段二：按文件顺序链接
+        long linkStart = System.nanoTime();
+        for (ParsedRecord record : records) {
+            if (record != null) {
+                applyRecord(record);
+            }
+        }
+        report.addLinkNanos(System.nanoTime() - linkStart);
+
+        return finishLoad(startTime);
+    }
+
+    /**
+     * 内存映射模式加载，适用于非常大的数据文件
+     * 文件按窗口用 FileChannel.map 映射，在字节层面查找记录边界并直接解析，
+     * 只有名称、地址等字符串字段才会解码，ID、温度、亮度等数值直接从映射的字节中读取
+     * @param filename 数据文件
+     * @return 加载报告
+     */
+    public LoadReport loadFromMappedFile(String filename) throws IOException {
+        long startTime = System.nanoTime();
+        beginLoad(filename, "内存映射");
+        info("开始以内存映射方式加载文件: " + filename);
+        scanMappedFile(filename);
+        return finishLoad(startTime);
+    }
+
+    /**
+     * 延迟加载模式，适用于只访问少数房间的会话
+     * 第一遍按内存映射方式扫描文件，家庭、用户、制造商和场景记录照常加载，
+     * 房间和设备记录只读取ID并记录字节偏移；Room 在第一次调用 Household.getRooms 时创建，
+     * 设备在第一次访问所在房间的设备（或 Household.listAllDevices、系统设备列表）时才解析。
+     * 场景动作引用的设备所在的房间会在加载时物化。物化之前数据文件不能被修改
+     * 房间和设备记录除ID外的字段错误要到物化时才会发现，届时该记录被跳过
+     * @param filename 数据文件
+     * @return 加载报告，房间和设备的数量为建立索引的记录数
+     */
+    public LoadReport loadLazily(String filename) throws IOException {
+        long startTime = System.nanoTime();
+        beginLoad(filename, "延迟");
+        info("开始以延迟方式加载文件: " + filename);
+        lazyFile = Paths.get(filename);
+        try {
+            scanMappedFile(filename);
+            return finishLoad(startTime);
+        } finally {
+            lazyFile = null;
+            lazyIndex = null;
+        }
+    }
+
+    /**
+     * 按窗口映射文件，逐行解析并应用记录
+     */
+    private void scanMappedFile(String filename) throws IOException {
+        ByteRecordTokenizer record = new ByteRecordTokenizer();
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            long size = channel.size();
+            long windowStart = 0;
+            int lineNumber = 0;
+
+            while (windowStart < size) {
+                int windowLength = (int) Math.min(MAP_WINDOW_BYTES, size - windowStart);
+                boolean lastWindow = windowStart + windowLength >= size;
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, windowLength);
+
+                int lineStart = 0;
+                while (lineStart < windowLength) {
+                    int lineEnd = lineStart;
+                    while (lineEnd < windowLength && buffer.get(lineEnd) != '\n') lineEnd++;
+                    if (lineEnd == windowLength && !lastWindow) {
+                        // 记录跨越窗口边界，从该记录开始重新映射
+                        break;
+                    }
+                    lineNumber++;
+                    parseMappedLine(record, buffer, windowStart, lineStart, lineEnd, lineNumber);
+                    lineStart = lineEnd + 1;
+                }
+
+                if (lastWindow) {
+                    break;
+                }
+                if (lineStart == 0) {
+                    throw new IOException("第 " + (lineNumber + 1) + " 行超过映射窗口大小");
+                }
+                windowStart += lineStart;
+            }
+        } catch (java.nio.file.NoSuchFileException e) {
+            error("文件未找到: " + filename);
+            throw new FileNotFoundException(filename);
+        }
+    }
+
+    private void parseMappedLine(ByteRecordTokenizer record, ByteBuffer buffer, long windowStart,
+                                 int start, int end, int lineNumber) {
+        // 跳过空行
+        int p = start;
+        while (p < end && (buffer.get(p) == ' ' || buffer.get(p) == '\t' || buffer.get(p) == '\r')) p++;
+        if (p == end) {
+            return;
+        }
+
+        long parseStart = System.nanoTime();
+        ParsedRecord parsed = new ParsedRecord(lineNumber, buffer, start, end);
+        if (!record.reset(buffer, start, end)) {
+            parsed.error = new IllegalArgumentException("记录格式错误");
+        } else if (lazyFile != null && indexRecord(record, parsed, windowStart + start, end - start)) {
+            report.addParseNanos(System.nanoTime() - parseStart);
+            return;
+        } else {
+            parseRecord(record, parsed);
+        }
+        long linkStart = System.nanoTime();
+        applyRecord(parsed);
+        report.addParseNanos(linkStart - parseStart);
+        report.addLinkNanos(System.nanoTime() - linkStart);
     }
 
     /**
-     * 按照固定顺序解析每一行
+     * 延迟加载模式下为房间和设备记录建立索引，只读取ID，不创建对象
+     * 校验规则与 applyRoom、applyDevice 相同：房间需要家庭已存在，设备需要房间已出现
+     * @return 是房间或设备记录（已处理）时返回true
      */
-    private void parseLineInOrder(String line, int lineCount) {
-        // 根据行的开头内容判断类型
-        if (line.startsWith("Household{")) {
-            parseHousehold(line);
-        } else if (line.startsWith("Room{")) {
-            parseRoom(line);
-        } else if (line.startsWith("User{")) {
-            parseUser(line);
-        } else if (line.startsWith("Manufacturer{")) {
-            parseManufacturer(line);
-        } else if (line.startsWith("AirConditioner{")) {
-            parseAirConditioner(line);
-        } else if (line.startsWith("LightBulb{")) {
-            parseLightBulb(line);
-        } else if (line.startsWith("SmartLock{")) {
-            parseSmartLock(line);
-        } else if (line.startsWith("AutomationScene{")) {
-            parseAutomationSceneSimple(line);
+    private boolean indexRecord(ByteRecordTokenizer record, ParsedRecord parsed, long offset, int length) {
+        RecordKind kind;
+        if (record.typeIs("Room")) {
+            kind = RecordKind.ROOM;
+        } else if (record.typeIs("AirConditioner") || record.typeIs("LightBulb") || record.typeIs("SmartLock")) {
+            kind = RecordKind.DEVICE;
         } else {
-            System.err.println("未知的数据类型: " + line);
+            return false;
         }
 
-        System.out.println("第 " + lineCount + " 行解析成功: " + line);
+        try {
+            Household household = system.getHousehold();
+            if (household == null) {
+                throw new IllegalStateException(kind == RecordKind.ROOM ? "家庭不存在，无法添加房间" : "家庭不存在，设备无法添加到房间");
+            }
+            if (lazyIndex == null || lazyIndex.getHousehold() != household) {
+                // 家庭被替换后，之前的房间不再属于当前家庭
+                lazyIndex = new LazyHouseholdIndex(lazyFile, system, household, quiet);
+            }
+            if (kind == RecordKind.ROOM) {
+                lazyIndex.addRoom(record.getInt("roomId"), offset, length, parsed.lineNumber);
+            } else {
+                int roomId = record.getInt("roomId");
+                int roomOrdinal = lazyIndex.findRoom(roomId);
+                if (roomOrdinal < 0) {
+                    throw new IllegalStateException("房间ID " + roomId + " 不存在");
+                }
+                lazyIndex.addDevice(record.getInt("deviceId"), roomOrdinal, offset, length, parsed.lineNumber);
+            }
+        } catch (Exception e) {
+            fail(parsed, e.getMessage());
+            return true;
+        }
+        report.recordSucceeded(kind);
+        return true;
     }
 
-    private void parseHousehold(String line) {
-        // 提取属性部分
-        String properties = line.substring("Household{".length(), line.length() - 1);
-        Map<String, String> props = parseProperties(properties);
+    /**
+     * 解析阶段的分块任务，每个叶子任务使用独立的分词器
+     */
+    private static class ParseChunkTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<String> lines;
+        private final ParsedRecord[] results;
+        private final int from;
+        private final int to;
+
+        ParseChunkTask(List<String> lines, ParsedRecord[] results, int from, int to) {
+            this.lines = lines;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+        }
 
-        int householdId = Integer.parseInt(props.get("householdId"));
-        String address = removeQuotes(props.get("address"));
-        int adminId = Integer.parseInt(props.get("adminId"));
+        @Override
+        protected void compute() {
+            if (to - from <= PARALLEL_CHUNK_LINES) {
+                RecordTokenizer tokenizer = new RecordTokenizer();
+                for (int i = from; i < to; i++) {
+                    String line = lines.get(i).trim();
+                    if (!line.isEmpty()) {
+                        results[i] = parseLine(tokenizer, line, i + 1);
+                    }
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new ParseChunkTask(lines, results, from, mid),
+                    new ParseChunkTask(lines, results, mid, to));
+        }
+    }
 
-        User tempAdmin = new User(adminId, "temp_admin", "temp", "临时管理员", "temp@temp.com", true);
+    /**
+     * 记录类型
+     */
+    public enum RecordKind {
+        HOUSEHOLD("家庭"), ROOM("房间"), USER("用户"), MANUFACTURER("制造商"), DEVICE("设备"), SCENE("场景"), UNKNOWN("未知");
 
-        Household household = new Household(householdId, address, tempAdmin);
-        system.setHousehold(household);
-        system.addUserToSystem(tempAdmin);
+        private final String label;
 
-        System.out.println("家庭创建成功: " + address);
+        RecordKind(String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
     }
 
-    private void parseRoom(String line) {
-        // 提取属性部分
-        String properties = line.substring("Room{".length(), line.length() - 1);
-        Map<String, String> props = parseProperties(properties);
+    /**
+     * 解析阶段的结果，只包含新创建的对象，不引用系统状态
+     * 原始行文本只在需要输出时才生成，内存映射模式下不会为每行解码字符串
+     */
+    static class ParsedRecord {
+        final int lineNumber;
+        private String line;
+        private final ByteBuffer source;
+        private final int start;
+        private final int end;
+        RecordKind kind;
+        Object entity;
+        int roomId;
+        List<SceneActionSpec> actions;
+        Exception error;
+
+        ParsedRecord(int lineNumber, String line) {
+            this.lineNumber = lineNumber;
+            this.line = line;
+            this.source = null;
+            this.start = 0;
+            this.end = 0;
+        }
 
-        int roomId = Integer.parseInt(props.get("roomId"));
-        String name = removeQuotes(props.get("name"));
-        double area = Double.parseDouble(props.get("area"));
+        ParsedRecord(int lineNumber, ByteBuffer source, int start, int end) {
+            this.lineNumber = lineNumber;
+            this.source = source;
+            this.start = start;
+            this.end = end;
+        }
 
-        Room room = new Room(roomId, name, area);
+        String getLine() {
+            if (line == null) {
+                byte[] bytes = new byte[end - start];
+                for (int i = 0; i < bytes.length; i++) {
+                    bytes[i] = source.get(start + i);
+                }
+                line = new String(bytes, java.nio.charset.StandardCharsets.UTF_8).trim();
+            }
+            return line;
+        }
+    }
 
-        // 添加到家庭
-        if (system.getHousehold() != null) {
-            system.getHousehold().addRoom(room);
-            System.out.println("房间添加成功: " + name);
-        } else {
-            System.err.println("错误: 家庭不存在，无法添加房间");
+    /**
+     * 尚未解析设备引用的场景动作，命令名已转换为 DeviceAction.execute 支持的形式
+     */
+    static class SceneActionSpec {
+        final int deviceId;
+        final String command;
+        final String parameters;
+
+        SceneActionSpec(int deviceId, String command, String parameters) {
+            this.deviceId = deviceId;
+            this.command = command;
+            this.parameters = parameters;
         }
     }
 
-    private void parseUser(String line) {
-        // 提取属性部分
-        String properties = line.substring("User{".length(), line.length() - 1);
-        Map<String, String> props = parseProperties(properties);
+    /**
+     * 解析一行记录，不修改系统状态，可在任意线程调用
+     */
+    static ParsedRecord parseLine(RecordTokenizer tokenizer, String line, int lineNumber) {
+        ParsedRecord parsed = new ParsedRecord(lineNumber, line);
+        if (!tokenizer.reset(line)) {
+            parsed.error = new IllegalArgumentException("记录格式错误");
+            return parsed;
+        }
+        return parseRecord(tokenizer, parsed);
+    }
 
-        int userId = Integer.parseInt(props.get("userId"));
-        String username = removeQuotes(props.get("username"));
-        String email = removeQuotes(props.get("email"));
-        boolean isAdmin = Boolean.parseBoolean(props.get("isAdmin"));
+    /**
+     * 把已分词的记录转换为实体对象，结果写入 parsed
+     */
+    static ParsedRecord parseRecord(HouseholdRecord record, ParsedRecord parsed) {
+        try {
+            // 根据记录类型分派到对应的解析方法
+            if (record.typeIs("Household")) {
+                parsed.kind = RecordKind.HOUSEHOLD;
+                parsed.entity = parseHousehold(record);
+            } else if (record.typeIs("Room")) {
+                parsed.kind = RecordKind.ROOM;
+                parsed.entity = parseRoom(record);
+            } else if (record.typeIs("User")) {
+                parsed.kind = RecordKind.USER;
+                parsed.entity = parseUser(record);
+            } else if (record.typeIs("Manufacturer")) {
+                parsed.kind = RecordKind.MANUFACTURER;
+                parsed.entity = parseManufacturer(record);
+            } else if (record.typeIs("AirConditioner")) {
+                parsed.kind = RecordKind.DEVICE;
+                parsed.entity = parseAirConditioner(record);
+                parsed.roomId = record.getInt("roomId");
+            } else if (record.typeIs("LightBulb")) {
+                parsed.kind = RecordKind.DEVICE;
+                parsed.entity = parseLightBulb(record);
+                parsed.roomId = record.getInt("roomId");
+            } else if (record.typeIs("SmartLock")) {
+                parsed.kind = RecordKind.DEVICE;
+                parsed.entity = parseSmartLock(record);
+                parsed.roomId = record.getInt("roomId");
+            } else if (record.typeIs("AutomationScene")) {
+                parsed.kind = RecordKind.SCENE;
+                parsed.entity = parseAutomationScene(record);
+                parsed.actions = parseActions(record.getString("actions"));
+            } else {
+                parsed.kind = RecordKind.UNKNOWN;
+            }
+        } catch (Exception e) {
+            parsed.error = e;
+        }
+        return parsed;
+    }
 
-        // 用户
-        User user = new User(userId, username, "default", username, email, isAdmin);
+    /**
+     * 链接阶段：把解析结果应用到系统，结果计入报告
+     */
+    private void applyRecord(ParsedRecord record) {
+        if (record.error != null) {
+            fail(record, record.error.getMessage());
+            return;
+        }
 
-        // 更新系统中的用户和家庭管理员
-        system.addUserToSystem(user);
-        if (system.getHousehold() != null) {
-            system.getHousehold().setAdmin(user);
+        try {
+            switch (record.kind) {
+                case HOUSEHOLD:
+                    applyHousehold((Household) record.entity);
+                    break;
+                case ROOM:
+                    applyRoom((Room) record.entity);
+                    break;
+                case USER:
+                    applyUser((User) record.entity);
+                    break;
+                case MANUFACTURER:
+                    // 制造商记录目前只做格式校验
+                    break;
+                case DEVICE:
+                    applyDevice((Device) record.entity, record.roomId);
+                    break;
+                case SCENE:
+                    // 场景在 linkScenes 中链接并计数
+                    pendingScenes.add(record);
+                    return;
+                default:
+                    fail(record, "未知的数据类型");
+                    return;
+            }
+        } catch (Exception e) {
+            fail(record, e.getMessage());
+            return;
         }
+        report.recordSucceeded(record.kind);
+    }
 
-        System.out.println("用户创建成功: " + username);
+    private void fail(ParsedRecord record, String reason) {
+        report.recordFailed(record.lineNumber, record.getLine(), reason);
+        error("第 " + record.lineNumber + " 行解析失败: " + record.getLine());
+        error("错误详情: " + reason);
     }
 
-    private void parseManufacturer(String line) {
-        // 提取属性部分
-        String properties = line.substring("Manufacturer{".length(), line.length() - 1);
-        Map<String, String> props = parseProperties(properties);
+    private static Household parseHousehold(HouseholdRecord record) {
+        int householdId = record.getInt("householdId");
+        String address = record.getString("address");
+        int adminId = record.getInt("adminId");
 
-        int manufacturerId = Integer.parseInt(props.get("manufacturerId"));
-        String name = removeQuotes(props.get("name"));
-        String protocols = removeQuotes(props.get("protocols"));
+        User tempAdmin = new User(adminId, "temp_admin", "temp", "临时管理员", "temp@temp.com", true);
 
-        Manufacturer manufacturer = new Manufacturer(manufacturerId, name, protocols);
+        return new Household(householdId, address, tempAdmin);
+    }
 
-        // 保存制造商到系统
-        System.out.println("制造商创建成功: " + name);
+    private void applyHousehold(Household household) {
+        system.setHousehold(household);
+        system.addUserToSystem(household.getAdmin());
     }
 
-    private void parseAirConditioner(String line) {
-        // 提取属性部分
-        String properties = line.substring("AirConditioner{".length(), line.length() - 1);
-        Map<String, String> props = parseProperties(properties);
+    private static Room parseRoom(HouseholdRecord record) {
+        int roomId = record.getInt("roomId");
+        String name = record.getString("name");
+        double area = record.getDouble("area");
 
-        int deviceId = Integer.parseInt(props.get("deviceId"));
-        String name = removeQuotes(props.get("name"));
-        int manufacturerId = Integer.parseInt(props.get("manufacturerId"));
-        double currTemp = Double.parseDouble(props.get("currTemp"));
-        double targetTemp = Double.parseDouble(props.get("targetTemp"));
-        int roomId = Integer.parseInt(props.get("roomId"));
+        return new Room(roomId, name, area);
+    }
 
-        // 制造商
-        Manufacturer manufacturer = new Manufacturer(manufacturerId,
-                manufacturerId == 1 ? "米家智能家居有限公司" : "格林智能家居设备制造厂",
-                manufacturerId == 1 ? "ZigBee" : "WiFi");
+    private void applyRoom(Room room) {
+        // 添加到家庭
+        if (system.getHousehold() == null) {
+            throw new IllegalStateException("家庭不存在，无法添加房间");
+        }
+        system.getHousehold().addRoom(room);
+        currentRoomIndex().putIfAbsent(room.getRoomId(), room);
+    }
 
-        AirConditioner ac = new AirConditioner(deviceId, name, manufacturer, 1500);
-        ac.setCurrTemp(currTemp);
-        ac.setTargetTemp(targetTemp);
+    private static User parseUser(HouseholdRecord record) {
+        int userId = record.getInt("userId");
+        String username = record.getString("username");
+        String email = record.getString("email");
+        boolean isAdmin = record.getBoolean("isAdmin");
 
-        // 添加到系统和房间
-        system.addDevice(ac);
-        addDeviceToRoom(ac, roomId, name);
+        return new User(userId, username, "default", username, email, isAdmin);
     }
 
-    private void parseLightBulb(String line) {
-        // 提取属性部分
-        String properties = line.substring("LightBulb{".length(), line.length() - 1);
-        Map<String, String> props = parseProperties(properties);
+    private void applyUser(User user) {
+        // 更新系统中的用户和家庭管理员
+        system.addUserToSystem(user);
+        if (system.getHousehold() != null) {
+            system.getHousehold().setAdmin(user);
+        }
+    }
 
-        int deviceId = Integer.parseInt(props.get("deviceId"));
-        String name = removeQuotes(props.get("name"));
-        int manufacturerId = Integer.parseInt(props.get("manufacturerId"));
-        int brightness = Integer.parseInt(props.get("brightness"));
-        int colorTemp = Integer.parseInt(props.get("colorTemp"));
-        int roomId = Integer.parseInt(props.get("roomId"));
+    private static Manufacturer parseManufacturer(HouseholdRecord record) {
+        int manufacturerId = record.getInt("manufacturerId");
+        String name = record.getString("name");
+        String protocols = record.getString("protocols");
 
-        // 创建制造商
-        Manufacturer manufacturer = new Manufacturer(manufacturerId,
-                manufacturerId == 1 ? "米家智能家居有限公司" : "格林智能家居设备制造厂",
-                manufacturerId == 1 ? "ZigBee" : "WiFi");
+        return new Manufacturer(manufacturerId, name, protocols);
+    }
 
-        LightBulb light = new LightBulb(deviceId, name, manufacturer, 20);
-        light.setBrightness(brightness);
-        light.setColorTemp(colorTemp);
+    private static AirConditioner parseAirConditioner(HouseholdRecord record) {
+        int deviceId = record.getInt("deviceId");
+        String name = record.getString("name");
+        int manufacturerId = record.getInt("manufacturerId");
+        double currTemp = record.getDouble("currTemp");
+        double targetTemp = record.getDouble("targetTemp");
 
-        // 添加到系统和房间
-        system.addDevice(light);
-        addDeviceToRoom(light, roomId, name);
+        AirConditioner ac = new AirConditioner(deviceId, name, defaultManufacturer(manufacturerId), 1500);
+        ac.setCurrTemp(currTemp);
+        ac.restoreTargetTemp(targetTemp);
+        return ac;
     }
 
-    private void parseSmartLock(String line) {
-        // 提取属性部分
-        String properties = line.substring("SmartLock{".length(), line.length() - 1);
-        Map<String, String> props = parseProperties(properties);
+    private static LightBulb parseLightBulb(HouseholdRecord record) {
+        int deviceId = record.getInt("deviceId");
+        String name = record.getString("name");
+        int manufacturerId = record.getInt("manufacturerId");
+        int brightness = record.getInt("brightness");
+        int colorTemp = record.getInt("colorTemp");
 
-        int deviceId = Integer.parseInt(props.get("deviceId"));
-        String name = removeQuotes(props.get("name"));
-        int manufacturerId = Integer.parseInt(props.get("manufacturerId"));
-        boolean isLocked = Boolean.parseBoolean(props.get("isLocked"));
-        int batteryLevel = Integer.parseInt(props.get("batteryLevel"));
-        int roomId = Integer.parseInt(props.get("roomId"));
+        LightBulb light = new LightBulb(deviceId, name, defaultManufacturer(manufacturerId), 20);
+        light.setBrightness(brightness);
+        light.setColorTemp(colorTemp);
+        return light;
+    }
 
-        // 创建制造商
-        Manufacturer manufacturer = new Manufacturer(manufacturerId,
-                manufacturerId == 1 ? "米家智能家居有限公司" : "格林智能家居设备制造厂",
-                manufacturerId == 1 ? "ZigBee" : "WiFi");
+    private static SmartLock parseSmartLock(HouseholdRecord record) {
+        int deviceId = record.getInt("deviceId");
+        String name = record.getString("name");
+        int manufacturerId = record.getInt("manufacturerId");
+        boolean isLocked = record.getBoolean("isLocked");
+        int batteryLevel = record.getInt("batteryLevel");
 
-        SmartLock lock = new SmartLock(deviceId, name, manufacturer);
+        SmartLock lock = new SmartLock(deviceId, name, defaultManufacturer(manufacturerId));
         lock.setLocked(isLocked);
         lock.setBatteryLevel(batteryLevel);
+        return lock;
+    }
 
-        // 添加到系统和房间
-        system.addDevice(lock);
-        addDeviceToRoom(lock, roomId, name);
+    /**
+     * 根据制造商ID创建制造商
+     */
+    private static Manufacturer defaultManufacturer(int manufacturerId) {
+        return new Manufacturer(manufacturerId,
+                manufacturerId == 1 ? "米家智能家居有限公司" : "格林智能家居设备制造厂",
+                manufacturerId == 1 ? "ZigBee" : "WiFi");
     }
 
-    private void parseAutomationSceneSimple(String line) {
+    private void applyDevice(Device device, int roomId) {
+        Room room = requireRoom(roomId);
+        // 加载属于管理员的导入操作，不经过交互式登录的权限检查
+        system.addDeviceUnchecked(device);
+        room.addDevice(device);
+        deviceIndex.put(device.getDeviceId(), device);
+    }
 
-        String properties = line.substring("AutomationScene{".length(), line.length() - 1);
-        Map<String, String> props = parseProperties(properties);
+    private static AutomationScene parseAutomationScene(HouseholdRecord record) {
+        int sceneId = record.getInt("sceneId");
+        String name = record.getString("name");
+        String description = record.getString("description");
 
-        int sceneId = Integer.parseInt(props.get("sceneId"));
-        String name = removeQuotes(props.get("name"));
-        String description = removeQuotes(props.get("description"));
+        // 动作在链接阶段通过设备索引解析后再加入场景
+        return new AutomationScene(sceneId, name, description);
+    }
 
-        // 创建空场景
-        AutomationScene scene = new AutomationScene(sceneId, name, description);
+    /**
+     * 解析场景的动作列表，例如 [DeviceAction{command='powerOn', parameters='', deviceId=8561}, ...]
+     * 逐字符找到每个元素的边界，再用分词器直接在同一个字符数组上解析，整体为线性时间
+     * @param list 动作列表的原始文本，字段不存在时为空字符串
+     * @return 动作列表
+     */
+    static List<SceneActionSpec> parseActions(String list) {
+        List<SceneActionSpec> actions = new ArrayList<>();
+        char[] chars = list.toCharArray();
+        int pos = 0;
+        int end = chars.length;
+        while (pos < end && Character.isWhitespace(chars[pos])) pos++;
+        while (end > pos && Character.isWhitespace(chars[end - 1])) end--;
+        if (pos == end) {
+            return actions;
+        }
+        if (chars[pos] != '[' || chars[end - 1] != ']') {
+            throw new IllegalArgumentException("动作列表格式错误: " + list);
+        }
+        pos++;
+        end--;
+
+        RecordTokenizer element = new RecordTokenizer();
+        while (pos < end) {
+            char c = chars[pos];
+            if (c == ',' || Character.isWhitespace(c)) {
+                pos++;
+                continue;
+            }
+            int elementEnd = findElementEnd(chars, pos, end);
+            if (elementEnd < 0 || !element.reset(chars, pos, elementEnd) || !element.typeIs("DeviceAction")) {
+                throw new IllegalArgumentException("动作格式错误: " + new String(chars, pos, (elementEnd < 0 ? end : elementEnd) - pos));
+            }
+            actions.add(toActionSpec(element.getInt("deviceId"), element.getString("command"), element.getString("parameters")));
+            pos = elementEnd;
+        }
+        return actions;
+    }
 
-        system.addAutoScene(scene);
-        if (system.getHousehold() != null) {
-            system.getHousehold().addAutoScene(scene);
+    /**
+     * 查找列表元素的结束位置（右花括号之后），跳过引号内的内容
+     * @return 结束位置（不包含），括号不匹配时返回-1
+     */
+    private static int findElementEnd(char[] chars, int pos, int end) {
+        int depth = 0;
+        boolean quoted = false;
+        for (int i = pos; i < end; i++) {
+            char c = chars[i];
+            if (c == '\'') {
+                quoted = !quoted;
+            } else if (!quoted && c == '{') {
+                depth++;
+            } else if (!quoted && c == '}') {
+                if (--depth == 0) return i + 1;
+                if (depth < 0) return -1;
+            } else if (!quoted && c == ',' && depth == 0) {
+                return -1;
+            }
         }
+        return -1;
+    }
 
-        System.out.println("场景创建成功: " + name + " (动作解析已跳过)");
+    /**
+     * 把数据文件中的命令转换为 DeviceAction.execute 支持的命令
+     * setLocked 按参数转换为 lock/unlock，已经是下划线形式或无法识别的命令保持原样
+     */
+    static SceneActionSpec toActionSpec(int deviceId, String command, String parameters) {
+        if (command.equals("setLocked")) {
+            return new SceneActionSpec(deviceId, Boolean.parseBoolean(parameters.trim()) ? "lock" : "unlock", "");
+        }
+        return new SceneActionSpec(deviceId, COMMAND_ALIASES.getOrDefault(command, command), parameters);
     }
 
     /**
-     * 将设备添加到指定房间
+     * 链接场景：通过设备索引解析动作引用的设备，再把场景加入系统与家庭
+     * 场景在全部记录应用之后链接，因此动作可以引用文件中位于场景之后的设备
      */
-    private void addDeviceToRoom(Device device, int roomId, String deviceName) {
-        if (system.getHousehold() != null) {
-            for (Room room : system.getHousehold().getRooms()) {
-                if (room.getRoomId() == roomId) {
-                    room.addDevice(device);
-                    System.out.println("设备添加成功: " + deviceName + " -> " + room.getName());
-                    return;
+    private void linkScenes() {
+        for (ParsedRecord record : pendingScenes) {
+            AutomationScene scene = (AutomationScene) record.entity;
+            for (SceneActionSpec spec : record.actions) {
+                Device device = resolveDevice(spec.deviceId);
+                if (device == null) {
+                    String reason = "场景 " + scene.getName() + " 引用的设备ID " + spec.deviceId
+                            + " 不存在，动作 " + spec.command + " 已忽略";
+                    report.addError(record.lineNumber, record.getLine(), reason);
+                    error("错误: 第 " + record.lineNumber + " 行" + reason);
+                    continue;
                 }
+                scene.addAction(new DeviceAction(device, spec.command, spec.parameters));
             }
-            System.err.println("错误: 房间ID " + roomId + " 不存在，设备 " + deviceName + " 无法添加");
-        } else {
-            System.err.println("错误: 家庭不存在，设备 " + deviceName + " 无法添加到房间");
+
+            system.addAutoScene(scene);
+            if (system.getHousehold() != null) {
+                system.getHousehold().addAutoScene(scene);
+            }
+            report.recordSucceeded(RecordKind.SCENE);
+            report.addActions(scene.getActions().size());
         }
+        pendingScenes.clear();
     }
 
     /**
-     * 解析属性键值对
+     * 通过设备索引查找设备，延迟加载模式下会物化设备所在的房间
      */
-    private Map<String, String> parseProperties(String properties) {
-        Map<String, String> result = new HashMap<>();
-
-        // 使用正则表达式匹配键值对
-        Pattern pattern = Pattern.compile("(\\w+)=([^,]+(?:'[^']*'[^,]*)?)");
-        Matcher matcher = pattern.matcher(properties);
-
-        while (matcher.find()) {
-            String key = matcher.group(1);
-            String value = matcher.group(2).trim();
-            result.put(key, value);
+    private Device resolveDevice(int deviceId) {
+        Device device = deviceIndex.get(deviceId);
+        if (device == null && lazyIndex != null) {
+            device = lazyIndex.findDevice(deviceId);
+            if (device != null) {
+                deviceIndex.put(deviceId, device);
+            }
         }
+        return device;
+    }
 
-        return result;
+    /**
+     * 开始一次加载，清空上一次加载留下的索引并创建新的报告
+     */
+    private void beginLoad(String filename, String mode) {
+        indexedHousehold = null;
+        deviceIndex.clear();
+        pendingScenes.clear();
+        lazyIndex = null;
+        report = new LoadReport(filename, mode);
     }
 
     /**
-     * 移除字符串值的引号
+     * 结束一次加载：链接场景，填写总耗时并输出报告
      */
-    private String removeQuotes(String value) {
-        if (value == null) return "";
-        value = value.trim();
-        if (value.startsWith("'") && value.endsWith("'")) {
-            return value.substring(1, value.length() - 1);
+    private LoadReport finishLoad(long startTime) {
+        long linkStart = System.nanoTime();
+        if (lazyIndex != null && lazyIndex.getHousehold() == system.getHousehold()) {
+            lazyIndex.seal();
+            lazyIndex.getHousehold().attachLazyRooms(lazyIndex);
+        } else {
+            lazyIndex = null;
         }
-        return value;
+        linkScenes();
+        long now = System.nanoTime();
+        report.addLinkNanos(now - linkStart);
+        report.finish(now - startTime, system.getHousehold());
+
+        info(report.toString());
+        if (!report.isHouseholdLoaded()) {
+            error("警告: 家庭数据加载失败！");
+        }
+        return report;
     }
 
-    private void validateLoadedData() {
-        System.out.println("\n=== 数据加载验证 ===");
-        System.out.println("家庭: " + (system.getHousehold() != null ? system.getHousehold().getAddress() : "null"));
-
-        if (system.getHousehold() != null) {
-            System.out.println("房间数量: " + system.getHousehold().getRooms().size());
-            System.out.println("场景数量: " + system.getHousehold().getAutoScenes().size());
+    private void info(String message) {
+        if (!quiet) {
+            System.out.println(message);
+        }
+    }
 
-            // 计算设备总数
-            int totalDevices = 0;
-            for (Room room : system.getHousehold().getRooms()) {
-                totalDevices += room.getDevices().size();
-            }
-            System.out.println("设备数量: " + totalDevices);
+    private void error(String message) {
+        if (!quiet) {
+            System.err.println(message);
         }
+    }
 
+    /**
+     * 通过房间索引查找设备所属的房间
+     */
+    private Room requireRoom(int roomId) {
         if (system.getHousehold() == null) {
-            System.err.println("警告: 家庭数据加载失败！");
-        } else {
-            System.out.println("数据加载完成！");
+            throw new IllegalStateException("家庭不存在，设备无法添加到房间");
+        }
+        Room room = currentRoomIndex().get(roomId);
+        if (room == null) {
+            throw new IllegalStateException("房间ID " + roomId + " 不存在");
+        }
+        return room;
+    }
+
+    /**
+     * 获取当前家庭的房间索引，家庭被替换时从其已有房间重建
+     * 同ID的房间保留先添加的那个，与按顺序扫描房间列表的结果一致
+     */
+    private Map<Integer, Room> currentRoomIndex() {
+        Household household = system.getHousehold();
+        if (household != indexedHousehold) {
+            indexedHousehold = household;
+            roomIndex = new HashMap<>();
+            if (household != null) {
+                for (Room room : household.getRooms()) {
+                    roomIndex.putIfAbsent(room.getRoomId(), room);
+                }
+            }
         }
+        return roomIndex;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,172 @@
+package cn.edu.nwpu.homesphere;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 家庭数据解析基准测试：对比旧的逐行正则解析与 RecordTokenizer 单遍解析
+ * 用法: java HouseholdDataLoaderBenchmark [行数]，默认生成100万行的临时数据文件
+ */
+public class HouseholdDataLoaderBenchmark {
+    private static final int ROUNDS = 3;
+
+    public static void main(String[] args) throws IOException {
+        int lineCount = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        Path file = Files.createTempFile("household-bench", ".dat");
+        try {
+            generateFile(file, lineCount);
+            System.out.println("已生成测试文件: " + file + " (" + lineCount + " 行, "
+                    + Files.size(file) / 1024 + " KB)");
+
+            for (int round = 1; round <= ROUNDS; round++) {
+                long start = System.nanoTime();
+                long regexChecksum = parseWithRegex(file);
+                long regexNanos = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                long tokenizerChecksum = parseWithTokenizer(file);
+                long tokenizerNanos = System.nanoTime() - start;
+
+                if (regexChecksum != tokenizerChecksum) {
+                    throw new IllegalStateException("两种解析结果不一致: " + regexChecksum + " != " + tokenizerChecksum);
+                }
+                System.out.printf("第%d轮  正则: %6d ms (%,.0f 行/秒)  分词器: %6d ms (%,.0f 行/秒)  加速比: %.1fx%n",
+                        round,
+                        regexNanos / 1_000_000, lineCount * 1e9 / regexNanos,
+                        tokenizerNanos / 1_000_000, lineCount * 1e9 / tokenizerNanos,
+                        (double) regexNanos / tokenizerNanos);
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * 生成与 household.dat 相同格式的数据文件
+     */
+    static void generateFile(Path file, int lineCount) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writer.write("Household{householdId=1, address='友谊西路127号', adminId=1}\n");
+            writer.write("User{userId=1, username='admin', email='admin@nwpu.edu.cn', isAdmin=true}\n");
+            writer.write("Manufacturer{manufacturerId=1, name='米家智能家居有限公司', protocols=ZigBee}\n");
+            int roomCount = Math.max(1, lineCount / 100);
+            int written = 3;
+            for (int roomId = 1; roomId <= roomCount && written < lineCount; roomId++, written++) {
+                writer.write("Room{roomId=" + roomId + ", name='房间" + roomId + "', area=" + (10 + roomId % 30) + ".5}\n");
+            }
+            for (int deviceId = 1; written < lineCount; deviceId++, written++) {
+                int roomId = 1 + deviceId % roomCount;
+                switch (deviceId % 3) {
+                    case 0:
+                        writer.write("AirConditioner{deviceId=" + deviceId + ", name='空调" + deviceId
+                                + "', manufacturerId=1, currTemp=26.0, targetTemp=24.5, roomId=" + roomId + "}\n");
+                        break;
+                    case 1:
+                        writer.write("LightBulb{deviceId=" + deviceId + ", name='灯" + deviceId
+                                + "', manufacturerId=2, brightness=" + (deviceId % 101)
+                                + ", colorTemp=5300, roomId=" + roomId + "}\n");
+                        break;
+                    default:
+                        writer.write("SmartLock{deviceId=" + deviceId + ", name='门锁" + deviceId
+                                + "', manufacturerId=2, isLocked=false, batteryLevel=100, roomId=" + roomId + "}\n");
+                }
+            }
+        }
+    }
+
+    private static long parseWithRegex(Path file) throws IOException {
+        long checksum = 0;
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                int brace = line.indexOf('{');
+                if (brace < 0) continue;
+                Map<String, String> props = legacyParseProperties(line.substring(brace + 1, line.length() - 1));
+                checksum += checksumRegex(line.substring(0, brace), props);
+            }
+        }
+        return checksum;
+    }
+
+    private static long parseWithTokenizer(Path file) throws IOException {
+        long checksum = 0;
+        RecordTokenizer record = new RecordTokenizer();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!record.reset(line)) continue;
+                checksum += checksumTokenizer(record);
+            }
+        }
+        return checksum;
+    }
+
+    private static long checksumRegex(String type, Map<String, String> props) {
+        switch (type) {
+            case "Room":
+                return Integer.parseInt(props.get("roomId")) + legacyRemoveQuotes(props.get("name")).length()
+                        + (long) Double.parseDouble(props.get("area"));
+            case "AirConditioner":
+                return Integer.parseInt(props.get("deviceId")) + legacyRemoveQuotes(props.get("name")).length()
+                        + (long) (Double.parseDouble(props.get("currTemp")) + Double.parseDouble(props.get("targetTemp")))
+                        + Integer.parseInt(props.get("roomId"));
+            case "LightBulb":
+                return Integer.parseInt(props.get("deviceId")) + legacyRemoveQuotes(props.get("name")).length()
+                        + Integer.parseInt(props.get("brightness")) + Integer.parseInt(props.get("colorTemp"))
+                        + Integer.parseInt(props.get("roomId"));
+            case "SmartLock":
+                return Integer.parseInt(props.get("deviceId")) + legacyRemoveQuotes(props.get("name")).length()
+                        + (Boolean.parseBoolean(props.get("isLocked")) ? 1 : 0)
+                        + Integer.parseInt(props.get("batteryLevel")) + Integer.parseInt(props.get("roomId"));
+            default:
+                return props.size();
+        }
+    }
+
+    private static long checksumTokenizer(RecordTokenizer record) {
+        if (record.typeIs("Room")) {
+            return record.getInt("roomId") + record.getString("name").length() + (long) record.getDouble("area");
+        } else if (record.typeIs("AirConditioner")) {
+            return record.getInt("deviceId") + record.getString("name").length()
+                    + (long) (record.getDouble("currTemp") + record.getDouble("targetTemp"))
+                    + record.getInt("roomId");
+        } else if (record.typeIs("LightBulb")) {
+            return record.getInt("deviceId") + record.getString("name").length()
+                    + record.getInt("brightness") + record.getInt("colorTemp") + record.getInt("roomId");
+        } else if (record.typeIs("SmartLock")) {
+            return record.getInt("deviceId") + record.getString("name").length()
+                    + (record.getBoolean("isLocked") ? 1 : 0)
+                    + record.getInt("batteryLevel") + record.getInt("roomId");
+        }
+        return record.getFieldCount();
+    }
+
+    /**
+     * 旧版 HouseholdDataLoader 的属性解析实现，仅保留用于对比
+     */
+    private static Map<String, String> legacyParseProperties(String properties) {
+        Map<String, String> result = new HashMap<>();
+        Pattern pattern = Pattern.compile("(\\w+)=([^,]+(?:'[^']*'[^,]*)?)");
+        Matcher matcher = pattern.matcher(properties);
+        while (matcher.find()) {
+            result.put(matcher.group(1), matcher.group(2).trim());
+        }
+        return result;
+    }
+
+    private static String legacyRemoveQuotes(String value) {
+        if (value == null) return "";
+        value = value.trim();
+        if (value.startsWith("'") && value.endsWith("'")) {
+            return value.substring(1, value.length() - 1);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,645 @@
+package cn.edu.nwpu.homesphere;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.*;
+import java.util.logging.Logger;
+
+/**
+ * 家庭数据文件热重载：用 WatchService 监视数据文件，文件变化时只解析变化的行，
+ * 把新增、删除、修改的房间、设备、用户和场景以最小差异应用到正在运行的系统
+ * 已有的设备、房间和场景对象原地更新，设备的电源状态与运行日志不受影响
+ *
+ * 差异按行计算：记住上一版每一行内容的64位哈希及其记录类型与ID，新文件中没有出现过的行才会解析，
+ * 消失的行按记录的类型与ID删除，同一类型与ID的记录既消失又出现视为修改。
+ * 读取文件和计算哈希仍要扫描整个文件，但解析与应用的开销只与变化的行数有关
+ *
+ * 差异在 system 对象上加锁应用，其他线程访问系统时应同样以 system 加锁。
+ * 家庭记录、用户名与邮箱的变化无法在运行时应用，只在重载结果中提示；制造商记录与加载时一样只做格式校验
+ */
+public class HouseholdFileWatcher implements Closeable {
+    private static final Logger LOGGER = Logger.getLogger(HouseholdFileWatcher.class.getName());
+    /** 文件事件之后等待写入结束的时间 */
+    private static final long DEBOUNCE_MILLIS = 100;
+    private static final long NO_KEY = -1L;
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final HomeSphereSystem system;
+    private final Path file;
+    private final RecordTokenizer tokenizer = new RecordTokenizer();
+
+    // 上一版文件中每种行内容的出现次数，键为行内容的哈希
+    private final Map<Long, LineState> lines = new HashMap<>();
+    private int generation;
+
+    // ID -> 运行中的对象，由重载过程维护，查找不到需要存在的对象时从系统重建一次
+    private final Map<Integer, Room> roomsById = new HashMap<>();
+    private final Map<Integer, Device> devicesById = new HashMap<>();
+    private final Map<Integer, Room> deviceRooms = new HashMap<>();
+    private final Map<Integer, AutomationScene> scenesById = new HashMap<>();
+    private boolean indexesRebuilt;
+
+    private volatile ReloadResult lastResult;
+    private WatchService watchService;
+    private Thread watchThread;
+
+    /**
+     * 某一种行内容的状态
+     */
+    private static class LineState {
+        final long key;
+        int count;
+        int seen;
+        int seenGeneration;
+
+        LineState(long key) {
+            this.key = key;
+        }
+    }
+
+    /**
+     * 以文件的当前内容作为基线，调用方需保证系统已从该文件加载
+     * @param system 系统对象
+     * @param file 数据文件
+     */
+    public HouseholdFileWatcher(HomeSphereSystem system, Path file) throws IOException {
+        this.system = system;
+        this.file = file.toAbsolutePath();
+        scan(Files.readAllBytes(this.file), (hash, start, end, lineNumber, content) -> {
+            LineState state = lines.get(hash);
+            if (state == null) {
+                String line = new String(content, start, end - start, StandardCharsets.UTF_8);
+                state = new LineState(tokenizer.reset(line) ? keyOf(tokenizer) : NO_KEY);
+                lines.put(hash, state);
+            }
+            state.count++;
+        });
+        synchronized (system) {
+            rebuildIndexes();
+        }
+        indexesRebuilt = false;
+    }
+
+    /**
+     * 启动后台监视线程，文件被修改或替换时自动重载
+     */
+    public synchronized void start() throws IOException {
+        if (watchThread != null) {
+            return;
+        }
+        watchService = FileSystems.getDefault().newWatchService();
+        file.getParent().register(watchService,
+                StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_CREATE);
+        watchThread = new Thread(this::watchLoop, "household-watcher");
+        watchThread.setDaemon(true);
+        watchThread.start();
+    }
+
+    private void watchLoop() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                boolean changed = containsFileEvent(key);
+                key.reset();
+                if (!changed) {
+                    continue;
+                }
+                // 编辑器通常分多次写入，等待写入结束并合并期间的事件
+                Thread.sleep(DEBOUNCE_MILLIS);
+                while ((key = watchService.poll()) != null) {
+                    key.pollEvents();
+                    key.reset();
+                }
+                try {
+                    ReloadResult result = reload();
+                    if (result.hasChanges()) {
+                        LOGGER.info(result.toString());
+                    }
+                } catch (IOException | RuntimeException e) {
+                    LOGGER.warning("热重载失败: " + e.getMessage());
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // 监视已关闭
+        }
+    }
+
+    private boolean containsFileEvent(WatchKey key) {
+        boolean changed = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.context() instanceof Path && file.getFileName().equals(event.context())) {
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * 停止后台监视线程
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (watchService != null) {
+            watchService.close();
+            watchService = null;
+        }
+        if (watchThread != null) {
+            watchThread.interrupt();
+            watchThread = null;
+        }
+    }
+
+    /**
+     * 获取最近一次重载的结果
+     * @return 重载结果，尚未重载时返回null
+     */
+    public ReloadResult getLastResult() {
+        return lastResult;
+    }
+
+    /**
+     * 立即重新读取文件并应用与上一版的差异
+     * @return 重载结果
+     */
+    public synchronized ReloadResult reload() throws IOException {
+        long startTime = System.nanoTime();
+        ReloadResult result = new ReloadResult();
+        byte[] content = Files.readAllBytes(file);
+        int currentGeneration = ++generation;
+
+        // 找出新出现的行，未变化的行只计数
+        Map<Long, HouseholdDataLoader.ParsedRecord> added = new LinkedHashMap<>();
+        List<HouseholdDataLoader.ParsedRecord> invalid = new ArrayList<>();
+        scan(content, (hash, start, end, lineNumber, bytes) -> {
+            LineState state = lines.get(hash);
+            if (state != null && state.seenGeneration != currentGeneration) {
+                state.seenGeneration = currentGeneration;
+                state.seen = 0;
+            }
+            if (state != null && state.seen < state.count) {
+                state.seen++;
+                return;
+            }
+
+            String line = new String(bytes, start, end - start, StandardCharsets.UTF_8);
+            HouseholdDataLoader.ParsedRecord parsed = new HouseholdDataLoader.ParsedRecord(lineNumber, line);
+            long key = NO_KEY;
+            if (!tokenizer.reset(line)) {
+                parsed.error = new IllegalArgumentException("记录格式错误");
+            } else {
+                key = keyOf(tokenizer);
+                HouseholdDataLoader.parseRecord(tokenizer, parsed);
+            }
+            result.changedLines++;
+            if (parsed.error != null || key == NO_KEY) {
+                invalid.add(parsed);
+            } else if (added.putIfAbsent(key, parsed) != null) {
+                result.addMessage(lineNumber, "与同一次修改中的另一条记录ID重复，已忽略");
+            }
+
+            if (state == null) {
+                state = new LineState(key);
+                state.seenGeneration = currentGeneration;
+                lines.put(hash, state);
+            }
+            state.count++;
+            state.seen++;
+        });
+
+        // 消失的行
+        Set<Long> removed = new LinkedHashSet<>();
+        Iterator<LineState> states = lines.values().iterator();
+        while (states.hasNext()) {
+            LineState state = states.next();
+            int remaining = state.seenGeneration == currentGeneration ? state.seen : 0;
+            if (remaining < state.count) {
+                result.changedLines += state.count - remaining;
+                if (state.key != NO_KEY) {
+                    removed.add(state.key);
+                }
+                state.count = remaining;
+                if (remaining == 0) {
+                    states.remove();
+                }
+            }
+        }
+
+        for (HouseholdDataLoader.ParsedRecord record : invalid) {
+            result.addMessage(record.lineNumber, record.error != null ? record.error.getMessage() : "未知的数据类型");
+        }
+        synchronized (system) {
+            indexesRebuilt = false;
+            applyDiff(added, removed, result);
+        }
+        result.elapsedNanos = System.nanoTime() - startTime;
+        lastResult = result;
+        return result;
+    }
+
+    /**
+     * 按依赖顺序应用差异：先删除场景、设备、房间，再新增与修改房间、用户、设备，最后是场景
+     */
+    private void applyDiff(Map<Long, HouseholdDataLoader.ParsedRecord> added, Set<Long> removed, ReloadResult result) {
+        Household household = system.getHousehold();
+        for (Long key : removed) {
+            if (kindOf(key) == HouseholdDataLoader.RecordKind.HOUSEHOLD && !added.containsKey(key)) {
+                result.addMessage(0, "家庭 " + idOf(key) + " 的删除需要重新启动才能生效");
+            }
+        }
+        if (household == null) {
+            if (!added.isEmpty() || !removed.isEmpty()) {
+                result.addMessage(0, "系统中没有家庭，变化未应用");
+            }
+            return;
+        }
+
+        HouseholdDataLoader.RecordKind[] removalOrder = {
+                HouseholdDataLoader.RecordKind.SCENE, HouseholdDataLoader.RecordKind.DEVICE,
+                HouseholdDataLoader.RecordKind.ROOM, HouseholdDataLoader.RecordKind.USER};
+        for (HouseholdDataLoader.RecordKind kind : removalOrder) {
+            for (Long key : removed) {
+                if (kindOf(key) == kind && !added.containsKey(key)) {
+                    remove(household, kind, idOf(key), result);
+                }
+            }
+        }
+
+        HouseholdDataLoader.RecordKind[] updateOrder = {
+                HouseholdDataLoader.RecordKind.HOUSEHOLD, HouseholdDataLoader.RecordKind.ROOM, HouseholdDataLoader.RecordKind.USER,
+                HouseholdDataLoader.RecordKind.DEVICE, HouseholdDataLoader.RecordKind.SCENE};
+        for (HouseholdDataLoader.RecordKind kind : updateOrder) {
+            for (Map.Entry<Long, HouseholdDataLoader.ParsedRecord> entry : added.entrySet()) {
+                if (kindOf(entry.getKey()) == kind) {
+                    try {
+                        update(household, entry.getValue(), removed.contains(entry.getKey()), result);
+                    } catch (RuntimeException e) {
+                        result.addMessage(entry.getValue().lineNumber, e.getMessage());
+                    }
+                }
+            }
+        }
+
+        if (result.needsImage) {
+            household.fireHouseholdChanged();
+        }
+    }
+
+    private void remove(Household household, HouseholdDataLoader.RecordKind kind, int id, ReloadResult result) {
+        switch (kind) {
+            case SCENE:
+                household.removeAutoScene(id);
+                system.removeAutoSceneUnchecked(id);
+                scenesById.remove(id);
+                break;
+            case DEVICE:
+                detachDevice(id);
+                break;
+            case ROOM:
+                household.removeRoom(id);
+                roomsById.remove(id);
+                break;
+            case USER:
+                household.removeUser(id);
+                break;
+            default:
+                return;
+        }
+        result.needsImage |= kind == HouseholdDataLoader.RecordKind.SCENE || kind == HouseholdDataLoader.RecordKind.DEVICE;
+        result.count(result.removed, kind);
+    }
+
+    private void detachDevice(int deviceId) {
+        Room room = lookup(deviceRooms, deviceId);
+        if (room != null) {
+            room.removeDevice(deviceId);
+        }
+        system.removeDeviceUnchecked(deviceId);
+        devicesById.remove(deviceId);
+        deviceRooms.remove(deviceId);
+    }
+
+    /**
+     * 应用一条新增或修改的记录
+     * @param modified 同类型同ID的旧记录是否存在
+     */
+    private void update(Household household, HouseholdDataLoader.ParsedRecord record, boolean modified, ReloadResult result) {
+        switch (record.kind) {
+            case HOUSEHOLD:
+                result.addMessage(record.lineNumber, "家庭记录的变化需要重新启动才能生效");
+                return;
+            case ROOM:
+                updateRoom(household, (Room) record.entity, modified, result);
+                break;
+            case USER:
+                updateUser(household, (User) record.entity, modified, result);
+                break;
+            case DEVICE:
+                updateDevice((Device) record.entity, record.roomId, modified, result);
+                break;
+            case SCENE:
+                updateScene(household, (AutomationScene) record.entity, record.actions, modified, result);
+                break;
+            default:
+                return;
+        }
+        result.count(modified ? result.modified : result.added, record.kind);
+    }
+
+    private void updateRoom(Household household, Room room, boolean modified, ReloadResult result) {
+        Room existing = modified ? lookup(roomsById, room.getRoomId()) : null;
+        if (existing == null) {
+            household.addRoom(room);
+            roomsById.putIfAbsent(room.getRoomId(), room);
+            return;
+        }
+        existing.updateProperties(room.getName(), room.getArea());
+        result.needsImage = true;
+    }
+
+    private void updateUser(Household household, User user, boolean modified, ReloadResult result) {
+        User existing = null;
+        for (User candidate : household.getUsers()) {
+            if (candidate.getUserId() == user.getUserId()) {
+                existing = candidate;
+                break;
+            }
+        }
+        if (existing == null) {
+            system.addUserToSystem(user);
+            household.addUser(user);
+            if (user.isAdmin()) {
+                household.setAdmin(user);
+            }
+            return;
+        }
+        if (!existing.getUserName().equals(user.getUserName()) || !existing.getEmail().equals(user.getEmail())) {
+            result.addMessage(0, "用户 " + user.getUserId() + " 的用户名或邮箱变化需要重新启动才能生效");
+        }
+        if (existing.isAdmin() != user.isAdmin()) {
+            if (user.isAdmin()) {
+                household.setAdmin(existing);
+            } else {
+                existing.setAdmin(false);
+                result.needsImage = true;
+            }
+        }
+    }
+
+    private void updateDevice(Device device, int roomId, boolean modified, ReloadResult result) {
+        Room room = lookup(roomsById, roomId);
+        if (room == null) {
+            throw new IllegalStateException("房间ID " + roomId + " 不存在");
+        }
+        Device existing = modified ? lookup(devicesById, device.getDeviceId()) : null;
+        if (existing != null && (existing.getClass() != device.getClass()
+                || existing.getManufacturer().getManufacturerId() != device.getManufacturer().getManufacturerId())) {
+            // 类型或制造商变化相当于换了一台设备
+            detachDevice(existing.getDeviceId());
+            result.needsImage = true;
+            existing = null;
+        }
+        if (existing == null) {
+            system.addDeviceUnchecked(device);
+            room.addDevice(device);
+            devicesById.put(device.getDeviceId(), device);
+            deviceRooms.put(device.getDeviceId(), room);
+            return;
+        }
+
+        if (!existing.getName().equals(device.getName())) {
+            existing.setName(device.getName());
+            result.needsImage = true;
+        }
+        existing.applySettings(device);
+        Room current = deviceRooms.get(existing.getDeviceId());
+        if (current != room) {
+            if (current != null) {
+                current.removeDevice(existing.getDeviceId());
+            }
+            room.addDevice(existing);
+            deviceRooms.put(existing.getDeviceId(), room);
+        }
+    }
+
+    private void updateScene(Household household, AutomationScene scene, List<HouseholdDataLoader.SceneActionSpec> specs,
+                             boolean modified, ReloadResult result) {
+        AutomationScene existing = modified ? lookup(scenesById, scene.getSceneld()) : null;
+        AutomationScene target = existing != null ? existing : scene;
+        if (existing != null) {
+            existing.setName(scene.getName());
+            existing.setDescription(scene.getDescription());
+            for (DeviceAction action : existing.getActions()) {
+                existing.removeAction(action);
+            }
+            result.needsImage = true;
+        }
+        for (HouseholdDataLoader.SceneActionSpec spec : specs) {
+            Device device = devicesById.get(spec.deviceId);
+            if (device == null) {
+                result.addMessage(0, "场景 " + target.getName() + " 引用的设备ID " + spec.deviceId + " 不存在，动作 " + spec.command + " 已忽略");
+                continue;
+            }
+            target.addAction(new DeviceAction(device, spec.command, spec.parameters));
+        }
+        if (existing == null) {
+            system.addAutoScene(scene);
+            household.addAutoScene(scene);
+            scenesById.put(scene.getSceneld(), scene);
+        }
+    }
+
+    /**
+     * 查找应当存在的对象，找不到时从系统重建索引后再查一次（每次重载最多重建一次）
+     */
+    private <T> T lookup(Map<Integer, T> index, int id) {
+        T value = index.get(id);
+        if (value == null && !indexesRebuilt) {
+            rebuildIndexes();
+            value = index.get(id);
+        }
+        return value;
+    }
+
+    private void rebuildIndexes() {
+        indexesRebuilt = true;
+        roomsById.clear();
+        devicesById.clear();
+        deviceRooms.clear();
+        scenesById.clear();
+        Household household = system.getHousehold();
+        if (household == null) {
+            return;
+        }
+        for (Room room : household.getRooms()) {
+            roomsById.putIfAbsent(room.getRoomId(), room);
+            for (Device device : room.getDevices()) {
+                devicesById.putIfAbsent(device.getDeviceId(), device);
+                deviceRooms.putIfAbsent(device.getDeviceId(), room);
+            }
+        }
+        for (AutomationScene scene : household.getAutoScenes()) {
+            scenesById.putIfAbsent(scene.getSceneld(), scene);
+        }
+    }
+
+    // ---------------- 行扫描与记录键 ----------------
+
+    private interface LineHandler {
+        void line(long hash, int start, int end, int lineNumber, byte[] content);
+    }
+
+    /**
+     * 逐行扫描文件内容，去掉首尾空白后计算 FNV-1a 哈希，空行跳过
+     */
+    private static void scan(byte[] content, LineHandler handler) {
+        int lineNumber = 0;
+        int pos = 0;
+        while (pos < content.length) {
+            int lineEnd = pos;
+            while (lineEnd < content.length && content[lineEnd] != '\n') lineEnd++;
+            lineNumber++;
+            int start = pos;
+            int end = lineEnd;
+            while (start < end && isWhitespace(content[start])) start++;
+            while (end > start && isWhitespace(content[end - 1])) end--;
+            if (start < end) {
+                long hash = FNV_OFFSET;
+                for (int i = start; i < end; i++) {
+                    hash = (hash ^ (content[i] & 0xff)) * FNV_PRIME;
+                }
+                handler.line(hash, start, end, lineNumber, content);
+            }
+            pos = lineEnd + 1;
+        }
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\f';
+    }
+
+    /**
+     * 根据记录类型与ID字段生成记录键，无法识别时返回 NO_KEY
+     */
+    private static long keyOf(HouseholdRecord record) {
+        HouseholdDataLoader.RecordKind kind;
+        String idField;
+        if (record.typeIs("Household")) {
+            kind = HouseholdDataLoader.RecordKind.HOUSEHOLD;
+            idField = "householdId";
+        } else if (record.typeIs("Room")) {
+            kind = HouseholdDataLoader.RecordKind.ROOM;
+            idField = "roomId";
+        } else if (record.typeIs("User")) {
+            kind = HouseholdDataLoader.RecordKind.USER;
+            idField = "userId";
+        } else if (record.typeIs("Manufacturer")) {
+            kind = HouseholdDataLoader.RecordKind.MANUFACTURER;
+            idField = "manufacturerId";
+        } else if (record.typeIs("AirConditioner") || record.typeIs("LightBulb") || record.typeIs("SmartLock")) {
+            kind = HouseholdDataLoader.RecordKind.DEVICE;
+            idField = "deviceId";
+        } else if (record.typeIs("AutomationScene")) {
+            kind = HouseholdDataLoader.RecordKind.SCENE;
+            idField = "sceneId";
+        } else {
+            return NO_KEY;
+        }
+        try {
+            return ((long) kind.ordinal() << 32) | (record.getInt(idField) & 0xffffffffL);
+        } catch (RuntimeException e) {
+            return NO_KEY;
+        }
+    }
+
+    private static HouseholdDataLoader.RecordKind kindOf(long key) {
+        return HouseholdDataLoader.RecordKind.values()[(int) (key >>> 32)];
+    }
+
+    private static int idOf(long key) {
+        return (int) key;
+    }
+
+    /**
+     * 一次重载的结果：变化的行数、各类记录的新增、删除、修改数量以及无法应用的变化
+     */
+    public static class ReloadResult {
+        private final Map<HouseholdDataLoader.RecordKind, Integer> added = new EnumMap<>(HouseholdDataLoader.RecordKind.class);
+        private final Map<HouseholdDataLoader.RecordKind, Integer> removed = new EnumMap<>(HouseholdDataLoader.RecordKind.class);
+        private final Map<HouseholdDataLoader.RecordKind, Integer> modified = new EnumMap<>(HouseholdDataLoader.RecordKind.class);
+        private final List<String> messages = new ArrayList<>();
+        private int changedLines;
+        private long elapsedNanos;
+        private boolean needsImage;
+
+        void count(Map<HouseholdDataLoader.RecordKind, Integer> counts, HouseholdDataLoader.RecordKind kind) {
+            counts.merge(kind, 1, Integer::sum);
+        }
+
+        void addMessage(int lineNumber, String message) {
+            messages.add(lineNumber > 0 ? "第 " + lineNumber + " 行: " + message : message);
+        }
+
+        public int getAdded(HouseholdDataLoader.RecordKind kind) {
+            return added.getOrDefault(kind, 0);
+        }
+
+        public int getRemoved(HouseholdDataLoader.RecordKind kind) {
+            return removed.getOrDefault(kind, 0);
+        }
+
+        public int getModified(HouseholdDataLoader.RecordKind kind) {
+            return modified.getOrDefault(kind, 0);
+        }
+
+        /**
+         * 获取新增与消失的行数之和
+         * @return 变化的行数
+         */
+        public int getChangedLines() {
+            return changedLines;
+        }
+
+        /**
+         * 获取未能应用的变化与出错的记录
+         * @return 提示信息
+         */
+        public List<String> getMessages() {
+            return Collections.unmodifiableList(messages);
+        }
+
+        public long getElapsedMillis() {
+            return elapsedNanos / 1_000_000;
+        }
+
+        public boolean hasChanges() {
+            return changedLines > 0;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("=== 数据文件热重载 ===\n");
+            sb.append("变化行数: ").append(changedLines).append(", 耗时 ").append(getElapsedMillis()).append(" ms\n");
+            for (HouseholdDataLoader.RecordKind kind : HouseholdDataLoader.RecordKind.values()) {
+                if (getAdded(kind) + getRemoved(kind) + getModified(kind) > 0) {
+                    sb.append("  ").append(kind.getLabel()).append(": 新增 ").append(getAdded(kind))
+                            .append(", 删除 ").append(getRemoved(kind)).append(", 修改 ").append(getModified(kind)).append('\n');
+                }
+            }
+            for (String message : messages) {
+                sb.append("  ").append(message).append('\n');
+            }
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package cn.edu.nwpu.homesphere;
+
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * 家庭范围的运行日志时间线：对所有设备在时间范围内的日志做 k 路堆归并，按全局时间顺序逐条返回
+ * 每台设备的范围用二分查找定位，整个查询为 O(d log n + k log d)，d 为设备数，k 为结果条数；
+ * 结果边遍历边产生，不建立合并后的列表。时间相同的日志按设备在家庭中的顺序排列
+ * 用法与 RunningLogCursor 相同：先调用 next()，再读取当前日志
+ */
+public class HouseholdLogTimeline {
+    private final Device[] devices;
+    private final RunningLogCursor[] cursors;
+    // 最小堆，保存设备下标，按当前日志时间和设备下标排序
+    private final int[] heap;
+    private int heapSize;
+    // 当前日志所在的设备下标，-1表示未指向日志
+    private int current = -1;
+
+    /**
+     * @param devices 参与归并的设备，按家庭中的顺序
+     * @param fromTime 起始时间（毫秒，含）
+     * @param toTime 结束时间（毫秒，不含）
+     */
+    HouseholdLogTimeline(List<Device> devices, long fromTime, long toTime) {
+        int count = devices.size();
+        this.devices = devices.toArray(new Device[0]);
+        this.cursors = new RunningLogCursor[count];
+        this.heap = new int[count];
+        for (int i = 0; i < count; i++) {
+            RunningLogCursor cursor = this.devices[i].openLogCursor(fromTime, toTime);
+            if (cursor.next()) {
+                cursors[i] = cursor;
+                heap[heapSize++] = i;
+            }
+        }
+        for (int i = heapSize / 2 - 1; i >= 0; i--) {
+            siftDown(i);
+        }
+    }
+
+    /**
+     * 移动到时间线上的下一条日志
+     * @return 还有日志时返回true
+     */
+    public boolean next() {
+        if (current >= 0) {
+            // 上一条来自堆顶设备，推进它的游标
+            if (cursors[current].next()) {
+                siftDown(0);
+            } else {
+                cursors[current] = null;
+                heap[0] = heap[--heapSize];
+                if (heapSize > 0) {
+                    siftDown(0);
+                }
+            }
+        }
+        current = heapSize > 0 ? heap[0] : -1;
+        return current >= 0;
+    }
+
+    private void siftDown(int index) {
+        int item = heap[index];
+        while (true) {
+            int child = 2 * index + 1;
+            if (child >= heapSize) break;
+            if (child + 1 < heapSize && before(heap[child + 1], heap[child])) {
+                child++;
+            }
+            if (!before(heap[child], item)) break;
+            heap[index] = heap[child];
+            index = child;
+        }
+        heap[index] = item;
+    }
+
+    private boolean before(int a, int b) {
+        long timeA = cursors[a].getTime();
+        long timeB = cursors[b].getTime();
+        return timeA < timeB || (timeA == timeB && a < b);
+    }
+
+    private RunningLogCursor cursor() {
+        if (current < 0) {
+            throw new NoSuchElementException("时间线未指向日志，请先调用 next()");
+        }
+        return cursors[current];
+    }
+
+    /**
+     * 获取当前日志所属的设备
+     * @return 设备对象
+     */
+    public Device getDevice() {
+        cursor();
+        return devices[current];
+    }
+
+    public long getTime() {
+        return cursor().getTime();
+    }
+
+    public RunningLog.Type getType() {
+        return cursor().getType();
+    }
+
+    public String getEvent() {
+        return cursor().getEvent();
+    }
+
+    public String getNote() {
+        return cursor().getNote();
+    }
+
+    /**
+     * 与 RunningLogCursor.appendTemplateNote 相同
+     * @param target 目标
+     * @return 备注按模板保存并已写入时返回true
+     */
+    public boolean appendTemplateNote(StringBuilder target) {
+        return cursor().appendTemplateNote(target);
+    }
+
+    /**
+     * 为当前日志创建对象
+     * @return 运行日志
+     */
+    public RunningLog toRunningLog() {
+        return cursor().toRunningLog();
+    }
+}
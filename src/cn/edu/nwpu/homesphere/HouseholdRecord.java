@@ -0,0 +1,61 @@
+package cn.edu.nwpu.homesphere;
+
+/**
+ * 已分词的家庭数据记录，提供按字段名读取类型化值的能力
+ * 字符实现见 RecordTokenizer，内存映射字节实现见 ByteRecordTokenizer
+ */
+public interface HouseholdRecord {
+    /**
+     * 判断记录类型是否为指定名称
+     * @param typeName 类型名称，例如 "Room"
+     * @return 是否匹配
+     */
+    boolean typeIs(String typeName);
+
+    /**
+     * 获取记录类型名称
+     * @return 记录类型名称
+     */
+    String getType();
+
+    /**
+     * 获取字段数量
+     * @return 字段数量
+     */
+    int getFieldCount();
+
+    /**
+     * 字段是否存在
+     * @param key 字段名
+     * @return 是否存在
+     */
+    boolean hasField(String key);
+
+    /**
+     * 获取整数字段
+     * @param key 字段名
+     * @return 整数值
+     */
+    int getInt(String key);
+
+    /**
+     * 获取浮点字段
+     * @param key 字段名
+     * @return 浮点值
+     */
+    double getDouble(String key);
+
+    /**
+     * 获取布尔字段，规则与 Boolean.parseBoolean 相同
+     * @param key 字段名
+     * @return 布尔值，字段不存在时返回false
+     */
+    boolean getBoolean(String key);
+
+    /**
+     * 获取字符串字段（已去除引号）
+     * @param key 字段名
+     * @return 字段值，不存在时返回空字符串
+     */
+    String getString(String key);
+}
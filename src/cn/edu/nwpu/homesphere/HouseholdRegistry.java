@@ -0,0 +1,242 @@
+package cn.edu.nwpu.homesphere;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 多家庭注册表：并发加载一个目录下的所有家庭数据文件，按 householdId 查找
+ * 每个文件加载到独立的 HomeSphereSystem 中，家庭之间互不影响；
+ * 某个文件加载失败只影响它自己的家庭，失败原因记录在加载汇总中
+ */
+public class HouseholdRegistry {
+    private final int parallelism;
+    private final ConcurrentHashMap<Integer, HomeSphereSystem> systems = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, Path> sourceFiles = new ConcurrentHashMap<>();
+
+    /**
+     * 使用与CPU核数相同的并行度
+     */
+    public HouseholdRegistry() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param parallelism 同时加载的最大文件数
+     */
+    public HouseholdRegistry(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("并行度必须大于0: " + parallelism);
+        }
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * 加载目录下所有 .dat 文件，已加载的家庭保留，householdId 重复的文件视为失败
+     * @param directory 数据目录
+     * @return 加载汇总
+     */
+    public LoadSummary loadDirectory(Path directory) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*.dat")) {
+            for (Path file : stream) {
+                if (Files.isRegularFile(file)) {
+                    files.add(file);
+                }
+            }
+        }
+        Collections.sort(files);
+        return loadFiles(files);
+    }
+
+    /**
+     * 并发加载指定的数据文件
+     * @param files 数据文件列表
+     * @return 加载汇总
+     */
+    public LoadSummary loadFiles(List<Path> files) {
+        long startTime = System.nanoTime();
+        LoadSummary summary = new LoadSummary(files.size());
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, Math.max(1, files.size())), r -> {
+            Thread thread = new Thread(r, "household-loader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (Path file : files) {
+                futures.add(executor.submit(() -> loadOne(file, summary)));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    // loadOne 自行记录失败，这里只会是未预料的错误
+                    throw new IllegalStateException(e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdownNow();
+        }
+        summary.elapsedNanos = System.nanoTime() - startTime;
+        return summary;
+    }
+
+    private void loadOne(Path file, LoadSummary summary) {
+        try {
+            HomeSphereSystem system = new HomeSphereSystem();
+            HouseholdDataLoader loader = new HouseholdDataLoader(system);
+            loader.setQuiet(true);
+            LoadReport report = loader.loadFromFile(file.toString());
+            summary.addReport(file, report);
+
+            if (!report.isHouseholdLoaded()) {
+                summary.addFailure(file, "家庭记录缺失或无效");
+                return;
+            }
+            int householdId = system.getHousehold().getHouseholdId();
+            Path existing = sourceFiles.putIfAbsent(householdId, file);
+            if (existing != null) {
+                summary.addFailure(file, "householdId " + householdId + " 与 " + existing.getFileName() + " 重复");
+                return;
+            }
+            systems.put(householdId, system);
+            summary.loaded.incrementAndGet();
+        } catch (IOException | RuntimeException e) {
+            summary.addFailure(file, e.getClass().getSimpleName() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * 按ID获取家庭所在的系统
+     * @param householdId 家庭ID
+     * @return 系统对象，不存在时返回null
+     */
+    public HomeSphereSystem getSystem(int householdId) {
+        return systems.get(householdId);
+    }
+
+    /**
+     * 按ID获取家庭
+     * @param householdId 家庭ID
+     * @return 家庭对象，不存在时返回null
+     */
+    public Household getHousehold(int householdId) {
+        HomeSphereSystem system = systems.get(householdId);
+        return system == null ? null : system.getHousehold();
+    }
+
+    /**
+     * 获取家庭的数据文件
+     * @param householdId 家庭ID
+     * @return 数据文件，不存在时返回null
+     */
+    public Path getSourceFile(int householdId) {
+        return systems.containsKey(householdId) ? sourceFiles.get(householdId) : null;
+    }
+
+    /**
+     * 获取所有已加载的家庭ID（升序）
+     * @return 家庭ID列表
+     */
+    public List<Integer> getHouseholdIds() {
+        List<Integer> ids = new ArrayList<>(systems.keySet());
+        Collections.sort(ids);
+        return ids;
+    }
+
+    public int size() {
+        return systems.size();
+    }
+
+    /**
+     * 一次目录加载的汇总：成功与失败的文件、每个文件的加载报告以及总体吞吐量
+     */
+    public static class LoadSummary {
+        private final int fileCount;
+        private final AtomicInteger loaded = new AtomicInteger();
+        private final Map<Path, String> failures = new ConcurrentSkipListMap<>();
+        private final Map<Path, LoadReport> reports = new ConcurrentSkipListMap<>();
+        private volatile long elapsedNanos;
+
+        LoadSummary(int fileCount) {
+            this.fileCount = fileCount;
+        }
+
+        void addReport(Path file, LoadReport report) {
+            reports.put(file, report);
+        }
+
+        void addFailure(Path file, String reason) {
+            failures.put(file, reason);
+        }
+
+        public int getFileCount() {
+            return fileCount;
+        }
+
+        public int getLoadedCount() {
+            return loaded.get();
+        }
+
+        /**
+         * 获取失败的文件及原因
+         * @return 文件 -> 失败原因
+         */
+        public Map<Path, String> getFailures() {
+            return Collections.unmodifiableMap(failures);
+        }
+
+        /**
+         * 获取每个文件的加载报告（读取失败的文件没有报告）
+         * @return 文件 -> 加载报告
+         */
+        public Map<Path, LoadReport> getReports() {
+            return Collections.unmodifiableMap(reports);
+        }
+
+        public long getElapsedMillis() {
+            return elapsedNanos / 1_000_000;
+        }
+
+        /**
+         * 获取所有文件的记录总数
+         * @return 记录总数
+         */
+        public long getRecordCount() {
+            long total = 0;
+            for (LoadReport report : reports.values()) {
+                total += report.getRecordCount();
+            }
+            return total;
+        }
+
+        public double getRecordsPerSecond() {
+            return elapsedNanos == 0 ? 0 : getRecordCount() * 1e9 / elapsedNanos;
+        }
+
+        public double getHouseholdsPerSecond() {
+            return elapsedNanos == 0 ? 0 : loaded.get() * 1e9 / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("=== 家庭注册表加载汇总 ===\n");
+            sb.append("文件: ").append(fileCount).append(" 个, 成功 ").append(getLoadedCount())
+                    .append(", 失败 ").append(failures.size()).append('\n');
+            sb.append(String.format("记录: %d 条, 耗时 %d ms, 吞吐 %.0f 条/秒, %.1f 个家庭/秒%n",
+                    getRecordCount(), getElapsedMillis(), getRecordsPerSecond(), getHouseholdsPerSecond()));
+            for (Map.Entry<Path, String> failure : failures.entrySet()) {
+                sb.append("  失败: ").append(failure.getKey().getFileName()).append(" - ").append(failure.getValue()).append('\n');
+            }
+            return sb.toString();
+        }
+    }
+}
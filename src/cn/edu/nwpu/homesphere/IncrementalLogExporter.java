@@ -0,0 +1,253 @@
+package cn.edu.nwpu.homesphere;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 运行日志增量导出：按设备记录已导出到的位置（水位），每次只导出之后追加的日志，
+ * 耗时与新日志条数成正比，与历史长度无关。输出按条写入，适合追加到同一个文件。
+ *
+ * 水位为设备已导出的最后一条日志的时间、该时间已导出的条数以及之后一条日志在存储中的位置。
+ * 设备的日志时间非递减，导出时按时间二分查找水位，再跳过该时间已导出的日志：位置在水位之前的
+ * 日志才可能已导出，该时间已导出的日志被淘汰后，同一毫秒追加的新日志不会被当作已导出而跳过。
+ * 快照与变更日志恢复后日志保持原来的位置；从数据文件重新加载后位置从头编号，此时只按条数跳过。水位保存在文件中，先写入临时文件再原子替换。
+ * 每次导出先在局部记录推进后的水位，输出全部写入后才提交：exportTo 在导出文件同步到磁盘、
+ * 水位文件保存成功后才更新内存中的水位，中途任何一步失败时下次会重新导出这部分日志，不会遗漏
+ */
+public class IncrementalLogExporter {
+    /**
+     * 单条日志的输出格式
+     */
+    public interface EntryFormat {
+        /**
+         * 把游标当前的日志格式化为一条完整的记录（含换行）
+         * @param household 家庭对象
+         * @param room 设备所在房间
+         * @param device 设备
+         * @param log 位于该日志的游标
+         * @param target 目标
+         */
+        void appendEntry(Household household, Room room, Device device, RunningLogCursor log, StringBuilder target);
+    }
+
+    /**
+     * 默认格式：每条日志一行，时间、房间、设备ID、设备名称、类型、事件、备注以制表符分隔
+     */
+    public static final EntryFormat TEXT = (household, room, device, log, target) -> {
+        target.append(LogTimestampRenderer.getDefault().render(log.getTime())).append('\t')
+                .append(plain(room.getName())).append('\t')
+                .append(device.getDeviceId()).append('\t')
+                .append(plain(device.getName())).append('\t')
+                .append(log.getType().name()).append('\t')
+                .append(plain(log.getEvent())).append('\t');
+        if (!log.appendTemplateNote(target)) {
+            target.append(plain(log.getNote()));
+        }
+        target.append('\n');
+    };
+
+    private static final String HEADER = "# 增量导出水位: 设备ID\t最后导出的日志时间\t该时间已导出的条数\t之后一条日志的位置";
+
+    private final Path watermarkFile;
+    private final EntryFormat format;
+    private final Map<Integer, Watermark> watermarks = new HashMap<>();
+
+    /**
+     * 一次导出写出的条数与推进后的水位，提交前不影响导出器的水位
+     */
+    private static final class ExportPass {
+        final Map<Integer, Watermark> advanced = new HashMap<>();
+        int exported;
+    }
+
+    /**
+     * 设备的导出水位，不可变
+     */
+    private static final class Watermark {
+        final long time;
+        final int countAtTime;
+        // 最后导出的日志之后的绝对位置，旧版水位文件中没有时为 Long.MAX_VALUE（只按条数跳过）
+        final long endPosition;
+
+        Watermark(long time, int countAtTime, long endPosition) {
+            this.time = time;
+            this.countAtTime = countAtTime;
+            this.endPosition = endPosition;
+        }
+    }
+
+    /**
+     * 创建增量导出器，水位文件存在时读取其中的水位
+     * @param watermarkFile 水位文件
+     * @param format 单条日志的输出格式
+     * @throws IOException 读取水位文件失败或格式错误时抛出
+     */
+    public IncrementalLogExporter(Path watermarkFile, EntryFormat format) throws IOException {
+        this.watermarkFile = watermarkFile;
+        this.format = format;
+        if (Files.exists(watermarkFile)) {
+            loadWatermarks();
+        }
+    }
+
+    /**
+     * 把各设备水位之后的日志写入 out，全部写入后在内存中推进水位（不保存到文件）
+     * 写入 out 失败时水位保持不变
+     * @param household 家庭对象
+     * @param out 输出目标
+     * @return 导出的日志条数
+     * @throws IOException 写入 out 失败时抛出
+     */
+    public synchronized int export(Household household, Appendable out) throws IOException {
+        ExportPass pass = write(household, out);
+        watermarks.putAll(pass.advanced);
+        return pass.exported;
+    }
+
+    /**
+     * 把新日志追加到文件末尾（文件不存在时创建），同步到磁盘并保存水位后才推进内存中的水位
+     * @param household 家庭对象
+     * @param file 导出文件（UTF-8）
+     * @return 导出的日志条数
+     * @throws IOException 写入导出文件或水位文件失败时抛出
+     */
+    public synchronized int exportTo(Household household, Path file) throws IOException {
+        ExportPass pass;
+        try (FileOutputStream stream = new FileOutputStream(file.toFile(), true)) {
+            Writer out = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8), 1 << 16);
+            pass = write(household, out);
+            out.flush();
+            stream.getFD().sync();
+        }
+        if (pass.exported > 0) {
+            Map<Integer, Watermark> committed = new HashMap<>(watermarks);
+            committed.putAll(pass.advanced);
+            writeWatermarks(committed);
+            watermarks.putAll(pass.advanced);
+        }
+        return pass.exported;
+    }
+
+    /**
+     * 把各设备水位之后的日志写入 out，推进后的水位只记录在返回结果中
+     */
+    private ExportPass write(Household household, Appendable out) throws IOException {
+        ExportPass pass = new ExportPass();
+        StringBuilder entry = new StringBuilder(256);
+        for (Room room : household.getRooms()) {
+            for (Device device : room.getDevices()) {
+                Watermark mark = watermarks.get(device.getDeviceId());
+                long lastTime = mark == null ? Long.MIN_VALUE : mark.time;
+                int countAtTime = mark == null ? 0 : mark.countAtTime;
+                int skip = countAtTime;
+                long endPosition = mark == null ? Long.MIN_VALUE : mark.endPosition;
+                RunningLogCursor log = mark == null
+                        ? device.openLogCursor() : device.openLogCursor(mark.time, Long.MAX_VALUE);
+                int deviceExported = 0;
+                while (log.next()) {
+                    long time = log.getTime();
+                    if (time == lastTime && skip > 0 && log.position() < endPosition) {
+                        skip--;
+                        continue;
+                    }
+                    entry.setLength(0);
+                    format.appendEntry(household, room, device, log, entry);
+                    out.append(entry);
+                    if (time == lastTime) {
+                        countAtTime++;
+                    } else {
+                        lastTime = time;
+                        countAtTime = 1;
+                    }
+                    endPosition = log.position() + 1;
+                    deviceExported++;
+                }
+                if (deviceExported > 0) {
+                    pass.advanced.put(device.getDeviceId(), new Watermark(lastTime, countAtTime, endPosition));
+                    pass.exported += deviceExported;
+                }
+            }
+        }
+        return pass;
+    }
+
+    /**
+     * 保存水位：先写入临时文件再原子替换，避免留下半个水位文件
+     * @throws IOException 写入失败时抛出
+     */
+    public synchronized void saveWatermarks() throws IOException {
+        writeWatermarks(watermarks);
+    }
+
+    private void writeWatermarks(Map<Integer, Watermark> marks) throws IOException {
+        StringBuilder text = new StringBuilder(HEADER).append('\n');
+        for (Map.Entry<Integer, Watermark> e : new TreeMap<>(marks).entrySet()) {
+            text.append(e.getKey()).append('\t')
+                    .append(e.getValue().time).append('\t')
+                    .append(e.getValue().countAtTime).append('\t')
+                    .append(e.getValue().endPosition).append('\n');
+        }
+        Path dir = watermarkFile.toAbsolutePath().getParent();
+        Path temp = Files.createTempFile(dir, watermarkFile.getFileName().toString(), ".tmp");
+        try {
+            try (FileOutputStream out = new FileOutputStream(temp.toFile())) {
+                out.write(text.toString().getBytes(StandardCharsets.UTF_8));
+                out.getFD().sync();
+            }
+            Files.move(temp, watermarkFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * 获取设备已导出的最后一条日志的时间
+     * @param deviceId 设备ID
+     * @return 时间（毫秒），尚未导出过时返回 Long.MIN_VALUE
+     */
+    public synchronized long getWatermarkTime(int deviceId) {
+        Watermark mark = watermarks.get(deviceId);
+        return mark == null ? Long.MIN_VALUE : mark.time;
+    }
+
+    private void loadWatermarks() throws IOException {
+        int lineNumber = 0;
+        for (String line : Files.readAllLines(watermarkFile, StandardCharsets.UTF_8)) {
+            lineNumber++;
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split("\t");
+            try {
+                if (fields.length != 3 && fields.length != 4) {
+                    throw new NumberFormatException("字段数为 " + fields.length);
+                }
+                long endPosition = fields.length == 4 ? Long.parseLong(fields[3]) : Long.MAX_VALUE;
+                watermarks.put(Integer.parseInt(fields[0]),
+                        new Watermark(Long.parseLong(fields[1]), Integer.parseInt(fields[2]), endPosition));
+            } catch (NumberFormatException e) {
+                throw new IOException("水位文件第 " + lineNumber + " 行格式错误: " + line, e);
+            }
+        }
+    }
+
+    /**
+     * 把文本中的制表符与换行替换为空格，保证一条日志占一行
+     */
+    private static String plain(String text) {
+        if (text == null) {
+            return "";
+        }
+        return text.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+    }
+}
@@ -0,0 +1,112 @@
+package cn.edu.nwpu.homesphere;
+
+import java.io.IOException;
+
+/**
+ * JSON Lines 格式：每条运行日志一行扁平的 JSON 对象，包含 householdId、roomId、deviceId、
+ * timestamp、type、event 与 note，下游可以逐行解析，不必读入整个文档。
+ * 每台设备的日志拼接到一个复用的缓冲区，攒够一批再写入输出目标；编号直接写入缓冲区，
+ * 时间戳取自按秒缓存的渲染器，按模板保存的备注不生成字符串，不需转义的文本整段追加，
+ * 因此每行几乎不分配对象。也可以作为增量导出的单条格式，输出可直接追加到同一个文件
+ */
+public class JsonLinesRunningLogFormatter implements RunningLogFormatter, IncrementalLogExporter.EntryFormat {
+    // 缓冲区攒够这么多字符再写入输出目标
+    private static final int FLUSH_CHARS = 8192;
+
+    @Override
+    public String getFormatterName() {
+        return "JSON Lines格式";
+    }
+
+    @Override
+    public void format(Household household, Appendable out) throws IOException {
+        LogTimestampRenderer timestamps = LogTimestampRenderer.getDefault();
+        // 各设备的日志作为片段，日志较多时并行格式化，按原有顺序写出
+        OrderedExportWriter lines = OrderedExportWriter.open(household, out);
+        try {
+            for (Room room : household.getRooms()) {
+                for (Device device : room.getDevices()) {
+                    lines.fragment(target -> appendLogs(household, room, device, target, timestamps));
+                }
+            }
+            lines.finish();
+        } finally {
+            lines.close();
+        }
+    }
+
+    @Override
+    public void appendEntry(Household household, Room room, Device device, RunningLogCursor log, StringBuilder target) {
+        appendLine(target, household.getHouseholdId(), room.getRoomId(), device.getDeviceId(),
+                log, LogTimestampRenderer.getDefault());
+    }
+
+    /**
+     * 写入一台设备的所有日志行
+     */
+    private void appendLogs(Household household, Room room, Device device, Appendable target,
+                            LogTimestampRenderer timestamps) throws IOException {
+        StringBuilder buffer = new StringBuilder(FLUSH_CHARS + 512);
+        int householdId = household.getHouseholdId();
+        int roomId = room.getRoomId();
+        int deviceId = device.getDeviceId();
+        RunningLogCursor log = device.openLogCursor();
+        while (log.next()) {
+            appendLine(buffer, householdId, roomId, deviceId, log, timestamps);
+            if (buffer.length() >= FLUSH_CHARS) {
+                target.append(buffer);
+                buffer.setLength(0);
+            }
+        }
+        if (buffer.length() > 0) {
+            target.append(buffer);
+        }
+    }
+
+    private static void appendLine(StringBuilder line, int householdId, int roomId, int deviceId,
+                                   RunningLogCursor log, LogTimestampRenderer timestamps) {
+        line.append("{\"householdId\":").append(householdId)
+                .append(",\"roomId\":").append(roomId)
+                .append(",\"deviceId\":").append(deviceId)
+                .append(",\"timestamp\":\"").append(timestamps.render(log.getTime()))
+                .append("\",\"type\":\"").append(log.getType().name())
+                .append("\",\"event\":\"");
+        appendEscaped(line, log.getEvent());
+        line.append("\",\"note\":\"");
+        if (!log.appendTemplateNote(line)) {
+            appendEscaped(line, log.getNote());
+        }
+        line.append("\"}\n");
+    }
+
+    /**
+     * 按 JSON 字符串规则转义后追加，没有需要转义的字符时整段追加
+     */
+    private static void appendEscaped(StringBuilder target, String str) {
+        if (str == null) {
+            return;
+        }
+        int length = str.length();
+        int from = 0;
+        for (int i = 0; i < length; i++) {
+            char c = str.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\') {
+                continue;
+            }
+            target.append(str, from, i);
+            from = i + 1;
+            switch (c) {
+                case '"': target.append("\\\""); break;
+                case '\\': target.append("\\\\"); break;
+                case '\b': target.append("\\b"); break;
+                case '\f': target.append("\\f"); break;
+                case '\n': target.append("\\n"); break;
+                case '\r': target.append("\\r"); break;
+                case '\t': target.append("\\t"); break;
+                default:
+                    target.append("\\u00").append(Character.forDigit(c >> 4, 16)).append(Character.forDigit(c & 0xF, 16));
+            }
+        }
+        target.append(str, from, length);
+    }
+}
@@ -1,6 +1,6 @@
 package cn.edu.nwpu.homesphere;
 
-import java.text.SimpleDateFormat;
+import java.io.IOException;
 import java.util.List;
 
 public class JsonRunningLogFormatter implements RunningLogFormatter {
@@ -11,64 +11,88 @@ public class JsonRunningLogFormatter implements RunningLogFormatter {
     }
 
     @Override
-    public String format(Household household) {
-        StringBuilder json = new StringBuilder();
-        json.append("{\n");
-        json.append("  \"householdId\": ").append(household.getHouseholdId()).append(",\n");
-        json.append("  \"address\": \"").append(escapeJson(household.getAddress())).append("\",\n");
-        json.append("  \"rooms\": [\n");
+    public void format(Household household, Appendable out) throws IOException {
+        // 时间戳由共享的渲染器按秒缓存，日志通过游标读取，不复制日志列表
+        LogTimestampRenderer timestamps = LogTimestampRenderer.getDefault();
+        // 各设备的日志作为片段，日志较多时并行格式化，按原有顺序写出
+        OrderedExportWriter json = OrderedExportWriter.open(household, out);
+        try {
+            json.append("{\n");
+            json.append("  \"householdId\": ").append(String.valueOf(household.getHouseholdId())).append(",\n");
+            json.append("  \"address\": \"").append(escapeJson(household.getAddress())).append("\",\n");
+            json.append("  \"rooms\": [\n");
 
-        List<Room> rooms = household.getRooms();
-        for (int i = 0; i < rooms.size(); i++) {
-            Room room = rooms.get(i);
-            json.append("    {\n");
-            json.append("      \"roomId\": ").append(room.getRoomId()).append(",\n");
-            json.append("      \"roomName\": \"").append(escapeJson(room.getName())).append("\",\n");
-            json.append("      \"devices\": [\n");
+            List<Room> rooms = household.getRooms();
+            for (int i = 0; i < rooms.size(); i++) {
+                Room room = rooms.get(i);
+                json.append("    {\n");
+                json.append("      \"roomId\": ").append(String.valueOf(room.getRoomId())).append(",\n");
+                json.append("      \"roomName\": \"").append(escapeJson(room.getName())).append("\",\n");
+                json.append("      \"devices\": [\n");
 
-            List<Device> devices = room.getDevices();
-            for (int j = 0; j < devices.size(); j++) {
-                Device device = devices.get(j);
-                json.append("        {\n");
-                json.append("          \"deviceId\": ").append(device.getDeviceId()).append(",\n");
-                json.append("          \"deviceName\": \"").append(escapeJson(device.getName())).append("\",\n");
-                json.append("          \"runningLogs\": [\n");
+                List<Device> devices = room.getDevices();
+                for (int j = 0; j < devices.size(); j++) {
+                    Device device = devices.get(j);
+                    json.append("        {\n");
+                    json.append("          \"deviceId\": ").append(String.valueOf(device.getDeviceId())).append(",\n");
+                    json.append("          \"deviceName\": \"").append(escapeJson(device.getName())).append("\",\n");
+                    json.append("          \"runningLogs\": [\n");
 
-                List<RunningLog> runningLogs = device.getRunningLogs();
-                for (int k = 0; k < runningLogs.size(); k++) {
-                    RunningLog log = runningLogs.get(k);
-                    SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-                    json.append("            {\n");
-                    json.append("              \"dateTime\": \"").append(sdf.format(log.getDateTime())).append("\",\n");
-                    json.append("              \"event\": \"").append(escapeJson(log.getEvent())).append("\",\n");
-                    json.append("              \"note\": \"").append(escapeJson(log.getNote())).append("\",\n");
-                    json.append("              \"type\": \"").append(log.getType().name()).append("\"\n");
-                    json.append("            }");
-                    if (k < runningLogs.size() - 1) {
+                    json.fragment(target -> appendLogs(device, target, timestamps));
+
+                    json.append("          ]\n");
+                    json.append("        }");
+                    if (j < devices.size() - 1) {
                         json.append(",");
                     }
                     json.append("\n");
                 }
 
-                json.append("          ]\n");
-                json.append("        }");
-                if (j < devices.size() - 1) {
+                json.append("      ]\n");
+                json.append("    }");
+                if (i < rooms.size() - 1) {
                     json.append(",");
                 }
                 json.append("\n");
             }
 
-            json.append("      ]\n");
-            json.append("    }");
-            if (i < rooms.size() - 1) {
-                json.append(",");
-            }
-            json.append("\n");
+            json.append("  ]\n");
+            json.append("}");
+            json.finish();
+        } finally {
+            json.close();
         }
+    }
 
-        json.append("  ]\n");
-        json.append("}");
-        return json.toString();
+    /**
+     * 写入一台设备的运行日志数组元素
+     */
+    private void appendLogs(Device device, Appendable target, LogTimestampRenderer timestamps) throws IOException {
+        // 每条日志先拼接到复用的缓冲区，再一次写入输出目标
+        StringBuilder entry = new StringBuilder(256);
+        RunningLogCursor log = device.openLogCursor();
+        boolean first = true;
+        while (log.next()) {
+            entry.setLength(0);
+            if (!first) {
+                entry.append(",\n");
+            }
+            first = false;
+            entry.append("            {\n");
+            entry.append("              \"dateTime\": \"").append(timestamps.render(log.getTime())).append("\",\n");
+            entry.append("              \"event\": \"").append(escapeJson(log.getEvent())).append("\",\n");
+            entry.append("              \"note\": \"");
+            if (!log.appendTemplateNote(entry)) {
+                entry.append(escapeJson(log.getNote()));
+            }
+            entry.append("\",\n");
+            entry.append("              \"type\": \"").append(log.getType().name()).append("\"\n");
+            entry.append("            }");
+            target.append(entry);
+        }
+        if (!first) {
+            target.append("\n");
+        }
     }
 
     private String escapeJson(String str) {
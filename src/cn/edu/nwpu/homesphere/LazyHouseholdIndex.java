@@ -0,0 +1,283 @@
+package cn.edu.nwpu.homesphere;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 延迟加载模式下房间与设备记录的索引
+ * 第一遍扫描只记录每条房间、设备记录在文件中的字节偏移和长度，以及ID到记录的对应关系；
+ * Room 对象在第一次访问 Household.getRooms 时创建，每个房间的设备在第一次访问该房间的设备时
+ * 才从文件中读出并解析，并注册到系统的设备列表。索引只保存基本类型数组，每台设备约32字节
+ * 物化时文件必须与建立索引时一致，否则抛出 IllegalStateException
+ */
+class LazyHouseholdIndex {
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final Path file;
+    private final long fileSize;
+    private final long lastModified;
+    private final HomeSphereSystem system;
+    private final Household household;
+    private final boolean quiet;
+
+    private int roomCount;
+    private long[] roomOffsets = new long[INITIAL_CAPACITY];
+    private int[] roomLengths = new int[INITIAL_CAPACITY];
+    private int[] roomLines = new int[INITIAL_CAPACITY];
+    private final Map<Integer, Integer> roomOrdinals = new HashMap<>();
+
+    private int deviceCount;
+    private int[] deviceIds = new int[INITIAL_CAPACITY];
+    private int[] deviceRooms = new int[INITIAL_CAPACITY];
+    private long[] deviceOffsets = new long[INITIAL_CAPACITY];
+    private int[] deviceLengths = new int[INITIAL_CAPACITY];
+    private int[] deviceLines = new int[INITIAL_CAPACITY];
+
+    // seal 之后生成：按房间分组的设备序号，以及按设备ID排序的 (ID << 32 | 序号)
+    private int[] roomDeviceStart;
+    private int[] roomDeviceOrdinals;
+    private long[] sortedDeviceIds;
+
+    // 已物化的房间，下标为房间序号
+    private Room[] rooms;
+
+    LazyHouseholdIndex(Path file, HomeSphereSystem system, Household household, boolean quiet) throws IOException {
+        this.file = file;
+        this.fileSize = Files.size(file);
+        this.lastModified = Files.getLastModifiedTime(file).toMillis();
+        this.system = system;
+        this.household = household;
+        this.quiet = quiet;
+    }
+
+    Household getHousehold() {
+        return household;
+    }
+
+    /**
+     * 记录一条房间记录
+     */
+    void addRoom(int roomId, long offset, int length, int lineNumber) {
+        if (roomCount == roomOffsets.length) {
+            int capacity = roomCount * 2;
+            roomOffsets = Arrays.copyOf(roomOffsets, capacity);
+            roomLengths = Arrays.copyOf(roomLengths, capacity);
+            roomLines = Arrays.copyOf(roomLines, capacity);
+        }
+        roomOffsets[roomCount] = offset;
+        roomLengths[roomCount] = length;
+        roomLines[roomCount] = lineNumber;
+        roomOrdinals.putIfAbsent(roomId, roomCount);
+        roomCount++;
+    }
+
+    /**
+     * 查找房间序号，同ID的房间取先出现的那个，与按顺序扫描房间列表的结果一致
+     * @return 房间序号，不存在时返回-1
+     */
+    int findRoom(int roomId) {
+        Integer ordinal = roomOrdinals.get(roomId);
+        return ordinal == null ? -1 : ordinal;
+    }
+
+    /**
+     * 记录一条设备记录
+     * @param roomOrdinal 所属房间的序号
+     */
+    void addDevice(int deviceId, int roomOrdinal, long offset, int length, int lineNumber) {
+        if (deviceCount == deviceIds.length) {
+            int capacity = deviceCount * 2;
+            deviceIds = Arrays.copyOf(deviceIds, capacity);
+            deviceRooms = Arrays.copyOf(deviceRooms, capacity);
+            deviceOffsets = Arrays.copyOf(deviceOffsets, capacity);
+            deviceLengths = Arrays.copyOf(deviceLengths, capacity);
+            deviceLines = Arrays.copyOf(deviceLines, capacity);
+        }
+        deviceIds[deviceCount] = deviceId;
+        deviceRooms[deviceCount] = roomOrdinal;
+        deviceOffsets[deviceCount] = offset;
+        deviceLengths[deviceCount] = length;
+        deviceLines[deviceCount] = lineNumber;
+        deviceCount++;
+    }
+
+    int getRoomCount() {
+        return roomCount;
+    }
+
+    int getDeviceCount() {
+        return deviceCount;
+    }
+
+    /**
+     * 获取房间的设备记录数（seal 之后可用）
+     * @param roomOrdinal 房间序号
+     * @return 设备记录数
+     */
+    int getRoomDeviceCount(int roomOrdinal) {
+        return roomDeviceStart[roomOrdinal + 1] - roomDeviceStart[roomOrdinal];
+    }
+
+    /**
+     * 扫描结束后调用：按房间分组设备并建立设备ID的有序索引
+     */
+    void seal() {
+        roomDeviceStart = new int[roomCount + 1];
+        for (int i = 0; i < deviceCount; i++) {
+            roomDeviceStart[deviceRooms[i] + 1]++;
+        }
+        for (int r = 0; r < roomCount; r++) {
+            roomDeviceStart[r + 1] += roomDeviceStart[r];
+        }
+        roomDeviceOrdinals = new int[deviceCount];
+        int[] next = Arrays.copyOf(roomDeviceStart, roomCount);
+        for (int i = 0; i < deviceCount; i++) {
+            roomDeviceOrdinals[next[deviceRooms[i]]++] = i;
+        }
+
+        sortedDeviceIds = new long[deviceCount];
+        for (int i = 0; i < deviceCount; i++) {
+            sortedDeviceIds[i] = ((long) deviceIds[i] << 32) | i;
+        }
+        Arrays.sort(sortedDeviceIds);
+    }
+
+    /**
+     * 创建所有房间对象，设备仍保持未物化
+     * @return 房间列表，按文件顺序
+     */
+    List<Room> materializeRooms() {
+        List<Room> result = new ArrayList<>(roomCount);
+        rooms = new Room[roomCount];
+        ByteRecordTokenizer record = new ByteRecordTokenizer();
+        try (FileChannel channel = openChecked()) {
+            ByteBuffer buffer = ByteBuffer.allocate(maxLength(roomLengths, roomCount));
+            for (int r = 0; r < roomCount; r++) {
+                Object entity = parse(channel, buffer, record, roomOffsets[r], roomLengths[r], roomLines[r]);
+                if (entity instanceof Room) {
+                    Room room = (Room) entity;
+                    if (roomDeviceStart[r + 1] > roomDeviceStart[r]) {
+                        room.attachLazyDevices(this, r);
+                    }
+                    rooms[r] = room;
+                    result.add(room);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("读取数据文件失败: " + file, e);
+        }
+        return result;
+    }
+
+    /**
+     * 读取并解析一个房间的设备，全部读取成功后才加入系统的设备列表，失败时可以重新读取
+     * @param roomOrdinal 房间序号
+     * @return 设备列表，按文件顺序
+     */
+    List<Device> materializeDevices(int roomOrdinal) {
+        int from = roomDeviceStart[roomOrdinal];
+        int to = roomDeviceStart[roomOrdinal + 1];
+        List<Device> result = new ArrayList<>(to - from);
+        ByteRecordTokenizer record = new ByteRecordTokenizer();
+        try (FileChannel channel = openChecked()) {
+            int maxLength = 0;
+            for (int i = from; i < to; i++) {
+                maxLength = Math.max(maxLength, deviceLengths[roomDeviceOrdinals[i]]);
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(maxLength);
+            for (int i = from; i < to; i++) {
+                int d = roomDeviceOrdinals[i];
+                Object entity = parse(channel, buffer, record, deviceOffsets[d], deviceLengths[d], deviceLines[d]);
+                if (entity instanceof Device) {
+                    result.add((Device) entity);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("读取数据文件失败: " + file, e);
+        }
+        for (Device device : result) {
+            system.addDeviceUnchecked(device);
+        }
+        return result;
+    }
+
+    /**
+     * 按ID查找设备，只物化设备所在的房间
+     * @param deviceId 设备ID
+     * @return 设备对象，不存在时返回null
+     */
+    Device findDevice(int deviceId) {
+        int pos = Arrays.binarySearch(sortedDeviceIds, (long) deviceId << 32);
+        if (pos < 0) pos = -pos - 1;
+        if (pos >= deviceCount || (int) (sortedDeviceIds[pos] >>> 32) != deviceId) {
+            return null;
+        }
+        int roomOrdinal = deviceRooms[(int) sortedDeviceIds[pos]];
+        // 通过家庭物化房间，保证房间对象与家庭中的一致
+        household.getRooms();
+        Room room = rooms == null ? null : rooms[roomOrdinal];
+        if (room == null) {
+            return null;
+        }
+        for (Device device : room.getDevices()) {
+            if (device.getDeviceId() == deviceId) {
+                return device;
+            }
+        }
+        return null;
+    }
+
+    private FileChannel openChecked() throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        if (channel.size() != fileSize || Files.getLastModifiedTime(file).toMillis() != lastModified) {
+            channel.close();
+            throw new IllegalStateException("数据文件在建立索引之后被修改: " + file);
+        }
+        return channel;
+    }
+
+    /**
+     * 读取一条记录并解析，格式错误的记录跳过并输出原因
+     */
+    private Object parse(FileChannel channel, ByteBuffer buffer, ByteRecordTokenizer record,
+                         long offset, int length, int lineNumber) throws IOException {
+        buffer.clear().limit(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0) {
+                throw new IOException("数据文件被截断: " + file);
+            }
+        }
+        HouseholdDataLoader.ParsedRecord parsed = new HouseholdDataLoader.ParsedRecord(lineNumber, buffer, 0, length);
+        if (!record.reset(buffer, 0, length)) {
+            parsed.error = new IllegalArgumentException("记录格式错误");
+        } else {
+            HouseholdDataLoader.parseRecord(record, parsed);
+        }
+        if (parsed.error != null) {
+            if (!quiet) {
+                System.err.println("第 " + lineNumber + " 行物化失败: " + parsed.getLine());
+                System.err.println("错误详情: " + parsed.error.getMessage());
+            }
+            return null;
+        }
+        return parsed.entity;
+    }
+
+    private static int maxLength(int[] lengths, int count) {
+        int max = 0;
+        for (int i = 0; i < count; i++) {
+            max = Math.max(max, lengths[i]);
+        }
+        return max;
+    }
+}
@@ -47,7 +47,7 @@ public class LightBulb extends Device implements EnergyReporting {
     public void setBrightness(int brightness) {
         if (brightness >= 0 && brightness <= 100) {
             this.brightness = brightness;
-            addRunningLog("设置亮度", 0, "亮度设置为" + brightness + "%");
+            addRunningLog("设置亮度", 0, LogNoteTemplate.BRIGHTNESS, brightness);
         }
     }
     
@@ -58,7 +58,7 @@ public class LightBulb extends Device implements EnergyReporting {
     public void setColorTemp(int colorTemp) {
         if (colorTemp >= 2700 && colorTemp <= 6500) {
             this.colorTemp = colorTemp;
-            addRunningLog("设置色温", 0, "色温设置为" + colorTemp + "K");
+            addRunningLog("设置色温", 0, LogNoteTemplate.COLOR_TEMP, colorTemp);
         }
     }
     
@@ -105,6 +105,38 @@ public class LightBulb extends Device implements EnergyReporting {
         return true;
     }
 
+    /**
+     * 获取额定功率（构造时传入的值）
+     * @return 额定功率
+     */
+    double getRatedPower() {
+        return power;
+    }
+
+    @Override
+    void writeState(java.io.DataOutput out) throws java.io.IOException {
+        super.writeState(out);
+        out.writeInt(brightness);
+        out.writeInt(colorTemp);
+        out.writeBoolean(powerOn);
+    }
+
+    @Override
+    void readState(java.io.DataInput in) throws java.io.IOException {
+        super.readState(in);
+        this.brightness = in.readInt();
+        this.colorTemp = in.readInt();
+        this.powerOn = in.readBoolean();
+    }
+
+    @Override
+    void applySettings(Device source) {
+        LightBulb other = (LightBulb) source;
+        this.brightness = other.brightness;
+        this.colorTemp = other.colorTemp;
+        fireStateChanged();
+    }
+
     /**
      * 获取指定时间范围内的能耗报告
      * @param startTime 开始时间
@@ -172,6 +204,7 @@ public class LightBulb extends Device implements EnergyReporting {
         this.powerOn = json.getBooleanValue("powerStatus");
         this.brightness = json.getIntValue("brightness");
         this.colorTemp = json.getIntValue("colorTemp");
+        fireStateChanged();
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,226 @@
+package cn.edu.nwpu.homesphere;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 一次数据加载的结构化报告：各类记录的数量、解析与链接耗时、出错的行及原因、吞吐量
+ * 由 HouseholdDataLoader 在加载过程中填写，加载结束后只读
+ */
+public class LoadReport {
+    /** 最多保留的错误明细条数，超出的只计数 */
+    public static final int MAX_ERROR_DETAILS = 1000;
+
+    private final String fileName;
+    private final String mode;
+    private final Map<HouseholdDataLoader.RecordKind, Integer> counts = new EnumMap<>(HouseholdDataLoader.RecordKind.class);
+    private final List<LineError> errors = new ArrayList<>();
+    private int recordCount;
+    private int failedCount;
+    private int errorCount;
+    private int actionCount;
+    private long parseNanos;
+    private long linkNanos;
+    private long totalNanos;
+    private String householdAddress;
+
+    /**
+     * 出错的记录行
+     */
+    public static class LineError {
+        private final int lineNumber;
+        private final String line;
+        private final String reason;
+
+        LineError(int lineNumber, String line, String reason) {
+            this.lineNumber = lineNumber;
+            this.line = line;
+            this.reason = reason;
+        }
+
+        public int getLineNumber() {
+            return lineNumber;
+        }
+
+        public String getLine() {
+            return line;
+        }
+
+        public String getReason() {
+            return reason;
+        }
+
+        @Override
+        public String toString() {
+            return "第 " + lineNumber + " 行: " + reason + (line == null ? "" : " | " + line);
+        }
+    }
+
+    LoadReport(String fileName, String mode) {
+        this.fileName = fileName;
+        this.mode = mode;
+    }
+
+    void recordSucceeded(HouseholdDataLoader.RecordKind kind) {
+        recordCount++;
+        counts.merge(kind, 1, Integer::sum);
+    }
+
+    void recordFailed(int lineNumber, String line, String reason) {
+        recordCount++;
+        failedCount++;
+        addError(lineNumber, line, reason);
+    }
+
+    /**
+     * 记录一个不影响整条记录成功与否的问题，例如场景动作引用了不存在的设备
+     */
+    void addError(int lineNumber, String line, String reason) {
+        errorCount++;
+        if (errors.size() < MAX_ERROR_DETAILS) {
+            errors.add(new LineError(lineNumber, line, reason));
+        }
+    }
+
+    void addActions(int count) {
+        actionCount += count;
+    }
+
+    void addParseNanos(long nanos) {
+        parseNanos += nanos;
+    }
+
+    void addLinkNanos(long nanos) {
+        linkNanos += nanos;
+    }
+
+    void finish(long totalNanos, Household household) {
+        this.totalNanos = totalNanos;
+        this.householdAddress = household == null ? null : household.getAddress();
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    /**
+     * 获取加载模式（顺序、并行、内存映射）
+     * @return 加载模式
+     */
+    public String getMode() {
+        return mode;
+    }
+
+    /**
+     * 获取成功加载的某类记录数量
+     * @param kind 记录类型
+     * @return 数量
+     */
+    public int getCount(HouseholdDataLoader.RecordKind kind) {
+        return counts.getOrDefault(kind, 0);
+    }
+
+    /**
+     * 获取处理的记录总数（不含空行）
+     * @return 记录总数
+     */
+    public int getRecordCount() {
+        return recordCount;
+    }
+
+    public int getFailedCount() {
+        return failedCount;
+    }
+
+    /**
+     * 获取问题总数，包括失败的记录和被忽略的场景动作
+     * @return 问题总数
+     */
+    public int getErrorCount() {
+        return errorCount;
+    }
+
+    /**
+     * 获取错误明细，最多 MAX_ERROR_DETAILS 条
+     * @return 错误明细
+     */
+    public List<LineError> getErrors() {
+        return Collections.unmodifiableList(errors);
+    }
+
+    public int getDeviceCount() {
+        return getCount(HouseholdDataLoader.RecordKind.DEVICE);
+    }
+
+    public int getRoomCount() {
+        return getCount(HouseholdDataLoader.RecordKind.ROOM);
+    }
+
+    public int getSceneCount() {
+        return getCount(HouseholdDataLoader.RecordKind.SCENE);
+    }
+
+    public int getActionCount() {
+        return actionCount;
+    }
+
+    public long getParseMillis() {
+        return parseNanos / 1_000_000;
+    }
+
+    public long getLinkMillis() {
+        return linkNanos / 1_000_000;
+    }
+
+    public long getTotalMillis() {
+        return totalNanos / 1_000_000;
+    }
+
+    /**
+     * 获取吞吐量
+     * @return 每秒处理的记录数
+     */
+    public double getRecordsPerSecond() {
+        return totalNanos == 0 ? 0 : recordCount * 1e9 / totalNanos;
+    }
+
+    /**
+     * 家庭是否加载成功
+     * @return 是否加载成功
+     */
+    public boolean isHouseholdLoaded() {
+        return householdAddress != null;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("=== 数据加载报告 ===\n");
+        sb.append("文件: ").append(fileName).append(" (").append(mode).append(")\n");
+        sb.append("家庭: ").append(isHouseholdLoaded() ? householdAddress : "加载失败").append('\n');
+        sb.append("记录: ").append(recordCount).append(" 条, 成功 ").append(recordCount - failedCount)
+                .append(", 失败 ").append(failedCount).append('\n');
+        sb.append(" ");
+        for (HouseholdDataLoader.RecordKind kind : HouseholdDataLoader.RecordKind.values()) {
+            if (kind != HouseholdDataLoader.RecordKind.UNKNOWN) {
+                sb.append(' ').append(kind.getLabel()).append(' ').append(getCount(kind));
+            }
+        }
+        sb.append(" (动作 ").append(actionCount).append(")\n");
+        sb.append(String.format("耗时: 解析 %d ms, 链接 %d ms, 总计 %d ms, 吞吐 %.0f 条/秒%n",
+                getParseMillis(), getLinkMillis(), getTotalMillis(), getRecordsPerSecond()));
+        if (errorCount > 0) {
+            sb.append("问题 ").append(errorCount).append(" 个:\n");
+            for (LineError error : errors) {
+                sb.append("  ").append(error).append('\n');
+            }
+            if (errorCount > errors.size()) {
+                sb.append("  ... 另有 ").append(errorCount - errors.size()).append(" 个未列出\n");
+            }
+        }
+        return sb.toString();
+    }
+}
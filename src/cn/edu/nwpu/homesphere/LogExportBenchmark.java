@@ -0,0 +1,127 @@
+package cn.edu.nwpu.homesphere;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * 运行日志导出基准测试：对比按日志渲染时间戳时 SimpleDateFormat 与 LogTimestampRenderer 的耗时，
+ * 并给出四种格式导出整个家庭（16台设备，写入丢弃输出的 Writer）在不同并行度下的耗时
+ * 时间戳分两种分布：密集（每秒约10条，同一秒的日志连续出现）与稀疏（每条间隔几十秒）
+ * 用法: java LogExportBenchmark [每台设备条数]，默认20万条
+ */
+public class LogExportBenchmark {
+    private static final int DEVICES = 16;
+
+    public static void main(String[] args) throws IOException {
+        int perDevice = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        for (int gap : new int[] {100, 30_000}) {
+            long[] times = new long[perDevice];
+            long time = System.currentTimeMillis() - (long) perDevice * gap;
+            for (int i = 0; i < perDevice; i++) {
+                time += gap / 2 + (i * 7919L) % gap;
+                times[i] = time;
+            }
+            // 先各运行一轮预热，再计时
+            renderWithSimpleDateFormat(times);
+            renderWithRenderer(times);
+            double sdf = renderWithSimpleDateFormat(times);
+            double renderer = renderWithRenderer(times);
+            System.out.printf("时间戳渲染（平均间隔 %d 毫秒）: SimpleDateFormat %.1f ms, LogTimestampRenderer %.1f ms (%.2fx)%n",
+                    gap, sdf, renderer, sdf / renderer);
+        }
+
+        Household household = buildHousehold(perDevice);
+        Writer discard = new Writer() {
+            @Override
+            public void write(char[] cbuf, int off, int len) {
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        int cores = Runtime.getRuntime().availableProcessors();
+        System.out.println("CPU核数: " + cores);
+        for (RunningLogFormatter formatter : new RunningLogFormatter[] {
+                new JsonRunningLogFormatter(), new XmlRunningLogFormatter(), new HtmlRunningLogFormatter(),
+                new JsonLinesRunningLogFormatter()}) {
+            for (int parallelism = 1; parallelism <= Math.max(cores, 2); parallelism *= 2) {
+                household.setLogExportParallelism(parallelism, 0);
+                // 先运行一轮预热，再计时
+                formatter.format(household, discard);
+                long start = System.nanoTime();
+                formatter.format(household, discard);
+                System.out.printf("%s导出 %,d 条, %d 线程: %.1f ms%n", formatter.getFormatterName(),
+                        (long) DEVICES * perDevice, parallelism, (System.nanoTime() - start) / 1e6);
+            }
+        }
+    }
+
+    private static double renderWithSimpleDateFormat(long[] times) {
+        SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        Date date = new Date();
+        long length = 0;
+        long start = System.nanoTime();
+        for (long time : times) {
+            date.setTime(time);
+            length += sdf.format(date).length();
+        }
+        return check(length, times, start);
+    }
+
+    private static double renderWithRenderer(long[] times) {
+        LogTimestampRenderer renderer = LogTimestampRenderer.getDefault();
+        long length = 0;
+        long start = System.nanoTime();
+        for (long time : times) {
+            length += renderer.render(time).length();
+        }
+        return check(length, times, start);
+    }
+
+    private static double check(long length, long[] times, long start) {
+        double millis = (System.nanoTime() - start) / 1e6;
+        if (length != 19L * times.length) {
+            throw new IllegalStateException("渲染长度不符: " + length);
+        }
+        return millis;
+    }
+
+    private static Household buildHousehold(int perDevice) {
+        Manufacturer manufacturer = new Manufacturer(1, "默认厂商", "WiFi");
+        Household household = new Household(1, "友谊西路127号");
+        long base = System.currentTimeMillis() - perDevice * 1_000L;
+        for (int r = 0; r < DEVICES / 4; r++) {
+            Room room = new Room(r + 1, "房间" + (r + 1), 20.0);
+            household.addRoom(room);
+            for (int d = 0; d < 4; d++) {
+                int id = r * 4 + d + 1;
+                if (d % 2 == 0) {
+                    LightBulb bulb = new LightBulb(id, "灯" + id, manufacturer);
+                    room.addDevice(bulb);
+                    long time = base;
+                    for (int i = 0; i < perDevice; i++) {
+                        time += 100 + (i * 7919L) % 1_500;
+                        bulb.getLogStore().append(time, RunningLog.Type.INFO, "设置亮度", LogNoteTemplate.BRIGHTNESS, i % 101);
+                    }
+                } else {
+                    BathroomScale scale = new BathroomScale(id, "体重秤" + id, manufacturer);
+                    room.addDevice(scale);
+                    long time = base;
+                    for (int i = 0; i < perDevice; i++) {
+                        time += 100 + (i * 7919L) % 1_500;
+                        scale.getLogStore().append(time, RunningLog.Type.INFO, "体重测量",
+                                LogNoteTemplate.BODY_MASS, 60 + (i % 200) / 10.0);
+                    }
+                }
+            }
+        }
+        return household;
+    }
+}
@@ -7,11 +7,12 @@ public class LogFormatterDemo {
         // 创建测试数据
         Household household = createTestHousehold();
 
-        // 测试三种格式化器
+        // 测试四种格式化器
         RunningLogFormatter[] formatters = {
                 new JsonRunningLogFormatter(),
                 new HtmlRunningLogFormatter(),
-                new XmlRunningLogFormatter()
+                new XmlRunningLogFormatter(),
+                new JsonLinesRunningLogFormatter()
         };
 
         for (RunningLogFormatter formatter : formatters) {
@@ -29,6 +30,7 @@ public class LogFormatterDemo {
                 case "JSON格式": filename += ".json"; break;
                 case "HTML格式": filename += ".html"; break;
                 case "XML格式": filename += ".xml"; break;
+                case "JSON Lines格式": filename += ".jsonl"; break;
             }
 
             try {
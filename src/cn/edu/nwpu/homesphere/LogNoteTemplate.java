@@ -0,0 +1,103 @@
+package cn.edu.nwpu.homesphere;
+
+/**
+ * 运行日志备注模板：设备最常产生的备注由固定的前缀、一个数值和固定的后缀组成，
+ * 例如 "亮度设置为" + 60 + "%"。按模板保存时只保存模板编号与数值，追加时不拼接字符串，
+ * 也不占用日志存储的文本字典，在读取备注时才生成文本
+ *
+ * 编码：模板编号与数值打包成一个负的 int，与日志存储中的文本编号（非负）和 null（-1）共用一列。
+ * 整数模板保存 0 到 2^24-1 的数值；小数模板保存数值的十倍，只在能精确还原时使用。
+ * 无法编码的数值由调用方按普通文本保存，读出的备注与直接拼接的结果完全相同
+ */
+public enum LogNoteTemplate {
+    BRIGHTNESS("亮度设置为", "%", false),
+    COLOR_TEMP("色温设置为", "K", false),
+    BODY_MASS("体重测量值: ", "kg", true),
+    BATTERY_LEVEL("电池电量剩余", "%", false);
+
+    private static final LogNoteTemplate[] BY_ID = values();
+    private static final int VALUE_BITS = 24;
+    private static final int VALUE_MASK = (1 << VALUE_BITS) - 1;
+    /** 无法按模板编码时 encode 的返回值，与 null 文本的编号相同，不是模板编码 */
+    static final int NOT_ENCODED = -1;
+
+    private final String prefix;
+    private final String suffix;
+    private final boolean decimal;
+
+    LogNoteTemplate(String prefix, String suffix, boolean decimal) {
+        this.prefix = prefix;
+        this.suffix = suffix;
+        this.decimal = decimal;
+    }
+
+    /**
+     * 按模板生成备注文本，与设备直接拼接的结果相同
+     * @param value 数值
+     * @return 备注文本
+     */
+    public String format(double value) {
+        return decimal ? prefix + value + suffix : prefix + (long) value + suffix;
+    }
+
+    /**
+     * 编码一个数值
+     * @param value 数值，整数模板只接受整数
+     * @return 模板编码，无法编码时返回 NOT_ENCODED
+     */
+    int encode(double value) {
+        long stored;
+        if (decimal) {
+            stored = Math.round(value * 10);
+            if (stored / 10.0 != value) {
+                return NOT_ENCODED;
+            }
+        } else {
+            stored = (long) value;
+            if (stored != value) {
+                return NOT_ENCODED;
+            }
+        }
+        if (stored < 0 || stored > VALUE_MASK) {
+            return NOT_ENCODED;
+        }
+        return Integer.MIN_VALUE | (ordinal() << VALUE_BITS) | (int) stored;
+    }
+
+    /**
+     * 判断日志存储中的备注编号是否为模板编码
+     * @param code 备注编号
+     * @return 是模板编码时返回true
+     */
+    static boolean isEncoded(int code) {
+        return code < NOT_ENCODED;
+    }
+
+    /**
+     * 由模板编码生成备注文本
+     * @param code 模板编码
+     * @return 备注文本
+     */
+    static String render(int code) {
+        return appendTo(new StringBuilder(16), code).toString();
+    }
+
+    /**
+     * 把模板编码对应的备注直接写入 target，不创建中间字符串
+     * 模板的前缀、后缀与数值都不含 JSON、XML 或 HTML 中需要转义的字符
+     * @param target 目标
+     * @param code 模板编码
+     * @return target
+     */
+    static StringBuilder appendTo(StringBuilder target, int code) {
+        LogNoteTemplate template = BY_ID[(code >>> VALUE_BITS) & 0x7F];
+        int stored = code & VALUE_MASK;
+        target.append(template.prefix);
+        if (template.decimal) {
+            target.append(stored / 10.0);
+        } else {
+            target.append(stored);
+        }
+        return target.append(template.suffix);
+    }
+}
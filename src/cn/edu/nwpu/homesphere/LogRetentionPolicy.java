@@ -0,0 +1,60 @@
+package cn.edu.nwpu.homesphere;
+
+/**
+ * 运行日志保留策略：最多保留的条数、最长保留时间和最大占用字节数，0表示不限制
+ * 超出任一限制时从最早的日志开始淘汰，淘汰在追加时进行，均摊为常数时间
+ * 保留时间相对于最新一条日志的时间计算
+ */
+public class LogRetentionPolicy {
+    /** 不限制 */
+    public static final LogRetentionPolicy UNLIMITED = new LogRetentionPolicy(0, 0, 0);
+
+    private final int maxCount;
+    private final long maxAgeMillis;
+    private final long maxBytes;
+
+    /**
+     * 构造函数
+     * @param maxCount 最多保留的条数，0表示不限制
+     * @param maxAgeMillis 最长保留时间（毫秒），0表示不限制
+     * @param maxBytes 最大占用字节数（估算值，含文本字典），0表示不限制
+     */
+    public LogRetentionPolicy(int maxCount, long maxAgeMillis, long maxBytes) {
+        if (maxCount < 0 || maxAgeMillis < 0 || maxBytes < 0) {
+            throw new IllegalArgumentException("保留策略的限制不能为负数");
+        }
+        this.maxCount = maxCount;
+        this.maxAgeMillis = maxAgeMillis;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * 只限制条数的策略
+     * @param maxCount 最多保留的条数
+     * @return 保留策略
+     */
+    public static LogRetentionPolicy ofCount(int maxCount) {
+        return new LogRetentionPolicy(maxCount, 0, 0);
+    }
+
+    public int getMaxCount() {
+        return maxCount;
+    }
+
+    public long getMaxAgeMillis() {
+        return maxAgeMillis;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public boolean isUnlimited() {
+        return maxCount == 0 && maxAgeMillis == 0 && maxBytes == 0;
+    }
+
+    @Override
+    public String toString() {
+        return "LogRetentionPolicy{maxCount=" + maxCount + ", maxAgeMillis=" + maxAgeMillis + ", maxBytes=" + maxBytes + "}";
+    }
+}
@@ -0,0 +1,122 @@
+package cn.edu.nwpu.homesphere;
+
+import java.util.TimeZone;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 运行日志的滚动统计：按日志类型统计每小时、每天与累计的条数
+ * 每次追加时由日志存储以 O(1) 更新（同一小时内的连续追加不查表），查询只读取计数，
+ * 不访问日志本身，耗时与历史长度无关；房间与家庭的统计由各设备的统计相加得到。
+ * 统计的是追加过的日志，之后按保留策略淘汰、溢出或归档的日志仍然计入。
+ * 小时与天按默认时区的本地时间划分；小时计数只保留最近 HOURS_KEPT 小时，天计数全部保留。
+ * 小时计数按小时排序，进入新的小时时只从最早一端移除过期的小时，不遍历全部小时。
+ * 只由日志存储的写入者更新，可由任意线程并发查询
+ */
+public class LogRollup {
+    /** 一小时的毫秒数 */
+    public static final long HOUR_MILLIS = 3_600_000L;
+    /** 一天的毫秒数 */
+    public static final long DAY_MILLIS = 24 * HOUR_MILLIS;
+    /** 保留小时计数的小时数（90天） */
+    public static final int HOURS_KEPT = 24 * 90;
+    private static final int TYPES = RunningLog.Type.values().length;
+
+    private final TimeZone zone;
+    private final ConcurrentSkipListMap<Long, AtomicIntegerArray> hours = new ConcurrentSkipListMap<>();
+    private final ConcurrentHashMap<Long, AtomicIntegerArray> days = new ConcurrentHashMap<>();
+    private final AtomicLongArray totals = new AtomicLongArray(TYPES);
+
+    // 写入者缓存的当前小时与当天：[start, end) 内的追加直接累加
+    private long hourStart = Long.MAX_VALUE;
+    private long hourEnd = Long.MIN_VALUE;
+    private AtomicIntegerArray hourCounts;
+    private long dayStart = Long.MAX_VALUE;
+    private long dayEnd = Long.MIN_VALUE;
+    private AtomicIntegerArray dayCounts;
+
+    public LogRollup() {
+        this(TimeZone.getDefault());
+    }
+
+    /**
+     * @param zone 划分小时与天使用的时区
+     */
+    public LogRollup(TimeZone zone) {
+        this.zone = zone;
+    }
+
+    /**
+     * 记录一条日志，只由日志存储的写入者调用
+     * @param time 时间（毫秒）
+     * @param typeCode 日志类型编码
+     */
+    void record(long time, int typeCode) {
+        if (time < hourStart || time >= hourEnd) {
+            long offset = zone.getOffset(time);
+            long hour = Math.floorDiv(time + offset, HOUR_MILLIS);
+            hourStart = hour * HOUR_MILLIS - offset;
+            hourEnd = hourStart + HOUR_MILLIS;
+            hourCounts = hours.computeIfAbsent(hour, key -> new AtomicIntegerArray(TYPES));
+            Map.Entry<Long, AtomicIntegerArray> oldest;
+            while ((oldest = hours.firstEntry()) != null && oldest.getKey() <= hour - HOURS_KEPT) {
+                hours.pollFirstEntry();
+            }
+        }
+        hourCounts.incrementAndGet(typeCode);
+        if (time < dayStart || time >= dayEnd) {
+            long offset = zone.getOffset(time);
+            long day = Math.floorDiv(time + offset, DAY_MILLIS);
+            dayStart = day * DAY_MILLIS - offset;
+            dayEnd = dayStart + DAY_MILLIS;
+            dayCounts = days.computeIfAbsent(day, key -> new AtomicIntegerArray(TYPES));
+        }
+        dayCounts.incrementAndGet(typeCode);
+        totals.incrementAndGet(typeCode);
+    }
+
+    /**
+     * 获取 time 所在小时内某类日志的条数
+     * @param type 日志类型
+     * @param time 该小时内的任意时间（毫秒）
+     * @return 条数，超出保留范围时为0
+     */
+    public int countInHour(RunningLog.Type type, long time) {
+        AtomicIntegerArray counts = hours.get(Math.floorDiv(time + zone.getOffset(time), HOUR_MILLIS));
+        return counts == null ? 0 : counts.get(type.getCode());
+    }
+
+    /**
+     * 获取 time 所在当天某类日志的条数
+     * @param type 日志类型
+     * @param time 当天的任意时间（毫秒）
+     * @return 条数
+     */
+    public int countInDay(RunningLog.Type type, long time) {
+        AtomicIntegerArray counts = days.get(Math.floorDiv(time + zone.getOffset(time), DAY_MILLIS));
+        return counts == null ? 0 : counts.get(type.getCode());
+    }
+
+    /**
+     * 获取自创建以来某类日志的累计条数
+     * @param type 日志类型
+     * @return 条数
+     */
+    public long getTotal(RunningLog.Type type) {
+        return totals.get(type.getCode());
+    }
+
+    /**
+     * 获取有计数的小时数，用于观察内存占用
+     */
+    public int getHourBucketCount() {
+        return hours.size();
+    }
+
+    public int getDayBucketCount() {
+        return days.size();
+    }
+}
@@ -0,0 +1,204 @@
+package cn.edu.nwpu.homesphere;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * 溢出到磁盘的运行日志段：固定大小的内存映射文件，保存从堆中移出的较早日志
+ * 文件布局：16字节头（魔数、版本、条数、文本区已用字节），ENTRIES 条定长记录
+ * （时间8字节、类型1字节、事件与备注在文本区的偏移各4字节，-1表示null，
+ * 备注按模板保存时直接保存 LogNoteTemplate 的编码），之后是文本区，
+ * 每段文本为长度加 UTF-8 字节，同一段内相同的文本只写一次。
+ * 记录或文本区写满后由 RunningLogStore 创建下一段；段内数据在映射内存中，不占用堆
+ * 只由存储的写入者追加，读取者可并发读取已发布（位置小于存储 head）的记录
+ *
+ * 日志段只是堆的溢出缓存，不用于持久化：进程重启后不会重新打开，持久化由 RunningLogPersister
+ * 与 ChangeJournal 负责。文件位于存储的管理目录中，按第一条记录的位置命名，
+ * 由存储在其中的日志全部淘汰或存储关闭溢出时显式删除
+ */
+class LogSegment {
+    private static final Logger LOGGER = Logger.getLogger(LogSegment.class.getName());
+    /** 每段的记录数 */
+    static final int ENTRIES = 1 << 15;
+    /** 每段文本区的字节数 */
+    static final int TEXT_CAPACITY = 1 << 19;
+    private static final int MAGIC = 0x48534C47; // "HSLG"
+    private static final int VERSION = 1;
+    private static final int HEADER = 16;
+    private static final int RECORD = 8 + 1 + 4 + 4;
+    private static final int TEXT_START = HEADER + ENTRIES * RECORD;
+    /** 文件大小 */
+    static final int FILE_SIZE = TEXT_START + TEXT_CAPACITY;
+    private static final int NULL_TEXT = -1;
+    // textOffset 在文本区空间不足时的返回值，只与文本偏移比较
+    private static final int TEXT_FULL = Integer.MIN_VALUE;
+
+    private final Path file;
+    private final long basePosition;
+    private final MappedByteBuffer buffer;
+    private int count;
+    private int textEnd = TEXT_START;
+    // 写入时的段内文本去重，段写满后释放
+    private Map<String, Integer> textOffsets = new HashMap<>();
+
+    private LogSegment(Path file, long basePosition, MappedByteBuffer buffer) {
+        this.file = file;
+        this.basePosition = basePosition;
+        this.buffer = buffer;
+    }
+
+    /**
+     * 在存储的管理目录中创建新的日志段文件并映射
+     * @param directory 管理目录
+     * @param basePosition 第一条记录在日志存储中的绝对位置，用作文件名
+     * @return 日志段
+     */
+    static LogSegment create(Path directory, long basePosition) throws IOException {
+        Path file = directory.resolve(basePosition + ".seg");
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // 映射在通道关闭后仍然有效
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, FILE_SIZE);
+        }
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        return new LogSegment(file, basePosition, buffer);
+    }
+
+    /**
+     * 追加一条记录
+     * @param noteCode 备注的模板编码，不是模板编码时写入 note
+     * @return 段已写满时返回false，记录未写入
+     */
+    boolean append(long time, byte type, String event, int noteCode, String note) {
+        if (count == ENTRIES) {
+            return false;
+        }
+        int eventOffset = textOffset(event);
+        if (eventOffset == TEXT_FULL) {
+            return false;
+        }
+        int noteOffset = noteCode;
+        if (!LogNoteTemplate.isEncoded(noteCode)) {
+            noteOffset = textOffset(note);
+            if (noteOffset == TEXT_FULL) {
+                return false;
+            }
+        }
+        int record = HEADER + count * RECORD;
+        buffer.putLong(record, time);
+        buffer.put(record + 8, type);
+        buffer.putInt(record + 9, eventOffset);
+        buffer.putInt(record + 13, noteOffset);
+        count++;
+        buffer.putInt(8, count);
+        buffer.putInt(12, textEnd);
+        return true;
+    }
+
+    /**
+     * 获取文本在文本区的偏移，不存在时写入
+     * @return 偏移，文本区空间不足时返回 TEXT_FULL
+     */
+    private int textOffset(String text) {
+        if (text == null) {
+            return NULL_TEXT;
+        }
+        Integer offset = textOffsets.get(text);
+        if (offset != null) {
+            return offset;
+        }
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        if (textEnd + 4 + bytes.length > FILE_SIZE) {
+            return TEXT_FULL;
+        }
+        int start = textEnd;
+        buffer.putInt(start, bytes.length);
+        buffer.put(start + 4, bytes);
+        textEnd = start + 4 + bytes.length;
+        textOffsets.put(text, start);
+        return start;
+    }
+
+    /**
+     * 段写满后调用，释放写入时的文本去重表
+     */
+    void seal() {
+        textOffsets = null;
+    }
+
+    long getBasePosition() {
+        return basePosition;
+    }
+
+    /**
+     * 获取已写入的记录数，只由写入者调用
+     */
+    int getCount() {
+        return count;
+    }
+
+    /**
+     * 获取文件中已使用的字节数
+     */
+    long getUsedBytes() {
+        return HEADER + (long) count * RECORD + (textEnd - TEXT_START);
+    }
+
+    long getTime(long position) {
+        return buffer.getLong(record(position));
+    }
+
+    byte getTypeCode(long position) {
+        return buffer.get(record(position) + 8);
+    }
+
+    String getEvent(long position) {
+        return text(buffer.getInt(record(position) + 9));
+    }
+
+    String getNote(long position) {
+        return text(getNoteCode(position));
+    }
+
+    /**
+     * 获取备注在文本区的偏移或模板编码
+     */
+    int getNoteCode(long position) {
+        return buffer.getInt(record(position) + 13);
+    }
+
+    private int record(long position) {
+        return HEADER + (int) (position - basePosition) * RECORD;
+    }
+
+    private String text(int offset) {
+        if (offset < 0) {
+            return offset == NULL_TEXT ? null : LogNoteTemplate.render(offset);
+        }
+        byte[] bytes = new byte[buffer.getInt(offset)];
+        buffer.get(offset + 4, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 删除段文件；映射在没有读取者引用后由垃圾回收释放
+     * 有的平台不允许删除仍被映射的文件，失败时只记录日志，文件留在管理目录中
+     */
+    void delete() {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            LOGGER.warning("删除日志段文件失败: " + file + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package cn.edu.nwpu.homesphere;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.zone.ZoneRules;
+
+/**
+ * 运行日志时间戳渲染：把毫秒时间渲染为 "yyyy-MM-dd HH:mm:ss"，与原来的 SimpleDateFormat 输出相同
+ * 基于 java.time 计算本地时间，按秒缓存渲染结果：连续的日志常落在同一秒内，命中时直接复用字符串。
+ * 缓存按秒数直接映射到固定数量的槽位，槽位中的条目不可变，可由多个线程同时使用同一个实例
+ */
+public final class LogTimestampRenderer {
+    private static final int CACHE_SLOTS = 1024;
+    private static volatile LogTimestampRenderer systemDefault;
+
+    private final ZoneId zone;
+    private final ZoneRules rules;
+    // 槽位之间没有同步：条目的字段都是 final，读到的条目要么为空要么完整，不一致时只会重新渲染
+    private final Entry[] cache = new Entry[CACHE_SLOTS];
+
+    /**
+     * @param zone 渲染使用的时区
+     */
+    public LogTimestampRenderer(ZoneId zone) {
+        this.zone = zone;
+        this.rules = zone.getRules();
+    }
+
+    /**
+     * 获取按系统默认时区渲染的共享实例，默认时区改变后返回新的实例
+     * @return 共享实例
+     */
+    public static LogTimestampRenderer getDefault() {
+        ZoneId current = ZoneId.systemDefault();
+        LogTimestampRenderer renderer = systemDefault;
+        if (renderer == null || !renderer.zone.equals(current)) {
+            renderer = new LogTimestampRenderer(current);
+            systemDefault = renderer;
+        }
+        return renderer;
+    }
+
+    /**
+     * 渲染时间戳
+     * @param millis 时间（毫秒）
+     * @return "yyyy-MM-dd HH:mm:ss" 格式的文本
+     */
+    public String render(long millis) {
+        long second = Math.floorDiv(millis, 1000L);
+        int slot = (int) second & (CACHE_SLOTS - 1);
+        Entry entry = cache[slot];
+        if (entry == null || entry.second != second) {
+            entry = new Entry(second, format(second));
+            cache[slot] = entry;
+        }
+        return entry.text;
+    }
+
+    public ZoneId getZone() {
+        return zone;
+    }
+
+    private String format(long second) {
+        ZoneOffset offset = rules.getOffset(Instant.ofEpochSecond(second));
+        LocalDateTime time = LocalDateTime.ofEpochSecond(second, 0, offset);
+        char[] text = new char[19];
+        int year = time.getYear();
+        if (year < 0 || year > 9999) {
+            // 超出四位年份时按 SimpleDateFormat 的方式输出
+            java.text.SimpleDateFormat sdf = new java.text.SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+            sdf.setTimeZone(java.util.TimeZone.getTimeZone(zone));
+            return sdf.format(new java.util.Date(second * 1000L));
+        }
+        digits(text, 0, year / 100);
+        digits(text, 2, year % 100);
+        text[4] = '-';
+        digits(text, 5, time.getMonthValue());
+        text[7] = '-';
+        digits(text, 8, time.getDayOfMonth());
+        text[10] = ' ';
+        digits(text, 11, time.getHour());
+        text[13] = ':';
+        digits(text, 14, time.getMinute());
+        text[16] = ':';
+        digits(text, 17, time.getSecond());
+        return new String(text);
+    }
+
+    private static void digits(char[] text, int index, int value) {
+        text[index] = (char) ('0' + value / 10);
+        text[index + 1] = (char) ('0' + value % 10);
+    }
+
+    private static final class Entry {
+        final long second;
+        final String text;
+
+        Entry(long second, String text) {
+            this.second = second;
+            this.text = text;
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package cn.edu.nwpu.homesphere;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * 运行日志导出的输出目标：格式化器照常顺序写入结构文本，把每台设备的日志作为片段交给 fragment。
+ * 并行模式下片段提交到家庭的 fork-join 线程池格式化到各自的缓冲区，结构文本在前面还有未写出的片段时暂存，
+ * 所有内容按写入顺序输出，结果与顺序格式化完全相同。同时未写出的片段不超过并行度的2倍，
+ * 内存占用与这些设备的日志量成正比，与家庭的日志总量无关。
+ * 顺序模式下（并行度为1或日志总条数低于家庭设置的阈值）片段直接写入输出目标
+ */
+final class OrderedExportWriter implements Appendable {
+    /**
+     * 设备日志片段
+     */
+    interface Fragment {
+        void render(Appendable target) throws IOException;
+    }
+
+    private final Appendable out;
+    // 顺序模式下为null
+    private final ForkJoinPool pool;
+    private final int window;
+    // 按写入顺序排列：StringBuilder 为暂存的结构文本，ForkJoinTask 为片段
+    private final ArrayDeque<Object> pending = new ArrayDeque<>();
+    private int pendingFragments;
+
+    private OrderedExportWriter(Appendable out, ForkJoinPool pool, int window) {
+        this.out = out;
+        this.pool = pool;
+        this.window = window;
+    }
+
+    /**
+     * 按家庭的导出并行度设置创建输出目标
+     * @param household 家庭对象
+     * @param out 最终输出目标
+     * @return 输出目标，使用后必须调用 close
+     */
+    static OrderedExportWriter open(Household household, Appendable out) {
+        int parallelism = household.getLogExportParallelism();
+        if (parallelism > 1 && countLogs(household) >= household.getLogExportThreshold()) {
+            return new OrderedExportWriter(out, household.getLogExportPool(), parallelism * 2);
+        }
+        return new OrderedExportWriter(out, null, 0);
+    }
+
+    private static long countLogs(Household household) {
+        long count = 0;
+        for (Device device : household.listAllDevices()) {
+            count += device.getRunningLogCount();
+        }
+        return count;
+    }
+
+    /**
+     * 写入一个片段：顺序模式下立即格式化，并行模式下提交到线程池
+     * @param fragment 片段
+     * @throws IOException 写入输出目标失败时抛出
+     */
+    void fragment(Fragment fragment) throws IOException {
+        if (pool == null) {
+            fragment.render(out);
+            return;
+        }
+        pending.addLast(pool.submit(() -> {
+            StringBuilder target = new StringBuilder();
+            fragment.render(target);
+            return target;
+        }));
+        pendingFragments++;
+        flush(false);
+    }
+
+    /**
+     * 写出所有暂存的内容，等待未完成的片段
+     * @throws IOException 写入输出目标失败时抛出
+     */
+    void finish() throws IOException {
+        flush(true);
+    }
+
+    /**
+     * 结束导出；没有调用 finish 时取消未完成的片段并丢弃未写出的内容，线程池由家庭持有，不关闭
+     */
+    void close() {
+        for (Object item : pending) {
+            if (item instanceof ForkJoinTask) {
+                ((ForkJoinTask<?>) item).cancel(false);
+            }
+        }
+        pending.clear();
+    }
+
+    /**
+     * 按顺序写出队首已就绪的内容
+     * @param all 为true时等待并写出全部内容，否则只在片段数超出窗口时等待队首片段
+     */
+    private void flush(boolean all) throws IOException {
+        while (!pending.isEmpty()) {
+            Object head = pending.peekFirst();
+            if (head instanceof ForkJoinTask) {
+                ForkJoinTask<?> task = (ForkJoinTask<?>) head;
+                if (!task.isDone() && !all && pendingFragments <= window) {
+                    return;
+                }
+                out.append((StringBuilder) join(task));
+                pendingFragments--;
+            } else {
+                out.append((StringBuilder) head);
+            }
+            pending.removeFirst();
+        }
+    }
+
+    private static Object join(ForkJoinTask<?> task) throws IOException {
+        try {
+            return task.join();
+        } catch (RuntimeException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public Appendable append(CharSequence csq) throws IOException {
+        if (pending.isEmpty()) {
+            out.append(csq);
+        } else {
+            buffer().append(csq);
+        }
+        return this;
+    }
+
+    @Override
+    public Appendable append(CharSequence csq, int start, int end) throws IOException {
+        if (pending.isEmpty()) {
+            out.append(csq, start, end);
+        } else {
+            buffer().append(csq, start, end);
+        }
+        return this;
+    }
+
+    @Override
+    public Appendable append(char c) throws IOException {
+        if (pending.isEmpty()) {
+            out.append(c);
+        } else {
+            buffer().append(c);
+        }
+        return this;
+    }
+
+    private StringBuilder buffer() {
+        Object tail = pending.peekLast();
+        if (tail instanceof StringBuilder) {
+            return (StringBuilder) tail;
+        }
+        StringBuilder text = new StringBuilder();
+        pending.addLast(text);
+        return text;
+    }
+}
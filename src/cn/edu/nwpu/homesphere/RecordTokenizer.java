@@ -0,0 +1,373 @@
+package cn.edu.nwpu.homesphere;
+
+/**
+ * 家庭数据记录分词器，单遍扫描 Type{key=value, key='quoted, value'} 格式的记录行
+ * 只记录各字段在字符缓冲区中的起止位置，数值直接从缓冲区解析，不使用正则也不产生中间字符串
+ * 同一个实例可以反复 reset 复用，非线程安全
+ */
+public class RecordTokenizer implements HouseholdRecord {
+    private static final int INITIAL_FIELDS = 16;
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+            1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private char[] buf;
+    private int typeStart;
+    private int typeEnd;
+    private int fieldCount;
+    private int[] keyStart;
+    private int[] keyEnd;
+    private int[] valueStart;
+    private int[] valueEnd;
+
+    public RecordTokenizer() {
+        this.buf = new char[256];
+        this.keyStart = new int[INITIAL_FIELDS];
+        this.keyEnd = new int[INITIAL_FIELDS];
+        this.valueStart = new int[INITIAL_FIELDS];
+        this.valueEnd = new int[INITIAL_FIELDS];
+    }
+
+    /**
+     * 解析一行记录，内容会被复制到内部复用的缓冲区
+     * @param line 记录行
+     * @return 格式正确返回true，否则返回false
+     */
+    public boolean reset(CharSequence line) {
+        int length = line.length();
+        if (buf.length < length) {
+            buf = new char[Math.max(length, buf.length * 2)];
+        }
+        if (line instanceof String) {
+            ((String) line).getChars(0, length, buf, 0);
+        } else {
+            for (int i = 0; i < length; i++) {
+                buf[i] = line.charAt(i);
+            }
+        }
+        return tokenize(0, length);
+    }
+
+    /**
+     * 直接在外部字符数组上解析一条记录，不复制内容
+     * 调用方在使用完本次解析结果前不得修改该数组
+     * @param chars 字符数组
+     * @param start 起始位置（包含）
+     * @param end 结束位置（不包含）
+     * @return 格式正确返回true，否则返回false
+     */
+    public boolean reset(char[] chars, int start, int end) {
+        this.buf = chars;
+        return tokenize(start, end);
+    }
+
+    private boolean tokenize(int start, int end) {
+        fieldCount = 0;
+        typeStart = typeEnd = start;
+
+        while (start < end && Character.isWhitespace(buf[start])) start++;
+        while (end > start && Character.isWhitespace(buf[end - 1])) end--;
+
+        int pos = start;
+        while (pos < end && isKeyChar(buf[pos])) pos++;
+        if (pos == start || pos >= end || buf[pos] != '{' || buf[end - 1] != '}') {
+            return false;
+        }
+        typeStart = start;
+        typeEnd = pos;
+
+        int bodyEnd = end - 1;
+        pos++;
+        while (pos < bodyEnd) {
+            char c = buf[pos];
+            if (c == ',' || Character.isWhitespace(c)) {
+                pos++;
+                continue;
+            }
+
+            int ks = pos;
+            while (pos < bodyEnd && isKeyChar(buf[pos])) pos++;
+            if (pos == ks || pos >= bodyEnd || buf[pos] != '=') {
+                return false;
+            }
+            int ke = pos;
+            pos++;
+
+            int vs;
+            int ve;
+            if (pos < bodyEnd && buf[pos] == '\'') {
+                vs = pos + 1;
+                ve = indexOf('\'', vs, bodyEnd);
+                if (ve < 0) return false;
+                pos = ve + 1;
+            } else {
+                vs = pos;
+                pos = skipPlainValue(pos, bodyEnd);
+                if (pos < 0) return false;
+                ve = pos;
+                while (ve > vs && Character.isWhitespace(buf[ve - 1])) ve--;
+            }
+            addField(ks, ke, vs, ve);
+        }
+        return true;
+    }
+
+    /**
+     * 跳过一个未加引号的值，支持嵌套的 [] 和 {} 以及其中的引号字符串
+     * @return 值结束的位置，括号不匹配时返回-1
+     */
+    private int skipPlainValue(int pos, int end) {
+        int depth = 0;
+        while (pos < end) {
+            char c = buf[pos];
+            if (c == '\'') {
+                int close = indexOf('\'', pos + 1, end);
+                if (close < 0) return -1;
+                pos = close + 1;
+                continue;
+            }
+            if (c == '[' || c == '{') {
+                depth++;
+            } else if (c == ']' || c == '}') {
+                if (--depth < 0) return -1;
+            } else if (c == ',' && depth == 0) {
+                break;
+            }
+            pos++;
+        }
+        return depth == 0 ? pos : -1;
+    }
+
+    private int indexOf(char target, int from, int end) {
+        for (int i = from; i < end; i++) {
+            if (buf[i] == target) return i;
+        }
+        return -1;
+    }
+
+    private void addField(int ks, int ke, int vs, int ve) {
+        if (fieldCount == keyStart.length) {
+            int newSize = fieldCount * 2;
+            keyStart = java.util.Arrays.copyOf(keyStart, newSize);
+            keyEnd = java.util.Arrays.copyOf(keyEnd, newSize);
+            valueStart = java.util.Arrays.copyOf(valueStart, newSize);
+            valueEnd = java.util.Arrays.copyOf(valueEnd, newSize);
+        }
+        keyStart[fieldCount] = ks;
+        keyEnd[fieldCount] = ke;
+        valueStart[fieldCount] = vs;
+        valueEnd[fieldCount] = ve;
+        fieldCount++;
+    }
+
+    private static boolean isKeyChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+    }
+
+    /**
+     * 判断记录类型是否为指定名称
+     * @param typeName 类型名称，例如 "Room"
+     * @return 是否匹配
+     */
+    public boolean typeIs(String typeName) {
+        return regionEquals(typeStart, typeEnd, typeName);
+    }
+
+    /**
+     * 获取记录类型名称（会创建字符串，仅用于错误提示等场景）
+     * @return 记录类型名称
+     */
+    public String getType() {
+        return new String(buf, typeStart, typeEnd - typeStart);
+    }
+
+    /**
+     * 获取字段数量
+     * @return 字段数量
+     */
+    public int getFieldCount() {
+        return fieldCount;
+    }
+
+    /**
+     * 查找字段的下标
+     * @param key 字段名
+     * @return 字段下标，不存在返回-1
+     */
+    public int indexOfField(String key) {
+        for (int i = 0; i < fieldCount; i++) {
+            if (regionEquals(keyStart[i], keyEnd[i], key)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 字段是否存在
+     * @param key 字段名
+     * @return 是否存在
+     */
+    public boolean hasField(String key) {
+        return indexOfField(key) >= 0;
+    }
+
+    /**
+     * 获取整数字段，直接从缓冲区解析
+     * @param key 字段名
+     * @return 整数值
+     */
+    public int getInt(String key) {
+        int i = requireField(key);
+        int pos = valueStart[i];
+        int end = valueEnd[i];
+        boolean negative = false;
+        if (pos < end && (buf[pos] == '-' || buf[pos] == '+')) {
+            negative = buf[pos] == '-';
+            pos++;
+        }
+        if (pos == end) {
+            throw invalidNumber(key, i);
+        }
+        long value = 0;
+        while (pos < end) {
+            char c = buf[pos++];
+            if (c < '0' || c > '9') {
+                throw invalidNumber(key, i);
+            }
+            value = value * 10 + (c - '0');
+            if (value > (long) Integer.MAX_VALUE + 1) {
+                throw invalidNumber(key, i);
+            }
+        }
+        value = negative ? -value : value;
+        if (value > Integer.MAX_VALUE) {
+            throw invalidNumber(key, i);
+        }
+        return (int) value;
+    }
+
+    /**
+     * 获取浮点字段，常见的短小数直接从缓冲区计算，结果与 Double.parseDouble 一致
+     * @param key 字段名
+     * @return 浮点值
+     */
+    public double getDouble(String key) {
+        int i = requireField(key);
+        int pos = valueStart[i];
+        int end = valueEnd[i];
+        boolean negative = false;
+        if (pos < end && (buf[pos] == '-' || buf[pos] == '+')) {
+            negative = buf[pos] == '-';
+            pos++;
+        }
+
+        long mantissa = 0;
+        int digits = 0;
+        int fractionDigits = 0;
+        boolean seenDot = false;
+        boolean fast = pos < end;
+        for (int p = pos; p < end && fast; p++) {
+            char c = buf[p];
+            if (c >= '0' && c <= '9') {
+                mantissa = mantissa * 10 + (c - '0');
+                if (mantissa != 0) digits++;
+                if (seenDot) fractionDigits++;
+            } else if (c == '.' && !seenDot) {
+                seenDot = true;
+            } else {
+                fast = false;
+            }
+        }
+
+        // 尾数不超过15位、小数位不超过22位时，一次除法即可得到正确舍入的结果
+        if (fast && digits <= 15 && fractionDigits < POWERS_OF_TEN.length && end - pos > (seenDot ? 1 : 0)) {
+            double value = mantissa / POWERS_OF_TEN[fractionDigits];
+            return negative ? -value : value;
+        }
+        try {
+            return Double.parseDouble(new String(buf, valueStart[i], valueEnd[i] - valueStart[i]));
+        } catch (NumberFormatException e) {
+            throw invalidNumber(key, i);
+        }
+    }
+
+    /**
+     * 获取布尔字段，规则与 Boolean.parseBoolean 相同
+     * @param key 字段名
+     * @return 布尔值，字段不存在时返回false
+     */
+    public boolean getBoolean(String key) {
+        int i = indexOfField(key);
+        if (i < 0 || valueEnd[i] - valueStart[i] != 4) {
+            return false;
+        }
+        int p = valueStart[i];
+        return (buf[p] == 't' || buf[p] == 'T')
+                && (buf[p + 1] == 'r' || buf[p + 1] == 'R')
+                && (buf[p + 2] == 'u' || buf[p + 2] == 'U')
+                && (buf[p + 3] == 'e' || buf[p + 3] == 'E');
+    }
+
+    /**
+     * 获取字符串字段（已去除引号）
+     * @param key 字段名
+     * @return 字段值，不存在时返回空字符串
+     */
+    public String getString(String key) {
+        int i = indexOfField(key);
+        if (i < 0) {
+            return "";
+        }
+        return new String(buf, valueStart[i], valueEnd[i] - valueStart[i]);
+    }
+
+    /**
+     * 获取字段值的起始位置，用于嵌套结构的进一步解析
+     * @param index 字段下标
+     * @return 起始位置（包含）
+     */
+    public int getValueStart(int index) {
+        return valueStart[index];
+    }
+
+    /**
+     * 获取字段值的结束位置
+     * @param index 字段下标
+     * @return 结束位置（不包含）
+     */
+    public int getValueEnd(int index) {
+        return valueEnd[index];
+    }
+
+    /**
+     * 获取当前解析所用的字符缓冲区
+     * @return 字符缓冲区
+     */
+    public char[] getBuffer() {
+        return buf;
+    }
+
+    private int requireField(String key) {
+        int i = indexOfField(key);
+        if (i < 0) {
+            throw new IllegalArgumentException("缺少字段: " + key);
+        }
+        return i;
+    }
+
+    private NumberFormatException invalidNumber(String key, int index) {
+        return new NumberFormatException("字段 " + key + " 的值不是有效数字: "
+                + new String(buf, valueStart[index], valueEnd[index] - valueStart[index]));
+    }
+
+    private boolean regionEquals(int start, int end, String s) {
+        int length = end - start;
+        if (length != s.length()) return false;
+        for (int i = 0; i < length; i++) {
+            if (buf[start + i] != s.charAt(i)) return false;
+        }
+        return true;
+    }
+}
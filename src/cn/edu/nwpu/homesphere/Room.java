@@ -11,6 +11,12 @@ public class Room {
     private String name;
     private double area;
     private List<Device> devices;
+    private StateChangeListener listener;
+    // 所属家庭，用于按设备类型查找运行日志保留策略
+    private Household household;
+    // 延迟加载模式下尚未物化的设备，物化后为null
+    private LazyHouseholdIndex lazyDevices;
+    private int lazyOrdinal;
     
     /**
      * 构造函数
@@ -30,7 +36,15 @@ public class Room {
      * @param device 设备对象
      */
     public void addDevice(Device device) {
+        materializeDevices();
         devices.add(device);
+        if (household != null) {
+            household.configureDeviceLog(device);
+        }
+        if (listener != null) {
+            device.attachListener(listener);
+            listener.roomDeviceAdded(this, device);
+        }
     }
     
     /**
@@ -39,17 +53,142 @@ public class Room {
      * @return 是否移除成功
      */
     public boolean removeDevice(int deviceId) {
-        return devices.removeIf(device -> device.getDeviceId() == deviceId);
+        materializeDevices();
+        boolean removed = devices.removeIf(device -> device.getDeviceId() == deviceId);
+        if (removed && listener != null) {
+            listener.roomDeviceRemoved(this, deviceId);
+        }
+        return removed;
+    }
+
+    /**
+     * 设置状态变更监听器，并传递给房间内的设备
+     * @param listener 监听器，null表示移除
+     */
+    void attachListener(StateChangeListener listener) {
+        materializeDevices();
+        this.listener = listener;
+        for (Device device : devices) {
+            device.attachListener(listener);
+        }
     }
     
+    /**
+     * 关联所属家庭，并对已创建的设备应用家庭的运行日志设置
+     * @param household 家庭，null表示解除关联
+     */
+    void attachHousehold(Household household) {
+        this.household = household;
+        applyLogSettings();
+    }
+
+    /**
+     * 对已创建的设备重新应用家庭的运行日志保留与溢出设置，未物化的设备在物化时应用
+     */
+    void applyLogSettings() {
+        if (household == null) return;
+        for (Device device : devices) {
+            household.configureDeviceLog(device);
+        }
+    }
+
+    /**
+     * 关闭已创建设备的运行日志溢出，删除日志段文件
+     */
+    void closeLogSpill() {
+        for (Device device : devices) {
+            device.closeLogSpill();
+        }
+    }
+
+    /**
+     * 关联延迟加载的设备索引，设备在第一次访问时才从数据文件读取
+     * @param index 设备索引
+     * @param ordinal 房间在索引中的序号
+     */
+    void attachLazyDevices(LazyHouseholdIndex index, int ordinal) {
+        this.lazyDevices = index;
+        this.lazyOrdinal = ordinal;
+    }
+
+    /**
+     * 设备是否已全部创建
+     * @return 非延迟加载或已物化时返回true
+     */
+    boolean isMaterialized() {
+        return lazyDevices == null;
+    }
+
+    /**
+     * 物化延迟加载的设备，放在已有设备之前以保持文件中的顺序
+     * 读取失败时保留索引，之后的访问会重新读取并再次抛出异常
+     */
+    void materializeDevices() {
+        if (lazyDevices == null) return;
+        List<Device> loaded = lazyDevices.materializeDevices(lazyOrdinal);
+        lazyDevices = null;
+        devices.addAll(0, loaded);
+        if (household != null) {
+            for (Device device : loaded) {
+                household.configureDeviceLog(device);
+            }
+        }
+        if (listener != null) {
+            for (Device device : loaded) {
+                device.attachListener(listener);
+                listener.roomDeviceAdded(this, device);
+            }
+        }
+    }
+
     /**
      * 获取房间中的所有设备
      * @return 设备列表
      */
     public List<Device> getDevices() {
+        materializeDevices();
         return new ArrayList<>(devices);
     }
     
+    /**
+     * 获取房间内所有设备在 time 所在小时内某类日志的条数，只读取各设备的滚动统计
+     * 尚未物化的设备没有运行日志，不需要物化
+     * @param type 日志类型
+     * @param time 该小时内的任意时间（毫秒）
+     * @return 条数
+     */
+    public int countLogsInHour(RunningLog.Type type, long time) {
+        int count = 0;
+        for (Device device : devices) {
+            count += device.getLogRollup().countInHour(type, time);
+        }
+        return count;
+    }
+
+    /**
+     * 获取房间内所有设备在 time 所在当天某类日志的条数
+     * @param type 日志类型
+     * @param time 当天的任意时间（毫秒）
+     * @return 条数
+     */
+    public int countLogsInDay(RunningLog.Type type, long time) {
+        int count = 0;
+        for (Device device : devices) {
+            count += device.getLogRollup().countInDay(type, time);
+        }
+        return count;
+    }
+
+    /**
+     * 热重载时更新房间名称与面积
+     * @param name 房间名称
+     * @param area 房间面积
+     */
+    void updateProperties(String name, double area) {
+        this.name = name;
+        this.area = area;
+    }
+
     /**
      * 获取房间ID
      * @return 房间ID
@@ -97,6 +236,8 @@ public class Room {
      */
     @Override
     public String toString() {
-        return "Room{roomId=" + roomId + ", name='" + name + "', area=" + area + ", deviceCount=" + devices.size() + "}";
+        // 只统计数量，不物化设备
+        int deviceCount = devices.size() + (lazyDevices == null ? 0 : lazyDevices.getRoomDeviceCount(lazyOrdinal));
+        return "Room{roomId=" + roomId + ", name='" + name + "', area=" + area + ", deviceCount=" + deviceCount + "}";
     }
 }
\ No newline at end of file
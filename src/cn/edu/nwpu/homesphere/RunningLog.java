@@ -8,19 +8,24 @@ public class RunningLog {
     private String event;
     private Type type;
     private String note;
+    // 备注的模板编码，备注在第一次读取时才生成
+    private int noteCode = LogNoteTemplate.NOT_ENCODED;
 
     public enum Type {
         INFO(0), WARN(1), ERROR(2);
+        private static final Type[] BY_CODE = values();
         private final int code;
         Type(int code) { this.code = code; }
 
+        public int getCode() {
+            return code;
+        }
+
         public static Type fromCode(int code) {
-            for (Type t : Type.values()) {
-                if (t.code == code) {
-                    return t;
-                }
+            if (code < 0 || code >= BY_CODE.length) {
+                throw new IllegalArgumentException("无效的日志类型编码: " + code);
             }
-            throw new IllegalArgumentException("无效的日志类型编码: " + code);
+            return BY_CODE[code];
         }
     }
 
@@ -45,6 +50,16 @@ public class RunningLog {
         this.note = note;
     }
 
+    /**
+     * 备注可能按模板保存的日志，由日志存储与设备创建
+     * @param note 备注文本，noteCode 为模板编码时忽略
+     * @param noteCode 备注的模板编码
+     */
+    RunningLog(java.util.Date dateTime, String event, Type type, String note, int noteCode) {
+        this(dateTime, event, type, LogNoteTemplate.isEncoded(noteCode) ? null : note);
+        this.noteCode = noteCode;
+    }
+
     /**
      * 获取日志时间
      * @return 日志时间
@@ -74,9 +89,20 @@ public class RunningLog {
      * @return 备注信息
      */
     public String getNote() {
+        if (note == null && LogNoteTemplate.isEncoded(noteCode)) {
+            note = LogNoteTemplate.render(noteCode);
+        }
         return note;
     }
 
+    /**
+     * 获取备注的模板编码，供日志存储与持久化按编码保存备注
+     * @return 模板编码，备注不是按模板保存时为 NOT_ENCODED
+     */
+    int getNoteCode() {
+        return noteCode;
+    }
+
 
 
     /**
@@ -85,6 +111,6 @@ public class RunningLog {
      */
     @Override
     public String toString() {
-        return "RunningLog{dateTime=" + dateTime + ", event='" + event + "', type=" + type + ", note='" + note + "'}";
+        return "RunningLog{dateTime=" + dateTime + ", event='" + event + "', type=" + type + ", note='" + getNote() + "'}";
     }
 }
\ No newline at end of file
@@ -0,0 +1,97 @@
+package cn.edu.nwpu.homesphere;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * 运行日志并发追加吞吐量基准测试：多个线程同时向同一台设备的日志追加，
+ * 对比无锁入队（CAS 入队后立即返回，由获得写入者身份的线程合并写入）的 RunningLogStore
+ * 与用 synchronized 保护的 ArrayList<RunningLog>（原来的存储方式加锁）
+ * 用法: java RunningLogAppendBenchmark [每线程条数] [最大线程数]，默认每线程50万条，最多4个线程
+ */
+public class RunningLogAppendBenchmark {
+    private static final String[] NOTES = {"电源已开启", "电源已关闭", "亮度设置为60%", "温度设置为26.0"};
+
+    interface Appender {
+        void append(long time, String note);
+
+        int size();
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int perThread = args.length > 0 ? Integer.parseInt(args[0]) : 500_000;
+        int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        System.out.println("CPU核数: " + Runtime.getRuntime().availableProcessors() + ", 每线程 " + perThread + " 条");
+
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            // 先各运行一轮预热，再计时
+            run(new SynchronizedListAppender(), threads, perThread);
+            run(new StoreAppender(), threads, perThread);
+            double locked = run(new SynchronizedListAppender(), threads, perThread);
+            double lockFree = run(new StoreAppender(), threads, perThread);
+            System.out.printf("%d 线程: synchronized %,.0f 条/秒, 无锁 %,.0f 条/秒 (%.2fx)%n",
+                    threads, locked, lockFree, lockFree / locked);
+        }
+    }
+
+    private static double run(Appender appender, int threads, int perThread) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Thread worker = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                long base = System.currentTimeMillis();
+                for (int i = 0; i < perThread; i++) {
+                    appender.append(base + i, NOTES[i & 3]);
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        long startTime = System.nanoTime();
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long elapsed = System.nanoTime() - startTime;
+        int expected = threads * perThread;
+        if (appender.size() != expected) {
+            throw new IllegalStateException("日志丢失: 期望 " + expected + " 条, 实际 " + appender.size());
+        }
+        return expected * 1e9 / elapsed;
+    }
+
+    private static class SynchronizedListAppender implements Appender {
+        private final List<RunningLog> logs = new ArrayList<>();
+
+        @Override
+        public synchronized void append(long time, String note) {
+            logs.add(new RunningLog(new Date(time), "设置状态", RunningLog.Type.INFO, note));
+        }
+
+        @Override
+        public synchronized int size() {
+            return logs.size();
+        }
+    }
+
+    private static class StoreAppender implements Appender {
+        private final RunningLogStore store = new RunningLogStore();
+
+        @Override
+        public void append(long time, String note) {
+            store.append(time, RunningLog.Type.INFO, "设置状态", note);
+        }
+
+        @Override
+        public int size() {
+            return store.size();
+        }
+    }
+}
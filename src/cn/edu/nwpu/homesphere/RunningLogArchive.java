@@ -0,0 +1,474 @@
+package cn.edu.nwpu.homesphere;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 设备运行日志的压缩归档格式，用于在存储空间很小的网关上长期保存历史日志
+ *
+ * 文件格式：
+ * <pre>
+ *   int    魔数 'HSLA'（大端序）
+ *   byte   格式版本
+ *   byte   标志位（bit0: 块内容用 Deflater 压缩）
+ *   重复:  varint 块内条数, varint 块内容长度, [压缩时 varint 压缩后长度], 块内容
+ *   varint 0 结束
+ * </pre>
+ * 块内每条日志：
+ * <pre>
+ *   byte   头：bit0-1 类型编码，bit2 事件与上一条相同，bit3 备注与上一条相同，bit4 备注为模板编码
+ *   varint 与上一条的时间差（zigzag 编码，毫秒）
+ *   varint 事件的文本引用（与上一条相同时省略）
+ *   varint 备注的文本引用或 LogNoteTemplate 编码（与上一条相同时省略）
+ * </pre>
+ * 文本引用：0 为 null，1..n 为已出现过的文本，n+1 表示新文本，后跟 varint 长度与 UTF-8 字节。
+ * 文本表与时间基准在整个归档内延续，因此只能从头顺序解码；每块单独压缩，解码时内存中只有一块
+ */
+public final class RunningLogArchive {
+    static final int MAGIC = 0x48534C41;
+    static final int VERSION = 1;
+    static final int FLAG_DEFLATE = 1;
+
+    private static final int TYPE_MASK = 0x03;
+    private static final int SAME_EVENT = 0x04;
+    private static final int SAME_NOTE = 0x08;
+    private static final int TEMPLATE_NOTE = 0x10;
+
+    private RunningLogArchive() {
+    }
+
+    /**
+     * 归档写入器：日志按块编码，每块写满后写出
+     * 只有 finish() 或 close() 之后归档才完整
+     */
+    public static final class Writer implements Closeable {
+        private static final int BLOCK_ENTRIES = 4096;
+
+        private final OutputStream out;
+        private final Deflater deflater;
+        private final Map<String, Integer> texts = new HashMap<>();
+        private byte[] block = new byte[16 * 1024];
+        private int blockLength;
+        private int blockEntries;
+        private byte[] compressed = new byte[0];
+        private final byte[] header = new byte[15];
+
+        // 上一条日志，用于时间差与相同文本的省略
+        private long previousTime;
+        private String previousEvent;
+        private String previousNote;
+        private int previousNoteCode = LogNoteTemplate.NOT_ENCODED;
+        private long count;
+        private boolean finished;
+
+        /**
+         * @param out 输出流，由调用方缓冲
+         * @param compress 是否用 Deflater 压缩每块
+         */
+        public Writer(OutputStream out, boolean compress) throws IOException {
+            this.out = out;
+            this.deflater = compress ? new Deflater(Deflater.BEST_COMPRESSION) : null;
+            DataOutputStream data = new DataOutputStream(out);
+            data.writeInt(MAGIC);
+            data.writeByte(VERSION);
+            data.writeByte(compress ? FLAG_DEFLATE : 0);
+        }
+
+        /**
+         * 写入一条日志
+         * @param time 时间（毫秒）
+         * @param type 日志类型
+         * @param event 事件描述
+         * @param note 备注信息
+         */
+        public void write(long time, RunningLog.Type type, String event, String note) throws IOException {
+            write(time, type, event, note, LogNoteTemplate.NOT_ENCODED);
+        }
+
+        public void write(RunningLog log) throws IOException {
+            write(log.getDateTime().getTime(), log.getType(), log.getEvent(), log.getNote());
+        }
+
+        /**
+         * 写入游标剩余的全部日志，按模板保存的备注保持模板编码
+         * @param cursor 游标
+         * @return 写入条数
+         */
+        public int writeAll(RunningLogCursor cursor) throws IOException {
+            int written = 0;
+            while (cursor.next()) {
+                int noteCode = cursor.getNoteCode();
+                write(cursor.getTime(), cursor.getType(), cursor.getEvent(),
+                        LogNoteTemplate.isEncoded(noteCode) ? null : cursor.getNote(), noteCode);
+                written++;
+            }
+            return written;
+        }
+
+        private void write(long time, RunningLog.Type type, String event, String note, int noteCode) throws IOException {
+            if (finished) {
+                throw new IOException("归档已结束");
+            }
+            boolean template = LogNoteTemplate.isEncoded(noteCode);
+            int flags = type.getCode();
+            boolean sameEvent = Objects.equals(event, previousEvent);
+            boolean sameNote = template ? noteCode == previousNoteCode
+                    : !LogNoteTemplate.isEncoded(previousNoteCode) && Objects.equals(note, previousNote);
+            if (sameEvent) {
+                flags |= SAME_EVENT;
+            }
+            if (sameNote) {
+                flags |= SAME_NOTE;
+            }
+            if (template) {
+                flags |= TEMPLATE_NOTE;
+            }
+            ensureCapacity(1 + 10);
+            block[blockLength++] = (byte) flags;
+            long delta = time - previousTime;
+            writeVarLong((delta << 1) ^ (delta >> 63));
+            if (!sameEvent) {
+                writeText(event);
+            }
+            if (!sameNote) {
+                if (template) {
+                    ensureCapacity(5);
+                    writeVarLong(noteCode & 0x7FFFFFFF);
+                } else {
+                    writeText(note);
+                }
+            }
+            previousTime = time;
+            previousEvent = event;
+            previousNote = template ? null : note;
+            previousNoteCode = noteCode;
+            count++;
+            if (++blockEntries == BLOCK_ENTRIES) {
+                flushBlock();
+            }
+        }
+
+        private void writeText(String text) {
+            if (text == null) {
+                ensureCapacity(1);
+                block[blockLength++] = 0;
+                return;
+            }
+            Integer ref = texts.get(text);
+            if (ref != null) {
+                ensureCapacity(5);
+                writeVarLong(ref);
+                return;
+            }
+            int newRef = texts.size() + 1;
+            texts.put(text, newRef);
+            byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+            ensureCapacity(10 + bytes.length);
+            writeVarLong(newRef);
+            writeVarLong(bytes.length);
+            System.arraycopy(bytes, 0, block, blockLength, bytes.length);
+            blockLength += bytes.length;
+        }
+
+        private void writeVarLong(long value) {
+            blockLength = putVarLong(block, blockLength, value);
+        }
+
+        private void ensureCapacity(int extra) {
+            if (blockLength + extra > block.length) {
+                block = Arrays.copyOf(block, Math.max(block.length * 2, blockLength + extra));
+            }
+        }
+
+        private void flushBlock() throws IOException {
+            if (blockEntries == 0) {
+                return;
+            }
+            int length = putVarLong(header, 0, blockEntries);
+            length = putVarLong(header, length, blockLength);
+            if (deflater != null) {
+                deflater.reset();
+                deflater.setInput(block, 0, blockLength);
+                deflater.finish();
+                if (compressed.length < blockLength + 64) {
+                    compressed = new byte[blockLength + 64];
+                }
+                int compressedLength = 0;
+                while (!deflater.finished()) {
+                    compressedLength += deflater.deflate(compressed, compressedLength, compressed.length - compressedLength);
+                    if (compressedLength == compressed.length) {
+                        compressed = Arrays.copyOf(compressed, compressed.length * 2);
+                    }
+                }
+                length = putVarLong(header, length, compressedLength);
+                out.write(header, 0, length);
+                out.write(compressed, 0, compressedLength);
+            } else {
+                out.write(header, 0, length);
+                out.write(block, 0, blockLength);
+            }
+            blockLength = 0;
+            blockEntries = 0;
+        }
+
+        /**
+         * 已写入的日志条数
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * 写出最后一块和结束标记，不关闭输出流
+         */
+        public void finish() throws IOException {
+            if (finished) {
+                return;
+            }
+            flushBlock();
+            out.write(0);
+            out.flush();
+            finished = true;
+            if (deflater != null) {
+                deflater.end();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                finish();
+            } finally {
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * 归档的流式解码器，用法与 RunningLogCursor 相同：先调用 next()，再读取当前日志
+     * 每次只解码一块，适合把很长的历史导出到其他格式
+     */
+    public static final class Reader implements Closeable {
+        private final InputStream in;
+        private final Inflater inflater;
+        private final List<String> texts = new ArrayList<>();
+        private byte[] block = new byte[0];
+        private byte[] compressed = new byte[0];
+        private int position;
+        private int blockRemaining;
+        private boolean ended;
+
+        private long time;
+        private byte typeCode;
+        private String event;
+        private String note;
+        private int noteCode = LogNoteTemplate.NOT_ENCODED;
+        private boolean positioned;
+
+        /**
+         * @param in 输入流，由调用方缓冲
+         */
+        public Reader(InputStream in) throws IOException {
+            this.in = in;
+            DataInputStream data = new DataInputStream(in);
+            if (data.readInt() != MAGIC) {
+                throw new IOException("不是运行日志归档文件");
+            }
+            int version = data.readUnsignedByte();
+            if (version > VERSION) {
+                throw new IOException("不支持的归档版本: " + version);
+            }
+            int flags = data.readUnsignedByte();
+            this.inflater = (flags & FLAG_DEFLATE) != 0 ? new Inflater() : null;
+        }
+
+        /**
+         * 解码下一条日志
+         * @return 还有日志时返回true
+         */
+        public boolean next() throws IOException {
+            if (blockRemaining == 0 && !readBlock()) {
+                positioned = false;
+                return false;
+            }
+            int flags = block[position++] & 0xFF;
+            typeCode = (byte) (flags & TYPE_MASK);
+            long delta = readVarLong();
+            time += (delta >>> 1) ^ -(delta & 1);
+            if ((flags & SAME_EVENT) == 0) {
+                event = readText();
+            }
+            if ((flags & SAME_NOTE) == 0) {
+                if ((flags & TEMPLATE_NOTE) != 0) {
+                    noteCode = Integer.MIN_VALUE | (int) readVarLong();
+                    note = null;
+                } else {
+                    noteCode = LogNoteTemplate.NOT_ENCODED;
+                    note = readText();
+                }
+            }
+            blockRemaining--;
+            positioned = true;
+            return true;
+        }
+
+        private boolean readBlock() throws IOException {
+            if (ended) {
+                return false;
+            }
+            int entries = (int) readStreamVarLong();
+            if (entries == 0) {
+                ended = true;
+                return false;
+            }
+            int length = (int) readStreamVarLong();
+            if (block.length < length) {
+                block = new byte[length];
+            }
+            if (inflater != null) {
+                int compressedLength = (int) readStreamVarLong();
+                if (compressed.length < compressedLength) {
+                    compressed = new byte[compressedLength];
+                }
+                readFully(compressed, compressedLength);
+                inflater.reset();
+                inflater.setInput(compressed, 0, compressedLength);
+                int inflated = 0;
+                try {
+                    while (inflated < length && !inflater.finished()) {
+                        int n = inflater.inflate(block, inflated, length - inflated);
+                        if (n == 0 && inflater.needsInput()) {
+                            break;
+                        }
+                        inflated += n;
+                    }
+                } catch (DataFormatException e) {
+                    throw new IOException("归档块损坏", e);
+                }
+                if (inflated != length) {
+                    throw new IOException("归档块损坏: 解压后长度不符");
+                }
+            } else {
+                readFully(block, length);
+            }
+            position = 0;
+            blockRemaining = entries;
+            return true;
+        }
+
+        private void readFully(byte[] target, int length) throws IOException {
+            int read = 0;
+            while (read < length) {
+                int n = in.read(target, read, length - read);
+                if (n < 0) {
+                    throw new EOFException("归档文件不完整");
+                }
+                read += n;
+            }
+        }
+
+        private long readStreamVarLong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = in.read();
+                if (b < 0) {
+                    throw new EOFException("归档文件不完整");
+                }
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("归档格式错误: varint 过长");
+        }
+
+        private long readVarLong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = block[position++];
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+            throw new IOException("归档格式错误: varint 过长");
+        }
+
+        private String readText() throws IOException {
+            int ref = (int) readVarLong();
+            if (ref == 0) {
+                return null;
+            }
+            if (ref <= texts.size()) {
+                return texts.get(ref - 1);
+            }
+            if (ref != texts.size() + 1) {
+                throw new IOException("归档格式错误: 文本引用 " + ref);
+            }
+            int length = (int) readVarLong();
+            String text = new String(block, position, length, StandardCharsets.UTF_8);
+            position += length;
+            texts.add(text);
+            return text;
+        }
+
+        private void checkPositioned() {
+            if (!positioned) {
+                throw new NoSuchElementException("未指向日志，请先调用 next()");
+            }
+        }
+
+        public long getTime() {
+            checkPositioned();
+            return time;
+        }
+
+        public RunningLog.Type getType() {
+            checkPositioned();
+            return RunningLog.Type.fromCode(typeCode);
+        }
+
+        public String getEvent() {
+            checkPositioned();
+            return event;
+        }
+
+        public String getNote() {
+            checkPositioned();
+            if (note == null && LogNoteTemplate.isEncoded(noteCode)) {
+                note = LogNoteTemplate.render(noteCode);
+            }
+            return note;
+        }
+
+        /**
+         * 为当前日志创建对象
+         * @return 运行日志
+         */
+        public RunningLog toRunningLog() {
+            checkPositioned();
+            return new RunningLog(new Date(time), event, RunningLog.Type.fromCode(typeCode), note, noteCode);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (inflater != null) {
+                inflater.end();
+            }
+            in.close();
+        }
+    }
+
+    private static int putVarLong(byte[] target, int offset, long value) {
+        while ((value & ~0x7FL) != 0) {
+            target[offset++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        target[offset++] = (byte) value;
+        return offset;
+    }
+}
@@ -0,0 +1,74 @@
+package cn.edu.nwpu.homesphere;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 运行日志归档大小基准测试：对比 JSON 导出（runningLog.json）与 RunningLogArchive 每条日志占用的字节数
+ * 模拟一个家庭数月的历史：灯泡调节亮度与色温、体重秤测量，日志间隔几十秒到几分钟
+ * 用法: java RunningLogArchiveBenchmark [每台设备条数]，默认10万条
+ */
+public class RunningLogArchiveBenchmark {
+    public static void main(String[] args) throws IOException {
+        int perDevice = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        Manufacturer manufacturer = new Manufacturer(1, "默认厂商", "WiFi");
+        LightBulb bulb = new LightBulb(1, "客厅灯", manufacturer);
+        BathroomScale scale = new BathroomScale(2, "体重秤", manufacturer);
+        Room room = new Room(1, "客厅", 25.5);
+        room.addDevice(bulb);
+        room.addDevice(scale);
+        Household household = new Household(1, "友谊西路127号");
+        household.addRoom(room);
+
+        long time = System.currentTimeMillis() - perDevice * 60_000L;
+        for (int i = 0; i < perDevice; i++) {
+            time += 20_000 + (i * 7919L) % 100_000;
+            RunningLogStore bulbLogs = bulb.getLogStore();
+            if (i % 10 == 0) {
+                bulbLogs.append(time, RunningLog.Type.INFO, "设备开机", "电源已开启");
+            } else if (i % 3 == 0) {
+                bulbLogs.append(time, RunningLog.Type.INFO, "设置色温", LogNoteTemplate.COLOR_TEMP, 2700 + (i % 39) * 100);
+            } else {
+                bulbLogs.append(time, RunningLog.Type.INFO, "设置亮度", LogNoteTemplate.BRIGHTNESS, i % 101);
+            }
+            scale.getLogStore().append(time + 1234, RunningLog.Type.INFO, "体重测量",
+                    LogNoteTemplate.BODY_MASS, 60 + (i % 200) / 10.0);
+        }
+        long count = 2L * perDevice;
+
+        long jsonBytes = new JsonRunningLogFormatter().format(household).getBytes(StandardCharsets.UTF_8).length;
+        long rawBytes = archiveSize(household, false);
+        long deflatedBytes = archiveSize(household, true);
+
+        System.out.printf("日志条数: %,d%n", count);
+        System.out.printf("JSON导出:      %,d KB, 每条 %.1f 字节%n", jsonBytes / 1024, (double) jsonBytes / count);
+        System.out.printf("归档（不压缩）: %,d KB, 每条 %.1f 字节%n", rawBytes / 1024, (double) rawBytes / count);
+        System.out.printf("归档（Deflate）: %,d KB, 每条 %.1f 字节%n", deflatedBytes / 1024, (double) deflatedBytes / count);
+    }
+
+    /**
+     * 每台设备一个归档，返回总字节数，并校验解码后的条数
+     */
+    private static long archiveSize(Household household, boolean compress) throws IOException {
+        long total = 0;
+        for (Device device : household.listAllDevices()) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (RunningLogArchive.Writer archive = new RunningLogArchive.Writer(bytes, compress)) {
+                archive.writeAll(device.openLogCursor());
+            }
+            int decoded = 0;
+            try (RunningLogArchive.Reader reader = new RunningLogArchive.Reader(new ByteArrayInputStream(bytes.toByteArray()))) {
+                while (reader.next()) {
+                    decoded++;
+                }
+            }
+            if (decoded != device.getRunningLogCount()) {
+                throw new IllegalStateException("解码条数不符: " + decoded);
+            }
+            total += bytes.size();
+        }
+        return total;
+    }
+}
@@ -0,0 +1,185 @@
+package cn.edu.nwpu.homesphere;
+
+import java.util.Date;
+import java.util.NoSuchElementException;
+
+/**
+ * 运行日志的只读游标，直接读取 RunningLogStore 的列，不创建日志对象和列表
+ * 用法：
+ * <pre>
+ * RunningLogCursor cursor = device.openLogCursor();
+ * while (cursor.next()) {
+ *     cursor.getTime(); cursor.getEvent(); ...
+ * }
+ * </pre>
+ * 游标只遍历打开时已有的日志，其他线程之后追加的日志不可见；遍历期间被保留策略淘汰的日志会被跳过
+ * next() 把当前日志的各列一次读出并校验，之后的读取不受并发写入影响；按模板保存的备注在 getNote() 时才生成文本
+ * 按时间范围打开时，范围的起止位置在打开时用二分查找确定，遍历不再逐条比较时间
+ * 游标对象本身只能由一个线程使用
+ */
+public class RunningLogCursor {
+    private final RunningLogStore store;
+    private final boolean reverse;
+    // 正向时为下一条的位置，反向时为下一条的位置加1
+    private long next;
+    private final long end;
+    private boolean positioned;
+
+    // 当前日志的内容
+    private long time;
+    private byte typeCode;
+    private String event;
+    private String note;
+    // 备注的模板编码，备注不是按模板保存时为 LogNoteTemplate.NOT_ENCODED
+    private int noteCode;
+
+    /**
+     * @param store 日志存储
+     * @param reverse 是否从最新一条向前遍历
+     * @param startPosition 第一条日志的绝对位置（含）
+     * @param endPosition 最后一条日志之后的绝对位置（不含）
+     */
+    RunningLogCursor(RunningLogStore store, boolean reverse, long startPosition, long endPosition) {
+        this.store = store;
+        this.reverse = reverse;
+        if (reverse) {
+            this.next = endPosition;
+            this.end = startPosition;
+        } else {
+            this.next = startPosition;
+            this.end = endPosition;
+        }
+    }
+
+    /**
+     * 移动到下一条日志
+     * @return 还有日志时返回true
+     */
+    public boolean next() {
+        if (reverse) {
+            // 淘汰从最早的一条开始，读取失败说明之前的日志也都已淘汰
+            if (next > end && store.load(next - 1, this)) {
+                next--;
+                positioned = true;
+                return true;
+            }
+            next = end;
+        } else {
+            while (next < end) {
+                long position = Math.max(next, store.startPosition());
+                if (position >= end) {
+                    break;
+                }
+                next = position + 1;
+                if (store.load(position, this)) {
+                    positioned = true;
+                    return true;
+                }
+            }
+            next = end;
+        }
+        positioned = false;
+        return false;
+    }
+
+    /**
+     * 由日志存储在读取成功后调用
+     */
+    void set(long time, byte typeCode, String event, String note, int noteCode) {
+        this.time = time;
+        this.typeCode = typeCode;
+        this.event = event;
+        this.note = note;
+        this.noteCode = noteCode;
+    }
+
+    /**
+     * 获取尚未遍历的日志条数（不含已被淘汰的）
+     * @return 剩余条数
+     */
+    public int remaining() {
+        long start = store.startPosition();
+        return (int) (reverse ? Math.max(0, next - Math.max(end, start)) : Math.max(0, end - Math.max(next, start)));
+    }
+
+    /**
+     * 正向游标当前日志的绝对位置
+     */
+    long position() {
+        checkPositioned();
+        return next - 1;
+    }
+
+    /**
+     * 正向游标的结束位置（不含），供 RunningLogStore 续接游标
+     */
+    long endPosition() {
+        return end;
+    }
+
+    private void checkPositioned() {
+        if (!positioned) {
+            throw new NoSuchElementException("游标未指向日志，请先调用 next()");
+        }
+    }
+
+    /**
+     * 获取当前日志的时间
+     * @return 时间（毫秒）
+     */
+    public long getTime() {
+        checkPositioned();
+        return time;
+    }
+
+    public RunningLog.Type getType() {
+        checkPositioned();
+        return RunningLog.Type.fromCode(typeCode);
+    }
+
+    public String getEvent() {
+        checkPositioned();
+        return event;
+    }
+
+    public String getNote() {
+        checkPositioned();
+        if (note == null && LogNoteTemplate.isEncoded(noteCode)) {
+            note = LogNoteTemplate.render(noteCode);
+        }
+        return note;
+    }
+
+    /**
+     * 获取备注的模板编码，供归档等保持编码的场合使用
+     * @return 模板编码，备注不是按模板保存时为 LogNoteTemplate.NOT_ENCODED
+     */
+    int getNoteCode() {
+        checkPositioned();
+        return note == null ? noteCode : LogNoteTemplate.NOT_ENCODED;
+    }
+
+    /**
+     * 备注按模板保存时，把备注文本直接写入 target，不创建字符串
+     * 模板文本不含需要转义的字符，格式化输出可直接写入
+     * @param target 目标
+     * @return 写入时返回true；备注不是按模板保存时返回false，此时调用方使用 getNote()
+     */
+    public boolean appendTemplateNote(StringBuilder target) {
+        checkPositioned();
+        if (note != null || !LogNoteTemplate.isEncoded(noteCode)) {
+            return false;
+        }
+        LogNoteTemplate.appendTo(target, noteCode);
+        return true;
+    }
+
+    /**
+     * 为当前日志创建对象，需要保留日志时使用
+     * @return 运行日志
+     */
+    public RunningLog toRunningLog() {
+        checkPositioned();
+        return new RunningLog(new Date(time), event, RunningLog.Type.fromCode(typeCode), note, noteCode);
+    }
+}
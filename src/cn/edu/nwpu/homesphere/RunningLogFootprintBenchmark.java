@@ -0,0 +1,109 @@
+package cn.edu.nwpu.homesphere;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * 运行日志内存占用基准测试：对比 List<RunningLog> 与 RunningLogStore 每条日志占用的堆内存，
+ * 以及备注按 LogNoteTemplate 保存时的占用与追加时分配的字节数
+ * 日志内容模拟灯泡与体重秤：事件名固定，备注带有变化的数值
+ * 用法: java -Xmx1g RunningLogFootprintBenchmark [条数]，默认100万条
+ */
+public class RunningLogFootprintBenchmark {
+    private static final String[] EVENTS = {"设备开机", "设备关机", "设置亮度", "体重测量"};
+
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        long start = System.currentTimeMillis();
+
+        long before = usedMemory();
+        List<RunningLog> objects = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            objects.add(new RunningLog(new Date(start + i), EVENTS[i & 3], i % 50 == 0 ? 1 : 0, note(i)));
+        }
+        long objectBytes = usedMemory() - before;
+        int objectCount = objects.size();
+        objects = null;
+
+        before = usedMemory();
+        long allocatedBefore = allocatedBytes();
+        RunningLogStore store = new RunningLogStore();
+        for (int i = 0; i < count; i++) {
+            store.append(start + i, i % 50 == 0 ? RunningLog.Type.WARN : RunningLog.Type.INFO, EVENTS[i & 3], note(i));
+        }
+        long storeBytes = usedMemory() - before;
+        long textAllocated = allocatedBytes() - allocatedBefore;
+        int distinctTexts = store.getDistinctTextCount();
+        store = null;
+
+        before = usedMemory();
+        allocatedBefore = allocatedBytes();
+        RunningLogStore templated = new RunningLogStore();
+        for (int i = 0; i < count; i++) {
+            appendTemplated(templated, start + i, i);
+        }
+        long templatedAllocated = allocatedBytes() - allocatedBefore;
+        long templatedBytes = usedMemory() - before;
+
+        System.out.printf("日志条数: %,d (对象列表 %,d, 列式存储 %,d, 不同文本 %d, 模板存储不同文本 %d)%n",
+                count, objectCount, templated.size(), distinctTexts, templated.getDistinctTextCount());
+        System.out.printf("List<RunningLog>: %,d KB, 每条 %.1f 字节%n", objectBytes / 1024, (double) objectBytes / count);
+        System.out.printf("RunningLogStore:  %,d KB, 每条 %.1f 字节, 追加每条分配 %.1f 字节%n",
+                storeBytes / 1024, (double) storeBytes / count, (double) textAllocated / count);
+        System.out.printf("按模板保存备注:   %,d KB, 每条 %.1f 字节, 追加每条分配 %.1f 字节%n",
+                templatedBytes / 1024, (double) templatedBytes / count, (double) templatedAllocated / count);
+        System.out.printf("内存减少: %.1fx (按模板 %.1fx)%n",
+                (double) objectBytes / storeBytes, (double) objectBytes / templatedBytes);
+    }
+
+    /**
+     * 与 note(i) 相同的日志，带数值的备注按模板追加
+     */
+    private static void appendTemplated(RunningLogStore store, long time, int i) {
+        RunningLog.Type type = i % 50 == 0 ? RunningLog.Type.WARN : RunningLog.Type.INFO;
+        switch (i & 3) {
+            case 2:
+                store.append(time, type, EVENTS[2], LogNoteTemplate.BRIGHTNESS, i % 101);
+                break;
+            case 3:
+                store.append(time, type, EVENTS[3], LogNoteTemplate.BODY_MASS, 50 + i % 40 + 0.5);
+                break;
+            default:
+                store.append(time, type, EVENTS[i & 3], note(i));
+        }
+    }
+
+    /**
+     * 当前线程累计分配的堆字节数，JVM 不支持时返回0
+     */
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = java.lang.management.ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getCurrentThreadAllocatedBytes();
+        }
+        return 0;
+    }
+
+    /**
+     * 与设备实际产生的备注相同，每次拼接都会产生新的字符串
+     */
+    private static String note(int i) {
+        switch (i & 3) {
+            case 2:
+                return "亮度设置为" + (i % 101) + "%";
+            case 3:
+                return "体重测量值: " + (50 + i % 40 + 0.5) + "kg";
+            default:
+                return "电源已" + ((i & 3) == 0 ? "开启" : "关闭");
+        }
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -1,5 +1,8 @@
 package cn.edu.nwpu.homesphere;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
 /**
  * 运行日志格式化接口，使用策略模式实现不同格式的日志输出
  */
@@ -9,7 +12,25 @@ public interface RunningLogFormatter {
      * @param household 家庭对象
      * @return 格式化后的日志字符串
      */
-    String format(Household household);
+    default String format(Household household) {
+        StringBuilder out = new StringBuilder();
+        try {
+            format(household, out);
+        } catch (IOException e) {
+            // StringBuilder 不会抛出 IOException
+            throw new UncheckedIOException(e);
+        }
+        return out.toString();
+    }
+
+    /**
+     * 把家庭的所有设备运行日志按格式逐条写入 out，不在内存中生成完整的结果
+     * 写入文件时传入带缓冲的 Writer，内存占用与日志条数无关
+     * @param household 家庭对象
+     * @param out 输出目标
+     * @throws IOException 写入 out 失败时抛出
+     */
+    void format(Household household, Appendable out) throws IOException;
     
     /**
      * 获取格式化器的名称
@@ -0,0 +1,501 @@
+package cn.edu.nwpu.homesphere;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * 运行日志的异步持久化管道
+ *
+ * 设备追加运行日志时只把日志放入有界队列，不等待磁盘；后台写入线程把队列中的日志成批编码，
+ * 一次写入文件通道，并按刷盘间隔调用 force，使设备操作的延迟不受磁盘影响。
+ * 队列满时按 OverflowPolicy 让追加的线程等待（背压）或丢弃新日志并计数。
+ * 按模板保存的备注在写入线程中才生成文本。
+ *
+ * 文件中每条记录为 int 长度、int CRC32、内容（int 设备ID、long 时间、byte 类型、事件、备注），
+ * 与 ChangeJournal 的记录格式相同；replay 读取到第一条残缺或校验失败的记录为止。
+ * 通过 Household.setLogPersister 对家庭中的所有设备生效
+ */
+public class RunningLogPersister implements Closeable {
+    private static final Logger LOGGER = Logger.getLogger(RunningLogPersister.class.getName());
+
+    /** 默认队列容量 */
+    public static final int DEFAULT_CAPACITY = 8192;
+    /** 默认刷盘间隔（毫秒） */
+    public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 200;
+    private static final int MAX_BATCH = 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * 队列满时的处理方式
+     */
+    public enum OverflowPolicy {
+        /** 追加的线程等待队列有空位 */
+        BLOCK,
+        /** 丢弃新日志，计入丢弃条数 */
+        DROP
+    }
+
+    /**
+     * 队列中的一条日志
+     */
+    private static final class Entry {
+        final int deviceId;
+        final long time;
+        final byte type;
+        final String event;
+        final String note;
+        final int noteCode;
+
+        Entry(int deviceId, long time, byte type, String event, String note, int noteCode) {
+            this.deviceId = deviceId;
+            this.time = time;
+            this.type = type;
+            this.event = event;
+            this.note = note;
+            this.noteCode = noteCode;
+        }
+    }
+
+    // 刷盘请求与关闭请求，放入队列以唤醒写入线程
+    private static final Entry FLUSH = new Entry(0, 0, (byte) 0, null, null, 0);
+
+    private final Path file;
+    private final FileChannel channel;
+    private final BlockingQueue<Entry> queue;
+    private final OverflowPolicy policy;
+    private final long flushIntervalNanos;
+    private final Thread writer;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final CRC32 crc = new CRC32();
+    private volatile boolean closed;
+
+    // 指标
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile long written;
+    // 写入线程已处理（写入或因错误放弃）的条数
+    private volatile long processed;
+    private volatile long batchCount;
+    private volatile int maxBatchSize;
+    private volatile long writeNanos;
+    private volatile long maxWriteNanos;
+    private volatile long forceCount;
+
+    // 刷盘进度：写入线程在 force 之后更新，flush() 等待它追上请求时已接受的条数
+    private final Object lock = new Object();
+    private long durable;
+    private IOException writeError;
+
+    /**
+     * 使用默认容量、背压与默认刷盘间隔打开
+     * @param file 日志文件，已存在时在末尾追加
+     */
+    public RunningLogPersister(Path file) throws IOException {
+        this(file, DEFAULT_CAPACITY, OverflowPolicy.BLOCK, DEFAULT_FLUSH_INTERVAL_MILLIS);
+    }
+
+    /**
+     * @param file 日志文件，已存在时在末尾追加
+     * @param capacity 队列容量
+     * @param policy 队列满时的处理方式
+     * @param flushIntervalMillis 两次 force 之间的最长间隔（毫秒）
+     */
+    public RunningLogPersister(Path file, int capacity, OverflowPolicy policy, long flushIntervalMillis) throws IOException {
+        if (capacity <= 0 || flushIntervalMillis <= 0) {
+            throw new IllegalArgumentException("队列容量与刷盘间隔必须大于0");
+        }
+        this.file = file;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.policy = policy;
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        this.writer = new Thread(this::writeLoop, "running-log-persister");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * 提交一条运行日志，由设备在追加日志时调用
+     * @param noteCode 备注的模板编码，不是模板编码时使用 note
+     * @return 放入队列时返回true，被丢弃时返回false
+     */
+    boolean submit(int deviceId, long time, RunningLog.Type type, String event, String note, int noteCode) {
+        if (closed) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        Entry entry = new Entry(deviceId, time, (byte) type.getCode(), event, note, noteCode);
+        if (!queue.offer(entry)) {
+            if (policy == OverflowPolicy.DROP) {
+                dropped.incrementAndGet();
+                return false;
+            }
+            try {
+                queue.put(entry);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                dropped.incrementAndGet();
+                return false;
+            }
+        }
+        submitted.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * 等待目前为止放入队列的日志全部写入并落盘
+     * 已关闭时直接返回（关闭时已写出队列中的日志）；写入线程意外退出时抛出异常而不是一直等待
+     */
+    public void flush() throws IOException {
+        if (closed) {
+            return;
+        }
+        long target = submitted.get();
+        try {
+            // 队列满时限时等待，期间持久化被关闭或写入线程退出就不再放入刷盘请求
+            while (!queue.offer(FLUSH, 100, TimeUnit.MILLISECONDS)) {
+                if (closed || !writer.isAlive()) {
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("等待运行日志落盘时被中断");
+        }
+        synchronized (lock) {
+            while (durable < target && writeError == null && writer.isAlive()) {
+                try {
+                    lock.wait(100);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("等待运行日志落盘时被中断");
+                }
+            }
+            if (writeError != null) {
+                IOException error = writeError;
+                writeError = null;
+                throw new IOException("运行日志写入失败", error);
+            }
+            if (durable < target && !writer.isAlive()) {
+                throw new IOException("运行日志写入线程已退出，" + (target - durable) + " 条日志未落盘");
+            }
+        }
+    }
+
+    /**
+     * 写出队列中剩余的日志并关闭文件，之后提交的日志计入丢弃条数
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        queue.offer(FLUSH);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // 与关闭同时提交、在写入线程退出后才入队的日志
+        for (Entry entry = queue.poll(); entry != null; entry = queue.poll()) {
+            if (entry != FLUSH) {
+                dropped.incrementAndGet();
+            }
+        }
+        channel.close();
+        synchronized (lock) {
+            if (writeError != null) {
+                throw new IOException("运行日志写入失败", writeError);
+            }
+        }
+    }
+
+    private void writeLoop() {
+        List<Entry> batch = new ArrayList<>(MAX_BATCH);
+        long lastForce = System.nanoTime();
+        long unforced = 0;
+        while (true) {
+            Entry first;
+            try {
+                first = queue.poll(flushIntervalNanos, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            boolean forceRequested = false;
+            if (first != null) {
+                batch.add(first);
+                queue.drainTo(batch, MAX_BATCH - 1);
+                int entries = 0;
+                for (Entry entry : batch) {
+                    if (entry == FLUSH) {
+                        forceRequested = true;
+                    } else {
+                        entries++;
+                    }
+                }
+                if (entries > 0) {
+                    writeBatch(batch, entries);
+                    unforced += entries;
+                }
+                batch.clear();
+            }
+            boolean finishing = closed && queue.isEmpty();
+            if (forceRequested || finishing || System.nanoTime() - lastForce >= flushIntervalNanos) {
+                if (unforced > 0) {
+                    force();
+                    unforced = 0;
+                }
+                lastForce = System.nanoTime();
+                synchronized (lock) {
+                    durable = processed;
+                    lock.notifyAll();
+                }
+            }
+            if (finishing) {
+                return;
+            }
+        }
+    }
+
+    private void writeBatch(List<Entry> batch, int entries) {
+        long begin = System.nanoTime();
+        // 过长未写入的条数，计入丢弃而不是写入
+        int oversized = 0;
+        try {
+            buffer.clear();
+            for (Entry entry : batch) {
+                if (entry != FLUSH && !encode(entry)) {
+                    oversized++;
+                }
+            }
+            writeBuffer();
+            written += entries - oversized;
+            dropped.addAndGet(oversized);
+        } catch (IOException e) {
+            LOGGER.warning("运行日志写入失败，丢弃 " + entries + " 条: " + e.getMessage());
+            dropped.addAndGet(entries);
+            synchronized (lock) {
+                writeError = e;
+            }
+        }
+        long elapsed = System.nanoTime() - begin;
+        processed += entries;
+        batchCount++;
+        writeNanos += elapsed;
+        maxWriteNanos = Math.max(maxWriteNanos, elapsed);
+        maxBatchSize = Math.max(maxBatchSize, entries);
+    }
+
+    /**
+     * 把一条日志编码到缓冲区，缓冲区不足时先写出
+     * @return 编码成功时返回true，日志过长、缓冲区放不下时返回false
+     */
+    private boolean encode(Entry entry) throws IOException {
+        String note = LogNoteTemplate.isEncoded(entry.noteCode) ? LogNoteTemplate.render(entry.noteCode) : entry.note;
+        byte[] event = entry.event == null ? null : entry.event.getBytes(StandardCharsets.UTF_8);
+        byte[] noteBytes = note == null ? null : note.getBytes(StandardCharsets.UTF_8);
+        int length = 4 + 8 + 1 + textLength(event) + textLength(noteBytes);
+        if (buffer.remaining() < 8 + length) {
+            writeBuffer();
+            if (buffer.remaining() < 8 + length) {
+                LOGGER.warning("运行日志过长，未写入: " + length + " 字节");
+                return false;
+            }
+        }
+        int recordStart = buffer.position();
+        buffer.putInt(length);
+        buffer.putInt(0);
+        buffer.putInt(entry.deviceId);
+        buffer.putLong(entry.time);
+        buffer.put(entry.type);
+        putText(event);
+        putText(noteBytes);
+        ByteBuffer payload = buffer.duplicate();
+        payload.position(recordStart + 8).limit(buffer.position());
+        crc.reset();
+        crc.update(payload);
+        buffer.putInt(recordStart + 4, (int) crc.getValue());
+        return true;
+    }
+
+    private static int textLength(byte[] text) {
+        return 4 + (text == null ? 0 : text.length);
+    }
+
+    private void putText(byte[] text) {
+        if (text == null) {
+            buffer.putInt(-1);
+        } else {
+            buffer.putInt(text.length);
+            buffer.put(text);
+        }
+    }
+
+    private void writeBuffer() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private void force() {
+        try {
+            channel.force(false);
+            forceCount++;
+        } catch (IOException e) {
+            LOGGER.warning("运行日志刷盘失败: " + e.getMessage());
+            synchronized (lock) {
+                writeError = e;
+            }
+        }
+    }
+
+    /**
+     * 读取日志文件中的全部记录，遇到残缺或校验失败的记录时停止
+     * @param file 日志文件
+     * @param consumer 接收设备ID与运行日志
+     * @return 读取的记录数
+     */
+    public static int replay(Path file, BiConsumer<Integer, RunningLog> consumer) throws IOException {
+        ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(file));
+        CRC32 checksum = new CRC32();
+        int count = 0;
+        while (data.remaining() >= 8) {
+            int start = data.position();
+            int length = data.getInt();
+            int expected = data.getInt();
+            if (length < 13 || length > data.remaining()) {
+                break;
+            }
+            ByteBuffer payload = data.slice();
+            payload.limit(length);
+            checksum.reset();
+            checksum.update(payload.duplicate());
+            if ((int) checksum.getValue() != expected) {
+                data.position(start);
+                break;
+            }
+            int deviceId = payload.getInt();
+            long time = payload.getLong();
+            RunningLog.Type type = RunningLog.Type.fromCode(payload.get());
+            String event = getText(payload);
+            String note = getText(payload);
+            consumer.accept(deviceId, new RunningLog(new Date(time), event, type, note));
+            data.position(start + 8 + length);
+            count++;
+        }
+        return count;
+    }
+
+    private static String getText(ByteBuffer payload) {
+        int length = payload.getInt();
+        if (length < 0) {
+            return null;
+        }
+        String text = new String(payload.array(), payload.arrayOffset() + payload.position(), length, StandardCharsets.UTF_8);
+        payload.position(payload.position() + length);
+        return text;
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return policy;
+    }
+
+    /**
+     * 获取当前排队等待写入的日志条数
+     */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * 获取已放入队列的日志条数
+     */
+    public long getSubmittedCount() {
+        return submitted.get();
+    }
+
+    /**
+     * 获取已写入文件的日志条数
+     */
+    public long getWrittenCount() {
+        return written;
+    }
+
+    /**
+     * 获取因队列已满、已关闭、日志过长或写入失败而丢弃的日志条数
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * 获取写入的批次数
+     */
+    public long getBatchCount() {
+        return batchCount;
+    }
+
+    /**
+     * 获取平均每批的日志条数
+     */
+    public double getAverageBatchSize() {
+        long batches = batchCount;
+        return batches == 0 ? 0 : (double) processed / batches;
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * 获取每批编码并写入文件通道的平均耗时（微秒），不含 force
+     */
+    public double getAverageWriteLatencyMicros() {
+        long batches = batchCount;
+        return batches == 0 ? 0 : writeNanos / 1000.0 / batches;
+    }
+
+    public double getMaxWriteLatencyMicros() {
+        return maxWriteNanos / 1000.0;
+    }
+
+    /**
+     * 获取 force 的次数
+     */
+    public long getForceCount() {
+        return forceCount;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("RunningLogPersister{file=%s, queueDepth=%d, submitted=%d, written=%d, dropped=%d, "
+                        + "batches=%d, avgBatch=%.1f, maxBatch=%d, avgWriteMicros=%.1f, maxWriteMicros=%.1f, forces=%d}",
+                file, getQueueDepth(), getSubmittedCount(), getWrittenCount(), getDroppedCount(), getBatchCount(),
+                getAverageBatchSize(), getMaxBatchSize(), getAverageWriteLatencyMicros(), getMaxWriteLatencyMicros(),
+                getForceCount());
+    }
+}
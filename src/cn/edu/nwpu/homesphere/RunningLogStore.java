@@ -0,0 +1,1009 @@
+package cn.edu.nwpu.homesphere;
+
+import java.io.IOException;
+import java.lang.invoke.VarHandle;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Logger;
+
+/**
+ * 设备运行日志的列式存储
+ * 每条日志拆成四列保存在固定大小的块中：时间（毫秒 long）、类型编码（byte）、
+ * 事件与备注在文本字典中的编号（int），每条约17字节；相同的事件和备注文本只保存一份。
+ * 按 LogNoteTemplate 追加的备注在备注列中直接保存模板编码，不进入字典，读取时才生成文本。
+ * RunningLog 对象只在调用方读取时才创建
+ *
+ * 块按环形排列，配合 LogRetentionPolicy 从最早的一条开始淘汰：完全淘汰的块留作下一个块复用，
+ * 字典文本按引用计数在不再被引用时释放，因此淘汰与追加都是均摊常数时间，内存占用有上界
+ *
+ * 并发：多个线程可以同时追加，追加不加锁也不等待其他线程。追加时用 CAS 把日志接到待写队列末尾，
+ * 同时确定它的绝对位置（前一条的位置加1）与实际保存的时间（早于前一条时按前一条的时间），
+ * 因此时间列非递减，追加方法直接返回这两个值。同一时刻只有一个线程（写入者）修改列、字典并执行淘汰，
+ * 写入者身份通过 CAS 获得：获得的追加者顺带写入队列中的全部日志（合并写入），没有获得的追加者入队后立即返回。
+ * 游标与 toList 读取打开时的一致快照：先等待此前提交的日志写入，然后不加锁地读取，
+ * 每读一条都校验它没有在读取期间被淘汰（类似 StampedLock 的乐观读）。
+ * 按下标读取的方法只适合没有并发写入时使用，有并发写入时（例如快照与变更日志的写出）应使用游标
+ *
+ * 溢出：设置溢出目录与堆内预算后，堆内估算占用超过预算时，较早的整块日志移入内存映射的
+ * 固定大小日志段文件（LogSegment），堆中只保留最近的日志；所有读取方法透明地跨越日志段与堆。
+ * 保留策略对日志段同样生效，日志段中的日志全部淘汰后删除文件。日志段只是溢出缓存：
+ * 每个存储在溢出目录下建立自己的管理目录，文件不会在重启后重新打开，closeSpill() 删除全部文件与管理目录
+ */
+public class RunningLogStore {
+    private static final Logger LOGGER = Logger.getLogger(RunningLogStore.class.getName());
+    private static final int CHUNK_SHIFT = 10;
+    /** 每个块的条目数 */
+    static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    /** 每条日志在列中占用的字节数 */
+    static final int ENTRY_BYTES = 8 + 1 + 4 + 4;
+    /** null 文本的编号 */
+    private static final int NULL_TEXT = -1;
+
+    /**
+     * 一个块的四列
+     */
+    private static final class Chunk {
+        final long[] times = new long[CHUNK_SIZE];
+        final byte[] types = new byte[CHUNK_SIZE];
+        final int[] events = new int[CHUNK_SIZE];
+        final int[] notes = new int[CHUNK_SIZE];
+    }
+
+    /**
+     * 待写队列中的一条日志；入队时确定位置与实际保存的时间，之后不再改变
+     */
+    static final class PendingLog {
+        // 在 CAS 入队前设置，通过 pendingTail 的发布对其他线程可见
+        private long position;
+        private long time;
+        final RunningLog.Type type;
+        final String event;
+        final String note;
+        final int noteCode;
+        volatile PendingLog next;
+
+        PendingLog(long position, long time, RunningLog.Type type, String event, String note, int noteCode) {
+            this.position = position;
+            this.time = time;
+            this.type = type;
+            this.event = event;
+            this.note = note;
+            this.noteCode = noteCode;
+        }
+
+        /**
+         * 日志的绝对位置，写入后由它在存储中定位
+         */
+        long getPosition() {
+            return position;
+        }
+
+        /**
+         * 实际保存的时间
+         */
+        long getTime() {
+            return time;
+        }
+    }
+
+    // 环形块数组，块号 n 位于下标 n & (length - 1)；扩容时整体替换，旧数组中仍保留的块不变
+    private Chunk[] chunks = new Chunk[1];
+    // 已淘汰的块，留作下一个块复用
+    private Chunk spareChunk;
+
+    // 自创建以来的绝对位置：start 为最早保留的一条，head 为堆中最早的一条，tail 为下一条写入的位置；
+    // start 到 head 之间的日志在日志段中。写入者先写列再推进 tail，先推进 start、head 再回收块与文本，读取者据此校验
+    private volatile long start;
+    private volatile long head;
+    private volatile long tail;
+    private long lastTime = Long.MIN_VALUE;
+
+    // 文本字典：文本 <-> 编号，编号按引用计数回收；texts 数组可被读取者并发读取，其余只由写入者访问
+    private final Map<String, Integer> textIds = new HashMap<>();
+    private String[] texts = new String[16];
+    private int[] textRefs = new int[16];
+    private int[] freeTextIds = new int[16];
+    private int freeTextCount;
+    private int nextTextId;
+    private volatile long textBytes;
+    // 字典大小，由写入者更新，供其他线程不加锁读取
+    private volatile int distinctTextCount;
+
+    // 按小时与天的计数，追加时更新
+    private final LogRollup rollup = new LogRollup();
+
+    private volatile LogRetentionPolicy retention = LogRetentionPolicy.UNLIMITED;
+    private volatile long evictedCount;
+
+    // 溢出设置，目录为 null 表示不溢出
+    private Path spillDirectory;
+    private String spillPrefix;
+    // 当前溢出目录下的管理目录，第一次溢出时创建；spillRoots 为创建过的全部管理目录，关闭溢出时删除
+    private Path spillRoot;
+    private final List<Path> spillRoots = new ArrayList<>();
+    private long heapBudget;
+    // 按位置排列的日志段，修改时整体替换，读取者可不加锁读取；最后一段在溢出时继续写入
+    private volatile LogSegment[] segments = new LogSegment[0];
+    private LogSegment activeSegment;
+    private volatile long sealedSegmentBytes;
+
+    // 写入者标记与无锁的多生产者待写队列（pendingHead 为已写入的哨兵节点，pendingTail 为最后入队的日志）
+    private final AtomicBoolean writing = new AtomicBoolean();
+    private final AtomicReference<PendingLog> pendingTail;
+    private volatile PendingLog pendingHead;
+
+    public RunningLogStore() {
+        PendingLog stub = new PendingLog(-1, Long.MIN_VALUE, null, null, null, NULL_TEXT);
+        pendingHead = stub;
+        pendingTail = new AtomicReference<>(stub);
+    }
+
+    /**
+     * 追加一条日志，之后按保留策略淘汰过期的日志，可由多个线程同时调用
+     * @param time 时间（毫秒）
+     * @param type 日志类型
+     * @param event 事件描述
+     * @param note 备注信息
+     */
+    public void append(long time, RunningLog.Type type, String event, String note) {
+        appendCoded(time, type, event, note, NULL_TEXT);
+    }
+
+    /**
+     * 追加一条备注按模板保存的日志，追加时不生成备注文本
+     * @param time 时间（毫秒）
+     * @param type 日志类型
+     * @param event 事件描述
+     * @param template 备注模板
+     * @param value 备注中的数值
+     */
+    public void append(long time, RunningLog.Type type, String event, LogNoteTemplate template, double value) {
+        int code = template.encode(value);
+        if (LogNoteTemplate.isEncoded(code)) {
+            appendCoded(time, type, event, null, code);
+        } else {
+            appendCoded(time, type, event, template.format(value), NULL_TEXT);
+        }
+    }
+
+    /**
+     * 追加一条日志，备注为模板编码或文本；不等待其他线程，返回时日志可能仍在待写队列中
+     * @param noteCode 模板编码，不是模板编码时使用 note
+     * @return 入队的日志，其中有日志的绝对位置与实际保存的时间（早于上一条日志的时间按上一条的时间保存），
+     *         调用者据此把同样的值交给其他去处
+     */
+    PendingLog appendCoded(long time, RunningLog.Type type, String event, String note, int noteCode) {
+        PendingLog log = new PendingLog(0, 0, type, event, note, noteCode);
+        PendingLog last;
+        do {
+            last = pendingTail.get();
+            log.position = last.position + 1;
+            log.time = Math.max(time, last.time);
+        } while (!pendingTail.compareAndSet(last, log));
+        last.next = log;
+        if (writing.compareAndSet(false, true)) {
+            drainPending();
+            releaseWriter();
+        }
+        return log;
+    }
+
+    /**
+     * 追加一条已有的日志对象，按模板保存的备注仍按编码保存
+     * @param log 运行日志
+     */
+    public void append(RunningLog log) {
+        int noteCode = log.getNoteCode();
+        appendCoded(log.getDateTime().getTime(), log.getType(), log.getEvent(),
+                LogNoteTemplate.isEncoded(noteCode) ? null : log.getNote(), noteCode);
+    }
+
+    /**
+     * 释放写入者身份；释放后若队列中仍有日志且没有其他写入者，重新获得并写入，
+     * 保证放入队列的日志不会因为错过写入者而滞留
+     */
+    private void releaseWriter() {
+        while (true) {
+            writing.set(false);
+            if (pendingHead.next == null || !writing.compareAndSet(false, true)) {
+                return;
+            }
+            drainPending();
+        }
+    }
+
+    /**
+     * 获得写入者身份，用于修改保留策略等不经过队列的写操作
+     */
+    private void acquireWriter() {
+        while (!writing.compareAndSet(false, true)) {
+            Thread.yield();
+        }
+    }
+
+    /**
+     * 写入开始时已入队的全部日志，只由写入者调用
+     * 生产者 CAS 替换 pendingTail 后才链接 next，遇到尚未链接的节点时等待链接完成（只有写入者等待，
+     * 追加者不等待），日志按入队顺序写入，写入位置与入队时确定的位置一致
+     */
+    private void drainPending() {
+        PendingLog last = pendingTail.get();
+        PendingLog current = pendingHead;
+        while (current != last) {
+            PendingLog next = current.next;
+            if (next == null) {
+                Thread.yield();
+                continue;
+            }
+            write(next);
+            current = next;
+        }
+        pendingHead = current;
+    }
+
+    /**
+     * 写入一条日志并淘汰，只由写入者调用；位置与时间已在入队时确定
+     */
+    private void write(PendingLog log) {
+        long time = log.time;
+        RunningLog.Type type = log.type;
+        String event = log.event;
+        String note = log.note;
+        int noteCode = log.noteCode;
+        lastTime = time;
+        rollup.record(time, type.getCode());
+        LogRetentionPolicy policy = retention;
+        int maxCount = policy.getMaxCount();
+        // 按条数淘汰在写入之前进行，读取者任何时刻看到的条数都不超过上限
+        while (maxCount > 0 && tail - start >= maxCount) {
+            evictOldest();
+            evictedCount++;
+        }
+        long position = tail;
+        int offset = (int) (position & CHUNK_MASK);
+        if (offset == 0) {
+            addChunk(position >>> CHUNK_SHIFT);
+        }
+        Chunk chunk = chunk(position);
+        chunk.times[offset] = time;
+        chunk.types[offset] = (byte) type.getCode();
+        chunk.events[offset] = textId(event);
+        chunk.notes[offset] = LogNoteTemplate.isEncoded(noteCode) ? noteCode : textId(note);
+        tail = position + 1;
+        if (!policy.isUnlimited()) {
+            evict(time);
+        }
+        if (spillDirectory != null && heapBytes() > heapBudget) {
+            spill();
+        }
+    }
+
+    private void addChunk(long chunkNumber) {
+        long firstChunk = head >>> CHUNK_SHIFT;
+        if (chunkNumber - firstChunk >= chunks.length) {
+            // 环已满，按块号重新排列到两倍大小的数组
+            int capacity = chunks.length * 2;
+            Chunk[] resized = new Chunk[capacity];
+            for (long n = firstChunk; n < chunkNumber; n++) {
+                resized[(int) (n & (capacity - 1))] = chunks[(int) (n & (chunks.length - 1))];
+            }
+            chunks = resized;
+        }
+        Chunk chunk = spareChunk != null ? spareChunk : new Chunk();
+        spareChunk = null;
+        chunks[(int) (chunkNumber & (chunks.length - 1))] = chunk;
+    }
+
+    /**
+     * 设置保留策略，并立即按当前时间淘汰超出限制的日志
+     * @param retention 保留策略
+     */
+    public void setRetention(LogRetentionPolicy retention) {
+        acquireWriter();
+        drainPending();
+        this.retention = retention == null ? LogRetentionPolicy.UNLIMITED : retention;
+        if (!this.retention.isUnlimited() && start < tail) {
+            evict(Math.max(System.currentTimeMillis(), lastTime));
+        }
+        releaseWriter();
+    }
+
+    public LogRetentionPolicy getRetention() {
+        return retention;
+    }
+
+    /**
+     * 把早于指定时间的日志写入归档，写入成功后从存储中移除（不计入淘汰条数）
+     * 归档期间追加的日志不受影响；写入失败时不移除任何日志
+     * @param time 时间（毫秒，不含）
+     * @param archive 归档写入器
+     * @return 归档的条数
+     */
+    public int archiveBefore(long time, RunningLogArchive.Writer archive) throws IOException {
+        awaitPending();
+        long end = lowerBound(time, tail);
+        int archived = archive.writeAll(new RunningLogCursor(this, false, start, end));
+        acquireWriter();
+        drainPending();
+        while (start < end) {
+            evictOldest();
+        }
+        releaseWriter();
+        return archived;
+    }
+
+    /**
+     * 从最早的一条开始淘汰，直到满足所有限制
+     * 每次追加最多多出一条，按条数或字节淘汰的开销均摊为常数；按时间淘汰的每条日志只会被淘汰一次
+     * @param now 计算保留时间的基准时间
+     */
+    private void evict(long now) {
+        LogRetentionPolicy policy = retention;
+        int maxCount = policy.getMaxCount();
+        long maxBytes = policy.getMaxBytes();
+        long minTime = policy.getMaxAgeMillis() > 0 ? now - policy.getMaxAgeMillis() : Long.MIN_VALUE;
+        while (start < tail) {
+            boolean over = (maxCount > 0 && tail - start > maxCount)
+                    || (maxBytes > 0 && getByteSize() > maxBytes)
+                    || timeAt(start) < minTime;
+            if (!over) {
+                break;
+            }
+            evictOldest();
+            evictedCount++;
+        }
+    }
+
+    /**
+     * 移除最早的一条：有溢出的日志时从日志段中移除，否则从堆中移除
+     */
+    private void evictOldest() {
+        if (start < head) {
+            start++;
+            dropEvictedSegments();
+        } else {
+            removeHead();
+        }
+    }
+
+    private void removeHead() {
+        long position = head;
+        Chunk chunk = chunk(position);
+        int offset = (int) (position & CHUNK_MASK);
+        int event = chunk.events[offset];
+        int note = chunk.notes[offset];
+        // 先推进 start、head 再回收文本与块，读取者读到回收后的内容时校验一定失败
+        start = position + 1;
+        head = position + 1;
+        release(event);
+        release(note);
+        if (((position + 1) & CHUNK_MASK) == 0) {
+            // 整块已淘汰，留作复用；环中的引用保留到该下标被新块占用，读取者不会读到 null
+            spareChunk = chunk;
+        }
+    }
+
+    /**
+     * 设置溢出目录与堆内预算，超出预算时较早的日志移入日志段文件
+     * @param directory 日志段目录，null表示停止溢出（已溢出的日志仍可读取）
+     * @param filePrefix 日志段文件名前缀
+     * @param heapBudgetBytes 堆内估算占用的上限（字节）
+     */
+    public void setSpill(Path directory, String filePrefix, long heapBudgetBytes) {
+        if (directory != null && heapBudgetBytes <= 0) {
+            throw new IllegalArgumentException("堆内预算必须大于0: " + heapBudgetBytes);
+        }
+        acquireWriter();
+        drainPending();
+        if (directory == null || !directory.equals(spillDirectory)) {
+            // 换到其他目录时新的日志段放在新的管理目录中，原管理目录在关闭溢出时删除
+            spillRoot = null;
+        }
+        this.spillDirectory = directory;
+        this.spillPrefix = filePrefix;
+        this.heapBudget = heapBudgetBytes;
+        if (directory != null && heapBytes() > heapBudget) {
+            spill();
+        }
+        releaseWriter();
+    }
+
+    /**
+     * 把堆中最早的整块日志移入日志段，直到堆内占用不超过预算；正在写入的块保留在堆中
+     * 每次移动一整块，开销均摊到块中的每次追加
+     */
+    private void spill() {
+        while (heapBytes() > heapBudget) {
+            long from = head;
+            long chunkEnd = (from | CHUNK_MASK) + 1;
+            if (chunkEnd > tail) {
+                return;
+            }
+            Chunk chunk = chunk(from);
+            try {
+                for (long position = from; position < chunkEnd; position++) {
+                    int offset = (int) (position & CHUNK_MASK);
+                    int note = chunk.notes[offset];
+                    appendToSegment(position, chunk.times[offset], chunk.types[offset],
+                            text(chunk.events[offset]), note, LogNoteTemplate.isEncoded(note) ? null : text(note));
+                }
+            } catch (IOException e) {
+                LOGGER.warning("运行日志溢出到磁盘失败，之后的日志保留在内存中: " + e.getMessage());
+                spillDirectory = null;
+                if (activeSegment != null) {
+                    sealActiveSegment();
+                }
+                return;
+            }
+            // 先发布 head 再回收堆中的文本与块
+            head = chunkEnd;
+            for (int offset = (int) (from & CHUNK_MASK); offset < CHUNK_SIZE; offset++) {
+                release(chunk.events[offset]);
+                release(chunk.notes[offset]);
+            }
+            spareChunk = chunk;
+        }
+    }
+
+    private void appendToSegment(long position, long time, byte type, String event, int noteCode, String note)
+            throws IOException {
+        LogSegment segment = activeSegment;
+        if (segment != null && segment.getBasePosition() + segment.getCount() == position
+                && segment.append(time, type, event, noteCode, note)) {
+            return;
+        }
+        if (segment != null) {
+            sealActiveSegment();
+        }
+        dropEvictedSegments();
+        if (spillRoot == null) {
+            Files.createDirectories(spillDirectory);
+            spillRoot = Files.createTempDirectory(spillDirectory, spillPrefix);
+            spillRoots.add(spillRoot);
+        }
+        segment = LogSegment.create(spillRoot, position);
+        LogSegment[] current = segments;
+        LogSegment[] added = Arrays.copyOf(current, current.length + 1);
+        added[current.length] = segment;
+        segments = added;
+        activeSegment = segment;
+        if (!segment.append(time, type, event, noteCode, note)) {
+            throw new IOException("单条日志超过日志段文本区大小");
+        }
+    }
+
+    private void sealActiveSegment() {
+        activeSegment.seal();
+        sealedSegmentBytes += activeSegment.getUsedBytes();
+        activeSegment = null;
+    }
+
+    /**
+     * 删除其中日志已全部淘汰的日志段
+     */
+    private void dropEvictedSegments() {
+        LogSegment[] current = segments;
+        int drop = 0;
+        while (drop < current.length && segmentEnd(current, drop) <= start) {
+            drop++;
+        }
+        if (drop == 0) {
+            return;
+        }
+        for (int i = 0; i < drop; i++) {
+            if (current[i] == activeSegment) {
+                activeSegment = null;
+            } else {
+                sealedSegmentBytes -= current[i].getUsedBytes();
+            }
+            current[i].delete();
+        }
+        segments = Arrays.copyOfRange(current, drop, current.length);
+    }
+
+    /**
+     * 关闭溢出：停止溢出，删除全部日志段文件与管理目录，已溢出的日志随之丢弃（计入淘汰条数）
+     * 堆中的日志不受影响，之后可以重新设置溢出
+     */
+    public void closeSpill() {
+        acquireWriter();
+        drainPending();
+        spillDirectory = null;
+        spillRoot = null;
+        // 先推进 start，并发的读取者据此跳过日志段中的日志
+        long spilled = head - start;
+        if (spilled > 0) {
+            start = head;
+            evictedCount += spilled;
+        }
+        LogSegment[] current = segments;
+        segments = new LogSegment[0];
+        activeSegment = null;
+        sealedSegmentBytes = 0;
+        for (LogSegment segment : current) {
+            segment.delete();
+        }
+        for (Path root : spillRoots) {
+            try {
+                Files.deleteIfExists(root);
+            } catch (IOException e) {
+                LOGGER.warning("删除日志段目录失败: " + root + ": " + e.getMessage());
+            }
+        }
+        spillRoots.clear();
+        releaseWriter();
+    }
+
+    private long segmentEnd(LogSegment[] list, int index) {
+        long end = list[index].getBasePosition() + list[index].getCount();
+        return index + 1 < list.length ? Math.min(end, list[index + 1].getBasePosition()) : Math.min(end, head);
+    }
+
+    /**
+     * 查找包含位置的日志段
+     * @return 日志段，位置早于所有日志段时返回null
+     */
+    private static LogSegment segmentAt(LogSegment[] list, long position) {
+        int low = 0;
+        int high = list.length - 1;
+        LogSegment found = null;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (list[mid].getBasePosition() <= position) {
+                found = list[mid];
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    private Chunk chunk(long position) {
+        return chunks[(int) ((position >>> CHUNK_SHIFT) & (chunks.length - 1))];
+    }
+
+    long timeAt(long position) {
+        if (position < head) {
+            return segmentAt(segments, position).getTime(position);
+        }
+        return chunk(position).times[(int) (position & CHUNK_MASK)];
+    }
+
+    RunningLog.Type typeAt(long position) {
+        if (position < head) {
+            return RunningLog.Type.fromCode(segmentAt(segments, position).getTypeCode(position));
+        }
+        return RunningLog.Type.fromCode(chunk(position).types[(int) (position & CHUNK_MASK)]);
+    }
+
+    String eventAt(long position) {
+        if (position < head) {
+            return segmentAt(segments, position).getEvent(position);
+        }
+        return text(chunk(position).events[(int) (position & CHUNK_MASK)]);
+    }
+
+    String noteAt(long position) {
+        if (position < head) {
+            return segmentAt(segments, position).getNote(position);
+        }
+        return text(chunk(position).notes[(int) (position & CHUNK_MASK)]);
+    }
+
+    /**
+     * 不加锁地读取一条日志到游标，可与写入者并发
+     * @param position 绝对位置
+     * @param target 接收日志内容的游标
+     * @return 日志在读取期间被淘汰时返回false，此时读到的内容无效
+     */
+    boolean load(long position, RunningLogCursor target) {
+        while (position >= head) {
+            Chunk[] directory = chunks;
+            Chunk chunk = directory[(int) ((position >>> CHUNK_SHIFT) & (directory.length - 1))];
+            if (chunk == null) {
+                // 所在的块已溢出并在扩容时移出环，重新检查 head
+                continue;
+            }
+            int offset = (int) (position & CHUNK_MASK);
+            long time = chunk.times[offset];
+            byte type = chunk.types[offset];
+            int event = chunk.events[offset];
+            int note = chunk.notes[offset];
+            String[] dictionary = texts;
+            boolean template = LogNoteTemplate.isEncoded(note);
+            boolean valid = event >= NULL_TEXT && event < dictionary.length
+                    && (template || note >= NULL_TEXT && note < dictionary.length);
+            String eventText = valid && event != NULL_TEXT ? dictionary[event] : null;
+            String noteText = valid && !template && note != NULL_TEXT ? dictionary[note] : null;
+            // 以上读取完成后再检查 head：仍在堆中则读到的内容一致，否则已溢出或淘汰，重新定位
+            VarHandle.acquireFence();
+            if (position >= head) {
+                if (!valid) {
+                    return false;
+                }
+                target.set(time, type, eventText, noteText, note);
+                return true;
+            }
+        }
+        LogSegment segment = segmentAt(segments, position);
+        if (segment == null || position < start) {
+            return false;
+        }
+        long time = segment.getTime(position);
+        byte type = segment.getTypeCode(position);
+        String eventText = segment.getEvent(position);
+        int note = segment.getNoteCode(position);
+        String noteText = LogNoteTemplate.isEncoded(note) ? null : segment.getNote(position);
+        // 日志段的内容写入后不再修改，只需确认读取时尚未淘汰
+        VarHandle.acquireFence();
+        if (position < start) {
+            return false;
+        }
+        target.set(time, type, eventText, noteText, note);
+        return true;
+    }
+
+    /**
+     * 不加锁地读取一条日志的时间，用于二分查找
+     * @return 时间，日志已被淘汰时返回 Long.MIN_VALUE（淘汰的日志总是更早）
+     */
+    private long loadTime(long position) {
+        while (position >= head) {
+            Chunk[] directory = chunks;
+            Chunk chunk = directory[(int) ((position >>> CHUNK_SHIFT) & (directory.length - 1))];
+            if (chunk == null) {
+                continue;
+            }
+            long time = chunk.times[(int) (position & CHUNK_MASK)];
+            VarHandle.acquireFence();
+            if (position >= head) {
+                return time;
+            }
+        }
+        LogSegment segment = segmentAt(segments, position);
+        if (segment == null || position < start) {
+            return Long.MIN_VALUE;
+        }
+        long time = segment.getTime(position);
+        VarHandle.acquireFence();
+        return position < start ? Long.MIN_VALUE : time;
+    }
+
+    /**
+     * 等待在此之前提交的追加都已写入，必要时代替写入者写入
+     */
+    private void awaitPending() {
+        long target = pendingTail.get().position + 1;
+        while (tail < target) {
+            if (writing.compareAndSet(false, true)) {
+                drainPending();
+                releaseWriter();
+            } else {
+                Thread.yield();
+            }
+        }
+    }
+
+    /**
+     * 最早保留的一条日志自创建以来的绝对位置，供游标在淘汰后定位
+     */
+    long startPosition() {
+        return start;
+    }
+
+    /**
+     * 下一条日志将写入的绝对位置
+     */
+    long endPosition() {
+        return tail;
+    }
+
+    /**
+     * 让空存储从指定的绝对位置开始编号，下一条日志写入该位置
+     * 从快照或变更日志恢复时使用，使恢复后的位置与原来的存储一致；不能与追加并发调用
+     * @param position 位置
+     */
+    void startAt(long position) {
+        acquireWriter();
+        try {
+            drainPending();
+            if (start != tail) {
+                throw new IllegalStateException("只能为空的日志存储设置起始位置");
+            }
+            start = position;
+            head = position;
+            tail = position;
+            if ((position & CHUNK_MASK) != 0) {
+                // 写入只在块的第一条分配块，从块中间开始时先分配
+                addChunk(position >>> CHUNK_SHIFT);
+            }
+            PendingLog stub = new PendingLog(position - 1, pendingTail.get().time, null, null, null, NULL_TEXT);
+            pendingHead = stub;
+            pendingTail.set(stub);
+        } finally {
+            releaseWriter();
+        }
+    }
+
+    private int textId(String text) {
+        if (text == null) {
+            return NULL_TEXT;
+        }
+        Integer id = textIds.get(text);
+        if (id == null) {
+            if (freeTextCount > 0) {
+                id = freeTextIds[--freeTextCount];
+            } else {
+                id = nextTextId++;
+                if (id == texts.length) {
+                    texts = Arrays.copyOf(texts, id * 2);
+                    textRefs = Arrays.copyOf(textRefs, id * 2);
+                }
+            }
+            texts[id] = text;
+            textIds.put(text, id);
+            distinctTextCount = textIds.size();
+            textBytes += textBytes(text);
+        }
+        textRefs[id]++;
+        return id;
+    }
+
+    private void release(int id) {
+        if (id < 0 || --textRefs[id] > 0) {
+            return;
+        }
+        String text = texts[id];
+        textIds.remove(text);
+        distinctTextCount = textIds.size();
+        textBytes -= textBytes(text);
+        texts[id] = null;
+        if (freeTextCount == freeTextIds.length) {
+            freeTextIds = Arrays.copyOf(freeTextIds, freeTextCount * 2);
+        }
+        freeTextIds[freeTextCount++] = id;
+    }
+
+    /**
+     * 估算一段字典文本的占用：字符串对象、字符数组与字典表项
+     */
+    private static long textBytes(String text) {
+        return 64 + 2L * text.length();
+    }
+
+    private String text(int id) {
+        if (id < 0) {
+            return id == NULL_TEXT ? null : LogNoteTemplate.render(id);
+        }
+        return texts[id];
+    }
+
+    /**
+     * 获取保留的日志条数，包括其他线程已提交但尚在待写队列中的日志
+     * @return 日志条数
+     */
+    public int size() {
+        awaitPending();
+        return (int) (tail - start);
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * 获取因保留策略被淘汰的日志条数
+     * @return 淘汰条数
+     */
+    public long getEvictedCount() {
+        awaitPending();
+        return evictedCount;
+    }
+
+    /**
+     * 估算保留的日志占用的字节数（堆内列与字典，加上日志段文件中已使用的字节），用于按字节淘汰
+     * @return 字节数
+     */
+    public long getByteSize() {
+        LogSegment active = activeSegment;
+        return heapBytes() + sealedSegmentBytes + (active == null ? 0 : active.getUsedBytes());
+    }
+
+    /**
+     * 估算堆中日志占用的字节数，用于判断是否需要溢出
+     * @return 字节数
+     */
+    public long getHeapByteSize() {
+        return heapBytes();
+    }
+
+    private long heapBytes() {
+        return (tail - head) * ENTRY_BYTES + textBytes;
+    }
+
+    /**
+     * 获取已溢出到日志段中的日志条数
+     * @return 条数
+     */
+    public int getSpilledCount() {
+        awaitPending();
+        long end = head;
+        return (int) Math.max(0, end - start);
+    }
+
+    /**
+     * 获取日志段文件数
+     * @return 文件数
+     */
+    public int getSegmentCount() {
+        return segments.length;
+    }
+
+    /**
+     * 获取第 index 条日志的时间
+     * @param index 下标，0为保留的最早一条
+     * @return 时间（毫秒）
+     */
+    public long getTime(int index) {
+        return timeAt(position(index));
+    }
+
+    public RunningLog.Type getType(int index) {
+        return typeAt(position(index));
+    }
+
+    public String getEvent(int index) {
+        return eventAt(position(index));
+    }
+
+    public String getNote(int index) {
+        return noteAt(position(index));
+    }
+
+    /**
+     * 创建第 index 条日志的对象
+     * @param index 下标
+     * @return 运行日志
+     */
+    public RunningLog get(int index) {
+        return new RunningLog(new Date(getTime(index)), getEvent(index), getType(index), getNote(index));
+    }
+
+    /**
+     * 创建所有保留日志的对象列表，读取的是调用时的一致快照
+     * @return 运行日志列表，按追加顺序
+     */
+    public List<RunningLog> toList() {
+        RunningLogCursor cursor = cursor();
+        List<RunningLog> logs = new ArrayList<>(cursor.remaining());
+        while (cursor.next()) {
+            logs.add(cursor.toRunningLog());
+        }
+        return logs;
+    }
+
+    /**
+     * 打开从最早一条向后遍历的游标
+     * @return 游标
+     */
+    public RunningLogCursor cursor() {
+        awaitPending();
+        // 先读 tail 再读 start，范围内不会出现超过保留上限的日志
+        long end = tail;
+        return new RunningLogCursor(this, false, start, end);
+    }
+
+    /**
+     * 打开接在一个正向游标之后的游标，只遍历该游标打开之后追加的日志
+     * @param previous 之前打开的正向游标
+     * @return 游标
+     */
+    RunningLogCursor cursorAfter(RunningLogCursor previous) {
+        awaitPending();
+        long end = tail;
+        return new RunningLogCursor(this, false, previous.endPosition(), end);
+    }
+
+    /**
+     * 打开从最新一条向前遍历的游标
+     * @return 游标
+     */
+    public RunningLogCursor reverseCursor() {
+        awaitPending();
+        long end = tail;
+        return new RunningLogCursor(this, true, start, end);
+    }
+
+    /**
+     * 打开只遍历时间范围内日志的游标，范围用二分查找确定，O(log n)
+     * @param fromTime 起始时间（毫秒，含）
+     * @param toTime 结束时间（毫秒，不含）
+     * @return 游标
+     */
+    public RunningLogCursor cursor(long fromTime, long toTime) {
+        awaitPending();
+        long end = tail;
+        long start = lowerBound(fromTime, end);
+        return new RunningLogCursor(this, false, start, Math.max(start, lowerBound(toTime, end)));
+    }
+
+    /**
+     * 打开从时间范围内最新一条向前遍历的游标
+     * @param fromTime 起始时间（毫秒，含）
+     * @param toTime 结束时间（毫秒，不含）
+     * @return 游标
+     */
+    public RunningLogCursor reverseCursor(long fromTime, long toTime) {
+        awaitPending();
+        long end = tail;
+        long start = lowerBound(fromTime, end);
+        return new RunningLogCursor(this, true, start, Math.max(start, lowerBound(toTime, end)));
+    }
+
+    /**
+     * 统计时间范围内的日志条数，O(log n)
+     * @param fromTime 起始时间（毫秒，含）
+     * @param toTime 结束时间（毫秒，不含）
+     * @return 日志条数
+     */
+    public int count(long fromTime, long toTime) {
+        awaitPending();
+        long end = tail;
+        return (int) Math.max(0, lowerBound(toTime, end) - lowerBound(fromTime, end));
+    }
+
+    /**
+     * 二分查找第一条时间不早于 time 的日志位置
+     * 写入时保证时间列非递减（快照与变更日志恢复时也保持原顺序）
+     * @param time 时间（毫秒）
+     * @param end 查找范围的结束位置（不含）
+     * @return 绝对位置，所有日志都早于 time 时返回 end
+     */
+    private long lowerBound(long time, long end) {
+        long low = start;
+        long high = end;
+        while (low < high) {
+            long mid = (low + high) >>> 1;
+            if (loadTime(mid) < time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * 获取按小时与天的日志计数，查询不读取日志本身
+     * @return 滚动统计
+     */
+    public LogRollup getRollup() {
+        return rollup;
+    }
+
+    /**
+     * 获取字典中不同文本的数量
+     * @return 文本数量
+     */
+    public int getDistinctTextCount() {
+        awaitPending();
+        return distinctTextCount;
+    }
+
+    private long position(int index) {
+        if (index < 0 || index >= tail - start) {
+            throw new IndexOutOfBoundsException("日志下标越界: " + index + ", 条数: " + (tail - start));
+        }
+        return start + index;
+    }
+}
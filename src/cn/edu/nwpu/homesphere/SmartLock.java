@@ -34,6 +34,7 @@ public class SmartLock extends Device {
      */
     public void setLocked(boolean locked) {
         this.isLocked = locked;
+        fireStateChanged();
     }
     
     /**
@@ -41,6 +42,7 @@ public class SmartLock extends Device {
      */
     public void lock() {
         this.isLocked = true;
+        fireStateChanged();
     }
     
     /**
@@ -48,6 +50,7 @@ public class SmartLock extends Device {
      */
     public void unlock() {
         this.isLocked = false;
+        fireStateChanged();
     }
 
     /**
@@ -64,6 +67,29 @@ public class SmartLock extends Device {
      */
     public void setBatteryLevel(int batteryLevel) {
         this.batteryLevel = batteryLevel;
+        fireStateChanged();
+    }
+
+    @Override
+    void writeState(java.io.DataOutput out) throws java.io.IOException {
+        super.writeState(out);
+        out.writeBoolean(isLocked);
+        out.writeInt(batteryLevel);
+    }
+
+    @Override
+    void readState(java.io.DataInput in) throws java.io.IOException {
+        super.readState(in);
+        this.isLocked = in.readBoolean();
+        this.batteryLevel = in.readInt();
+    }
+
+    @Override
+    void applySettings(Device source) {
+        SmartLock other = (SmartLock) source;
+        this.isLocked = other.isLocked;
+        this.batteryLevel = other.batteryLevel;
+        fireStateChanged();
     }
 
     /**
@@ -114,5 +140,6 @@ public class SmartLock extends Device {
         setOnline(json.getBooleanValue("online"));
         this.isLocked = json.getBooleanValue("isLocked");
         this.batteryLevel = json.getIntValue("batteryLevel");
+        fireStateChanged();
     }
 }
\ No newline at end of file
@@ -0,0 +1,102 @@
+package cn.edu.nwpu.homesphere;
+
+/**
+ * 系统状态变更监听器，每次变更在内存中生效之后回调
+ * 通过 HomeSphereSystem 注册后会自动传递给家庭、房间和设备，主要用于变更日志（见 ChangeJournal）
+ */
+public interface StateChangeListener {
+    /**
+     * 设备状态变化（未产生运行日志的变化，例如设置目标温度、上锁）
+     * @param device 设备对象
+     */
+    void deviceStateChanged(Device device);
+
+    /**
+     * 设备改名
+     * @param device 设备对象，名称已更新
+     */
+    void deviceRenamed(Device device);
+
+    /**
+     * 设备新增了一条运行日志，此时设备状态已经更新
+     * 可能由多个线程同时调用，调用顺序不一定与日志的位置顺序一致
+     * @param device 设备对象
+     * @param position 日志在设备日志存储中的绝对位置
+     * @param log 运行日志
+     */
+    void runningLogAdded(Device device, long position, RunningLog log);
+
+    /**
+     * 系统的家庭被替换或家庭的管理员发生变化
+     * @param household 家庭对象
+     */
+    void householdChanged(Household household);
+
+    /**
+     * 家庭新增房间
+     * @param room 房间对象
+     */
+    void roomAdded(Room room);
+
+    /**
+     * 家庭移除房间
+     * @param roomId 房间ID
+     */
+    void roomRemoved(int roomId);
+
+    /**
+     * 房间新增设备
+     * @param room 房间对象
+     * @param device 设备对象
+     */
+    void roomDeviceAdded(Room room, Device device);
+
+    /**
+     * 房间移除设备
+     * @param room 房间对象
+     * @param deviceId 设备ID
+     */
+    void roomDeviceRemoved(Room room, int deviceId);
+
+    /**
+     * 家庭新增用户
+     * @param user 用户对象
+     */
+    void userAdded(User user);
+
+    /**
+     * 家庭移除用户
+     * @param userId 用户ID
+     */
+    void userRemoved(int userId);
+
+    /**
+     * 家庭新增自动化场景
+     * @param scene 场景对象
+     */
+    void sceneAdded(AutomationScene scene);
+
+    /**
+     * 家庭移除自动化场景
+     * @param sceneId 场景ID
+     */
+    void sceneRemoved(int sceneId);
+
+    /**
+     * 系统新增用户
+     * @param user 用户对象
+     */
+    void systemUserAdded(User user);
+
+    /**
+     * 系统新增设备
+     * @param device 设备对象
+     */
+    void systemDeviceAdded(Device device);
+
+    /**
+     * 系统新增自动化场景
+     * @param scene 场景对象
+     */
+    void systemSceneAdded(AutomationScene scene);
+}
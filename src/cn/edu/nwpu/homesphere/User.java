@@ -86,6 +86,7 @@ public class User {
     
     /**
      * 设置管理员权限
+     * 不通知 StateChangeListener，变更日志不会单独记录这一修改（见 ChangeJournal）
      * @param admin 是否为管理员
      */
     public void setAdmin(boolean admin) {
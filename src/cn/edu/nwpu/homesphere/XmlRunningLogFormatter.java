@@ -1,6 +1,6 @@
 package cn.edu.nwpu.homesphere;
 
-import java.text.SimpleDateFormat;
+import java.io.IOException;
 import java.util.List;
 
 public class XmlRunningLogFormatter implements RunningLogFormatter {
@@ -11,47 +11,66 @@ public class XmlRunningLogFormatter implements RunningLogFormatter {
     }
 
     @Override
-    public String format(Household household) {
-        StringBuilder xml = new StringBuilder();
+    public void format(Household household, Appendable out) throws IOException {
+        // 时间戳由共享的渲染器按秒缓存，日志通过游标读取，不复制日志列表
+        LogTimestampRenderer timestamps = LogTimestampRenderer.getDefault();
+        // 各设备的日志作为片段，日志较多时并行格式化，按原有顺序写出
+        OrderedExportWriter xml = OrderedExportWriter.open(household, out);
+        try {
+            xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+            xml.append("<household householdId=\"").append(String.valueOf(household.getHouseholdId()))
+                    .append("\" address=\"").append(escapeXml(household.getAddress())).append("\">\n");
+            xml.append("  <rooms>\n");
 
-        xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
-        xml.append("<household householdId=\"").append(household.getHouseholdId())
-                .append("\" address=\"").append(escapeXml(household.getAddress())).append("\">\n");
-        xml.append("  <rooms>\n");
+            List<Room> rooms = household.getRooms();
+            for (Room room : rooms) {
+                xml.append("    <room roomId=\"").append(String.valueOf(room.getRoomId()))
+                        .append("\" roomName=\"").append(escapeXml(room.getName())).append("\">\n");
+                xml.append("      <devices>\n");
 
-        List<Room> rooms = household.getRooms();
-        for (Room room : rooms) {
-            xml.append("    <room roomId=\"").append(room.getRoomId())
-                    .append("\" roomName=\"").append(escapeXml(room.getName())).append("\">\n");
-            xml.append("      <devices>\n");
+                List<Device> devices = room.getDevices();
+                for (Device device : devices) {
+                    xml.append("        <device deviceId=\"").append(String.valueOf(device.getDeviceId()))
+                            .append("\" deviceName=\"").append(escapeXml(device.getName())).append("\">\n");
+                    xml.append("          <runningLogs>\n");
 
-            List<Device> devices = room.getDevices();
-            for (Device device : devices) {
-                xml.append("        <device deviceId=\"").append(device.getDeviceId())
-                        .append("\" deviceName=\"").append(escapeXml(device.getName())).append("\">\n");
-                xml.append("          <runningLogs>\n");
+                    xml.fragment(target -> appendLogs(device, target, timestamps));
 
-                List<RunningLog> runningLogs = device.getRunningLogs();
-                SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-                for (RunningLog log : runningLogs) {
-                    xml.append("            <runningLog dateTime=\"").append(sdf.format(log.getDateTime()))
-                            .append("\" event=\"").append(escapeXml(log.getEvent()))
-                            .append("\" type=\"").append(log.getType().name())
-                            .append("\" note=\"").append(escapeXml(log.getNote())).append("\" />\n");
+                    xml.append("          </runningLogs>\n");
+                    xml.append("        </device>\n");
                 }
 
-                xml.append("          </runningLogs>\n");
-                xml.append("        </device>\n");
+                xml.append("      </devices>\n");
+                xml.append("    </room>\n");
             }
 
-            xml.append("      </devices>\n");
-            xml.append("    </room>\n");
+            xml.append("  </rooms>\n");
+            xml.append("</household>");
+            xml.finish();
+        } finally {
+            xml.close();
         }
+    }
 
-        xml.append("  </rooms>\n");
-        xml.append("</household>");
-
-        return xml.toString();
+    /**
+     * 写入一台设备的运行日志元素
+     */
+    private void appendLogs(Device device, Appendable target, LogTimestampRenderer timestamps) throws IOException {
+        // 每条日志先拼接到复用的缓冲区，再一次写入输出目标
+        StringBuilder entry = new StringBuilder(256);
+        RunningLogCursor log = device.openLogCursor();
+        while (log.next()) {
+            entry.setLength(0);
+            entry.append("            <runningLog dateTime=\"").append(timestamps.render(log.getTime()))
+                    .append("\" event=\"").append(escapeXml(log.getEvent()))
+                    .append("\" type=\"").append(log.getType().name())
+                    .append("\" note=\"");
+            if (!log.appendTemplateNote(entry)) {
+                entry.append(escapeXml(log.getNote()));
+            }
+            entry.append("\" />\n");
+            target.append(entry);
+        }
     }
 
     private String escapeXml(String str) {
@@ -369,4 +369,1188 @@ public class HomeSphereSystemTest {
         assertNull(system.getCurrentUser());
     }
 
+    @Test
+    public void testRecordTokenizer() {
+        RecordTokenizer record = new RecordTokenizer();
+        assertTrue(record.reset("LightBulb{deviceId=2876, name='客厅, 吸顶灯', brightness=-5, area=16.2, isLocked=TRUE}"));
+        assertTrue(record.typeIs("LightBulb"));
+        assertEquals(2876, record.getInt("deviceId"));
+        assertEquals("客厅, 吸顶灯", record.getString("name"));
+        assertEquals(-5, record.getInt("brightness"));
+        assertEquals(Double.parseDouble("16.2"), record.getDouble("area"), 0.0);
+        assertTrue(record.getBoolean("isLocked"));
+        assertEquals("", record.getString("missing"));
+
+        assertFalse(record.reset("Room{roomId=1"));
+    }
+
+    @Test
+    public void testLoadFromFile() throws Exception {
+        java.nio.file.Path file = writeHouseholdFile();
+        try {
+            HomeSphereSystem loaded = new HomeSphereSystem();
+            new HouseholdDataLoader(loaded).loadFromFile(file.toString());
+
+            Household h = loaded.getHousehold();
+            assertEquals(7, h.getHouseholdId());
+            assertEquals(2, h.getRooms().size());
+            assertEquals(2, h.getRooms().get(0).getDevices().size());
+            AirConditioner loadedAc = (AirConditioner) h.getRooms().get(0).getDevices().get(0);
+            assertEquals(24.5, loadedAc.getTargetTemp(), 0.0);
+            assertEquals(60, ((LightBulb) h.getRooms().get(1).getDevices().get(0)).getBrightness());
+        } finally {
+            java.nio.file.Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void testLoadSceneActions() throws Exception {
+        java.nio.file.Path file = writeHouseholdFile();
+        try {
+            HomeSphereSystem loaded = new HomeSphereSystem();
+            new HouseholdDataLoader(loaded).loadFromFile(file.toString());
+
+            AutomationScene scene = loaded.getHousehold().getAutoScenes().get(0);
+            List<DeviceAction> actions = scene.getActions();
+            assertEquals(2, actions.size());
+            assertEquals("power_on", actions.get(0).getCommand());
+            assertEquals("set_temperature", actions.get(1).getCommand());
+            LightBulb bulb = (LightBulb) loaded.getHousehold().getRooms().get(1).getDevices().get(0);
+            AirConditioner airConditioner = (AirConditioner) loaded.getHousehold().getRooms().get(0).getDevices().get(0);
+            assertSame(bulb, actions.get(0).getDevice());
+            assertSame(airConditioner, actions.get(1).getDevice());
+
+            scene.manualTrig();
+            assertTrue(bulb.getPowerStatus());
+            assertEquals(26.0, airConditioner.getTargetTemp(), 0.01);
+        } finally {
+            java.nio.file.Files.deleteIfExists(file);
+        }
+
+        List<HouseholdDataLoader.SceneActionSpec> specs = HouseholdDataLoader.parseActions(
+                "[DeviceAction{command='setLocked', parameters='false', deviceId=2278}, DeviceAction{command='setBrightness', parameters='20', deviceId=2876}]");
+        assertEquals(2, specs.size());
+        assertEquals("unlock", specs.get(0).command);
+        assertEquals(2278, specs.get(0).deviceId);
+        assertEquals("set_brightness", specs.get(1).command);
+        assertEquals("20", specs.get(1).parameters);
+        assertTrue(HouseholdDataLoader.parseActions("").isEmpty());
+    }
+
+    @Test
+    public void testLoadReportQuietMode() throws Exception {
+        java.nio.file.Path file = writeHouseholdFile();
+        java.io.PrintStream originalOut = System.out;
+        java.io.PrintStream originalErr = System.err;
+        java.io.ByteArrayOutputStream console = new java.io.ByteArrayOutputStream();
+        try {
+            java.nio.file.Files.write(file, java.util.Arrays.asList(
+                    "Room{roomId=3, name='坏记录'",
+                    "LightBulb{deviceId=9999, name='孤儿灯', manufacturerId=1, brightness=10, colorTemp=3000, roomId=42}"),
+                    java.nio.charset.StandardCharsets.UTF_8, java.nio.file.StandardOpenOption.APPEND);
+
+            HouseholdDataLoader loader = new HouseholdDataLoader(new HomeSphereSystem());
+            loader.setQuiet(true);
+            System.setOut(new java.io.PrintStream(console));
+            System.setErr(new java.io.PrintStream(console));
+            LoadReport report = loader.loadFromFile(file.toString());
+            System.setOut(originalOut);
+            System.setErr(originalErr);
+
+            assertEquals(0, console.size());
+            assertSame(report, loader.getLastReport());
+            assertTrue(report.isHouseholdLoaded());
+            assertEquals(10, report.getRecordCount());
+            assertEquals(2, report.getFailedCount());
+            assertEquals(2, report.getRoomCount());
+            assertEquals(3, report.getDeviceCount());
+            assertEquals(1, report.getCount(HouseholdDataLoader.RecordKind.USER));
+            assertEquals(1, report.getSceneCount());
+            assertEquals(2, report.getActionCount());
+            assertEquals(9, report.getErrors().get(0).getLineNumber());
+            assertEquals(10, report.getErrors().get(1).getLineNumber());
+            assertTrue(report.getErrors().get(1).getReason().contains("42"));
+            assertTrue(report.getRecordsPerSecond() > 0);
+        } finally {
+            System.setOut(originalOut);
+            System.setErr(originalErr);
+            java.nio.file.Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void testParallelLoadMatchesSequential() throws Exception {
+        java.nio.file.Path file = writeHouseholdFile();
+        try {
+            HomeSphereSystem sequential = new HomeSphereSystem();
+            new HouseholdDataLoader(sequential).loadFromFile(file.toString());
+            HomeSphereSystem parallel = new HomeSphereSystem();
+            new HouseholdDataLoader(parallel).loadFromFileParallel(file.toString(),
+                    new java.util.concurrent.ForkJoinPool(4));
+
+            assertSameLoadedState(sequential, parallel);
+        } finally {
+            java.nio.file.Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void testMappedLoadMatchesSequential() throws Exception {
+        java.nio.file.Path file = writeHouseholdFile();
+        try {
+            HomeSphereSystem sequential = new HomeSphereSystem();
+            new HouseholdDataLoader(sequential).loadFromFile(file.toString());
+            HomeSphereSystem mapped = new HomeSphereSystem();
+            new HouseholdDataLoader(mapped).loadFromMappedFile(file.toString());
+
+            assertSameLoadedState(sequential, mapped);
+        } finally {
+            java.nio.file.Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void testSnapshotRoundTrip() throws Exception {
+        java.nio.file.Path file = writeHouseholdFile();
+        java.nio.file.Path snapshot = java.nio.file.Files.createTempFile("household", ".hss");
+        try {
+            HomeSphereSystem original = new HomeSphereSystem();
+            new HouseholdDataLoader(original).loadFromFile(file.toString());
+            LightBulb bulb = (LightBulb) original.getHousehold().getRooms().get(1).getDevices().get(0);
+            bulb.powerOn();
+            bulb.setBrightness(80);
+
+            HomeSphereSnapshot.save(original, snapshot);
+            HomeSphereSystem restored = HomeSphereSnapshot.load(snapshot);
+
+            assertSameLoadedState(original, restored);
+            LightBulb restoredBulb = (LightBulb) restored.getHousehold().getRooms().get(1).getDevices().get(0);
+            assertTrue(restoredBulb.getPowerStatus());
+            assertEquals(80, restoredBulb.getBrightness());
+            assertEquals(bulb.getRunningLogs().size(), restoredBulb.getRunningLogs().size());
+            assertEquals(bulb.getRunningLogs().get(1).toString(), restoredBulb.getRunningLogs().get(1).toString());
+            assertSame(restoredBulb, restored.getHousehold().getAutoScenes().get(0).getActions().get(0).getDevice());
+
+            HomeSphereSnapshot.save(original, snapshot, false);
+            assertTrue(HomeSphereSnapshot.load(snapshot).getHousehold().getRooms().get(1).getDevices().get(0).getRunningLogs().isEmpty());
+        } finally {
+            java.nio.file.Files.deleteIfExists(file);
+            java.nio.file.Files.deleteIfExists(snapshot);
+        }
+    }
+
+    @Test
+    public void testChangeJournalRecovery() throws Exception {
+        java.nio.file.Path dir = java.nio.file.Files.createTempDirectory("journal");
+        try {
+            ChangeJournal journal = ChangeJournal.open(dir);
+            HomeSphereSystem journaled = journal.getSystem();
+            journaled.register("admin", "admin", "管理员", "admin@nwpu.edu.cn");
+            Room room = new Room(1, "客厅", 25.5);
+            journaled.getHousehold().addRoom(room);
+            LightBulb bulb = new LightBulb(8561, "客厅灯", lightManufacturer, 5.0);
+            room.addDevice(bulb);
+            bulb.powerOn();
+            bulb.setBrightness(70);
+            SmartLock frontLock = new SmartLock(2278, "门锁", lightManufacturer);
+            room.addDevice(frontLock);
+            frontLock.unlock();
+            journal.close();
+            assertTrue(journal.getBatchCount() <= journal.getAppendedSequence());
+
+            ChangeJournal reopened = ChangeJournal.open(dir);
+            HomeSphereSystem recovered = reopened.getSystem();
+            assertSameLoadedState(journaled, recovered);
+            LightBulb recoveredBulb = (LightBulb) recovered.getHousehold().getRooms().get(0).getDevices().get(0);
+            assertEquals(70, recoveredBulb.getBrightness());
+            assertEquals(bulb.getRunningLogs().size(), recoveredBulb.getRunningLogs().size());
+            // 按模板保存的备注恢复后仍按编码保存，不进入文本表
+            assertEquals(bulb.getLogStore().getDistinctTextCount(), recoveredBulb.getLogStore().getDistinctTextCount());
+            assertFalse(((SmartLock) recovered.getHousehold().getRooms().get(0).getDevices().get(1)).isLocked());
+
+            // 压缩后继续修改，恢复结果应包含压缩前后的全部变更
+            reopened.compact();
+            recoveredBulb.setBrightness(30);
+            reopened.close();
+            assertFalse(java.nio.file.Files.exists(dir.resolve("journal-0.log")));
+
+            ChangeJournal compacted = ChangeJournal.open(dir);
+            assertEquals(1, compacted.getGeneration());
+            assertSameLoadedState(recovered, compacted.getSystem());
+            LightBulb compactedBulb = (LightBulb) compacted.getSystem().getHousehold().getRooms().get(0).getDevices().get(0);
+            assertEquals(30, compactedBulb.getBrightness());
+            assertEquals(recoveredBulb.getLogStore().getDistinctTextCount(), compactedBulb.getLogStore().getDistinctTextCount());
+            compacted.close();
+        } finally {
+            try (java.util.stream.Stream<java.nio.file.Path> files = java.nio.file.Files.list(dir)) {
+                for (java.nio.file.Path file : (Iterable<java.nio.file.Path>) files::iterator) {
+                    java.nio.file.Files.delete(file);
+                }
+            }
+            java.nio.file.Files.delete(dir);
+        }
+    }
+
+    @Test
+    public void testHouseholdRegistryLoadsDirectory() throws Exception {
+        java.nio.file.Path dir = java.nio.file.Files.createTempDirectory("households");
+        java.nio.file.Path source = writeHouseholdFile();
+        try {
+            String content = new String(java.nio.file.Files.readAllBytes(source), java.nio.charset.StandardCharsets.UTF_8);
+            java.nio.file.Files.write(dir.resolve("home7.dat"), content.getBytes(java.nio.charset.StandardCharsets.UTF_8));
+            java.nio.file.Files.write(dir.resolve("home8.dat"),
+                    content.replace("householdId=7", "householdId=8").getBytes(java.nio.charset.StandardCharsets.UTF_8));
+            java.nio.file.Files.write(dir.resolve("broken.dat"), "Room{roomId=1, name='无家庭', area=10.0}".getBytes(java.nio.charset.StandardCharsets.UTF_8));
+            java.nio.file.Files.write(dir.resolve("duplicate.dat"), content.getBytes(java.nio.charset.StandardCharsets.UTF_8));
+
+            HouseholdRegistry registry = new HouseholdRegistry(2);
+            HouseholdRegistry.LoadSummary summary = registry.loadDirectory(dir);
+
+            assertEquals(4, summary.getFileCount());
+            assertEquals(2, summary.getLoadedCount());
+            assertEquals(2, summary.getFailures().size());
+            assertTrue(summary.getFailures().containsKey(dir.resolve("broken.dat")));
+            assertEquals(java.util.Arrays.asList(7, 8), registry.getHouseholdIds());
+            assertEquals(8, registry.getHousehold(8).getHouseholdId());
+            assertNotSame(registry.getHousehold(7).getRooms().get(0), registry.getHousehold(8).getRooms().get(0));
+            assertNull(registry.getHousehold(9));
+            assertTrue(summary.getRecordsPerSecond() > 0);
+        } finally {
+            java.nio.file.Files.deleteIfExists(source);
+            try (java.util.stream.Stream<java.nio.file.Path> files = java.nio.file.Files.list(dir)) {
+                for (java.nio.file.Path file : (Iterable<java.nio.file.Path>) files::iterator) {
+                    java.nio.file.Files.delete(file);
+                }
+            }
+            java.nio.file.Files.delete(dir);
+        }
+    }
+
+    @Test
+    public void testLazyLoadMaterializesOnAccess() throws Exception {
+        java.nio.file.Path file = writeHouseholdFile();
+        try {
+            java.nio.file.Files.write(file, java.util.Arrays.asList(
+                    "Room{roomId=3, name='书房', area=12.0}",
+                    "LightBulb{deviceId=9001, name='台灯', manufacturerId=2, brightness=40, colorTemp=4000, roomId=3}"),
+                    java.nio.charset.StandardCharsets.UTF_8, java.nio.file.StandardOpenOption.APPEND);
+
+            HomeSphereSystem eager = new HomeSphereSystem();
+            HouseholdDataLoader eagerLoader = new HouseholdDataLoader(eager);
+            eagerLoader.setQuiet(true);
+            eagerLoader.loadFromFile(file.toString());
+
+            HomeSphereSystem lazy = new HomeSphereSystem();
+            HouseholdDataLoader loader = new HouseholdDataLoader(lazy);
+            loader.setQuiet(true);
+            LoadReport report = loader.loadLazily(file.toString());
+            assertEquals(3, report.getRoomCount());
+            assertEquals(4, report.getDeviceCount());
+            assertFalse(lazy.getHousehold().isMaterialized());
+
+            // 场景引用的设备所在房间已物化，其余房间的设备在访问时才创建
+            List<Room> rooms = lazy.getHousehold().getRooms();
+            assertTrue(rooms.get(0).isMaterialized());
+            assertFalse(rooms.get(2).isMaterialized());
+            assertTrue(rooms.get(2).toString().contains("deviceCount=1"));
+            AutomationScene scene = lazy.getHousehold().getAutoScenes().get(0);
+            assertSame(rooms.get(1).getDevices().get(0), scene.getActions().get(0).getDevice());
+
+            // 数据文件被修改时物化失败，之后的访问仍然失败，而不是把房间当作没有设备
+            java.nio.file.attribute.FileTime modified = java.nio.file.Files.getLastModifiedTime(file);
+            java.nio.file.Files.setLastModifiedTime(file, java.nio.file.attribute.FileTime.fromMillis(modified.toMillis() + 5000));
+            for (int attempt = 0; attempt < 2; attempt++) {
+                try {
+                    rooms.get(2).getDevices();
+                    fail("数据文件被修改后应无法物化设备");
+                } catch (IllegalStateException expected) {
+                    assertFalse(rooms.get(2).isMaterialized());
+                }
+            }
+            java.nio.file.Files.setLastModifiedTime(file, modified);
+
+            assertEquals("台灯", rooms.get(2).getDevices().get(0).getName());
+            assertTrue(rooms.get(2).isMaterialized());
+            assertEquals(4, lazy.getAllDevices().size());
+            assertSameLoadedState(eager, lazy);
+        } finally {
+            java.nio.file.Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void testHouseholdFileWatcherAppliesDiff() throws Exception {
+        java.nio.file.Path file = writeHouseholdFile();
+        try {
+            HomeSphereSystem live = new HomeSphereSystem();
+            HouseholdDataLoader loader = new HouseholdDataLoader(live);
+            loader.setQuiet(true);
+            loader.loadFromFile(file.toString());
+            HouseholdFileWatcher watcher = new HouseholdFileWatcher(live, file);
+
+            Room livingRoom = live.getHousehold().getRooms().get(0);
+            AirConditioner airConditioner = (AirConditioner) livingRoom.getDevices().get(0);
+            airConditioner.powerOn();
+            int logCount = airConditioner.getRunningLogs().size();
+
+            List<String> lines = new java.util.ArrayList<>(java.nio.file.Files.readAllLines(file, java.nio.charset.StandardCharsets.UTF_8));
+            lines.set(2, "Room{roomId=2, name='主卧', area=20.0}");
+            lines.set(4, "AirConditioner{deviceId=1205, name='客厅空调', manufacturerId=1, currTemp=26.0, targetTemp=22.0, roomId=2}");
+            lines.remove(6);
+            lines.add("LightBulb{deviceId=9001, name='台灯', manufacturerId=2, brightness=40, colorTemp=4000, roomId=1}");
+            java.nio.file.Files.write(file, lines, java.nio.charset.StandardCharsets.UTF_8);
+
+            HouseholdFileWatcher.ReloadResult result = watcher.reload();
+            assertEquals(6, result.getChangedLines());
+            assertEquals(1, result.getModified(HouseholdDataLoader.RecordKind.ROOM));
+            assertEquals(1, result.getModified(HouseholdDataLoader.RecordKind.DEVICE));
+            assertEquals(1, result.getAdded(HouseholdDataLoader.RecordKind.DEVICE));
+            assertEquals(1, result.getRemoved(HouseholdDataLoader.RecordKind.DEVICE));
+            assertTrue(result.getMessages().isEmpty());
+
+            // 空调原地更新并移到主卧，电源状态与运行日志保留
+            Room bedroom = live.getHousehold().getRooms().get(1);
+            assertEquals(20.0, bedroom.getArea(), 0.001);
+            assertTrue(bedroom.getDevices().contains(airConditioner));
+            assertEquals(22.0, airConditioner.getTargetTemp(), 0.001);
+            assertTrue(airConditioner.isPowerStatus());
+            assertEquals(logCount, airConditioner.getRunningLogs().size());
+            assertSame(airConditioner, live.getHousehold().getAutoScenes().get(0).getActions().get(1).getDevice());
+
+            assertEquals(1, livingRoom.getDevices().size());
+            assertEquals("台灯", livingRoom.getDevices().get(0).getName());
+            assertEquals(3, live.getAllDevices().size());
+            assertEquals(3, live.getHousehold().listAllDevices().size());
+
+            assertFalse(watcher.reload().hasChanges());
+        } finally {
+            java.nio.file.Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void testRunningLogStoreColumns() {
+        RunningLogStore store = new RunningLogStore();
+        int count = RunningLogStore.CHUNK_SIZE * 2 + 5;
+        for (int i = 0; i < count; i++) {
+            store.append(1000L + i, i % 2 == 0 ? RunningLog.Type.INFO : RunningLog.Type.ERROR, "设置亮度", "亮度设置为" + (i % 3) + "%");
+        }
+        store.append(5000L, RunningLog.Type.WARN, "电池电量低", null);
+
+        assertEquals(count + 1, store.size());
+        assertEquals(5, store.getDistinctTextCount());
+        assertEquals(1000L + RunningLogStore.CHUNK_SIZE, store.getTime(RunningLogStore.CHUNK_SIZE));
+        assertEquals(RunningLog.Type.ERROR, store.getType(count - 2));
+        RunningLog log = store.get(count);
+        assertEquals(5000L, log.getDateTime().getTime());
+        assertEquals("电池电量低", log.getEvent());
+        assertNull(log.getNote());
+        assertEquals(count + 1, store.toList().size());
+
+        LightBulb bulb = new LightBulb(9, "台灯", lightManufacturer);
+        bulb.powerOn();
+        bulb.setBrightness(40);
+        assertEquals(2, bulb.getRunningLogCount());
+        assertEquals("亮度设置为40%", bulb.getRunningLogs().get(1).getNote());
+    }
+
+    @Test
+    public void testLogRetentionEvictsOldestEntries() {
+        RunningLogStore store = new RunningLogStore();
+        store.setRetention(LogRetentionPolicy.ofCount(1500));
+        for (int i = 0; i < 5000; i++) {
+            store.append(i, RunningLog.Type.INFO, "事件" + (i % 3), "备注" + i);
+        }
+        assertEquals(1500, store.size());
+        assertEquals(3500, store.getEvictedCount());
+        assertEquals(3500, store.getTime(0));
+        assertEquals("备注4999", store.getNote(1499));
+        // 被淘汰日志的备注已从字典释放
+        assertEquals(3 + 1500, store.getDistinctTextCount());
+
+        RunningLogStore aged = new RunningLogStore();
+        aged.setRetention(new LogRetentionPolicy(0, 1000, 0));
+        for (int i = 0; i < 10; i++) {
+            aged.append(i * 500L, RunningLog.Type.INFO, "事件", null);
+        }
+        assertEquals(3, aged.size());
+        assertEquals(3500, aged.getTime(0));
+
+        RunningLogStore bounded = new RunningLogStore();
+        bounded.setRetention(new LogRetentionPolicy(0, 0, 4096));
+        for (int i = 0; i < 10000; i++) {
+            bounded.append(i, RunningLog.Type.WARN, "事件" + i, "备注");
+        }
+        assertTrue(bounded.getByteSize() <= 4096);
+        assertEquals(10000, bounded.size() + bounded.getEvictedCount());
+
+        household.setLogRetention(LogRetentionPolicy.ofCount(100));
+        household.setLogRetention(Device.TYPE_LIGHT_BULB, LogRetentionPolicy.ofCount(2));
+        for (int i = 0; i < 10; i++) {
+            light.setBrightness(10 + i);
+        }
+        assertEquals(2, light.getRunningLogs().size());
+        assertTrue(light.getEvictedLogCount() > 0);
+        assertEquals(100, ac.getLogRetention().getMaxCount());
+        LightBulb added = new LightBulb(9, "台灯", lightManufacturer);
+        livingRoom.addDevice(added);
+        assertEquals(2, added.getLogRetention().getMaxCount());
+        assertTrue(new JsonRunningLogFormatter().format(household).contains("亮度设置为19%"));
+        assertFalse(new JsonRunningLogFormatter().format(household).contains("亮度设置为10%"));
+    }
+
+    @Test
+    public void testAppendReturnsStoredTimeUnderContention() throws InterruptedException {
+        RunningLogStore store = new RunningLogStore();
+        assertEquals(1000L, store.appendCoded(1000L, RunningLog.Type.INFO, "事件", "备注", LogNoteTemplate.NOT_ENCODED).getTime());
+        // 早于上一条的时间按上一条保存
+        RunningLogStore.PendingLog clamped = store.appendCoded(500L, RunningLog.Type.INFO, "事件", "备注",
+                LogNoteTemplate.NOT_ENCODED);
+        assertEquals(1000L, clamped.getTime());
+        assertEquals(1L, clamped.getPosition());
+
+        int threads = 4;
+        int perThread = 5000;
+        RunningLogStore.PendingLog[][] returned = new RunningLogStore.PendingLog[threads][perThread];
+        Thread[] producers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            int id = t;
+            producers[t] = new Thread(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    // 各线程的时间交错倒退
+                    long time = 2000L + i * 10L - id * 25L;
+                    returned[id][i] = store.appendCoded(time, RunningLog.Type.INFO, "事件" + id, null,
+                            LogNoteTemplate.NOT_ENCODED);
+                }
+            });
+            producers[t].start();
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+
+        assertEquals(2 + threads * perThread, store.size());
+        for (int i = 1; i < store.size(); i++) {
+            assertTrue(store.getTime(i) >= store.getTime(i - 1));
+        }
+        // 追加时返回的位置与时间就是日志最终保存的位置与时间
+        for (int t = 0; t < threads; t++) {
+            for (RunningLogStore.PendingLog log : returned[t]) {
+                int index = (int) log.getPosition();
+                assertEquals(log.getTime(), store.getTime(index));
+                assertEquals("事件" + t, store.getEvent(index));
+            }
+        }
+    }
+
+    @Test
+    public void testRunningLogCursorIteration() {
+        RunningLogStore store = new RunningLogStore();
+        for (int i = 0; i < 3000; i++) {
+            store.append(i * 10L, RunningLog.Type.INFO, "事件", "备注" + i);
+        }
+        RunningLogCursor forward = store.cursor();
+        int count = 0;
+        while (forward.next()) {
+            assertEquals(count * 10L, forward.getTime());
+            count++;
+        }
+        assertEquals(3000, count);
+
+        RunningLogCursor reverse = store.reverseCursor();
+        assertTrue(reverse.next());
+        assertEquals("备注2999", reverse.getNote());
+        assertTrue(reverse.next());
+        assertEquals(29980L, reverse.toRunningLog().getDateTime().getTime());
+
+        RunningLogCursor range = store.cursor(1000, 1050);
+        count = 0;
+        while (range.next()) {
+            assertTrue(range.getTime() >= 1000 && range.getTime() < 1050);
+            count++;
+        }
+        assertEquals(5, count);
+
+        // 遍历期间被淘汰的日志被跳过，打开后追加的日志不可见
+        RunningLogCursor evicting = store.cursor();
+        assertTrue(evicting.next());
+        store.setRetention(LogRetentionPolicy.ofCount(100));
+        store.append(99999L, RunningLog.Type.INFO, "事件", "新日志");
+        assertTrue(evicting.next());
+        assertEquals("备注2901", evicting.getNote());
+        count = 1;
+        while (evicting.next()) {
+            count++;
+        }
+        assertEquals(99, count);
+
+        light.setBrightness(33);
+        String json = new JsonRunningLogFormatter().format(household);
+        assertTrue(json.contains("\"note\": \"亮度设置为33%\""));
+    }
+
+    @Test
+    public void testHouseholdLogTimelineMergesByTime() {
+        Household home = new Household(5, "长安校区");
+        Room first = new Room(1, "客厅", 20.0);
+        Room second = new Room(2, "书房", 10.0);
+        home.addRoom(first);
+        home.addRoom(second);
+        LightBulb lamp = new LightBulb(21, "落地灯", lightManufacturer);
+        SmartLock door = new SmartLock(22, "门锁", acManufacturer);
+        AirConditioner cooler = new AirConditioner(23, "书房空调", acManufacturer);
+        first.addDevice(lamp);
+        first.addDevice(door);
+        second.addDevice(cooler);
+        for (int i = 0; i < 100; i++) {
+            lamp.restoreRunningLog(new RunningLog(new Date(i * 30L), "灯", RunningLog.Type.INFO, "lamp" + i));
+            door.restoreRunningLog(new RunningLog(new Date(i * 20L), "锁", RunningLog.Type.INFO, "door" + i));
+            cooler.restoreRunningLog(new RunningLog(new Date(i * 50L), "空调", RunningLog.Type.WARN, "cooler" + i));
+        }
+
+        assertEquals(10, lamp.countRunningLogs(300, 600));
+        List<RunningLog> range = door.getRunningLogs(100, 200);
+        assertEquals(5, range.size());
+        assertEquals("door5", range.get(0).getNote());
+        RunningLogCursor reverse = cooler.openReverseLogCursor(0, 1000);
+        assertTrue(reverse.next());
+        assertEquals(950L, reverse.getTime());
+
+        HouseholdLogTimeline timeline = home.openLogTimeline(600, 1200);
+        long previous = Long.MIN_VALUE;
+        int count = 0;
+        boolean tieOrdered = false;
+        while (timeline.next()) {
+            assertTrue(timeline.getTime() >= previous);
+            assertTrue(timeline.getTime() >= 600 && timeline.getTime() < 1200);
+            if (timeline.getTime() == 600 && count == 0) {
+                // 同一时刻的日志按设备在家庭中的顺序
+                tieOrdered = timeline.getDevice() == lamp;
+            }
+            previous = timeline.getTime();
+            count++;
+        }
+        assertTrue(tieOrdered);
+        assertEquals(lamp.countRunningLogs(600, 1200) + door.countRunningLogs(600, 1200)
+                + cooler.countRunningLogs(600, 1200), count);
+        assertFalse(home.openLogTimeline(5000, 6000).next());
+    }
+
+    @Test
+    public void testRunningLogSpillToMappedSegments() throws java.io.IOException {
+        java.nio.file.Path dir = java.nio.file.Files.createTempDirectory("log-spill");
+        RunningLogStore store = new RunningLogStore();
+        store.setSpill(dir, "t-", 64 * 1024);
+        for (int i = 0; i < 100_000; i++) {
+            store.append(i, RunningLog.Type.fromCode((byte) (i % 3)), "事件" + (i % 7), i % 5 == 0 ? null : "备注" + i);
+        }
+        assertEquals(100_000, store.size());
+        assertTrue(store.getSpilledCount() > 0);
+        assertTrue(store.getSegmentCount() > 0);
+        assertTrue(store.getHeapByteSize() <= 64 * 1024 + 4096 * 64);
+        // 读取透明地跨越日志段与堆
+        RunningLogCursor cursor = store.cursor();
+        int count = 0;
+        while (cursor.next()) {
+            assertEquals(count, cursor.getTime());
+            assertEquals(RunningLog.Type.fromCode((byte) (count % 3)), cursor.getType());
+            assertEquals("事件" + (count % 7), cursor.getEvent());
+            assertEquals(count % 5 == 0 ? null : "备注" + count, cursor.getNote());
+            count++;
+        }
+        assertEquals(100_000, count);
+        assertEquals("备注1", store.getNote(1));
+        assertEquals(50_000, store.count(50_000, 100_000));
+        List<RunningLog> logs = store.toList();
+        assertEquals("备注99999", logs.get(99_999).getNote());
+
+        // 日志段的日志全部淘汰后删除段文件
+        int segments = store.getSegmentCount();
+        store.setRetention(LogRetentionPolicy.ofCount(1000));
+        assertEquals(1000, store.size());
+        assertTrue(store.getSegmentCount() < segments);
+        assertEquals(99_000, store.getTime(0));
+
+        // 关闭溢出删除全部日志段文件与管理目录，已溢出的日志丢弃，堆中的日志保留
+        int heapCount = store.size() - store.getSpilledCount();
+        store.closeSpill();
+        assertEquals(0, store.getSegmentCount());
+        assertEquals(heapCount, store.size());
+        assertEquals(99_999, store.getTime(heapCount - 1));
+        try (java.util.stream.Stream<java.nio.file.Path> files = java.nio.file.Files.list(dir)) {
+            assertEquals(0, files.count());
+        }
+
+        household.setLogSpill(dir, 16 * 1024);
+        int before = light.getRunningLogs().size();
+        for (int i = 0; i < 3000; i++) {
+            light.setBrightness(i % 100);
+        }
+        assertTrue(light.getSpilledLogCount() > 0);
+        assertEquals(before + 3000, light.getRunningLogs().size());
+        assertEquals("亮度设置为0%", light.getRunningLogs().get(before).getNote());
+        assertTrue(new JsonRunningLogFormatter().format(household).contains("亮度设置为0%"));
+        household.setLogSpill(null, 0);
+        assertEquals(before + 3000, light.getRunningLogs().size());
+
+        household.closeLogSpill();
+        assertEquals(0, light.getSpilledLogCount());
+        try (java.util.stream.Stream<java.nio.file.Path> files = java.nio.file.Files.list(dir)) {
+            assertEquals(0, files.count());
+        }
+        java.nio.file.Files.delete(dir);
+    }
+
+    @Test
+    public void testTemplateNotesRenderLazily() throws java.io.IOException {
+        RunningLogStore store = new RunningLogStore();
+        for (int i = 0; i < 5000; i++) {
+            store.append(i, RunningLog.Type.INFO, "设置亮度", LogNoteTemplate.BRIGHTNESS, i % 101);
+        }
+        store.append(5000, RunningLog.Type.INFO, "体重测量", LogNoteTemplate.BODY_MASS, 65.3);
+        store.append(5001, RunningLog.Type.INFO, "体重测量", LogNoteTemplate.BODY_MASS, 65.37);
+        store.append(5002, RunningLog.Type.WARN, "电池电量低", LogNoteTemplate.BATTERY_LEVEL, 0);
+        // 模板备注不进入文本字典，无法精确编码的数值按普通文本保存
+        assertEquals(3 + 1, store.getDistinctTextCount());
+        assertEquals("亮度设置为100%", store.getNote(100));
+        assertEquals("体重测量值: " + 65.3 + "kg", store.getNote(5000));
+        assertEquals("体重测量值: " + 65.37 + "kg", store.getNote(5001));
+        assertEquals("电池电量剩余0%", store.get(5002).getNote());
+        assertEquals("色温设置为4000K", LogNoteTemplate.COLOR_TEMP.format(4000));
+
+        RunningLogCursor cursor = store.cursor();
+        assertTrue(cursor.next());
+        StringBuilder rendered = new StringBuilder();
+        assertTrue(cursor.appendTemplateNote(rendered));
+        assertEquals("亮度设置为0%", rendered.toString());
+        assertEquals("亮度设置为0%", cursor.toRunningLog().getNote());
+
+        // 溢出到日志段后仍按模板读取
+        store.setSpill(java.nio.file.Files.createTempDirectory("log-template"), "t-", 16 * 1024);
+        assertTrue(store.getSpilledCount() > 0);
+        assertEquals("亮度设置为5%", store.getNote(5));
+        List<RunningLog> logs = store.toList();
+        assertEquals("亮度设置为7%", logs.get(7).getNote());
+        assertEquals("体重测量值: 65.37kg", logs.get(5001).getNote());
+
+        light.setBrightness(60);
+        light.setColorTemp(3000);
+        List<RunningLog> lightLogs = light.getRunningLogs();
+        assertEquals("亮度设置为60%", lightLogs.get(lightLogs.size() - 2).getNote());
+        assertEquals("色温设置为3000K", lightLogs.get(lightLogs.size() - 1).getNote());
+        String json = new JsonRunningLogFormatter().format(household);
+        assertTrue(json.contains("\"note\": \"亮度设置为60%\""));
+        assertTrue(new XmlRunningLogFormatter().format(household).contains("note=\"色温设置为3000K\""));
+    }
+
+    @Test
+    public void testRunningLogArchiveRoundTrip() throws java.io.IOException {
+        for (boolean compress : new boolean[]{false, true}) {
+            java.io.ByteArrayOutputStream bytes = new java.io.ByteArrayOutputStream();
+            try (RunningLogArchive.Writer writer = new RunningLogArchive.Writer(bytes, compress)) {
+                for (int i = 0; i < 10000; i++) {
+                    // 时间可以回退，备注可以为 null
+                    writer.write(1_000_000L + i * 1000L - (i % 5 == 4 ? 3000 : 0), RunningLog.Type.fromCode(i % 3),
+                            "事件" + (i % 4), i % 7 == 0 ? null : "备注" + (i % 50));
+                }
+            }
+            RunningLogArchive.Reader reader = new RunningLogArchive.Reader(new java.io.ByteArrayInputStream(bytes.toByteArray()));
+            int i = 0;
+            while (reader.next()) {
+                assertEquals(1_000_000L + i * 1000L - (i % 5 == 4 ? 3000 : 0), reader.getTime());
+                assertEquals(RunningLog.Type.fromCode(i % 3), reader.getType());
+                assertEquals("事件" + (i % 4), reader.getEvent());
+                assertEquals(i % 7 == 0 ? null : "备注" + (i % 50), reader.getNote());
+                i++;
+            }
+            reader.close();
+            assertEquals(10000, i);
+            assertTrue(bytes.size() < 10000 * 8);
+        }
+
+        // 从设备中归档30天前的日志，模板备注保持编码
+        long now = System.currentTimeMillis();
+        LightBulb bulb = new LightBulb(9, "台灯", lightManufacturer);
+        RunningLogStore logs = bulb.getLogStore();
+        for (int i = 0; i < 100; i++) {
+            // 与30天的界限相差半天，不受测试运行耗时影响
+            logs.append(now - (100 - i) * 86_400_000L + 43_200_000L, RunningLog.Type.INFO, "设置亮度", LogNoteTemplate.BRIGHTNESS, i);
+        }
+        java.io.ByteArrayOutputStream archived = new java.io.ByteArrayOutputStream();
+        RunningLogArchive.Writer writer = new RunningLogArchive.Writer(archived, true);
+        int count = bulb.archiveLogsOlderThan(30, writer);
+        writer.finish();
+        assertEquals(70, count);
+        assertEquals(30, bulb.getRunningLogCount());
+        assertEquals("亮度设置为70%", bulb.getRunningLogs().get(0).getNote());
+        assertEquals(0, bulb.getEvictedLogCount());
+        RunningLogArchive.Reader reader = new RunningLogArchive.Reader(new java.io.ByteArrayInputStream(archived.toByteArray()));
+        RunningLog last = null;
+        int decoded = 0;
+        while (reader.next()) {
+            last = reader.toRunningLog();
+            decoded++;
+        }
+        assertEquals(count, decoded);
+        assertEquals("亮度设置为69%", last.getNote());
+
+        try {
+            new RunningLogArchive.Reader(new java.io.ByteArrayInputStream(new byte[]{1, 2, 3, 4, 5, 6}));
+            fail("应拒绝非归档文件");
+        } catch (java.io.IOException e) {
+            assertTrue(e.getMessage().contains("归档"));
+        }
+    }
+
+    @Test
+    public void testRunningLogPersisterWritesInBatches() throws java.io.IOException {
+        java.nio.file.Path file = java.nio.file.Files.createTempFile("running-log", ".dat");
+        RunningLogPersister persister = new RunningLogPersister(file, 64, RunningLogPersister.OverflowPolicy.BLOCK, 50);
+        household.setLogPersister(persister);
+        bedroom.addDevice(scale);
+        for (int i = 0; i < 1000; i++) {
+            light.setBrightness(i % 101);
+        }
+        scale.measureWeight(65.3);
+        persister.flush();
+        assertEquals(1001, persister.getWrittenCount());
+        assertEquals(0, persister.getDroppedCount());
+        assertEquals(0, persister.getQueueDepth());
+        assertTrue(persister.getBatchCount() > 0 && persister.getAverageBatchSize() >= 1);
+        assertTrue(persister.getForceCount() > 0);
+
+        // 末尾的残缺记录被忽略
+        java.nio.file.Files.write(file, new byte[]{0, 0, 0, 40, 1, 2}, java.nio.file.StandardOpenOption.APPEND);
+        List<RunningLog> replayed = new java.util.ArrayList<>();
+        List<Integer> deviceIds = new java.util.ArrayList<>();
+        assertEquals(1001, RunningLogPersister.replay(file, (deviceId, log) -> {
+            deviceIds.add(deviceId);
+            replayed.add(log);
+        }));
+        assertEquals("亮度设置为99%", replayed.get(99).getNote());
+        assertEquals(Integer.valueOf(light.getDeviceId()), deviceIds.get(0));
+        assertEquals("体重测量值: 65.3kg", replayed.get(1000).getNote());
+        persister.close();
+
+        RunningLogPersister dropping = new RunningLogPersister(java.nio.file.Files.createTempFile("running-log", ".dat"),
+                1, RunningLogPersister.OverflowPolicy.DROP, 50);
+        household.setLogPersister(dropping);
+        for (int i = 0; i < 10000; i++) {
+            light.setBrightness(i % 101);
+        }
+        dropping.close();
+        assertEquals(10000, dropping.getWrittenCount() + dropping.getDroppedCount());
+        assertEquals(dropping.getSubmittedCount(), dropping.getWrittenCount());
+        light.setBrightness(5);
+        assertEquals(10001, dropping.getWrittenCount() + dropping.getDroppedCount());
+        household.setLogPersister(null);
+        assertNull(light.getLogPersister());
+    }
+
+    @Test
+    public void testRunningLogPersisterCountsOversizedLogsAsDropped() throws java.io.IOException {
+        java.nio.file.Path file = java.nio.file.Files.createTempFile("running-log", ".dat");
+        try {
+            RunningLogPersister persister = new RunningLogPersister(file, 16, RunningLogPersister.OverflowPolicy.BLOCK, 50);
+            char[] text = new char[70 * 1024];
+            java.util.Arrays.fill(text, 'x');
+            assertTrue(persister.submit(1, 1000, RunningLog.Type.INFO, new String(text), null, LogNoteTemplate.NOT_ENCODED));
+            assertTrue(persister.submit(1, 1001, RunningLog.Type.INFO, "正常日志", "备注", LogNoteTemplate.NOT_ENCODED));
+            persister.flush();
+            assertEquals(1, persister.getWrittenCount());
+            assertEquals(1, persister.getDroppedCount());
+
+            // 关闭后刷盘直接返回，不会等待已退出的写入线程
+            persister.close();
+            persister.flush();
+            assertEquals(1, RunningLogPersister.replay(file, (deviceId, log) -> assertEquals("正常日志", log.getEvent())));
+        } finally {
+            java.nio.file.Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void testLogRollupsCountPerHourAndDay() {
+        java.util.TimeZone utc = java.util.TimeZone.getTimeZone("UTC");
+        LogRollup rollup = new LogRollup(utc);
+        long day = 20_000 * LogRollup.DAY_MILLIS;
+        for (int i = 0; i < 48; i++) {
+            rollup.record(day + i * LogRollup.HOUR_MILLIS / 2, RunningLog.Type.WARN.getCode());
+        }
+        rollup.record(day + 23 * LogRollup.HOUR_MILLIS, RunningLog.Type.ERROR.getCode());
+        assertEquals(2, rollup.countInHour(RunningLog.Type.WARN, day + 5 * LogRollup.HOUR_MILLIS + 1));
+        assertEquals(1, rollup.countInHour(RunningLog.Type.ERROR, day + 23 * LogRollup.HOUR_MILLIS));
+        assertEquals(0, rollup.countInHour(RunningLog.Type.INFO, day));
+        assertEquals(48, rollup.countInDay(RunningLog.Type.WARN, day + 1));
+        assertEquals(0, rollup.countInDay(RunningLog.Type.WARN, day + LogRollup.DAY_MILLIS));
+        assertEquals(49, rollup.getTotal(RunningLog.Type.WARN) + rollup.getTotal(RunningLog.Type.ERROR));
+        // 小时计数只保留最近 HOURS_KEPT 小时
+        for (int i = 0; i < LogRollup.HOURS_KEPT + 10; i++) {
+            rollup.record(day + LogRollup.DAY_MILLIS + i * LogRollup.HOUR_MILLIS, RunningLog.Type.INFO.getCode());
+        }
+        assertTrue(rollup.getHourBucketCount() <= LogRollup.HOURS_KEPT);
+        assertEquals(0, rollup.countInHour(RunningLog.Type.WARN, day));
+        assertEquals(48, rollup.countInDay(RunningLog.Type.WARN, day));
+
+        // 淘汰的日志仍然计入，房间与家庭汇总各设备的计数
+        long now = System.currentTimeMillis();
+        int lightWarn = light.getLogRollup().countInDay(RunningLog.Type.WARN, now);
+        light.setLogRetention(LogRetentionPolicy.ofCount(1));
+        for (int i = 0; i < 5; i++) {
+            light.setOnline(false);
+            lock.setOnline(false);
+        }
+        assertEquals(1, light.getRunningLogCount());
+        assertEquals(lightWarn + 5, light.getLogRollup().countInDay(RunningLog.Type.WARN, now));
+        assertEquals(light.getLogRollup().countInHour(RunningLog.Type.WARN, now)
+                + ac.getLogRollup().countInHour(RunningLog.Type.WARN, now), livingRoom.countLogsInHour(RunningLog.Type.WARN, now));
+        assertEquals(livingRoom.countLogsInDay(RunningLog.Type.WARN, now) + bedroom.countLogsInDay(RunningLog.Type.WARN, now),
+                household.countLogsInDay(RunningLog.Type.WARN, now));
+        assertTrue(household.countLogsInHour(RunningLog.Type.WARN, now) >= 10);
+    }
+
+    @Test
+    public void testFormattersStreamToWriter() throws java.io.IOException {
+        light.setBrightness(35);
+        lock.setOnline(false);
+        RunningLogFormatter[] formatters = system.getAvailableLogFormatters();
+        for (RunningLogFormatter formatter : formatters) {
+            java.nio.file.Path file = java.nio.file.Files.createTempFile("runningLog", ".txt");
+            try {
+                try (java.io.Writer out = java.nio.file.Files.newBufferedWriter(file, java.nio.charset.StandardCharsets.UTF_8)) {
+                    system.exportLogsWithFormatter(formatter, out);
+                }
+                String streamed = new String(java.nio.file.Files.readAllBytes(file), java.nio.charset.StandardCharsets.UTF_8);
+                assertEquals(formatter.getFormatterName(), formatter.format(household), streamed);
+                assertTrue(streamed.contains("亮度设置为35%"));
+            } finally {
+                java.nio.file.Files.delete(file);
+            }
+        }
+    }
+
+    @Test
+    public void testTimestampRendererMatchesSimpleDateFormat() {
+        java.text.SimpleDateFormat sdf = new java.text.SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        LogTimestampRenderer renderer = LogTimestampRenderer.getDefault();
+        long time = System.currentTimeMillis() - 400L * 86_400_000L;
+        for (int i = 0; i < 5000; i++) {
+            time += 137 + (i * 7919L) % 9_000_000L;
+            assertEquals(sdf.format(new Date(time)), renderer.render(time));
+        }
+        assertSame(renderer.render(time), renderer.render(time - time % 1000));
+
+        java.util.TimeZone shanghai = java.util.TimeZone.getTimeZone("Asia/Shanghai");
+        sdf.setTimeZone(shanghai);
+        LogTimestampRenderer zoned = new LogTimestampRenderer(shanghai.toZoneId());
+        assertEquals(sdf.format(new Date(0)), zoned.render(0));
+        assertEquals("1970-01-01 07:59:59", zoned.render(-1));
+    }
+
+    @Test
+    public void testParallelExportMatchesSequential() throws java.io.IOException {
+        Manufacturer manufacturer = new Manufacturer(9, "测试厂商", "WiFi");
+        long time = System.currentTimeMillis() - 86_400_000L;
+        for (int d = 0; d < 12; d++) {
+            LightBulb bulb = new LightBulb(100 + d, "灯" + d, manufacturer);
+            (d % 2 == 0 ? livingRoom : bedroom).addDevice(bulb);
+            for (int i = 0; i < 300 * d; i++) {
+                bulb.getLogStore().append(time + i * 1_000L, RunningLog.Type.INFO, "设置亮度", LogNoteTemplate.BRIGHTNESS, i % 101);
+            }
+        }
+        for (RunningLogFormatter formatter : system.getAvailableLogFormatters()) {
+            household.setLogExportParallelism(1, 0);
+            String sequential = formatter.format(household);
+            // 窗口为并行度的2倍，14台设备时会等待队首片段
+            household.setLogExportParallelism(2, 0);
+            java.io.StringWriter parallel = new java.io.StringWriter();
+            formatter.format(household, parallel);
+            assertEquals(formatter.getFormatterName(), sequential, parallel.toString());
+            assertTrue(sequential.contains("亮度设置为100%"));
+        }
+
+        // 各次导出共用家庭的线程池，并行度改变时才替换
+        int parallelism = java.util.concurrent.ForkJoinPool.getCommonPoolParallelism() + 1;
+        household.setLogExportParallelism(parallelism, 0);
+        java.util.concurrent.ForkJoinPool pool = household.getLogExportPool();
+        system.getAvailableLogFormatters()[0].format(household);
+        assertSame(pool, household.getLogExportPool());
+        assertFalse(pool.isShutdown());
+        household.setLogExportParallelism(parallelism + 1, 0);
+        assertTrue(pool.isShutdown());
+        assertNotSame(pool, household.getLogExportPool());
+    }
+
+    @Test
+    public void testIncrementalExportResumesFromWatermarks() throws java.io.IOException {
+        java.nio.file.Path dir = java.nio.file.Files.createTempDirectory("incremental");
+        java.nio.file.Path marks = dir.resolve("watermarks.txt");
+        java.nio.file.Path file = dir.resolve("runningLog.txt");
+        try {
+            int before = light.getRunningLogCount() + ac.getRunningLogCount() + lock.getRunningLogCount();
+            IncrementalLogExporter exporter = new IncrementalLogExporter(marks, IncrementalLogExporter.TEXT);
+            assertEquals(before, system.exportNewLogs(exporter, file));
+            assertEquals(0, system.exportNewLogs(exporter, file));
+
+            // 与水位同一毫秒的新日志也要导出
+            long last = exporter.getWatermarkTime(light.getDeviceId());
+            light.getLogStore().append(last, RunningLog.Type.WARN, "同一时刻", "备注\t含制表符");
+            light.setBrightness(35);
+            assertEquals(2, system.exportNewLogs(exporter, file));
+
+            // 重启后从保存的水位继续，不重复导出
+            IncrementalLogExporter restarted = new IncrementalLogExporter(marks, IncrementalLogExporter.TEXT);
+            assertEquals(exporter.getWatermarkTime(light.getDeviceId()), restarted.getWatermarkTime(light.getDeviceId()));
+            assertEquals(0, system.exportNewLogs(restarted, file));
+            lock.setOnline(false);
+            assertEquals(1, system.exportNewLogs(restarted, file));
+
+            List<String> lines = java.nio.file.Files.readAllLines(file, java.nio.charset.StandardCharsets.UTF_8);
+            assertEquals(before + 3, lines.size());
+            assertTrue(lines.get(before).endsWith("\tWARN\t同一时刻\t备注 含制表符"));
+            assertTrue(lines.get(before + 1).endsWith("亮度设置为35%"));
+            assertTrue(lines.get(before + 2).contains("\t" + lock.getDeviceId() + "\t"));
+        } finally {
+            for (java.nio.file.Path path : new java.nio.file.Path[] {marks, file, dir}) {
+                java.nio.file.Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    @Test
+    public void testIncrementalExportAfterSameMillisecondLogsEvicted() throws java.io.IOException {
+        IncrementalLogExporter exporter = new IncrementalLogExporter(
+                java.nio.file.Paths.get("missing", "watermarks.txt"), IncrementalLogExporter.TEXT);
+        exporter.export(household, new StringBuilder());
+        long time = exporter.getWatermarkTime(light.getDeviceId()) + 1000;
+        RunningLogStore store = light.getLogStore();
+        for (int i = 0; i < 3; i++) {
+            store.append(time, RunningLog.Type.INFO, "已导出" + i, null);
+        }
+        assertEquals(3, exporter.export(household, new StringBuilder()));
+
+        // 水位时间已导出的日志被淘汰后，同一毫秒的新日志不能按条数跳过
+        store.setRetention(LogRetentionPolicy.ofCount(2));
+        store.append(time, RunningLog.Type.INFO, "新日志0", null);
+        store.append(time, RunningLog.Type.INFO, "新日志1", null);
+        StringBuilder out = new StringBuilder();
+        assertEquals(2, exporter.export(household, out));
+        assertTrue(out.toString().contains("新日志0"));
+        assertTrue(out.toString().contains("新日志1"));
+        assertEquals(0, exporter.export(household, new StringBuilder()));
+    }
+
+    @Test
+    public void testIncrementalExportKeepsWatermarksWhenOutputFails() throws java.io.IOException {
+        java.nio.file.Path dir = java.nio.file.Files.createTempDirectory("incremental");
+        java.nio.file.Path marks = dir.resolve("watermarks.txt");
+        try {
+            for (int i = 0; i < 5; i++) {
+                ac.setTargetTemp(20 + i);
+            }
+            int total = light.getRunningLogCount() + ac.getRunningLogCount() + lock.getRunningLogCount();
+            Device first = household.getRooms().get(0).getDevices().get(0);
+            int failAfter = first.getRunningLogCount() + 1;
+            IncrementalLogExporter exporter = new IncrementalLogExporter(marks, IncrementalLogExporter.TEXT);
+
+            // 输出目标在写完第一台设备之后失败：已写完的设备也不推进水位
+            StringBuilder partial = new StringBuilder();
+            Appendable failing = new Appendable() {
+                private int appended;
+
+                @Override
+                public Appendable append(CharSequence csq) throws java.io.IOException {
+                    if (++appended > failAfter) {
+                        throw new java.io.IOException("磁盘已满");
+                    }
+                    partial.append(csq);
+                    return this;
+                }
+
+                @Override
+                public Appendable append(CharSequence csq, int start, int end) throws java.io.IOException {
+                    return append(csq.subSequence(start, end));
+                }
+
+                @Override
+                public Appendable append(char c) throws java.io.IOException {
+                    return append(String.valueOf(c));
+                }
+            };
+            try {
+                exporter.export(household, failing);
+                fail("输出失败时应抛出异常");
+            } catch (java.io.IOException expected) {
+                // 预期的写入失败
+            }
+            assertEquals(failAfter, partial.toString().split("\n").length);
+            assertEquals(Long.MIN_VALUE, exporter.getWatermarkTime(first.getDeviceId()));
+            assertEquals(Long.MIN_VALUE, exporter.getWatermarkTime(light.getDeviceId()));
+
+            // 重新导出时一条不少
+            StringBuilder retry = new StringBuilder();
+            assertEquals(total, exporter.export(household, retry));
+            assertEquals(total, retry.toString().split("\n").length);
+            assertEquals(0, exporter.export(household, new StringBuilder()));
+
+            // 水位文件保存失败时内存中的水位也不推进
+            IncrementalLogExporter unsaved = new IncrementalLogExporter(
+                    dir.resolve("missing").resolve("watermarks.txt"), IncrementalLogExporter.TEXT);
+            try {
+                unsaved.exportTo(household, dir.resolve("runningLog.txt"));
+                fail("水位文件无法保存时应抛出异常");
+            } catch (java.io.IOException expected) {
+                // 预期的保存失败
+            }
+            assertEquals(Long.MIN_VALUE, unsaved.getWatermarkTime(light.getDeviceId()));
+        } finally {
+            for (java.nio.file.Path path : new java.nio.file.Path[] {marks, dir.resolve("runningLog.txt"), dir}) {
+                java.nio.file.Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    @Test
+    public void testJsonLinesFormatterWritesOneObjectPerLog() {
+        light.setBrightness(35);
+        light.getLogStore().append(System.currentTimeMillis(), RunningLog.Type.ERROR, "引号\"与\\", "换行\n控制\u0001");
+        String output = new JsonLinesRunningLogFormatter().format(household);
+        String[] lines = output.split("\n");
+        int count = light.getRunningLogCount() + ac.getRunningLogCount() + lock.getRunningLogCount();
+        assertEquals(count, lines.length);
+        assertTrue(output.endsWith("\n"));
+
+        com.alibaba.fastjson2.JSONObject brightness = null;
+        com.alibaba.fastjson2.JSONObject escaped = null;
+        for (String line : lines) {
+            com.alibaba.fastjson2.JSONObject json = com.alibaba.fastjson2.JSONObject.parseObject(line);
+            assertEquals(7, json.size());
+            assertEquals(household.getHouseholdId(), json.getIntValue("householdId"));
+            if ("亮度设置为35%".equals(json.getString("note"))) {
+                brightness = json;
+            }
+            if ("ERROR".equals(json.getString("type"))) {
+                escaped = json;
+            }
+        }
+        assertNotNull(brightness);
+        assertEquals(livingRoom.getRoomId(), brightness.getIntValue("roomId"));
+        assertEquals(light.getDeviceId(), brightness.getIntValue("deviceId"));
+        assertEquals(19, brightness.getString("timestamp").length());
+        assertNotNull(escaped);
+        assertEquals("引号\"与\\", escaped.getString("event"));
+        assertEquals("换行\n控制\u0001", escaped.getString("note"));
+    }
+
+    @Test
+    public void testChangeJournalRecoversDeviceRename() throws Exception {
+        java.nio.file.Path dir = java.nio.file.Files.createTempDirectory("journal");
+        try {
+            ChangeJournal journal = ChangeJournal.open(dir);
+            HomeSphereSystem journaled = journal.getSystem();
+            journaled.register("admin", "admin", "管理员", "admin@nwpu.edu.cn");
+            Room room = new Room(1, "客厅", 25.5);
+            journaled.getHousehold().addRoom(room);
+            LightBulb bulb = new LightBulb(8561, "灯", lightManufacturer, 5.0);
+            room.addDevice(bulb);
+            bulb.setName("客厅吸顶灯");
+            journal.close();
+
+            ChangeJournal reopened = ChangeJournal.open(dir);
+            assertEquals("客厅吸顶灯", reopened.getSystem().getHousehold().getRooms().get(0).getDevices().get(0).getName());
+            reopened.close();
+        } finally {
+            try (java.util.stream.Stream<java.nio.file.Path> files = java.nio.file.Files.list(dir)) {
+                for (java.nio.file.Path file : (Iterable<java.nio.file.Path>) files::iterator) {
+                    java.nio.file.Files.delete(file);
+                }
+            }
+            java.nio.file.Files.delete(dir);
+        }
+    }
+
+    @Test
+    public void testChangeJournalReplaysLogsAppendedDuringCompaction() throws Exception {
+        java.nio.file.Path dir = java.nio.file.Files.createTempDirectory("journal");
+        try {
+            ChangeJournal journal = ChangeJournal.open(dir);
+            HomeSphereSystem journaled = journal.getSystem();
+            journaled.register("admin", "admin", "管理员", "admin@nwpu.edu.cn");
+            Room room = new Room(1, "客厅", 25.5);
+            journaled.getHousehold().addRoom(room);
+            LightBulb bulb = new LightBulb(8561, "客厅灯", lightManufacturer, 5.0);
+            room.addDevice(bulb);
+
+            // 压缩截取日志的同时有其他线程追加日志，恢复后每条日志应只出现一次
+            Thread[] writers = new Thread[2];
+            for (int t = 0; t < writers.length; t++) {
+                writers[t] = new Thread(() -> {
+                    for (int i = 0; i < 300; i++) {
+                        bulb.setBrightness(i % 101);
+                    }
+                });
+                writers[t].start();
+            }
+            while (writers[0].isAlive() || writers[1].isAlive()) {
+                journal.compact();
+                Thread.sleep(1);
+            }
+            for (Thread writer : writers) {
+                writer.join();
+            }
+            journal.close();
+
+            ChangeJournal reopened = ChangeJournal.open(dir);
+            assertTrue(reopened.getGeneration() > 0);
+            LightBulb recovered = (LightBulb) reopened.getSystem().getHousehold().getRooms().get(0).getDevices().get(0);
+            List<RunningLog> expected = bulb.getRunningLogs();
+            List<RunningLog> actual = recovered.getRunningLogs();
+            assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.get(i).toString(), actual.get(i).toString());
+            }
+            reopened.close();
+        } finally {
+            try (java.util.stream.Stream<java.nio.file.Path> files = java.nio.file.Files.list(dir)) {
+                for (java.nio.file.Path file : (Iterable<java.nio.file.Path>) files::iterator) {
+                    java.nio.file.Files.delete(file);
+                }
+            }
+            java.nio.file.Files.delete(dir);
+        }
+    }
+
+    private void assertSameLoadedState(HomeSphereSystem expected, HomeSphereSystem actual) {
+        assertEquals(expected.getHousehold().toString(), actual.getHousehold().toString());
+        assertEquals(expected.getUsers().size(), actual.getUsers().size());
+        assertEquals(expected.getHousehold().getAutoScenes().size(), actual.getHousehold().getAutoScenes().size());
+        List<Room> expectedRooms = expected.getHousehold().getRooms();
+        List<Room> actualRooms = actual.getHousehold().getRooms();
+        assertEquals(expectedRooms.size(), actualRooms.size());
+        for (int i = 0; i < expectedRooms.size(); i++) {
+            assertEquals(expectedRooms.get(i).toString(), actualRooms.get(i).toString());
+            List<Device> expectedDevices = expectedRooms.get(i).getDevices();
+            List<Device> actualDevices = actualRooms.get(i).getDevices();
+            assertEquals(expectedDevices.size(), actualDevices.size());
+            for (int j = 0; j < expectedDevices.size(); j++) {
+                assertEquals(expectedDevices.get(j).toString(), actualDevices.get(j).toString());
+            }
+        }
+    }
+
+    private java.nio.file.Path writeHouseholdFile() throws java.io.IOException {
+        java.nio.file.Path file = java.nio.file.Files.createTempFile("household", ".dat");
+        java.nio.file.Files.write(file, java.util.Arrays.asList(
+                "Household{householdId=7, address='友谊西路127号', adminId=1}",
+                "Room{roomId=1, name='客厅', area=25.5}",
+                "Room{roomId=2, name='主卧', area=18.0}",
+                "User{userId=1, username='admin', email='admin@nwpu.edu.cn', isAdmin=true}",
+                "AirConditioner{deviceId=1205, name='客厅空调', manufacturerId=1, currTemp=26.0, targetTemp=24.5, roomId=1}",
+                "LightBulb{deviceId=8561, name='主卧灯', manufacturerId=1, brightness=60, colorTemp=5300, roomId=2}",
+                "SmartLock{deviceId=2278, name='智能门锁', manufacturerId=2, isLocked=true, batteryLevel=90, roomId=1}",
+                "AutomationScene{sceneId=1, name='早安模式', description='开启卧室灯光', actions=[DeviceAction{command='powerOn', parameters='', deviceId=8561}, DeviceAction{command='setTemperature', parameters='26.0', deviceId=1205}]}"),
+                java.nio.charset.StandardCharsets.UTF_8);
+        return file;
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,112 @@
+package cn.edu.nwpu.homesphere;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * RunningLogStore 多线程压力测试：多个线程同时追加数百万条日志，检查没有丢失、重复或乱序，
+ * 并在追加与淘汰进行时用游标并发读取，检查读到的每条日志都是一致的
+ */
+public class RunningLogStoreStressTest {
+    private static final int PRODUCERS = 4;
+    private static final int PER_PRODUCER = 500_000;
+    private static final String[] EVENTS = {"线程0", "线程1", "线程2", "线程3"};
+    private static final String[] NOTES = new String[1000];
+
+    static {
+        for (int i = 0; i < NOTES.length; i++) {
+            NOTES[i] = "序号" + i;
+        }
+    }
+
+    @Test
+    public void testConcurrentAppendsAreNotLost() throws Exception {
+        RunningLogStore store = new RunningLogStore();
+        runProducers(store, null);
+
+        assertEquals(PRODUCERS * PER_PRODUCER, store.size());
+        // 每个线程的日志都完整且保持该线程的追加顺序
+        int[] seen = new int[PRODUCERS];
+        long previousTime = Long.MIN_VALUE;
+        RunningLogCursor cursor = store.cursor();
+        while (cursor.next()) {
+            int producer = cursor.getEvent().charAt(2) - '0';
+            assertEquals(NOTES[seen[producer] % NOTES.length], cursor.getNote());
+            seen[producer]++;
+            assertTrue(cursor.getTime() >= previousTime);
+            previousTime = cursor.getTime();
+        }
+        for (int count : seen) {
+            assertEquals(PER_PRODUCER, count);
+        }
+    }
+
+    @Test
+    public void testConcurrentReadsDuringEviction() throws Exception {
+        RunningLogStore store = new RunningLogStore();
+        store.setRetention(LogRetentionPolicy.ofCount(10_000));
+        AtomicReference<Throwable> readerError = new AtomicReference<>();
+        Thread reader = new Thread(() -> {
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    RunningLogCursor cursor = store.cursor();
+                    long previousTime = Long.MIN_VALUE;
+                    int count = 0;
+                    while (cursor.next()) {
+                        // 事件与备注来自同一次追加
+                        String event = cursor.getEvent();
+                        String note = cursor.getNote();
+                        if (event == null || !event.startsWith("线程") || note == null || !note.startsWith("序号")
+                                || cursor.getTime() < previousTime) {
+                            throw new AssertionError("读到不一致的日志: " + event + ", " + note);
+                        }
+                        previousTime = cursor.getTime();
+                        count++;
+                    }
+                    if (count > 10_000) {
+                        throw new AssertionError("读到超过保留上限的日志: " + count);
+                    }
+                }
+            } catch (Throwable e) {
+                readerError.set(e);
+            }
+        }, "log-reader");
+        reader.start();
+        runProducers(store, readerError);
+        reader.interrupt();
+        reader.join();
+
+        assertNull(readerError.get());
+        assertEquals(10_000, store.size());
+        assertEquals((long) PRODUCERS * PER_PRODUCER - 10_000, store.getEvictedCount());
+    }
+
+    private void runProducers(RunningLogStore store, AtomicReference<Throwable> stop) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> producers = new ArrayList<>();
+        for (int p = 0; p < PRODUCERS; p++) {
+            String event = EVENTS[p];
+            Thread producer = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < PER_PRODUCER && (stop == null || stop.get() == null); i++) {
+                    store.append(i, RunningLog.Type.INFO, event, NOTES[i % NOTES.length]);
+                }
+            }, "log-producer-" + p);
+            producer.start();
+            producers.add(producer);
+        }
+        start.countDown();
+        for (Thread producer : producers) {
+            producer.join();
+        }
+    }
+}